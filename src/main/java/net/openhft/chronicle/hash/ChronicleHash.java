@@ -16,6 +16,7 @@
 
 package net.openhft.chronicle.hash;
 
+import net.openhft.chronicle.hash.replication.ReplicationStats;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.MapMethods;
 import net.openhft.chronicle.map.MapQueryContext;
@@ -24,6 +25,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -126,6 +132,81 @@ public interface ChronicleHash<K, E extends HashEntry<K>, SC extends HashSegment
      */
     void forEachEntry(Consumer<? super E> action);
 
+    /**
+     * Checks the given predicate on each entry in this {@code ChronicleHash}, like {@link
+     * #forEachEntryWhile(Predicate)}, but traverses different segments in parallel, in the given
+     * {@code pool}. Each worker locks only the segment it currently traverses, hence the predicate
+     * should be thread-safe. When the predicate returns {@code false} for some entry, workers stop
+     * traversing as soon as they notice this, but the predicate still might be checked on a few
+     * more entries.
+     *
+     * @param predicate the predicate to be checked for each entry
+     * @param pool the pool to traverse segments in
+     * @return {@code true} if the predicate returned {@code true} for all entries of
+     * the {@code ChronicleHash}, {@code false} if it returned {@code false} for some entry
+     */
+    boolean forEachEntryWhileParallel(Predicate<? super E> predicate, ForkJoinPool pool);
+
+    /**
+     * Performs the given action for each entry in this {@code ChronicleHash}, like {@link
+     * #forEachEntry(Consumer)}, but traverses different segments in parallel, in the given {@code
+     * pool}. Each worker locks only the segment it currently traverses, hence the action should be
+     * thread-safe.
+     *
+     * @param action the action to be performed for each entry
+     * @param pool the pool to traverse segments in
+     */
+    void forEachEntryParallel(Consumer<? super E> action, ForkJoinPool pool);
+
+    /**
+     * Takes a snapshot of per-segment stats of this {@code ChronicleHash}: sizes, tiers counts and
+     * entry space fragmentation of segments, and, if {@link ChronicleHashBuilder#recordStats(
+     * boolean)} is configured, segment lock acquisition counts and wait times, hash lookup probe
+     * lengths and entry space allocation failures. Each segment is read-locked while it's stats are
+     * taken, measuring fragmentation requires to read all entries of the segment.
+     *
+     * @return a snapshot of stats of this {@code ChronicleHash}
+     */
+    ChronicleHashStats stats();
+
+    /**
+     * Takes snapshots of stats of TCP replication of this {@code ChronicleHash} with each remote
+     * node, which has ever connected: outstanding changed entries, bytes and entries sent and
+     * received, time since anything was received, latency of applying remote updates and time
+     * stalled by throttling. The same stats are registered in the platform MBean server as
+     * {@link net.openhft.chronicle.hash.replication.ReplicationStatsMXBean}s.
+     *
+     * @return stats of replication with each remote node, empty list if this {@code
+     * ChronicleHash} is not replicated over TCP
+     */
+    default List<ReplicationStats> replicationStats() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Writes the changes of this {@code ChronicleHash}, which is persisted to a file, from memory
+     * to the disk, and returns when they are written. Only the segments, modified since they were
+     * written last time, are written. Does nothing, if this {@code ChronicleHash} is purely
+     * in-memory.
+     *
+     * <p>This method reads the chain of tiers of each modified segment under the segment read
+     * lock, so it shouldn't be called while the current thread holds segment locks of this {@code
+     * ChronicleHash}.
+     *
+     * @throws IOException if writing to the disk fails
+     * @see ChronicleHashBuilder#durabilityPolicy(DurabilityPolicy)
+     */
+    void sync() throws IOException;
+
+    /**
+     * Performs {@link #sync()} in a background thread of this {@code ChronicleHash}.
+     *
+     * @return the future, which is completed when the changes, made before this call, are written
+     * to the disk, or completed exceptionally with the {@code IOException}, thrown by {@code
+     * sync()}
+     */
+    CompletableFuture<Void> syncAsync();
+
     /**
      * Releases the off-heap memory, used by this hash container and resources, used by replication,
      * if any. However, if hash container (hence off-heap memory, used by it) is mapped to the file
@@ -137,9 +218,9 @@ public interface ChronicleHash<K, E extends HashEntry<K>, SC extends HashSegment
      * collection. This could be a problem if, for example, you target rare garbage collections,
      * but load and drop {@code ChronicleHash}es regularly.
      *
-     * <p>
-     * TODO what about commit guarantees, when ChronicleMap is used with memory-mapped files, if
-     * {@code ChronicleMap}/{@code ChronicleSet} closed/not?
+     * <p>If this hash container is persisted to a file, and it's {@linkplain
+     * ChronicleHashBuilder#durabilityPolicy(DurabilityPolicy) durability policy} is not {@link
+     * DurabilityPolicy#NONE}, changes are written to the disk before the memory is released.
      *
      * <p>After this method call behaviour of <i>all</i> methods of {@code ChronicleMap}
      * or {@code ChronicleSet} is undefined. <i>Any</i> method call on the map might throw
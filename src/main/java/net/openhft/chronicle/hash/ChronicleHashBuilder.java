@@ -16,6 +16,8 @@
 
 package net.openhft.chronicle.hash;
 
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategies;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
 import net.openhft.chronicle.hash.replication.ReplicableEntry;
 import net.openhft.chronicle.hash.replication.SingleChronicleHashReplication;
 import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
@@ -42,6 +44,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * This interface defines the meaning of configurations, common to {@link
@@ -437,6 +440,117 @@ public interface ChronicleHashBuilder<K, H extends ChronicleHash<K, ?, ?, ?>,
      */
     B cleanupRemovedEntries(boolean cleanupRemovedEntries);
 
+    /**
+     * Configures Chronicle Hashes, constructed by this builder, to run a background thread, which
+     * moves entries from extra tiers, chained to the segments on overflow, back to the first tiers
+     * of the segments, when removes free enough space there, and returns emptied extra tiers for
+     * reuse. This brings lookups in segments, which were overflowed during a burst of insertions,
+     * back to a single hash lookup probe.
+     *
+     * <p>By default segment tiers compaction is not performed.
+     *
+     * @param compactionInterval the pause between passes over all segments
+     * @param unit time unit, in which the interval is given
+     * @return this builder back
+     * @throws IllegalArgumentException if the specified interval is less than 1 millisecond
+     * @see #maxBloatFactor(double)
+     */
+    B compactSegmentTiers(long compactionInterval, TimeUnit unit);
+
+    /**
+     * Configures Chronicle Hashes, constructed by this builder, to run a background thread, which
+     * periodically defragments entry space of segments: moves entries to the lowest free positions
+     * in their tiers, so that free space, left by removed entries and entries which are relocated
+     * because their values grew, gathers at the ends of tiers. Without defragmentation, when entry
+     * sizes vary, free space of a segment might become split into holes too small for new entries,
+     * leading to extra tier allocations, although there is plenty of free space in total.
+     *
+     * <p>Segments are defragmented incrementally, each segment is write-locked for about 100
+     * microseconds at once. Fragmentation of segments is reported by {@link
+     * ChronicleHash#stats()}.
+     *
+     * <p>By default segments are not defragmented.
+     *
+     * @param defragmentationInterval the pause between passes over all segments
+     * @param unit time unit, in which the interval is given
+     * @return this builder back
+     * @throws IllegalArgumentException if the specified interval is less than 1 millisecond
+     * @see SegmentStats#fragmentation()
+     */
+    B defragmentSegments(long defragmentationInterval, TimeUnit unit);
+
+    /**
+     * Configures how threads wait for segment locks of Chronicle Hashes, constructed by this
+     * builder, between unsuccessful lock acquisition attempts. The default {@link
+     * LockAcquisitionStrategies#spin()} strategy gives the lowest latency, if the number of threads
+     * accessing the Chronicle Hash is lower than the number of CPU cores, but under
+     * oversubscription burns CPU, needed by the thread holding the lock. {@link
+     * LockAcquisitionStrategies#spinYieldPark()} is better in this case.
+     *
+     * <p>In purely in-memory Chronicle Hashes, threads waiting for segment locks are also unparked
+     * when the locks are released, so the parking strategy doesn't cost extra latency there.
+     *
+     * @param lockAcquisitionStrategy the strategy of waiting for segment locks
+     * @return this builder back
+     * @see LockAcquisitionStrategies
+     */
+    B lockAcquisitionStrategy(LockAcquisitionStrategy lockAcquisitionStrategy);
+
+    /**
+     * Configures when changes of Chronicle Hashes, constructed by this builder and persisted to
+     * files, are written from memory to the disk: only on explicit {@link ChronicleHash#sync()}
+     * calls and when the operating system decides ({@link DurabilityPolicy#NONE}), also when the
+     * hash is closed ({@link DurabilityPolicy#EXPLICIT}), periodically by a background thread, or
+     * after each release of a segment write lock. Only segments, modified since they were written
+     * last time, are written, which is tracked by segment modification versions, already
+     * maintained by the segment locks, so the updating threads don't pay for the tracking.
+     *
+     * <p>By default the {@link DurabilityPolicy#NONE} policy is used. The policy has no effect on
+     * purely in-memory Chronicle Hashes.
+     *
+     * @param durabilityPolicy the policy of writing changes to the disk
+     * @return this builder back
+     * @see DurabilityPolicy
+     */
+    B durabilityPolicy(DurabilityPolicy durabilityPolicy);
+
+    /**
+     * Configures if Chronicle Hashes, constructed by this builder, should record per-segment
+     * operation stats: segment lock acquisition counts and wait times, hash lookup probe lengths
+     * and entry space allocation failures. Stats are available via {@link ChronicleHash#stats()}
+     * and the {@link ChronicleHashStatsMXBean}, registered in the platform MBean server.
+     *
+     * <p>Counters are kept in the process (they are not persisted), one cache line per segment.
+     * Uncontended lock acquisitions are only counted, lock wait time is measured only when the lock
+     * couldn't be acquired immediately, so recording stats is cheap enough to be left on in
+     * production.
+     *
+     * <p>By default stats are not recorded.
+     *
+     * @param recordStats if stats should be recorded
+     * @return this builder back
+     */
+    B recordStats(boolean recordStats);
+
+    /**
+     * Configures if Chronicle Hashes, constructed by this builder, should keep hints of free runs
+     * of entry space chunks, grouped by size classes (1 chunk, 2-3 chunks, 4-7 chunks, etc.), in
+     * the counters area of each segment tier. Entry space is allocated at a hinted free run of
+     * the suitable size class, if there is one, and the free list bit set is scanned only when
+     * there is no such hint. This makes allocation of multi-chunk entries in fragmented segments
+     * much cheaper, and reuses space freed by removed and relocated entries more eagerly, which
+     * reduces fragmentation when entry sizes vary.
+     *
+     * <p>Hints are checked against the free list before use, so Chronicle Hashes, persisted to
+     * the same file, could be accessed from processes with and without this option.
+     *
+     * <p>By default hints are not kept.
+     *
+     * @param freeRunHints if free runs of chunks should be hinted
+     * @return this builder back
+     */
+    B freeRunHints(boolean freeRunHints);
+
     /**
      * Configures a {@link BytesMarshallerFactory} to be used with {@link
      * BytesMarshallableSerializer}, which is a default {@link #objectSerializer ObjectSerializer},
@@ -663,6 +777,40 @@ public interface ChronicleHashBuilder<K, H extends ChronicleHash<K, ?, ?, ?>,
      */
     H createPersistedTo(File file) throws IOException;
 
+    /**
+     * Opens the hash container, persisted to the specified file, like {@link
+     * #createPersistedTo(File)}, after restoring the consistency of its memory, which could be left
+     * inconsistent by a process, which died while accessing the container: segment locks, left
+     * held, are released; hash lookups, free lists and entry counters of segments are rebuilt from
+     * the entries, referenced from hash lookups, and entries, which are corrupted or don't match
+     * their {@linkplain #checksumEntries(boolean) checksums}, are dropped; broken chains of
+     * segment tiers are cut, and the free tiers list is rebuilt. Segments are scanned in parallel,
+     * in the {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}.
+     *
+     * <p>No other process should access the file during the recovery. If the file doesn't exist,
+     * a new hash container is created, and nothing is recovered.
+     *
+     * @param file the file with existing hash container
+     * @param reportListener receives what the recovery changed, before this method returns
+     * @return the recovered hash container, mapped to the given file
+     * @throws IOException if any IO error, related to file mapping, or establishing replication
+     *                     connections, occurs
+     * @see #recoverPersistedTo(File)
+     */
+    H recoverPersistedTo(File file, Consumer<? super RecoveryReport> reportListener)
+            throws IOException;
+
+    /**
+     * Opens the hash container, persisted to the specified file, after restoring its consistency,
+     * like {@link #recoverPersistedTo(File, Consumer)}, and logs what the recovery changed.
+     *
+     * @param file the file with existing hash container
+     * @return the recovered hash container, mapped to the given file
+     * @throws IOException if any IO error, related to file mapping, or establishing replication
+     *                     connections, occurs
+     */
+    H recoverPersistedTo(File file) throws IOException;
+
     /**
      * @deprecated don't use private API in the client code
      */
@@ -0,0 +1,117 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Snapshot of operation stats of a {@link ChronicleHash}, returned from {@link
+ * ChronicleHash#stats()}.
+ *
+ * @see ChronicleHashBuilder#recordStats(boolean)
+ */
+public final class ChronicleHashStats {
+
+    private final List<SegmentStats> segmentStats;
+
+    public ChronicleHashStats(List<SegmentStats> segmentStats) {
+        this.segmentStats = Collections.unmodifiableList(segmentStats);
+    }
+
+    /**
+     * Returns stats of segments, in the order of segment indexes.
+     */
+    public List<SegmentStats> segmentStats() {
+        return segmentStats;
+    }
+
+    private long sum(ToLongFunction<SegmentStats> stat) {
+        return segmentStats.stream().mapToLong(stat).sum();
+    }
+
+    public long size() {
+        return sum(SegmentStats::size);
+    }
+
+    /**
+     * Returns the number of tiers in all segments, including the first tiers of segments.
+     */
+    public long tiers() {
+        return sum(SegmentStats::tiers);
+    }
+
+    /**
+     * Returns the ratio of fragmented free chunks to all free chunks in all segments.
+     *
+     * @see SegmentStats#fragmentation()
+     */
+    public double fragmentation() {
+        long freeChunks = sum(SegmentStats::freeChunks);
+        return freeChunks != 0 ?
+                ((double) sum(SegmentStats::fragmentedFreeChunks)) / freeChunks : 0.0;
+    }
+
+    public long lockAcquisitions() {
+        return sum(SegmentStats::lockAcquisitions);
+    }
+
+    public long contendedLockAcquisitions() {
+        return sum(SegmentStats::contendedLockAcquisitions);
+    }
+
+    public long lockWaitNanos() {
+        return sum(SegmentStats::lockWaitNanos);
+    }
+
+    public long[] lockWaitHistogram() {
+        long[] histogram = null;
+        for (SegmentStats stats : segmentStats) {
+            long[] segmentHistogram = stats.lockWaitHistogram();
+            if (histogram == null) {
+                histogram = segmentHistogram;
+            } else {
+                for (int i = 0; i < histogram.length; i++) {
+                    histogram[i] += segmentHistogram[i];
+                }
+            }
+        }
+        return histogram != null ? histogram : new long[0];
+    }
+
+    public double averageProbeLength() {
+        long searches = sum(SegmentStats::searches);
+        return searches != 0 ? ((double) sum(SegmentStats::probes)) / searches : 0.0;
+    }
+
+    public long allocationFailures() {
+        return sum(SegmentStats::allocationFailures);
+    }
+
+    /**
+     * Returns the stats of the segment with the most lock acquisitions.
+     */
+    public SegmentStats hottestSegment() {
+        SegmentStats hottest = null;
+        for (SegmentStats stats : segmentStats) {
+            if (hottest == null || stats.lockAcquisitions() > hottest.lockAcquisitions())
+                hottest = stats;
+        }
+        return hottest;
+    }
+}
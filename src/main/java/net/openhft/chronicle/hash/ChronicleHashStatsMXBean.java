@@ -0,0 +1,55 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+/**
+ * JMX view of {@link ChronicleHashStats}, registered in the platform MBean server for Chronicle
+ * Hashes, configured to {@link ChronicleHashBuilder#recordStats(boolean) record stats}. Each
+ * attribute read takes a fresh snapshot of stats.
+ */
+public interface ChronicleHashStatsMXBean {
+
+    int getSegments();
+
+    long getSize();
+
+    long getTiers();
+
+    double getFragmentation();
+
+    long getLockAcquisitions();
+
+    long getContendedLockAcquisitions();
+
+    long getLockWaitNanos();
+
+    long[] getLockWaitHistogram();
+
+    double getAverageProbeLength();
+
+    long getAllocationFailures();
+
+    int getHottestSegment();
+
+    long[] getSegmentLockAcquisitions();
+
+    long[] getSegmentContendedLockAcquisitions();
+
+    int[] getSegmentTiers();
+
+    double[] getSegmentFragmentation();
+}
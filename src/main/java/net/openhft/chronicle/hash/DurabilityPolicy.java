@@ -0,0 +1,104 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines when changes of a Chronicle Hash, persisted to a file, are written from memory to the
+ * disk, see {@link ChronicleHashBuilder#durabilityPolicy(DurabilityPolicy)}. Regardless of the
+ * policy, the operating system writes changed pages eventually, and they could be written on
+ * demand via {@link ChronicleHash#sync()} and {@link ChronicleHash#syncAsync()}.
+ *
+ * <p>With any policy except {@link #NONE}, newly allocated tier bulks are written to the disk
+ * before they are linked into the hash, and the hash is synced when it is closed.
+ */
+public final class DurabilityPolicy {
+
+    public enum Kind {
+        NONE, PERIODIC, ON_SEGMENT_UNLOCK, EXPLICIT
+    }
+
+    /**
+     * Changes are written to the disk when the operating system decides, or on explicit {@link
+     * ChronicleHash#sync()} calls. This is the default policy.
+     *
+     * <p>Differs from {@link #EXPLICIT} only in that the hash is not synced on close, and newly
+     * allocated tier bulks are not written to the disk before they are linked into the hash.
+     */
+    public static final DurabilityPolicy NONE = new DurabilityPolicy(Kind.NONE, 0L);
+
+    /**
+     * Changes of a segment are written to the disk by the thread which releases the segment write
+     * lock, before the operation returns. Bounds the loss on a crash by operations in progress,
+     * but adds the latency of writing pages to the disk to each update.
+     */
+    public static final DurabilityPolicy ON_SEGMENT_UNLOCK =
+            new DurabilityPolicy(Kind.ON_SEGMENT_UNLOCK, 0L);
+
+    /**
+     * Changes are written to the disk on explicit {@link ChronicleHash#sync()} and {@link
+     * ChronicleHash#syncAsync()} calls, and when the hash is closed. Explicit syncs are equally
+     * available under {@link #NONE}, this policy adds only the sync on close and writing of newly
+     * allocated tier bulks before they are linked into the hash.
+     */
+    public static final DurabilityPolicy EXPLICIT = new DurabilityPolicy(Kind.EXPLICIT, 0L);
+
+    /**
+     * Returns the policy, under which a background thread writes segments, changed since the
+     * previous pass, to the disk, pausing for the given interval between passes. Bounds the loss on
+     * a crash by changes made during about the interval, without any cost for updating threads.
+     *
+     * @param interval the pause between passes over changed segments
+     * @param unit time unit, in which the interval is given
+     * @return the periodic durability policy
+     * @throws IllegalArgumentException if the specified interval is less than 1 millisecond
+     */
+    public static DurabilityPolicy periodic(long interval, TimeUnit unit) {
+        long intervalMillis = unit.toMillis(interval);
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("interval should be >= 1 millisecond, " +
+                    interval + " " + unit + " is given");
+        }
+        return new DurabilityPolicy(Kind.PERIODIC, intervalMillis);
+    }
+
+    private final Kind kind;
+    private final long intervalMillis;
+
+    private DurabilityPolicy(Kind kind, long intervalMillis) {
+        this.kind = kind;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Returns the pause between passes of the {@linkplain #periodic(long, TimeUnit) periodic}
+     * policy, in milliseconds, 0 for other policies.
+     */
+    public long intervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.PERIODIC ? "PERIODIC(" + intervalMillis + " ms)" : kind.name();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+/**
+ * What the recovery of a persisted {@link ChronicleHash}, performed by {@link
+ * ChronicleHashBuilder#recoverPersistedTo(java.io.File,
+ * java.util.function.Consumer) ChronicleHashBuilder.recoverPersistedTo()}, changed in the hash
+ * container's memory.
+ */
+public final class RecoveryReport {
+
+    private final int segments;
+    private final int staleLocksReset;
+    private final long tierLinksCut;
+    private final long tierCountersFixed;
+    private final long tiersReclaimed;
+    private final long entriesDropped;
+    private final long checksumMismatches;
+    private final long hashLookupSlotsMoved;
+    private final long freeListChunksFixed;
+    private final int segmentCountersFixed;
+    private final long size;
+
+    public RecoveryReport(int segments, int staleLocksReset,
+                          long tierLinksCut, long tierCountersFixed, long tiersReclaimed,
+                          long entriesDropped, long checksumMismatches,
+                          long hashLookupSlotsMoved, long freeListChunksFixed,
+                          int segmentCountersFixed, long size) {
+        this.segments = segments;
+        this.staleLocksReset = staleLocksReset;
+        this.tierLinksCut = tierLinksCut;
+        this.tierCountersFixed = tierCountersFixed;
+        this.tiersReclaimed = tiersReclaimed;
+        this.entriesDropped = entriesDropped;
+        this.checksumMismatches = checksumMismatches;
+        this.hashLookupSlotsMoved = hashLookupSlotsMoved;
+        this.freeListChunksFixed = freeListChunksFixed;
+        this.segmentCountersFixed = segmentCountersFixed;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of scanned segments.
+     */
+    public int segments() {
+        return segments;
+    }
+
+    /**
+     * Returns the number of segment locks, and the global mutable state lock, which were left held
+     * by dead processes and are released.
+     */
+    public int staleLocksReset() {
+        return staleLocksReset;
+    }
+
+    /**
+     * Returns the number of links in chains of tiers, which pointed outside of the allocated
+     * tiers, to tiers of other segments, or back into the chain, and are cut. Entries of the tiers
+     * after the cut link are lost.
+     */
+    public long tierLinksCut() {
+        return tierLinksCut;
+    }
+
+    /**
+     * Returns the number of tiers, which link back to a wrong previous tier, and are relinked.
+     */
+    public long tierCountersFixed() {
+        return tierCountersFixed;
+    }
+
+    /**
+     * Returns the number of extra tiers, which were neither linked from any segment nor listed as
+     * free, and are cleared and returned to the free tiers list.
+     */
+    public long tiersReclaimed() {
+        return tiersReclaimed;
+    }
+
+    /**
+     * Returns the number of entries, referenced from hash lookups, which are dropped, because they
+     * are outside of the entry space, overlap with other entries, don't belong to the segment, or
+     * don't match their checksums.
+     */
+    public long entriesDropped() {
+        return entriesDropped;
+    }
+
+    /**
+     * Returns the number of entries, dropped because their stored checksums don't match, always
+     * zero if {@link ChronicleHashBuilder#checksumEntries(boolean)} is not configured.
+     */
+    public long checksumMismatches() {
+        return checksumMismatches;
+    }
+
+    /**
+     * Returns the number of hash lookup slots, which were not reachable from the positions of their
+     * keys, and are moved.
+     */
+    public long hashLookupSlotsMoved() {
+        return hashLookupSlotsMoved;
+    }
+
+    /**
+     * Returns the number of entry space chunks, which were marked as free while occupied by
+     * entries, or as occupied while free, in the free lists of segment tiers.
+     */
+    public long freeListChunksFixed() {
+        return freeListChunksFixed;
+    }
+
+    /**
+     * Returns the number of segments, whose size or deleted entries counters are recomputed.
+     */
+    public int segmentCountersFixed() {
+        return segmentCountersFixed;
+    }
+
+    /**
+     * Returns the number of entries in the hash container after the recovery.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns if the recovery changed anything, i. e. the hash container was not shut down
+     * cleanly.
+     */
+    public boolean changed() {
+        return staleLocksReset != 0 || tierLinksCut != 0L || tierCountersFixed != 0L ||
+                tiersReclaimed != 0L || entriesDropped != 0L || hashLookupSlotsMoved != 0L ||
+                freeListChunksFixed != 0L || segmentCountersFixed != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryReport{segments=" + segments + ", staleLocksReset=" + staleLocksReset +
+                ", tierLinksCut=" + tierLinksCut + ", tierCountersFixed=" + tierCountersFixed +
+                ", tiersReclaimed=" + tiersReclaimed + ", entriesDropped=" + entriesDropped +
+                ", checksumMismatches=" + checksumMismatches +
+                ", hashLookupSlotsMoved=" + hashLookupSlotsMoved +
+                ", freeListChunksFixed=" + freeListChunksFixed +
+                ", segmentCountersFixed=" + segmentCountersFixed + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+/**
+ * Snapshot of operation stats of a single segment of a {@link ChronicleHash}, a part of {@link
+ * ChronicleHashStats}. Lock, search and allocation counters are accumulated since the hash
+ * container is created, if {@link ChronicleHashBuilder#recordStats(boolean)} is configured, and
+ * are zero otherwise.
+ */
+public final class SegmentStats {
+
+    private final int segmentIndex;
+    private final long size;
+    private final int tiers;
+    private final long freeChunks;
+    private final long fragmentedFreeChunks;
+    private final long readLockAcquisitions;
+    private final long updateLockAcquisitions;
+    private final long writeLockAcquisitions;
+    private final long contendedLockAcquisitions;
+    private final long lockWaitNanos;
+    private final long[] lockWaitHistogram;
+    private final long searches;
+    private final long probes;
+    private final long allocationFailures;
+
+    public SegmentStats(int segmentIndex, long size, int tiers,
+                        long freeChunks, long fragmentedFreeChunks,
+                        long readLockAcquisitions, long updateLockAcquisitions,
+                        long writeLockAcquisitions, long contendedLockAcquisitions,
+                        long lockWaitNanos, long[] lockWaitHistogram,
+                        long searches, long probes, long allocationFailures) {
+        this.segmentIndex = segmentIndex;
+        this.size = size;
+        this.tiers = tiers;
+        this.freeChunks = freeChunks;
+        this.fragmentedFreeChunks = fragmentedFreeChunks;
+        this.readLockAcquisitions = readLockAcquisitions;
+        this.updateLockAcquisitions = updateLockAcquisitions;
+        this.writeLockAcquisitions = writeLockAcquisitions;
+        this.contendedLockAcquisitions = contendedLockAcquisitions;
+        this.lockWaitNanos = lockWaitNanos;
+        this.lockWaitHistogram = lockWaitHistogram;
+        this.searches = searches;
+        this.probes = probes;
+        this.allocationFailures = allocationFailures;
+    }
+
+    public int segmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Returns the number of entries in the segment.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the length of the chain of tiers of the segment, 1 if the segment has never
+     * overflowed.
+     */
+    public int tiers() {
+        return tiers;
+    }
+
+    /**
+     * Returns the number of free entry space chunks in all tiers of the segment.
+     */
+    public long freeChunks() {
+        return freeChunks;
+    }
+
+    /**
+     * Returns the number of free entry space chunks, located before the end of the last entry in
+     * their tier, i. e. in holes between entries.
+     */
+    public long fragmentedFreeChunks() {
+        return fragmentedFreeChunks;
+    }
+
+    /**
+     * Returns the ratio of {@linkplain #fragmentedFreeChunks() fragmented} free chunks to all
+     * free chunks of the segment, from 0.0 (all free space is contiguous at the ends of tiers) to
+     * 1.0.
+     */
+    public double fragmentation() {
+        return freeChunks != 0 ? ((double) fragmentedFreeChunks) / freeChunks : 0.0;
+    }
+
+    public long readLockAcquisitions() {
+        return readLockAcquisitions;
+    }
+
+    public long updateLockAcquisitions() {
+        return updateLockAcquisitions;
+    }
+
+    public long writeLockAcquisitions() {
+        return writeLockAcquisitions;
+    }
+
+    /**
+     * Returns the number of read, update and write lock acquisitions (including upgrades to update
+     * and write locks) of the segment lock. Acquisitions of locks, already held by other contexts
+     * of the same thread, are not counted.
+     */
+    public long lockAcquisitions() {
+        return readLockAcquisitions + updateLockAcquisitions + writeLockAcquisitions;
+    }
+
+    /**
+     * Returns the number of lock acquisitions, which couldn't succeed immediately.
+     */
+    public long contendedLockAcquisitions() {
+        return contendedLockAcquisitions;
+    }
+
+    /**
+     * Returns the total time, spent waiting for the segment lock in contended lock acquisitions.
+     */
+    public long lockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * Returns the histogram of wait times in contended lock acquisitions. The first bucket counts
+     * waits shorter than 1 microsecond, each next bucket counts twice longer waits, i. e. bucket
+     * {@code i > 0} counts waits from {@code 2^(9 + i)} to {@code 2^(10 + i)} nanoseconds, the
+     * last bucket counts all waits longer than that.
+     */
+    public long[] lockWaitHistogram() {
+        return lockWaitHistogram.clone();
+    }
+
+    /**
+     * Returns the number of key searches in hash lookups of the segment tiers.
+     */
+    public long searches() {
+        return searches;
+    }
+
+    /**
+     * Returns the total number of hash lookup slots, read during key searches.
+     */
+    public long probes() {
+        return probes;
+    }
+
+    public double averageProbeLength() {
+        return searches != 0 ? ((double) probes) / searches : 0.0;
+    }
+
+    /**
+     * Returns the number of failed attempts to allocate space for an entry in some tier of the
+     * segment. Each failure leads to an attempt in another tier, or allocation of a new tier.
+     */
+    public long allocationFailures() {
+        return allocationFailures;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentStats{segmentIndex=" + segmentIndex + ", size=" + size +
+                ", tiers=" + tiers + ", fragmentation=" + fragmentation() +
+                ", lockAcquisitions=" + lockAcquisitions() +
+                ", contendedLockAcquisitions=" + contendedLockAcquisitions +
+                ", lockWaitNanos=" + lockWaitNanos +
+                ", averageProbeLength=" + averageProbeLength() +
+                ", allocationFailures=" + allocationFailures + "}";
+    }
+}
@@ -17,8 +17,13 @@
 package net.openhft.chronicle.hash.impl;
 
 import net.openhft.chronicle.hash.locks.IllegalInterProcessLockStateException;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategies;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.nio.ByteOrder.nativeOrder;
@@ -26,7 +31,11 @@ import static net.openhft.lang.io.AbstractBytes.UNSIGNED_INT_MASK;
 import static net.openhft.lang.io.NativeBytes.UNSAFE;
 
 public final class BigSegmentHeader implements SegmentHeader {
-    public static final BigSegmentHeader INSTANCE = new BigSegmentHeader();
+    /**
+     * Spins while waiting for segment locks, shared by all segments
+     */
+    public static final BigSegmentHeader INSTANCE =
+            new BigSegmentHeader(LockAcquisitionStrategies.spin(), false);
 
     static final long LOCK_OFFSET = 0L; // 64-bit
     static final long COUNT_WORD_OFFSET = LOCK_OFFSET;
@@ -56,7 +65,66 @@ public final class BigSegmentHeader implements SegmentHeader {
 
     static final long DELETED_OFFSET = EXCLUSIVE_LOCK_HOLDER_THREAD_ID_OFFSET + 8L;
 
-    private BigSegmentHeader() {
+    /**
+     * Seqlock-style modification version, odd while the segment is write-locked. Occupies the last
+     * 4 bytes of the smallest, 32-byte segment header, which were unused before, so the version is
+     * zero in segments, created before it was introduced.
+     */
+    static final long MODIFICATION_VERSION_OFFSET = DELETED_OFFSET + 4L; // 32-bit
+
+    private final LockAcquisitionStrategy acquisitionStrategy;
+    /**
+     * Threads of this JVM, waiting for the lock of the segment, {@code null} if the segment could
+     * be accessed from other processes, or waiting threads are not parked
+     */
+    private final Queue<Thread> waiters;
+
+    /**
+     * @param acquisitionStrategy how to wait between attempts to acquire the segment lock
+     * @param inJvmWaitQueue if waiting threads should be unparked, when the lock is released
+     *                       within this JVM. Should be {@code true} only if the segment is not
+     *                       accessed from other processes, and the header is used for a single
+     *                       segment.
+     */
+    public BigSegmentHeader(LockAcquisitionStrategy acquisitionStrategy, boolean inJvmWaitQueue) {
+        this.acquisitionStrategy = acquisitionStrategy;
+        this.waiters = inJvmWaitQueue ? new ConcurrentLinkedQueue<>() : null;
+    }
+
+    private void startWaiting() {
+        if (waiters != null)
+            waiters.add(Thread.currentThread());
+    }
+
+    /**
+     * Waits before the next lock acquisition attempt. The current thread is registered to be
+     * unparked on unlock only before the strategy could park it, so that acquisitions, which
+     * succeed while spinning, don't touch the wait queue.
+     *
+     * @param waiting if the current thread is already registered
+     * @return if the current thread is registered after this call
+     */
+    private boolean waitBeforeRetry(int failedAttempts, boolean waiting) {
+        if (!waiting && waiters != null && acquisitionStrategy.mayPark(failedAttempts)) {
+            startWaiting();
+            waiting = true;
+        }
+        acquisitionStrategy.waitBeforeRetry(failedAttempts);
+        return waiting;
+    }
+
+    private void stopWaiting() {
+        if (waiters != null)
+            waiters.remove(Thread.currentThread());
+    }
+
+    private void wakeWaiters() {
+        Queue<Thread> waiters = this.waiters;
+        if (waiters != null && !waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
     }
 
     @Override
@@ -97,6 +165,59 @@ public final class BigSegmentHeader implements SegmentHeader {
         UNSAFE.putInt(address + NEXT_POS_TO_SEARCH_FROM_OFFSET, (int) nextPosToSearchFrom);
     }
 
+    @Override
+    public long modificationVersion(long address) {
+        return UNSAFE.getIntVolatile(null, address + MODIFICATION_VERSION_OFFSET) &
+                UNSIGNED_INT_MASK;
+    }
+
+    @Override
+    public boolean validateModificationVersion(long address, long version) {
+        // prevents reads of the segment, performed before this validation, from being reordered
+        // after the version read
+        UNSAFE.loadFence();
+        return modificationVersion(address) == version;
+    }
+
+    /**
+     * Called by the write lock holder right after the write lock is acquired, makes the version odd
+     */
+    private static void startModification(long address) {
+        long versionAddress = address + MODIFICATION_VERSION_OFFSET;
+        UNSAFE.putOrderedInt(null, versionAddress, UNSAFE.getInt(versionAddress) + 1);
+        // segment writes, following the version increment, must not be reordered before it
+        UNSAFE.storeFence();
+    }
+
+    /**
+     * Called by the write lock holder right before the write lock is released, makes the version
+     * even
+     */
+    private static void finishModification(long address) {
+        long versionAddress = address + MODIFICATION_VERSION_OFFSET;
+        UNSAFE.putOrderedInt(null, versionAddress, UNSAFE.getInt(versionAddress) + 1);
+    }
+
+    /**
+     * Releases the segment lock, and makes the modification version even, if the segment was left
+     * locked or in the middle of modification by a process, which is dead now. Should be called
+     * only when no other process accesses the segment.
+     *
+     * @return if the segment was left locked or modified
+     */
+    public boolean resetStaleLock(long address) {
+        boolean stale = getLockWord(address) != 0L ||
+                UNSAFE.getLong(address + EXCLUSIVE_LOCK_HOLDER_THREAD_ID_OFFSET) != 0L ||
+                (modificationVersion(address) & 1L) != 0L;
+        if (stale) {
+            if ((modificationVersion(address) & 1L) != 0L)
+                finishModification(address);
+            clearExclusiveLockHolder(address);
+            UNSAFE.putLongVolatile(null, address + LOCK_OFFSET, 0L);
+        }
+        return stale;
+    }
+
     private static long getLockWord(long address) {
         return UNSAFE.getLongVolatile(null, address + LOCK_OFFSET);
     }
@@ -241,40 +362,22 @@ public final class BigSegmentHeader implements SegmentHeader {
     }
 
     private boolean tryReadLock0(long address, long time, TimeUnit unit) {
-        long timeInNanos = unit.toNanos(time);
-        if (timeInNanos < 2000000) {
-            return tryReadLockNanos(address, timeInNanos);
-        } else {
-            return tryReadLockMillis(address, (timeInNanos + 900000) / 1000000);
+        long end = System.nanoTime() + unit.toNanos(time);
+        int failedAttempts = 0;
+        boolean waiting = false;
+        try {
+            do {
+                if (tryReadLock(address))
+                    return true;
+                waiting = waitBeforeRetry(failedAttempts++, waiting);
+            } while (System.nanoTime() - end <= 0);
+            return false;
+        } finally {
+            if (waiting)
+                stopWaiting();
         }
     }
 
-    private boolean tryReadLockNanos(long address, long timeInNanos) {
-        long end = System.nanoTime() + timeInNanos;
-        do {
-            if (tryReadLock(address))
-                return true;
-        } while (System.nanoTime() <= end);
-        return false;
-    }
-
-    /**
-     * Use a timer which is more insensitive to jumps in time like GCs and context switches.
-     */
-    private boolean tryReadLockMillis(long address, long timeInMillis) {
-        long lastTime = System.currentTimeMillis();
-        do {
-            if (tryReadLock(address))
-                return true;
-            long now = System.currentTimeMillis();
-            if (now != lastTime) {
-                lastTime = now;
-                timeInMillis--;
-            }
-        } while (timeInMillis >= 0);
-        return false;
-    }
-
     @Override
     public boolean tryUpgradeReadToUpdateLock(long address) {
         int countWord = getCountWord(address);
@@ -287,8 +390,13 @@ public final class BigSegmentHeader implements SegmentHeader {
     public boolean tryUpgradeReadToWriteLock(long address) {
         int countWord = getCountWord(address);
         checkReadLocked(countWord);
-        return countWord == READ_PARTY &&
-                casCountWord(address, READ_PARTY, WRITE_LOCKED_COUNT_WORD);
+        if (countWord == READ_PARTY &&
+                casCountWord(address, READ_PARTY, WRITE_LOCKED_COUNT_WORD)) {
+            startModification(address);
+            return true;
+        } else {
+            return false;
+        }
     }
 
     @Override
@@ -323,40 +431,22 @@ public final class BigSegmentHeader implements SegmentHeader {
     }
 
     private boolean tryUpdateLock0(long address, long time, TimeUnit unit) {
-        long timeInNanos = unit.toNanos(time);
-        if (timeInNanos < 2000000) {
-            return tryUpdateLockNanos(address, timeInNanos);
-        } else {
-            return tryUpdateLockMillis(address, (timeInNanos + 900000) / 1000000);
+        long end = System.nanoTime() + unit.toNanos(time);
+        int failedAttempts = 0;
+        boolean waiting = false;
+        try {
+            do {
+                if (tryUpdateLock(address))
+                    return true;
+                waiting = waitBeforeRetry(failedAttempts++, waiting);
+            } while (System.nanoTime() - end <= 0);
+            return false;
+        } finally {
+            if (waiting)
+                stopWaiting();
         }
     }
 
-    private boolean tryUpdateLockNanos(long address, long timeInNanos) {
-        long end = System.nanoTime() + timeInNanos;
-        do {
-            if (tryUpdateLock(address))
-                return true;
-        } while (System.nanoTime() <= end);
-        return false;
-    }
-
-    /**
-     * Use a timer which is more insensitive to jumps in time like GCs and context switches.
-     */
-    private boolean tryUpdateLockMillis(long address, long timeInMillis) {
-        long lastTime = System.currentTimeMillis();
-        do {
-            if (tryUpdateLock(address))
-                return true;
-            long now = System.currentTimeMillis();
-            if (now != lastTime) {
-                lastTime = now;
-                timeInMillis--;
-            }
-        } while (timeInMillis >= 0);
-        return false;
-    }
-
     @Override
     public void writeLock(long address) {
         if (!tryWriteLock(address, 2, TimeUnit.SECONDS)) {
@@ -373,6 +463,7 @@ public final class BigSegmentHeader implements SegmentHeader {
     public boolean tryWriteLock(long address) {
         if (casCountWord(address, 0, WRITE_LOCKED_COUNT_WORD)) {
             writeExclusiveLockHolder(address);
+            startModification(address);
             return true;
         } else {
             return false;
@@ -386,20 +477,29 @@ public final class BigSegmentHeader implements SegmentHeader {
 
     private boolean tryWriteLock0(long address, long time, TimeUnit unit) {
         long end = System.nanoTime() + unit.toNanos(time);
+        int failedAttempts = 0;
+        boolean waiting = false;
         registerWait(address);
-        do {
-            long lockWord = getLockWord(address);
-            int countWord = countWord(lockWord);
-            if (countWord == 0) {
-                int waitWord = waitWord(lockWord);
-                checkWaitWordForDecrement(waitWord);
-                if (casLockWord(address, lockWord,
-                        lockWord(WRITE_LOCKED_COUNT_WORD, waitWord - WAIT_PARTY))) {
-                    writeExclusiveLockHolder(address);
-                    return true;
+        try {
+            do {
+                long lockWord = getLockWord(address);
+                int countWord = countWord(lockWord);
+                if (countWord == 0) {
+                    int waitWord = waitWord(lockWord);
+                    checkWaitWordForDecrement(waitWord);
+                    if (casLockWord(address, lockWord,
+                            lockWord(WRITE_LOCKED_COUNT_WORD, waitWord - WAIT_PARTY))) {
+                        writeExclusiveLockHolder(address);
+                        startModification(address);
+                        return true;
+                    }
                 }
-            }
-        } while (System.nanoTime() <= end);
+                waiting = waitBeforeRetry(failedAttempts++, waiting);
+            } while (System.nanoTime() - end <= 0);
+        } finally {
+            if (waiting)
+                stopWaiting();
+        }
         deregisterWait(address);
         return false;
     }
@@ -437,8 +537,13 @@ public final class BigSegmentHeader implements SegmentHeader {
     @Override
     public boolean tryUpgradeUpdateToWriteLock(long address) {
         int countWord = getCountWord(address);
-        return checkExclusiveUpdateLocked(countWord) &&
-                casCountWord(address, countWord, WRITE_LOCKED_COUNT_WORD);
+        if (checkExclusiveUpdateLocked(countWord) &&
+                casCountWord(address, countWord, WRITE_LOCKED_COUNT_WORD)) {
+            startModification(address);
+            return true;
+        } else {
+            return false;
+        }
     }
 
     private static boolean checkExclusiveUpdateLocked(int countWord) {
@@ -454,19 +559,28 @@ public final class BigSegmentHeader implements SegmentHeader {
 
     private boolean tryUpgradeUpdateToWriteLock0(long address, long time, TimeUnit unit) {
         long end = System.nanoTime() + unit.toNanos(time);
+        int failedAttempts = 0;
+        boolean waiting = false;
         registerWait(address);
-        do {
-            long lockWord = getLockWord(address);
-            int countWord = countWord(lockWord);
-            if (checkExclusiveUpdateLocked(countWord)) {
-                int waitWord = waitWord(lockWord);
-                checkWaitWordForDecrement(waitWord);
-                if (casLockWord(address, lockWord,
-                        lockWord(WRITE_LOCKED_COUNT_WORD, waitWord - WAIT_PARTY))) {
-                    return true;
+        try {
+            do {
+                long lockWord = getLockWord(address);
+                int countWord = countWord(lockWord);
+                if (checkExclusiveUpdateLocked(countWord)) {
+                    int waitWord = waitWord(lockWord);
+                    checkWaitWordForDecrement(waitWord);
+                    if (casLockWord(address, lockWord,
+                            lockWord(WRITE_LOCKED_COUNT_WORD, waitWord - WAIT_PARTY))) {
+                        startModification(address);
+                        return true;
+                    }
                 }
-            }
-        } while (System.nanoTime() <= end);
+                waiting = waitBeforeRetry(failedAttempts++, waiting);
+            } while (System.nanoTime() - end <= 0);
+        } finally {
+            if (waiting)
+                stopWaiting();
+        }
         deregisterWait(address);
         return false;
     }
@@ -476,8 +590,10 @@ public final class BigSegmentHeader implements SegmentHeader {
         while (true) {
             int countWord = getCountWord(address);
             checkReadLocked(countWord);
-            if (casCountWord(address, countWord, countWord - READ_PARTY))
+            if (casCountWord(address, countWord, countWord - READ_PARTY)) {
+                wakeWaiters();
                 return;
+            }
         }
     }
 
@@ -488,6 +604,7 @@ public final class BigSegmentHeader implements SegmentHeader {
             checkUpdateLocked(countWord);
             if (casCountWord(address, countWord, countWord - UPDATE_PARTY)) {
                 clearExclusiveLockHolder(address);
+                wakeWaiters();
                 return;
             }
         }
@@ -500,6 +617,7 @@ public final class BigSegmentHeader implements SegmentHeader {
             checkUpdateLocked(countWord);
             if (casCountWord(address, countWord, countWord ^ UPDATE_BIT)) {
                 clearExclusiveLockHolder(address);
+                wakeWaiters();
                 return;
             }
         }
@@ -508,20 +626,26 @@ public final class BigSegmentHeader implements SegmentHeader {
     @Override
     public void writeUnlock(long address) {
         checkWriteLocked(getCountWord(address));
+        finishModification(address);
         clearExclusiveLockHolder(address);
         putCountWord(address, 0);
+        wakeWaiters();
     }
 
     @Override
     public void downgradeWriteToUpdateLock(long address) {
         checkWriteLocked(getCountWord(address));
+        finishModification(address);
         putCountWord(address, UPDATE_PARTY);
+        wakeWaiters();
     }
 
     @Override
     public void downgradeWriteToReadLock(long address) {
         checkWriteLocked(getCountWord(address));
+        finishModification(address);
         clearExclusiveLockHolder(address);
         putCountWord(address, READ_PARTY);
+        wakeWaiters();
     }
 }
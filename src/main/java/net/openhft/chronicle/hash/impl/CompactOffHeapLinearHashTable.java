@@ -142,6 +142,17 @@ public abstract class CompactOffHeapLinearHashTable {
 
     abstract void clearEntry(long addr, long pos, long prevEntry);
 
+    /**
+     * Clears all slots of the hash lookup at the given address
+     */
+    public void clear(long addr) {
+        long pos = 0L;
+        do {
+            clearEntry(addr, pos, readEntry(addr, pos));
+            pos = step(pos);
+        } while (pos != 0L);
+    }
+
     /**
      * Returns "insert" position in terms of consequent putValue()
      */
@@ -0,0 +1,263 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.openhft.chronicle.hash.impl.SegmentStatsRecorder.*;
+
+/**
+ * {@link SegmentHeader} of a single segment, which delegates to another header and records lock
+ * acquisitions and waits to {@link SegmentStatsRecorder}. Lock acquisition is first attempted
+ * without waiting, and only if this attempt fails the wait is timed, so uncontended lock
+ * acquisitions don't call {@code System.nanoTime()}.
+ */
+public final class InstrumentedSegmentHeader implements SegmentHeader {
+
+    private final SegmentHeader delegate;
+    private final SegmentStatsRecorder recorder;
+    private final int segmentIndex;
+
+    public InstrumentedSegmentHeader(SegmentHeader delegate, SegmentStatsRecorder recorder,
+                                     int segmentIndex) {
+        this.delegate = delegate;
+        this.recorder = recorder;
+        this.segmentIndex = segmentIndex;
+    }
+
+    @Override
+    public long size(long address) {
+        return delegate.size(address);
+    }
+
+    @Override
+    public void size(long address, long size) {
+        delegate.size(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return delegate.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        delegate.deleted(address, deleted);
+    }
+
+    @Override
+    public long nextPosToSearchFrom(long address) {
+        return delegate.nextPosToSearchFrom(address);
+    }
+
+    @Override
+    public void nextPosToSearchFrom(long address, long nextPosToSearchFrom) {
+        delegate.nextPosToSearchFrom(address, nextPosToSearchFrom);
+    }
+
+    @Override
+    public long modificationVersion(long address) {
+        return delegate.modificationVersion(address);
+    }
+
+    @Override
+    public boolean validateModificationVersion(long address, long version) {
+        return delegate.validateModificationVersion(address, version);
+    }
+
+    private boolean acquired(boolean acquired, int lockCounter) {
+        if (acquired)
+            recorder.lockAcquired(segmentIndex, lockCounter);
+        return acquired;
+    }
+
+    private boolean acquiredAfterWait(boolean acquired, int lockCounter, long waitStart) {
+        if (acquired) {
+            recorder.contendedLockAcquired(
+                    segmentIndex, lockCounter, System.nanoTime() - waitStart);
+        }
+        return acquired;
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (acquired(delegate.tryReadLock(address), READ_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.readLock(address);
+        acquiredAfterWait(true, READ_LOCKS, waitStart);
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) {
+        if (acquired(delegate.tryReadLock(address), READ_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.readLockInterruptibly(address);
+        acquiredAfterWait(true, READ_LOCKS, waitStart);
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return acquired(delegate.tryReadLock(address), READ_LOCKS);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit) {
+        if (acquired(delegate.tryReadLock(address), READ_LOCKS))
+            return true;
+        long waitStart = System.nanoTime();
+        return acquiredAfterWait(delegate.tryReadLock(address, time, unit), READ_LOCKS, waitStart);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (acquired(delegate.tryUpdateLock(address), UPDATE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.updateLock(address);
+        acquiredAfterWait(true, UPDATE_LOCKS, waitStart);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) {
+        if (acquired(delegate.tryUpdateLock(address), UPDATE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.updateLockInterruptibly(address);
+        acquiredAfterWait(true, UPDATE_LOCKS, waitStart);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return acquired(delegate.tryUpdateLock(address), UPDATE_LOCKS);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit) {
+        if (acquired(delegate.tryUpdateLock(address), UPDATE_LOCKS))
+            return true;
+        long waitStart = System.nanoTime();
+        return acquiredAfterWait(
+                delegate.tryUpdateLock(address, time, unit), UPDATE_LOCKS, waitStart);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        if (acquired(delegate.tryWriteLock(address), WRITE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.writeLock(address);
+        acquiredAfterWait(true, WRITE_LOCKS, waitStart);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) {
+        if (acquired(delegate.tryWriteLock(address), WRITE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.writeLockInterruptibly(address);
+        acquiredAfterWait(true, WRITE_LOCKS, waitStart);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        return acquired(delegate.tryWriteLock(address), WRITE_LOCKS);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit) {
+        if (acquired(delegate.tryWriteLock(address), WRITE_LOCKS))
+            return true;
+        long waitStart = System.nanoTime();
+        return acquiredAfterWait(
+                delegate.tryWriteLock(address, time, unit), WRITE_LOCKS, waitStart);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return acquired(delegate.tryUpgradeReadToUpdateLock(address), UPDATE_LOCKS);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        return acquired(delegate.tryUpgradeReadToWriteLock(address), WRITE_LOCKS);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        if (acquired(delegate.tryUpgradeUpdateToWriteLock(address), WRITE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.upgradeUpdateToWriteLock(address);
+        acquiredAfterWait(true, WRITE_LOCKS, waitStart);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) {
+        if (acquired(delegate.tryUpgradeUpdateToWriteLock(address), WRITE_LOCKS))
+            return;
+        long waitStart = System.nanoTime();
+        delegate.upgradeUpdateToWriteLockInterruptibly(address);
+        acquiredAfterWait(true, WRITE_LOCKS, waitStart);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return acquired(delegate.tryUpgradeUpdateToWriteLock(address), WRITE_LOCKS);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit) {
+        if (acquired(delegate.tryUpgradeUpdateToWriteLock(address), WRITE_LOCKS))
+            return true;
+        long waitStart = System.nanoTime();
+        return acquiredAfterWait(
+                delegate.tryUpgradeUpdateToWriteLock(address, time, unit), WRITE_LOCKS,
+                waitStart);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        delegate.readUnlock(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        delegate.updateUnlock(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        delegate.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        delegate.writeUnlock(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        delegate.downgradeWriteToUpdateLock(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        delegate.downgradeWriteToReadLock(address);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.OS;
+
+/**
+ * {@code Data} of a primitive {@code int}, laid out in the same way as {@code
+ * IntegerMarshaller} writes {@code Integer} keys and values (4 bytes in the native order), so it
+ * could be used to query maps with default {@code Integer} serialization without boxing. Not
+ * thread-safe, should be reused within a single thread.
+ */
+public final class ReusableIntData extends ReusablePrimitiveData<Integer> {
+
+    public ReusableIntData() {
+        super(4L);
+    }
+
+    public ReusableIntData setInt(int value) {
+        OS.memory().writeInt(address(), value);
+        return this;
+    }
+
+    public int getInt() {
+        return OS.memory().readInt(address());
+    }
+
+    @Override
+    public Integer get() {
+        return getInt();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.OS;
+
+/**
+ * {@code Data} of a primitive {@code long}, laid out in the same way as {@code LongMarshaller}
+ * writes {@code Long} keys and values (8 bytes in the native order), so it could be used to query
+ * maps with default {@code Long} serialization without boxing. Not thread-safe, should be reused
+ * within a single thread.
+ */
+public final class ReusableLongData extends ReusablePrimitiveData<Long> {
+
+    public ReusableLongData() {
+        super(8L);
+    }
+
+    public ReusableLongData setLong(long value) {
+        OS.memory().writeLong(address(), value);
+        return this;
+    }
+
+    public long getLong() {
+        return OS.memory().readLong(address());
+    }
+
+    @Override
+    public Long get() {
+        return getLong();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.bytes.PointerBytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.AbstractData;
+import net.openhft.lang.io.DirectStore;
+import net.openhft.lang.io.serialization.JDKObjectSerializer;
+
+/**
+ * {@code Data} of a primitive value in a small off-heap buffer, see {@link ReusableLongData} and
+ * {@link ReusableIntData}. Not thread-safe, should be reused within a single thread, and
+ * {@linkplain #free() freed} when not needed anymore.
+ */
+public abstract class ReusablePrimitiveData<T> extends AbstractData<T> {
+
+    private final DirectStore store;
+    private final PointerBytesStore bytesStore = new PointerBytesStore();
+    private final long size;
+
+    ReusablePrimitiveData(long size) {
+        store = new DirectStore(JDKObjectSerializer.INSTANCE, size, true);
+        bytesStore.set(store.address(), size);
+        this.size = size;
+    }
+
+    final long address() {
+        return store.address();
+    }
+
+    @Override
+    public RandomDataInput bytes() {
+        return bytesStore;
+    }
+
+    @Override
+    public long offset() {
+        return 0L;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public T getUsing(T using) {
+        return get();
+    }
+
+    /**
+     * Frees the off-heap buffer, this data shouldn't be used after this call.
+     */
+    public void free() {
+        store.free();
+    }
+}
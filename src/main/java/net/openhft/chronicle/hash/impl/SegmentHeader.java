@@ -28,6 +28,20 @@ public interface SegmentHeader {
     long nextPosToSearchFrom(long address);
     void nextPosToSearchFrom(long address, long nextPosToSearchFrom);
 
+    /**
+     * Returns the modification version of the segment, incremented when the write lock is acquired
+     * and when it is released, so it is odd while the segment is write-locked. Used to validate
+     * optimistic reads of the segment, performed without acquiring the read lock.
+     */
+    long modificationVersion(long address);
+
+    /**
+     * Checks that the segment is not modified since the given version is read via {@link
+     * #modificationVersion(long)}, and that reads of the segment memory performed in between are
+     * not reordered after this check.
+     */
+    boolean validateModificationVersion(long address, long version);
+
     void readLock(long address);
     void readLockInterruptibly(long address);
     boolean tryReadLock(long address);
@@ -0,0 +1,205 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.bytes.RandomDataInput;
+
+import java.util.Arrays;
+
+/**
+ * The position of iteration over a segment, which is resumed after the segment lock is released
+ * between batches of entries. Entries of all tiers of the segment are visited in the order of
+ * their home slots, i. e. the hash lookup slots their hash lookup keys are mapped to, a window of
+ * home slots at a time.
+ *
+ * <p>The home slot of an entry is the same in every tier, and it isn't changed when the entry is
+ * shifted by removals, moved by defragmentation, relocated to another tier by an update, or moved
+ * to an earlier tier by tiers compaction. So entries with home slots before the cursor are
+ * already visited, whatever happens to the segment between batches, and entries with the home
+ * slot of the cursor are told apart by their keys.
+ */
+public final class SegmentIterationCursor {
+
+    /**
+     * The number of home slots in a window, entries of all tiers with home slots in the window are
+     * collected at once
+     */
+    public static final int WINDOW_SLOTS = 64;
+
+    /**
+     * The home slot position of the entries to visit next, -1 if the iteration is not started
+     */
+    private long homePos = -1L;
+    /**
+     * Hash lookup keys and serialized keys of the entries with the home slot of the cursor, which
+     * are already visited. Key byte arrays are reused, their used lengths are in visitedKeySizes.
+     */
+    private long[] visitedHashLookupKeys = new long[16];
+    private byte[][] visitedKeys = new byte[16][];
+    private int[] visitedKeySizes = new int[16];
+    private int visitedEntriesCount;
+
+    /**
+     * Entries of the current window: offsets of their home slots from the start of the window
+     * (high 32 bits) and indexes in windowPositions and windowTiers (low 32 bits), sorted
+     */
+    private long[] windowEntries = new long[16];
+    private long[] windowPositions = new long[16];
+    private int[] windowTiers = new int[16];
+    private int windowSize;
+    private long[] tierBaseAddrs = new long[4];
+    private long[] tierIndexes = new long[4];
+
+    public boolean started() {
+        return homePos >= 0L;
+    }
+
+    public void start() {
+        homePos = 0L;
+        visitedEntriesCount = 0;
+    }
+
+    /**
+     * Prepares this cursor for iteration over another segment
+     */
+    public void reset() {
+        homePos = -1L;
+        visitedEntriesCount = 0;
+    }
+
+    public long homePos() {
+        return homePos;
+    }
+
+    /**
+     * Moves this cursor to the given home slot position, entries with the previous home slot
+     * position are forgotten, if it is different.
+     */
+    public void homePos(long homePos) {
+        if (this.homePos != homePos) {
+            this.homePos = homePos;
+            visitedEntriesCount = 0;
+        }
+    }
+
+    public void visited(long hashLookupKey, RandomDataInput keyBytes, long keyOffset,
+                        long keySize) {
+        int n = visitedEntriesCount;
+        if (n == visitedHashLookupKeys.length) {
+            visitedHashLookupKeys = Arrays.copyOf(visitedHashLookupKeys, n * 2);
+            visitedKeys = Arrays.copyOf(visitedKeys, n * 2);
+            visitedKeySizes = Arrays.copyOf(visitedKeySizes, n * 2);
+        }
+        visitedHashLookupKeys[n] = hashLookupKey;
+        byte[] key = visitedKeys[n];
+        if (key == null || key.length < keySize)
+            visitedKeys[n] = key = new byte[(int) keySize];
+        for (int i = 0; i < keySize; i++) {
+            key[i] = keyBytes.readByte(keyOffset + i);
+        }
+        visitedKeySizes[n] = (int) keySize;
+        visitedEntriesCount = n + 1;
+    }
+
+    /**
+     * An entry is identified by its hash lookup key and its serialized key. The tier and the
+     * position of the entry are not a part of the identity, because they could be changed
+     * between batches.
+     */
+    public boolean wasVisited(long hashLookupKey, RandomDataInput keyBytes, long keyOffset,
+                              long keySize) {
+        for (int i = 0; i < visitedEntriesCount; i++) {
+            if (visitedHashLookupKeys[i] == hashLookupKey && visitedKeySizes[i] == keySize &&
+                    keyEquals(visitedKeys[i], keyBytes, keyOffset, keySize)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean keyEquals(byte[] key, RandomDataInput keyBytes, long keyOffset,
+                                     long keySize) {
+        for (int i = 0; i < keySize; i++) {
+            if (key[i] != keyBytes.readByte(keyOffset + i))
+                return false;
+        }
+        return true;
+    }
+
+    public void clearWindow() {
+        windowSize = 0;
+    }
+
+    public void tier(int tier, long tierBaseAddr, long tierIndex) {
+        if (tier >= tierBaseAddrs.length) {
+            tierBaseAddrs = Arrays.copyOf(tierBaseAddrs, tier * 2);
+            tierIndexes = Arrays.copyOf(tierIndexes, tier * 2);
+        }
+        tierBaseAddrs[tier] = tierBaseAddr;
+        tierIndexes[tier] = tierIndex;
+    }
+
+    public long tierBaseAddr(int tier) {
+        return tierBaseAddrs[tier];
+    }
+
+    public long tierIndex(int tier) {
+        return tierIndexes[tier];
+    }
+
+    /**
+     * @param homeOffset the offset of the home slot position of the entry from the first home
+     *                   slot position of the window
+     * @param tier       the tier of the entry
+     * @param pos        the slot position of the entry in the hash lookup of the tier
+     */
+    public void addToWindow(long homeOffset, int tier, long pos) {
+        int n = windowSize;
+        if (n == windowEntries.length) {
+            windowEntries = Arrays.copyOf(windowEntries, n * 2);
+            windowPositions = Arrays.copyOf(windowPositions, n * 2);
+            windowTiers = Arrays.copyOf(windowTiers, n * 2);
+        }
+        windowEntries[n] = (homeOffset << 32) | n;
+        windowPositions[n] = pos;
+        windowTiers[n] = tier;
+        windowSize = n + 1;
+    }
+
+    /**
+     * Orders the entries of the window by their home slots
+     */
+    public void sortWindow() {
+        Arrays.sort(windowEntries, 0, windowSize);
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    public long windowHomeOffset(int i) {
+        return windowEntries[i] >>> 32;
+    }
+
+    public int windowTier(int i) {
+        return windowTiers[(int) windowEntries[i]];
+    }
+
+    public long windowPos(int i) {
+        return windowPositions[(int) windowEntries[i]];
+    }
+}
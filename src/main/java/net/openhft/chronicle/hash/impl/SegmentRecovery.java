@@ -0,0 +1,68 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.hash.RecoveryReport;
+
+/**
+ * Changes, made by the recovery of a single segment, accumulated by the thread recovering the
+ * segment, see {@link VanillaChronicleHash#recoverTiersChain(int, SegmentRecovery,
+ * java.util.BitSet)} and {@code HashSegmentIteration.recover()}.
+ */
+public final class SegmentRecovery {
+
+    public boolean staleLockReset;
+    public long tierLinksCut;
+    public long tierCountersFixed;
+    public long entries;
+    public long presentEntries;
+    public long entriesDropped;
+    public long checksumMismatches;
+    public long hashLookupSlotsMoved;
+    public long freeListChunksFixed;
+    public boolean countersFixed;
+
+    public static RecoveryReport report(
+            boolean globalMutableStateLockReset, long tiersReclaimed, SegmentRecovery[] segments) {
+        int staleLocksReset = globalMutableStateLockReset ? 1 : 0;
+        long tierLinksCut = 0L;
+        long tierCountersFixed = 0L;
+        long entriesDropped = 0L;
+        long checksumMismatches = 0L;
+        long hashLookupSlotsMoved = 0L;
+        long freeListChunksFixed = 0L;
+        int segmentCountersFixed = 0;
+        long size = 0L;
+        for (SegmentRecovery r : segments) {
+            if (r.staleLockReset)
+                staleLocksReset++;
+            tierLinksCut += r.tierLinksCut;
+            tierCountersFixed += r.tierCountersFixed;
+            entriesDropped += r.entriesDropped;
+            checksumMismatches += r.checksumMismatches;
+            hashLookupSlotsMoved += r.hashLookupSlotsMoved;
+            freeListChunksFixed += r.freeListChunksFixed;
+            if (r.countersFixed)
+                segmentCountersFixed++;
+            size += r.presentEntries;
+        }
+        return new RecoveryReport(segments.length, staleLocksReset,
+                tierLinksCut, tierCountersFixed, tiersReclaimed,
+                entriesDropped, checksumMismatches, hashLookupSlotsMoved, freeListChunksFixed,
+                segmentCountersFixed, size);
+    }
+}
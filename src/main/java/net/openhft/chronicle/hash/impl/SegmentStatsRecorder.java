@@ -0,0 +1,171 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-segment operation counters of a Chronicle Hash, recorded if {@link
+ * net.openhft.chronicle.hash.ChronicleHashBuilder#recordStats(boolean)} is configured.
+ *
+ * <p>Events of the read path (read lock acquisitions, searches and probes) happen concurrently in
+ * all threads holding the read lock of the same segment, so they are counted by striped {@link
+ * LongAdder}s rather than a single shared word. The rest of the counters are updated under the
+ * update or write lock, or after contention, and are kept in a padded array: the counters of each
+ * segment are surrounded by a cache line of padding, so they never share a cache line with the
+ * counters of another segment or with the array header, whatever the array base alignment is.
+ */
+public final class SegmentStatsRecorder {
+
+    static final int READ_LOCKS = 0;
+    static final int UPDATE_LOCKS = 1;
+    static final int WRITE_LOCKS = 2;
+    static final int CONTENDED_LOCKS = 3;
+    static final int LOCK_WAIT_NANOS = 4;
+    static final int ALLOCATION_FAILURES = 5;
+
+    /**
+     * 8 longs == 64 bytes, a cache line
+     */
+    private static final int PADDING = 8;
+    private static final int COUNTERS_PER_SEGMENT = 6;
+    private static final int COUNTERS_STRIDE = PADDING + COUNTERS_PER_SEGMENT;
+
+    /**
+     * The first bucket counts waits shorter than 1 microsecond, each next bucket counts twice
+     * longer waits, the last bucket counts waits of 16 milliseconds and longer.
+     */
+    public static final int LOCK_WAIT_HISTOGRAM_BUCKETS = 16;
+    private static final int HISTOGRAM_STRIDE = PADDING + LOCK_WAIT_HISTOGRAM_BUCKETS;
+
+    private final int segments;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray lockWaitHistogram;
+    private final LongAdder[] readLocks;
+    private final LongAdder[] searches;
+    private final LongAdder[] probes;
+
+    public SegmentStatsRecorder(int segments) {
+        this.segments = segments;
+        counters = new AtomicLongArray(segments * COUNTERS_STRIDE + PADDING);
+        lockWaitHistogram = new AtomicLongArray(segments * HISTOGRAM_STRIDE + PADDING);
+        readLocks = newAdders(segments);
+        searches = newAdders(segments);
+        probes = newAdders(segments);
+    }
+
+    private static LongAdder[] newAdders(int segments) {
+        LongAdder[] adders = new LongAdder[segments];
+        for (int i = 0; i < segments; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public int segments() {
+        return segments;
+    }
+
+    private static int counterIndex(int segmentIndex, int counter) {
+        return PADDING + segmentIndex * COUNTERS_STRIDE + counter;
+    }
+
+    private static int histogramIndex(int segmentIndex, int bucket) {
+        return PADDING + segmentIndex * HISTOGRAM_STRIDE + bucket;
+    }
+
+    private void increment(int segmentIndex, int counter) {
+        counters.getAndIncrement(counterIndex(segmentIndex, counter));
+    }
+
+    private void add(int segmentIndex, int counter, long delta) {
+        counters.getAndAdd(counterIndex(segmentIndex, counter), delta);
+    }
+
+    void lockAcquired(int segmentIndex, int lockCounter) {
+        if (lockCounter == READ_LOCKS) {
+            readLocks[segmentIndex].increment();
+        } else {
+            increment(segmentIndex, lockCounter);
+        }
+    }
+
+    void contendedLockAcquired(int segmentIndex, int lockCounter, long waitNanos) {
+        lockAcquired(segmentIndex, lockCounter);
+        increment(segmentIndex, CONTENDED_LOCKS);
+        add(segmentIndex, LOCK_WAIT_NANOS, waitNanos);
+        lockWaitHistogram.getAndIncrement(histogramIndex(segmentIndex, lockWaitBucket(waitNanos)));
+    }
+
+    static int lockWaitBucket(long waitNanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(waitNanos >>> 10);
+        return Math.min(bucket, LOCK_WAIT_HISTOGRAM_BUCKETS - 1);
+    }
+
+    public void searched(int segmentIndex) {
+        searches[segmentIndex].increment();
+    }
+
+    public void probed(int segmentIndex, long probes) {
+        this.probes[segmentIndex].add(probes);
+    }
+
+    public void allocationFailed(int segmentIndex) {
+        increment(segmentIndex, ALLOCATION_FAILURES);
+    }
+
+    public long readLockAcquisitions(int segmentIndex) {
+        return readLocks[segmentIndex].sum();
+    }
+
+    public long updateLockAcquisitions(int segmentIndex) {
+        return counters.get(counterIndex(segmentIndex, UPDATE_LOCKS));
+    }
+
+    public long writeLockAcquisitions(int segmentIndex) {
+        return counters.get(counterIndex(segmentIndex, WRITE_LOCKS));
+    }
+
+    public long contendedLockAcquisitions(int segmentIndex) {
+        return counters.get(counterIndex(segmentIndex, CONTENDED_LOCKS));
+    }
+
+    public long lockWaitNanos(int segmentIndex) {
+        return counters.get(counterIndex(segmentIndex, LOCK_WAIT_NANOS));
+    }
+
+    public long searches(int segmentIndex) {
+        return searches[segmentIndex].sum();
+    }
+
+    public long probes(int segmentIndex) {
+        return probes[segmentIndex].sum();
+    }
+
+    public long allocationFailures(int segmentIndex) {
+        return counters.get(counterIndex(segmentIndex, ALLOCATION_FAILURES));
+    }
+
+    public long[] lockWaitHistogram(int segmentIndex) {
+        long[] histogram = new long[LOCK_WAIT_HISTOGRAM_BUCKETS];
+        for (int i = 0; i < LOCK_WAIT_HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = lockWaitHistogram.get(histogramIndex(segmentIndex, i));
+        }
+        return histogram;
+    }
+}
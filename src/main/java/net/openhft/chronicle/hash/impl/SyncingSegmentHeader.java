@@ -0,0 +1,218 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SegmentHeader} of a single segment, which delegates to another header and writes the
+ * segment to the disk after the write lock is released. If the write lock is downgraded, the
+ * segment is written after the following read or update unlock, so that the disk write doesn't
+ * hold the lock. See {@link net.openhft.chronicle.hash.DurabilityPolicy#ON_SEGMENT_UNLOCK}.
+ */
+public final class SyncingSegmentHeader implements SegmentHeader {
+
+    private final SegmentHeader delegate;
+    private final VanillaChronicleHash<?, ?, ?, ?, ?, ?> hash;
+    private final int segmentIndex;
+    /**
+     * If the write lock was downgraded since the segment was written last time. Could be cleared
+     * by the unlock of another reader, it's fine, because the segment is written anyway. If two
+     * threads write the segment, it's only redundant.
+     */
+    private volatile boolean syncPending;
+
+    public SyncingSegmentHeader(SegmentHeader delegate, VanillaChronicleHash<?, ?, ?, ?, ?, ?> hash,
+                                int segmentIndex) {
+        this.delegate = delegate;
+        this.hash = hash;
+        this.segmentIndex = segmentIndex;
+    }
+
+    @Override
+    public long size(long address) {
+        return delegate.size(address);
+    }
+
+    @Override
+    public void size(long address, long size) {
+        delegate.size(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return delegate.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        delegate.deleted(address, deleted);
+    }
+
+    @Override
+    public long nextPosToSearchFrom(long address) {
+        return delegate.nextPosToSearchFrom(address);
+    }
+
+    @Override
+    public void nextPosToSearchFrom(long address, long nextPosToSearchFrom) {
+        delegate.nextPosToSearchFrom(address, nextPosToSearchFrom);
+    }
+
+    @Override
+    public long modificationVersion(long address) {
+        return delegate.modificationVersion(address);
+    }
+
+    @Override
+    public boolean validateModificationVersion(long address, long version) {
+        return delegate.validateModificationVersion(address, version);
+    }
+
+    @Override
+    public void readLock(long address) {
+        delegate.readLock(address);
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) {
+        delegate.readLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return delegate.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit) {
+        return delegate.tryReadLock(address, time, unit);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        delegate.updateLock(address);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) {
+        delegate.updateLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return delegate.tryUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit) {
+        return delegate.tryUpdateLock(address, time, unit);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        delegate.writeLock(address);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) {
+        delegate.writeLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        return delegate.tryWriteLock(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit) {
+        return delegate.tryWriteLock(address, time, unit);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return delegate.tryUpgradeReadToUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        return delegate.tryUpgradeReadToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        delegate.upgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) {
+        delegate.upgradeUpdateToWriteLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return delegate.tryUpgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit) {
+        return delegate.tryUpgradeUpdateToWriteLock(address, time, unit);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        delegate.readUnlock(address);
+        syncIfPending();
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        delegate.updateUnlock(address);
+        syncIfPending();
+    }
+
+    private void syncIfPending() {
+        if (syncPending) {
+            syncPending = false;
+            hash.syncSegmentOnUnlock(segmentIndex);
+        }
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        delegate.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        delegate.writeUnlock(address);
+        syncPending = false;
+        hash.syncSegmentOnUnlock(segmentIndex);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        delegate.downgradeWriteToUpdateLock(address);
+        syncPending = true;
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        delegate.downgradeWriteToReadLock(address);
+        syncPending = true;
+    }
+}
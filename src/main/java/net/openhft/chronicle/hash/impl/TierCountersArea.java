@@ -16,6 +16,7 @@
 
 package net.openhft.chronicle.hash.impl;
 
+import static net.openhft.lang.io.AbstractBytes.UNSIGNED_INT_MASK;
 import static net.openhft.lang.io.NativeBytes.UNSAFE;
 
 /**
@@ -32,6 +33,25 @@ public enum TierCountersArea {
     public static final long NEXT_POS_TO_SEARCH_FROM_TIERED_OFFSET = PREV_TIER_INDEX_OFFSET + 8L;
     public static final long SEGMENT_INDEX_OFFSET = NEXT_POS_TO_SEARCH_FROM_TIERED_OFFSET + 8L;
     public static final long TIER_OFFSET = SEGMENT_INDEX_OFFSET + 4L;
+    /**
+     * Hints of free runs of chunks in the tier, one 32-bit hint per size class, see {@link
+     * #freeRunSizeClass(long)}. A hint is the position of the first chunk of the run plus one, or
+     * zero if there is no hint. Hints are not guaranteed to be up-to-date, the free list bit set is
+     * the authority.
+     */
+    public static final long FREE_RUN_HINTS_OFFSET = TIER_OFFSET + 4L;
+    public static final int FREE_RUN_SIZE_CLASSES = 6;
+    /**
+     * The greatest chunk position + 1, which could be stored as a 32-bit hint
+     */
+    public static final long MAX_FREE_RUN_HINT = 0xFFFFFFFFL;
+    /**
+     * The high-water mark of origin timestamps, written to the entries of the tier in replicated
+     * hash containers. Zero if unknown, e. g. in tiers written by an older version of the library,
+     * or if no entry was written to the tier since it was allocated.
+     */
+    public static final long MAX_ORIGIN_TIMESTAMP_OFFSET =
+            FREE_RUN_HINTS_OFFSET + FREE_RUN_SIZE_CLASSES * 4L;
 
     public static long nextTierIndex(long address) {
         return UNSAFE.getLong(address + NEXT_TIER_INDEX_OFFSET);
@@ -73,4 +93,38 @@ public enum TierCountersArea {
     public static void tier(long address, int tier) {
         UNSAFE.putInt(address + TIER_OFFSET, tier);
     }
+
+    /**
+     * Runs of {@code [2^sizeClass, 2^(sizeClass + 1))} chunks belong to the size class, the last
+     * size class also includes all longer runs.
+     */
+    public static int freeRunSizeClass(long chunks) {
+        assert chunks > 0;
+        return Math.min(63 - Long.numberOfLeadingZeros(chunks), FREE_RUN_SIZE_CLASSES - 1);
+    }
+
+    public static long freeRunHint(long address, int sizeClass) {
+        return UNSAFE.getInt(address + FREE_RUN_HINTS_OFFSET + sizeClass * 4L) &
+                UNSIGNED_INT_MASK;
+    }
+
+    public static void freeRunHint(long address, int sizeClass, long hint) {
+        UNSAFE.putInt(address + FREE_RUN_HINTS_OFFSET + sizeClass * 4L, (int) hint);
+    }
+
+    public static long maxOriginTimestamp(long address) {
+        return UNSAFE.getLong(address + MAX_ORIGIN_TIMESTAMP_OFFSET);
+    }
+
+    public static void maxOriginTimestamp(long address, long maxOriginTimestamp) {
+        UNSAFE.putLong(address + MAX_ORIGIN_TIMESTAMP_OFFSET, maxOriginTimestamp);
+    }
+
+    /**
+     * Should be called under the segment write lock.
+     */
+    public static void raiseMaxOriginTimestamp(long address, long originTimestamp) {
+        if (originTimestamp > maxOriginTimestamp(address))
+            maxOriginTimestamp(address, originTimestamp);
+    }
 }
@@ -23,6 +23,8 @@ import net.openhft.chronicle.core.Maths;
 import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.hash.*;
 import net.openhft.chronicle.hash.impl.util.BuildVersion;
+import net.openhft.chronicle.hash.impl.util.Msync;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
 import net.openhft.chronicle.hash.serialization.BytesReader;
 import net.openhft.chronicle.hash.serialization.SizeMarshaller;
 import net.openhft.chronicle.hash.serialization.internal.MetaBytesInterop;
@@ -32,6 +34,7 @@ import net.openhft.chronicle.map.ChronicleMapBuilder;
 import net.openhft.lang.io.*;
 import net.openhft.lang.io.serialization.BytesMarshallableSerializer;
 import net.openhft.lang.model.DataValueClasses;
+import net.openhft.lang.thread.NamedThreadFactory;
 import net.openhft.lang.threadlocal.Provider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,14 +42,21 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.OpenOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.lang.Long.numberOfTrailingZeros;
 import static java.lang.Math.max;
@@ -99,7 +109,7 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
 
     /////////////////////////////////////////////////
     // Precomputed offsets and sizes for fast Context init
-    final int segmentHeaderSize;
+    public final int segmentHeaderSize;
 
     public final int segmentHashLookupValueBits;
     public final int segmentHashLookupKeyBits;
@@ -117,7 +127,7 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
 
     public final long segmentSize;
 
-    final long maxExtraTiers;
+    public final long maxExtraTiers;
     final long tierBulkSizeInBytes;
     final long tierBulkInnerOffsetToTiers;
     protected final long numberOfTiersInBulk;
@@ -165,6 +175,47 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
 
     private transient VanillaGlobalMutableState globalMutableState;
 
+    /**
+     * Runtime-only, {@code null} unless {@link #recordStats()} is called by the builder
+     */
+    public transient SegmentStatsRecorder statsRecorder;
+    /**
+     * Runtime-only, {@code null} if all segments use {@link BigSegmentHeader#INSTANCE}
+     */
+    private transient SegmentHeader[] segmentHeaders;
+    /**
+     * Runtime-only, if allocation of entry space should first try hints of free runs of chunks,
+     * see {@link TierCountersArea#FREE_RUN_HINTS_OFFSET}. Hints are validated against the free
+     * list before use, so processes which don't keep them up-to-date don't break anything.
+     */
+    public transient boolean freeRunHints;
+
+    /**
+     * Runtime-only, see {@link #durabilityPolicy(DurabilityPolicy)}
+     */
+    private transient DurabilityPolicy durabilityPolicy;
+    /**
+     * Guards {@link #syncedModificationVersions} and {@link #syncExecutor}. Segment locks are
+     * never acquired and the disk is never written under this lock, because threads holding
+     * segment locks write to the disk as well, see {@link #allocateTierBulk()}.
+     */
+    private transient Object syncLock;
+    /**
+     * Read-locked while the mapped memory is written to the disk, outside of operations on the
+     * hash, write-locked to unmap the memory on close
+     */
+    private transient ReentrantReadWriteLock closeLock;
+    /**
+     * Modification versions of segments, read before they were synced last time, see {@link
+     * #sync()}
+     */
+    private transient long[] syncedModificationVersions;
+    /**
+     * Opened in {@link #durabilityPolicy(DurabilityPolicy)}, before the hash is accessed
+     */
+    private transient RandomAccessFile syncFile;
+    private transient ScheduledExecutorService syncExecutor;
+
     public VanillaChronicleHash(ChronicleMapBuilder<K, ?> builder) {
         // Version
         dataFileVersion = BuildVersion.version();
@@ -281,6 +332,12 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
 
     private void initOwnTransients() {
         globalMutableState = createGlobalMutableState();
+        durabilityPolicy = DurabilityPolicy.NONE;
+        syncLock = new Object();
+        closeLock = new ReentrantReadWriteLock();
+        syncedModificationVersions = new long[actualSegments];
+        // modification versions are never negative, so the first sync() writes all segments
+        Arrays.fill(syncedModificationVersions, -1L);
         keyReaderProvider = Provider.of((Class) originalKeyReader.getClass());
         keyInteropProvider = Provider.of((Class) originalKeyInterop.getClass());
         if (segmentHashLookupEntrySize == 4) {
@@ -455,11 +512,51 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
             return;
         if (ms == null)
             return;
-        bytes.release();
-        bytes = null;
-        ms.free();
-        ms = null;
-        closed = true;
+        shutdownSync();
+        closeLock.writeLock().lock();
+        try {
+            closeSyncFile();
+            bytes.release();
+            bytes = null;
+            ms.free();
+            ms = null;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+
+    private void shutdownSync() {
+        ScheduledExecutorService executor;
+        synchronized (syncLock) {
+            executor = syncExecutor;
+        }
+        if (executor != null) {
+            // periodic sync is cancelled, but already submitted syncAsync() calls complete
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.error("", e);
+            }
+        }
+        if (durabilityPolicy.kind() != DurabilityPolicy.Kind.NONE) {
+            try {
+                sync();
+            } catch (IOException e) {
+                LOG.error("Failed to sync " + file() + " on close", e);
+            }
+        }
+    }
+
+    private void closeSyncFile() {
+        if (syncFile != null) {
+            try {
+                syncFile.close();
+            } catch (IOException e) {
+                LOG.error("", e);
+            }
+        }
     }
 
     @Override
@@ -486,6 +583,13 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
         return sizes;
     }
 
+    /**
+     * For testing
+     */
+    public final long extraTiersInUse() {
+        return globalMutableState.getExtraTiersInUse();
+    }
+
     public final long segmentHeaderAddress(int segmentIndex) {
         return ms.address() + segmentHeadersOffset + ((long) segmentIndex) * segmentHeaderSize;
     }
@@ -605,6 +709,354 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
         }
     }
 
+    /**
+     * Starts recording of per-segment lock, search and allocation stats. Should be called before
+     * this hash container is accessed.
+     */
+    public void recordStats() {
+        SegmentStatsRecorder statsRecorder = new SegmentStatsRecorder(actualSegments);
+        SegmentHeader[] instrumentedSegmentHeaders = new SegmentHeader[actualSegments];
+        for (int i = 0; i < actualSegments; i++) {
+            instrumentedSegmentHeaders[i] =
+                    new InstrumentedSegmentHeader(segmentHeader(i), statsRecorder, i);
+        }
+        this.segmentHeaders = instrumentedSegmentHeaders;
+        this.statsRecorder = statsRecorder;
+    }
+
+    /**
+     * Configures how threads wait for segment locks. Purely in-memory hash containers are not
+     * accessed from other processes, so threads waiting for segment locks are also unparked when
+     * locks are released by other threads. Should be called before this hash container is
+     * accessed, and before {@link #recordStats()}.
+     */
+    public void lockAcquisitionStrategy(LockAcquisitionStrategy strategy) {
+        boolean inJvmWaitQueue = file() == null;
+        SegmentHeader[] segmentHeaders = new SegmentHeader[actualSegments];
+        for (int i = 0; i < actualSegments; i++) {
+            segmentHeaders[i] = new BigSegmentHeader(strategy, inJvmWaitQueue);
+        }
+        this.segmentHeaders = segmentHeaders;
+    }
+
+    /**
+     * Configures when changes are written to the disk, see {@link DurabilityPolicy}. Should be
+     * called before this hash container is accessed, after {@link #recordStats()}.
+     */
+    public void durabilityPolicy(DurabilityPolicy policy) throws IOException {
+        if (file() == null)
+            return;
+        // sync() could be called under any policy. The file is opened eagerly, so that threads
+        // writing to the disk under segment locks don't synchronize to open it
+        if (syncFile == null)
+            syncFile = new RandomAccessFile(file(), "rw");
+        this.durabilityPolicy = policy;
+        if (policy.kind() == DurabilityPolicy.Kind.ON_SEGMENT_UNLOCK) {
+            SegmentHeader[] syncingSegmentHeaders = new SegmentHeader[actualSegments];
+            for (int i = 0; i < actualSegments; i++) {
+                syncingSegmentHeaders[i] = new SyncingSegmentHeader(segmentHeader(i), this, i);
+            }
+            this.segmentHeaders = syncingSegmentHeaders;
+        } else if (policy.kind() == DurabilityPolicy.Kind.PERIODIC) {
+            long interval = policy.intervalMillis();
+            syncExecutor().scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    LOG.error("Failed to sync " + file(), e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        closeLock.readLock().lock();
+        try {
+            if (closed || syncFile == null)
+                return;
+            if (!Msync.supported()) {
+                syncFile.getChannel().force(false);
+                return;
+            }
+            boolean segmentsSynced = false;
+            for (int i = 0; i < actualSegments; i++) {
+                long version = segmentHeader(i).modificationVersion(segmentHeaderAddress(i));
+                if (version != syncedModificationVersion(i)) {
+                    // segment read locks are acquired outside of syncLock, see syncLock
+                    syncSegmentTiers(i);
+                    syncedModificationVersion(i, version);
+                    segmentsSynced = true;
+                }
+            }
+            if (segmentsSynced)
+                syncSegmentHeaders();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private long syncedModificationVersion(int segmentIndex) {
+        synchronized (syncLock) {
+            return syncedModificationVersions[segmentIndex];
+        }
+    }
+
+    /**
+     * A version, stored after a concurrent sync had read a newer one, only makes the next {@link
+     * #sync()} write the segment again
+     */
+    private void syncedModificationVersion(int segmentIndex, long version) {
+        synchronized (syncLock) {
+            syncedModificationVersions[segmentIndex] = version;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> syncAsync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed || file() == null) {
+            future.complete(null);
+            return future;
+        }
+        syncExecutor().execute(() -> {
+            try {
+                sync();
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Called by {@link SyncingSegmentHeader} after the segment lock is released, if it was
+     * write-locked.
+     */
+    void syncSegmentOnUnlock(int segmentIndex) {
+        try {
+            if (!Msync.supported()) {
+                syncFile.getChannel().force(false);
+                return;
+            }
+            long version = segmentHeader(segmentIndex).modificationVersion(
+                    segmentHeaderAddress(segmentIndex));
+            syncSegmentTiers(segmentIndex);
+            syncSegmentHeaders();
+            syncedModificationVersion(segmentIndex, version);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void syncSegmentTiers(int segmentIndex) throws IOException {
+        long[] ranges = segmentTierRanges(segmentIndex);
+        for (int i = 0; i < ranges.length; i += 2) {
+            msync(ranges[i], ranges[i + 1]);
+        }
+    }
+
+    /**
+     * Returns pairs of addresses and lengths of the tiers of the segment, and of the bit sets of
+     * extra tier bulks, if any. The chain of tiers is read under the segment read lock, because
+     * extra tiers might need to be mapped, but the memory is written to the disk after the lock
+     * is released, so that updating threads don't wait for the disk.
+     */
+    private long[] segmentTierRanges(int segmentIndex) {
+        SegmentHeader segmentHeader = segmentHeader(segmentIndex);
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        segmentHeader.readLock(segmentHeaderAddress);
+        try {
+            long[] ranges = new long[4];
+            int size = 0;
+            long tierIndex = segmentIndex + 1L;
+            while (tierIndex != 0) {
+                if (size + 4 > ranges.length)
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                long tierBaseAddr = tierIndexToBaseAddr(tierIndex);
+                ranges[size++] = tierBaseAddr;
+                ranges[size++] = segmentSize;
+                long extraTierIndex = tierIndex - 1 - actualSegments;
+                if (extraTierIndex >= 0 && tierBulkInnerOffsetToTiers > 0) {
+                    long tierIndexOffsetWithinBulk = extraTierIndex & (numberOfTiersInBulk - 1);
+                    ranges[size++] = tierBaseAddr - tierIndexOffsetWithinBulk * segmentSize -
+                            tierBulkInnerOffsetToTiers;
+                    ranges[size++] = tierBulkInnerOffsetToTiers;
+                }
+                tierIndex = TierCountersArea.nextTierIndex(
+                        tierBaseAddr + segmentHashLookupOuterSize);
+            }
+            return Arrays.copyOf(ranges, size);
+        } finally {
+            segmentHeader.readUnlock(segmentHeaderAddress);
+        }
+    }
+
+    /**
+     * Syncs the file header, global mutable state and segment headers
+     */
+    private void syncSegmentHeaders() throws IOException {
+        msync(ms.address(), segmentsOffset);
+    }
+
+    private void msync(long address, long length) throws IOException {
+        if (Msync.supported()) {
+            Msync.msync(syncFile.getFD(), address, length);
+        } else {
+            syncFile.getChannel().force(false);
+        }
+    }
+
+    private ScheduledExecutorService syncExecutor() {
+        synchronized (syncLock) {
+            if (closed)
+                throw new IllegalStateException("Chronicle Hash is closed");
+            if (syncExecutor == null) {
+                syncExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                        "sync thread for map persisted at " + file(), true));
+            }
+            return syncExecutor;
+        }
+    }
+
+    public SegmentHeader segmentHeader(int segmentIndex) {
+        SegmentHeader[] segmentHeaders = this.segmentHeaders;
+        return segmentHeaders != null ? segmentHeaders[segmentIndex] : BigSegmentHeader.INSTANCE;
+    }
+
+    /**
+     * Returns the tier, previously allocated via {@link #allocateTier(int, int)}, back to the free
+     * tiers list. The tier should already be unlinked from the segment's chain of tiers, and
+     * shouldn't contain any entries, but this is not checked.
+     */
+    public void freeTier(long tierIndex) {
+        LOG.debug("Free tier {}", tierIndex);
+        globalMutableStateLock();
+        try {
+            Bytes freedTierBytes = tierBytes(tierIndex);
+            long freedTierOffset = tierBytesOffset(tierIndex);
+            zeroOutNewlyMappedTier(freedTierBytes, freedTierOffset);
+            long tierCountersAreaAddr =
+                    freedTierBytes.address() + freedTierOffset + segmentHashLookupOuterSize;
+            TierCountersArea.nextTierIndex(tierCountersAreaAddr,
+                    globalMutableState.getFirstFreeTierIndex());
+            globalMutableState.setFirstFreeTierIndex(tierIndex);
+            globalMutableState.setExtraTiersInUse(globalMutableState.getExtraTiersInUse() - 1);
+        } finally {
+            globalMutableStateUnlock();
+        }
+    }
+
+    /**
+     * Releases the global mutable state lock, if it was left held by a dead process. Should be
+     * called only when no other process accesses this hash container.
+     *
+     * @return if the lock was held
+     */
+    public boolean resetGlobalMutableStateLock() {
+        long lockAddr = globalMutableStateAddress() + GLOBAL_MUTABLE_STATE_LOCK_OFFSET;
+        if (UNSAFE.getLongVolatile(null, lockAddr) == 0L)
+            return false;
+        UNSAFE.putLongVolatile(null, lockAddr, 0L);
+        return true;
+    }
+
+    /**
+     * Releases the lock of the segment, if it was left held by a dead process, and checks the
+     * links of the segment's chain of tiers. A link to a tier outside of the allocated tier bulks,
+     * to a tier allocated for another segment or position in the chain, or to a tier already
+     * linked from some segment, is cut. Back links of the linked tiers are fixed. Should be called
+     * only when no other process accesses this hash container.
+     *
+     * @param linkedExtraTiers extra tiers (0-based), linked from the segments checked before, the
+     *                         extra tiers of this segment's chain are added to this set
+     */
+    public void recoverTiersChain(
+            int segmentIndex, SegmentRecovery recovery, BitSet linkedExtraTiers) {
+        recovery.staleLockReset =
+                BigSegmentHeader.INSTANCE.resetStaleLock(segmentHeaderAddress(segmentIndex));
+        long extraTiers = allocatedExtraTiers();
+        long tierIndex = segmentIndex + 1L;
+        int tier = 0;
+        while (true) {
+            long countersAddr = tierIndexToBaseAddr(tierIndex) + segmentHashLookupOuterSize;
+            long nextTierIndex = TierCountersArea.nextTierIndex(countersAddr);
+            if (nextTierIndex == 0L)
+                return;
+            long extraTier = nextTierIndex - 1L - actualSegments;
+            long nextCountersAddr;
+            if (extraTier < 0L || extraTier >= extraTiers ||
+                    linkedExtraTiers.get((int) extraTier) ||
+                    TierCountersArea.segmentIndex(nextCountersAddr =
+                            tierIndexToBaseAddr(nextTierIndex) + segmentHashLookupOuterSize) !=
+                            segmentIndex ||
+                    TierCountersArea.tier(nextCountersAddr) != tier + 1) {
+                TierCountersArea.nextTierIndex(countersAddr, 0L);
+                recovery.tierLinksCut++;
+                return;
+            }
+            if (TierCountersArea.prevTierIndex(nextCountersAddr) != tierIndex) {
+                TierCountersArea.prevTierIndex(nextCountersAddr, tierIndex);
+                recovery.tierCountersFixed++;
+            }
+            linkedExtraTiers.set((int) extraTier);
+            tierIndex = nextTierIndex;
+            tier++;
+        }
+    }
+
+    /**
+     * Rebuilds the free tiers list of all allocated extra tiers, which are not linked from any
+     * segment, and recomputes the number of extra tiers in use, after {@link
+     * #recoverTiersChain(int, SegmentRecovery, BitSet)} is called for all segments. Not linked
+     * tiers, which were not in the free tiers list, are cleared.
+     *
+     * @return the number of cleared tiers
+     */
+    public long recoverFreeTiers(BitSet linkedExtraTiers) {
+        long extraTiers = allocatedExtraTiers();
+        BitSet listedExtraTiers = new BitSet();
+        long tierIndex = globalMutableState.getFirstFreeTierIndex();
+        while (true) {
+            long extraTier = tierIndex - 1L - actualSegments;
+            if (extraTier < 0L || extraTier >= extraTiers ||
+                    linkedExtraTiers.get((int) extraTier) ||
+                    listedExtraTiers.get((int) extraTier)) {
+                break;
+            }
+            listedExtraTiers.set((int) extraTier);
+            tierIndex = TierCountersArea.nextTierIndex(
+                    tierIndexToBaseAddr(tierIndex) + segmentHashLookupOuterSize);
+        }
+        long clearedTiers = 0L;
+        long firstFreeTierIndex = 0L;
+        // link from the last tier, so that the list starts from the lowest tier, as after
+        // allocateTierBulk()
+        for (int extraTier = (int) extraTiers - 1; extraTier >= 0; extraTier--) {
+            if (linkedExtraTiers.get(extraTier))
+                continue;
+            long freeTierIndex = actualSegments + 1L + extraTier;
+            Bytes freeTierBytes = tierBytes(freeTierIndex);
+            long freeTierOffset = tierBytesOffset(freeTierIndex);
+            if (!listedExtraTiers.get(extraTier)) {
+                zeroOutNewlyMappedTier(freeTierBytes, freeTierOffset);
+                clearedTiers++;
+            }
+            TierCountersArea.nextTierIndex(
+                    freeTierBytes.address() + freeTierOffset + segmentHashLookupOuterSize,
+                    firstFreeTierIndex);
+            firstFreeTierIndex = freeTierIndex;
+        }
+        globalMutableState.setFirstFreeTierIndex(firstFreeTierIndex);
+        globalMutableState.setExtraTiersInUse(linkedExtraTiers.cardinality());
+        return clearedTiers;
+    }
+
+    private long allocatedExtraTiers() {
+        return globalMutableState.getAllocatedExtraTierBulks() * numberOfTiersInBulk;
+    }
+
     private void allocateTierBulk() {
         int allocatedExtraTierBulks = globalMutableState.getAllocatedExtraTierBulks();
         mapTiers(allocatedExtraTierBulks);
@@ -631,7 +1083,15 @@ public abstract class VanillaChronicleHash<K, KI, MKI extends MetaBytesInterop<K
             }
         }
 
-        // TODO HCOLL-397 insert msync here!
+        if (durabilityPolicy.kind() != DurabilityPolicy.Kind.NONE) {
+            // the new bulk should reach the disk before the global mutable state refers to it
+            try {
+                msync(bytes.address() + firstTierOffset - tierBulkInnerOffsetToTiers,
+                        tierBulkSizeInBytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
         // after we are sure the new bulk is initialized, update the global mutable state
         globalMutableState.setAllocatedExtraTierBulks(allocatedExtraTierBulks + 1);
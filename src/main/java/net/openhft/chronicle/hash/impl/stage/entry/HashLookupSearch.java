@@ -17,6 +17,7 @@
 package net.openhft.chronicle.hash.impl.stage.entry;
 
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.SegmentStatsRecorder;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupPos;
@@ -55,10 +56,13 @@ public abstract class HashLookupSearch {
 
     public long nextPos() {
         long pos = hlp.hashLookupPos;
+        long probes = 0L;
         while (true) {
+            probes++;
             long entry = hl().readEntry(addr(), pos);
             if (hl().empty(entry)) {
                 hlp.setHashLookupPos(pos);
+                probed(probes);
                 return -1L;
             }
             pos = hl().step(pos);
@@ -66,6 +70,7 @@ public abstract class HashLookupSearch {
                 break;
             if (hl().key(entry) == searchKey) {
                 hlp.setHashLookupPos(pos);
+                probed(probes);
                 return hl().value(entry);
             }
         }
@@ -74,6 +79,12 @@ public abstract class HashLookupSearch {
                 "expected");
     }
 
+    private void probed(long probes) {
+        SegmentStatsRecorder statsRecorder = hh.h().statsRecorder;
+        if (statsRecorder != null)
+            statsRecorder.probed(s.segmentIndex, probes);
+    }
+
     public void found() {
         hlp.setHashLookupPos(hl().stepBack(hlp.hashLookupPos));
     }
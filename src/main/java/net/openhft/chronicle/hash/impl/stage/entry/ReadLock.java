@@ -93,10 +93,16 @@ public class ReadLock implements InterProcessLock {
 
     @Override
     public void unlock() {
+        boolean optimisticRead = s.optimisticRead();
         s.readUnlockAndDecrementCount();
         s.setLocalLockState(UNLOCKED);
         // TODO what should close here?
         hlp.closeHashLookupPos();
         entry.closePos();
+        if (optimisticRead && s.segmentTier != 0) {
+            // the lock-free walk might have reached a tier, which is freed or linked to another
+            // segment's chain since, the next search should start from the first tier
+            s.initSegmentTier();
+        }
     }
 }
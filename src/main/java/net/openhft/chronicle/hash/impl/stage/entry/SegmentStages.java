@@ -35,11 +35,16 @@ import net.openhft.sg.StageRef;
 import net.openhft.sg.Staged;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ConcurrentModificationException;
 import java.util.Objects;
 
 import static net.openhft.chronicle.algo.MemoryUnit.BITS;
 import static net.openhft.chronicle.algo.MemoryUnit.LONGS;
+import static net.openhft.chronicle.hash.impl.LocalLockState.READ_LOCKED;
 import static net.openhft.chronicle.hash.impl.LocalLockState.UNLOCKED;
+import static net.openhft.chronicle.hash.impl.TierCountersArea.FREE_RUN_SIZE_CLASSES;
+import static net.openhft.chronicle.hash.impl.TierCountersArea.MAX_FREE_RUN_HINT;
+import static net.openhft.chronicle.hash.impl.TierCountersArea.freeRunSizeClass;
 import static net.openhft.chronicle.hash.impl.VanillaChronicleHash.TIER_COUNTERS_AREA_SIZE;
 
 @Staged
@@ -62,7 +67,7 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
 
     private void initSegmentHeader() {
         segmentHeaderAddress = hh.h().segmentHeaderAddress(segmentIndex);
-        segmentHeader = BigSegmentHeader.INSTANCE;
+        segmentHeader = hh.h().segmentHeader(segmentIndex);
     }
 
     public long entries() {
@@ -93,6 +98,14 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
         return segmentHeader.deleted(segmentHeaderAddress);
     }
 
+    /**
+     * Returns the modification version of the segment, changed each time the segment is
+     * write-locked, see {@link SegmentHeader#modificationVersion(long)}
+     */
+    public long modificationVersion() {
+        return segmentHeader.modificationVersion(segmentHeaderAddress);
+    }
+
     public void deleted(long deleted) {
         segmentHeader.deleted(segmentHeaderAddress, deleted);
     }
@@ -149,6 +162,72 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
     @Stage("Locks") int totalUpdateLockCount;
     @Stage("Locks") int totalWriteLockCount;
 
+    /**
+     * The modification version of the segment, read when this context started an optimistic read
+     * (see {@link #tryOptimisticReadLock()}), or -1, if the read lock of this context, if any, is
+     * an actual segment lock
+     */
+    @Stage("Locks") long optimisticReadVersion;
+
+    /**
+     * Puts this context into the read-locked state without acquiring the segment lock, if the
+     * segment is not locked by other contexts of this thread and is not being modified at the
+     * moment. Reads performed in this state might see the segment in an inconsistent state, and
+     * must be checked by {@link #validateOptimisticReadLock()} before their results are used.
+     * Reads may fail with exceptions, if the segment is modified concurrently. Only queries of
+     * entries could be performed in this state, update and write locks couldn't be acquired.
+     *
+     * @return if the optimistic read is started
+     */
+    @Stage("Locks")
+    public boolean tryOptimisticReadLock() {
+        if (localLockState != UNLOCKED || rootContextLockedOnThisSegment != this ||
+                nestedContextsLockedOnSameSegment || !readZero() || !updateZero() ||
+                !writeZero()) {
+            return false;
+        }
+        long version = segmentHeader.modificationVersion(segmentHeaderAddress);
+        if ((version & 1L) != 0L)
+            return false; // the segment is write-locked
+        optimisticReadVersion = version;
+        incrementRead();
+        setLocalLockState(READ_LOCKED);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the optimistic read, started by {@link #tryOptimisticReadLock()}, is
+     * still consistent, i. e. the segment is not modified since the optimistic read is started
+     */
+    @Stage("Locks")
+    public boolean validateOptimisticReadLock() {
+        return optimisticReadVersion >= 0L &&
+                segmentHeader.validateModificationVersion(
+                        segmentHeaderAddress, optimisticReadVersion);
+    }
+
+    /**
+     * @return if this context is in the read-locked state, started by {@link
+     * #tryOptimisticReadLock()}
+     */
+    @Stage("Locks")
+    public boolean optimisticRead() {
+        return optimisticReadVersion >= 0L;
+    }
+
+    /**
+     * Checks that the entry chunk at the given position, found during an optimistic read, is
+     * within the entry space of the tier. A torn hash lookup slot could contain any position, and
+     * reading an entry at it could touch memory outside the mapping.
+     *
+     * @throws ConcurrentModificationException if the position is outside the entry space
+     */
+    @Stage("Locks")
+    public void checkOptimisticReadPos(long pos) {
+        if (pos < 0L || pos >= hh.h().actualChunksPerSegment)
+            throw new ConcurrentModificationException();
+    }
+
     @Stage("Locks")
     public boolean readZero() {
         return rootContextLockedOnThisSegment.totalReadLockCount() == 0;
@@ -216,6 +295,7 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
 
     void initLocks() {
         localLockState = UNLOCKED;
+        optimisticReadVersion = -1L;
         int indexOfThisContext = chaining.indexInContextChain;
         for (int i = indexOfThisContext - 1; i >= 0; i--) {
             if (tryFindInitLocksOfThisSegment(i))
@@ -278,6 +358,11 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
                 return;
             case READ_LOCKED:
                 int newTotalReadLockCount = decrementRead();
+                if (optimisticReadVersion >= 0L) {
+                    // the segment lock is not actually acquired, see tryOptimisticReadLock()
+                    optimisticReadVersion = -1L;
+                    return;
+                }
                 if (newTotalReadLockCount == 0) {
                     if (updateZero() && writeZero())
                         segmentHeader.readUnlock(segmentHeaderAddress);
@@ -370,7 +455,11 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
             case UNLOCKED:
                 return;
             case READ_LOCKED:
-                segmentHeader.readUnlock(segmentHeaderAddress);
+                if (optimisticReadVersion >= 0L) {
+                    optimisticReadVersion = -1L;
+                } else {
+                    segmentHeader.readUnlock(segmentHeaderAddress);
+                }
                 return;
             case UPDATE_LOCKED:
                 segmentHeader.updateUnlock(segmentHeaderAddress);
@@ -535,6 +624,11 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
     public void nextTier() {
         VanillaChronicleHash<?, ?, ? extends MetaBytesInterop<?, ?>, ?, ?, ?> h = hh.h();
         long nextTierIndex = nextTierIndex();
+        if (optimisticReadVersion >= 0L && !validateOptimisticReadLock()) {
+            // the chain of tiers is changed concurrently, the link might point to a tier of
+            // another segment already, or be zeroed
+            throw new ConcurrentModificationException();
+        }
         if (nextTierIndex == 0) {
             nextTierIndex = h.allocateTier(segmentIndex, segmentTier + 1);
             nextTierIndex(nextTierIndex);
@@ -605,6 +699,11 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
             throw new IllegalArgumentException("Entry is too large: requires " + chunks +
                     " entry size chucks, " + h.maxChunksPerEntry + " is maximum.");
         }
+        if (h.freeRunHints) {
+            long hinted = allocFromFreeRunHints(chunks);
+            if (hinted >= 0)
+                return hinted;
+        }
         long ret = freeList.setNextNContinuousClearBits(nextPosToSearchFrom(), chunks);
         if (ret == DirectBitSet.NOT_FOUND || ret + chunks > h.actualChunksPerSegment) {
             if (ret != DirectBitSet.NOT_FOUND &&
@@ -618,6 +717,8 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
                         ret < h.actualChunksPerSegment) {
                     freeList.clearRange(ret, h.actualChunksPerSegment);
                 }
+                if (h.statsRecorder != null)
+                    h.statsRecorder.allocationFailed(segmentIndex);
                 return -1;
             }
             updateNextPosToSearchFrom(ret, chunks);
@@ -632,10 +733,54 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
         return ret;
     }
 
+    /**
+     * Tries to allocate chunks at the positions of free runs, hinted in the tier counters area,
+     * starting from the size class of the requested number of chunks. Each hint is checked against
+     * the free list, stale hints are dropped.
+     *
+     * @return the allocated position, or -1 if no hint could satisfy the request
+     */
+    private long allocFromFreeRunHints(int chunks) {
+        long actualChunksPerSegment = hh.h().actualChunksPerSegment;
+        long countersAddr = tierCountersAreaAddr();
+        for (int sizeClass = freeRunSizeClass(chunks); sizeClass < FREE_RUN_SIZE_CLASSES;
+             sizeClass++) {
+            long hint = TierCountersArea.freeRunHint(countersAddr, sizeClass);
+            if (hint == 0L)
+                continue;
+            long pos = hint - 1L;
+            if (pos + chunks <= actualChunksPerSegment &&
+                    freeList.isRangeClear(pos, pos + chunks)) {
+                freeList.setRange(pos, pos + chunks);
+                TierCountersArea.freeRunHint(countersAddr, sizeClass, 0L);
+                long restPos = pos + chunks;
+                if (restPos < actualChunksPerSegment && !freeList.isSet(restPos)) {
+                    // the run was at least 2^sizeClass chunks long
+                    putFreeRunHint(restPos, Math.max((1L << sizeClass) - chunks, 1L));
+                }
+                return pos;
+            }
+            // the hinted run could still be valid, but shorter than the requested number of
+            // chunks, if it is of the same size class
+            if (pos >= actualChunksPerSegment || freeList.isSet(pos))
+                TierCountersArea.freeRunHint(countersAddr, sizeClass, 0L);
+        }
+        return -1L;
+    }
+
+    private void putFreeRunHint(long fromPos, long chunks) {
+        if (fromPos + 1L <= MAX_FREE_RUN_HINT) {
+            TierCountersArea.freeRunHint(tierCountersAreaAddr(), freeRunSizeClass(chunks),
+                    fromPos + 1L);
+        }
+    }
+
     public void free(long fromPos, int chunks) {
         freeList.clearRange(fromPos, fromPos + chunks);
         if (fromPos < nextPosToSearchFrom())
             nextPosToSearchFrom(fromPos);
+        if (hh.h().freeRunHints)
+            putFreeRunHint(fromPos, chunks);
     }
 
     public void updateNextPosToSearchFrom(long allocated, int chunks) {
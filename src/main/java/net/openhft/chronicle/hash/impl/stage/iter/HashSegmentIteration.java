@@ -19,16 +19,26 @@ package net.openhft.chronicle.hash.impl.stage.iter;
 import net.openhft.chronicle.hash.HashEntry;
 import net.openhft.chronicle.hash.HashSegmentContext;
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.SegmentIterationCursor;
+import net.openhft.chronicle.hash.impl.SegmentRecovery;
+import net.openhft.chronicle.hash.impl.TierCountersArea;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupPos;
+import net.openhft.chronicle.hash.impl.stage.entry.KeyHashCode;
 import net.openhft.chronicle.hash.impl.stage.hash.CheckOnEachPublicOperation;
+import net.openhft.lang.collection.DirectBitSet;
 import net.openhft.sg.StageRef;
 import net.openhft.sg.Staged;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
+import static net.openhft.chronicle.hash.impl.TierCountersArea.FREE_RUN_SIZE_CLASSES;
+
 @Staged
 public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
         implements HashEntry<K>, HashSegmentContext<K, E> {
@@ -38,6 +48,7 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
     @StageRef VanillaChronicleHashHolder<?, ?, ?> hh;
     @StageRef public CheckOnEachPublicOperation checkOnEachPublicOperation;
     @StageRef protected HashLookupPos hlp;
+    @StageRef KeyHashCode kh;
     
     public boolean entryIsPresent() {
         return true;
@@ -152,6 +163,593 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
         });
     }
     
+    /**
+     * Visits entries of this segment in batches, the segment is update-locked only during a batch.
+     * The batch ends when the {@code action} returns {@code false}, the next call with the same
+     * cursor continues from the next entry. Entries of all tiers are visited in the order of their
+     * home slots in the hash lookup, see {@link SegmentIterationCursor}, the action shouldn't
+     * modify entries.
+     *
+     * <p>Entries, which are present in the segment during the whole iteration, are visited exactly
+     * once, even if they are moved to other tiers or positions between batches.
+     *
+     * @return if all entries of this segment are visited
+     */
+    public boolean forEachSegmentEntryFrom(
+            SegmentIterationCursor cursor, Predicate<? super E> action) {
+        s.innerUpdateLock.lock();
+        try {
+            if (!cursor.started())
+                cursor.start();
+            CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+            long lastPos = hashLookup.stepBack(0L);
+            while (true) {
+                long windowStartPos = cursor.homePos();
+                long windowEndPos = windowStartPos;
+                for (int i = 1; i < SegmentIterationCursor.WINDOW_SLOTS &&
+                        windowEndPos != lastPos; i++) {
+                    windowEndPos = hashLookup.step(windowEndPos);
+                }
+                collectWindow(cursor, windowStartPos, windowEndPos);
+                if (!visitWindow(cursor, windowStartPos, action))
+                    return false;
+                if (windowEndPos == lastPos)
+                    return true;
+                cursor.homePos(hashLookup.step(windowEndPos));
+            }
+        } finally {
+            closeHashLookupEntry();
+            s.innerReadLock.unlock();
+            initEntryRemovedOnThisIteration(false);
+        }
+    }
+
+    /**
+     * Collects the entries of all tiers, which home slots are within the given window. All slots
+     * between the home slot of an entry and its actual slot are occupied, so the entries are
+     * found between the first slot of the window and the first empty slot after the window.
+     */
+    private void collectWindow(
+            SegmentIterationCursor cursor, long windowStartPos, long windowEndPos) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long capacity = hh.h().segmentHashLookupCapacity;
+        cursor.clearWindow();
+        s.goToFirstTier();
+        while (true) {
+            int tier = s.segmentTier;
+            long tierBaseAddr = s.segmentBaseAddr;
+            cursor.tier(tier, tierBaseAddr, s.tierIndex);
+            long pos = windowStartPos;
+            boolean windowPassed = false;
+            for (long i = 0L; i < capacity; i++) {
+                long entry = hashLookup.readEntry(tierBaseAddr, pos);
+                if (hashLookup.empty(entry)) {
+                    if (windowPassed)
+                        break;
+                } else {
+                    long homePos = hashLookup.hlPos(hashLookup.key(entry));
+                    if (homePos >= windowStartPos && homePos <= windowEndPos)
+                        cursor.addToWindow(homePos - windowStartPos, tier, pos);
+                }
+                if (pos == windowEndPos)
+                    windowPassed = true;
+                pos = hashLookup.step(pos);
+            }
+            if (!s.hasNextTier())
+                break;
+            s.nextTier();
+        }
+        cursor.sortWindow();
+    }
+
+    /**
+     * @return {@code false} if the action returned {@code false}
+     */
+    private boolean visitWindow(SegmentIterationCursor cursor, long windowStartPos,
+                                Predicate<? super E> action) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        for (int i = 0; i < cursor.windowSize(); i++) {
+            int tier = cursor.windowTier(i);
+            long tierBaseAddr = cursor.tierBaseAddr(tier);
+            s.initSegmentTier_WithBaseAddr(tier, tierBaseAddr, cursor.tierIndex(tier));
+            long pos = cursor.windowPos(i);
+            hlp.initHashLookupPos(pos);
+            long entry = hashLookup.readEntry(tierBaseAddr, pos);
+            initHashLookupEntry(entry);
+            e.readExistingEntry(hashLookup.value(entry));
+            if (entryIsPresent()) {
+                cursor.homePos(windowStartPos + cursor.windowHomeOffset(i));
+                long hashLookupKey = hashLookup.key(entry);
+                if (cursor.wasVisited(hashLookupKey, s.segmentBS, e.keyOffset, e.keySize))
+                    continue;
+                cursor.visited(hashLookupKey, s.segmentBS, e.keyOffset, e.keySize);
+                initEntryRemovedOnThisIteration(false);
+                if (!action.test((E) this))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the chain of tiers of this segment, read-locking the segment.
+     */
+    public int tiers() {
+        s.innerReadLock.lock();
+        s.goToFirstTier();
+        int tiers = 1;
+        while (s.hasNextTier()) {
+            s.nextTier();
+            tiers++;
+        }
+        return tiers;
+    }
+
+    /**
+     * Repacks the chain of tiers of this segment: moves entries from the last tiers to the free
+     * space in the earlier tiers, starting from the first tier, and returns the tiers which become
+     * empty to the free tiers list. Tiers are emptied from the last one, so only the tail of the
+     * chain of tiers is ever released. Entries are moved while the segment is write-locked, until
+     * the deadline.
+     *
+     * @param fromCursor 0 to start a compaction pass over this segment, or the cursor, returned
+     *                   from the previous call of this method in the same pass
+     * @param deadlineNanos the {@link System#nanoTime()} moment, after which this method should
+     *                      stop moving entries and return, to release the segment lock
+     * @return the cursor to continue the pass from, or -1 if the chain of tiers is repacked
+     */
+    public long compactTiers(long fromCursor, long deadlineNanos) {
+        if (!entriesCouldBeCopiedVerbatim())
+            return -1L;
+        s.innerUpdateLock.lock();
+        try {
+            s.goToFirstTier();
+            // the cursor is the tier to move entries to, the tiers before it are full
+            int fromTier = (int) fromCursor;
+            while (s.segmentTier < fromTier) {
+                if (!s.hasNextTier())
+                    return -1L; // the chain of tiers is repacked since the previous call
+                s.nextTier();
+            }
+            if (!s.hasNextTier())
+                return -1L;
+            s.innerWriteLock.lock();
+            int targetTier = s.segmentTier;
+            long targetTierIndex = s.tierIndex;
+            long targetTierBaseAddr = s.segmentBaseAddr;
+            long moved = 0L;
+            long nextCursor = -1L;
+            while (true) {
+                s.goToLastTier();
+                int sourceTier = s.segmentTier;
+                if (sourceTier == targetTier)
+                    break;
+                long sourceTierBaseAddr = s.segmentBaseAddr;
+                long sourceTierIndex = s.tierIndex;
+                long tierMoved = compactTier(sourceTier, sourceTierBaseAddr, sourceTierIndex,
+                        targetTier, targetTierBaseAddr, targetTierIndex, deadlineNanos);
+                if (tierMoved < 0) { // the deadline has come
+                    moved += ~tierMoved;
+                    nextCursor = targetTier;
+                    break;
+                }
+                moved += tierMoved;
+                if (tierEmpty(sourceTierBaseAddr)) {
+                    s.prevTier();
+                    s.nextTierIndex(0L);
+                    hh.h().freeTier(sourceTierIndex);
+                } else {
+                    // the target tier is full, continue filling the next one
+                    s.initSegmentTier_WithBaseAddr(
+                            targetTier, targetTierBaseAddr, targetTierIndex);
+                    s.nextTier();
+                    targetTier = s.segmentTier;
+                    targetTierIndex = s.tierIndex;
+                    targetTierBaseAddr = s.segmentBaseAddr;
+                }
+            }
+            if (moved > 0)
+                s.incrementModCount();
+            return nextCursor;
+        } finally {
+            s.innerReadLock.unlock();
+        }
+    }
+
+    /**
+     * Moves entries of the given tier to the target tier, while there is space in the target
+     * tier, and the deadline hasn't come. At least one entry is moved before the deadline is
+     * checked, so that each time slice makes progress.
+     *
+     * @return the number of moved entries, or its bitwise complement if the deadline has come
+     */
+    private long compactTier(int tier, long tierBaseAddr, long tierIndex,
+                             int targetTier, long targetTierBaseAddr, long targetTierIndex,
+                             long deadlineNanos) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long chunkSize = hh.h().chunkSize;
+        long startPos = 0L;
+        while (!hashLookup.empty(hashLookup.readEntry(tierBaseAddr, startPos))) {
+            startPos = hashLookup.step(startPos);
+        }
+        long moved = 0L;
+        long hashLookupPos = startPos;
+        do {
+            hashLookupPos = hashLookup.step(hashLookupPos);
+            long entry = hashLookup.readEntry(tierBaseAddr, hashLookupPos);
+            if (hashLookup.empty(entry))
+                continue;
+            long oldPos = hashLookup.value(entry);
+            e.readExistingEntry(oldPos);
+            int chunks = e.entrySizeInChunks;
+            long oldKeySizeAddr = tierBaseAddr + e.keySizeOffset;
+            long oldKeyAddr = tierBaseAddr + e.keyOffset;
+
+            s.initSegmentTier_WithBaseAddr(targetTier, targetTierBaseAddr, targetTierIndex);
+            long insertPos = emptySlotPos(targetTierBaseAddr, hashLookup.key(entry));
+            long newPos = insertPos >= 0 ? s.allocReturnCode(chunks) : -1L;
+            if (newPos >= 0) {
+                e.copyExistingEntry(newPos, chunks * chunkSize, oldKeyAddr, oldKeySizeAddr);
+                hashLookup.checkValueForPut(newPos);
+                hashLookup.writeEntryVolatile(targetTierBaseAddr, insertPos,
+                        hashLookup.readEntry(targetTierBaseAddr, insertPos),
+                        hashLookup.key(entry), newPos);
+                e.readExistingEntry(newPos);
+                onEntryMoved(tierIndex, oldPos);
+                moved++;
+            }
+
+            s.initSegmentTier_WithBaseAddr(tier, tierBaseAddr, tierIndex);
+            if (newPos >= 0) {
+                // if some other entry is shifted to the removed slot, step back, to consume
+                // the shifted entry on the next step
+                if (hashLookup.remove(tierBaseAddr, hashLookupPos) != hashLookupPos)
+                    hashLookupPos = hashLookup.stepBack(hashLookupPos);
+                s.free(oldPos, chunks);
+                if (System.nanoTime() - deadlineNanos >= 0L)
+                    return ~moved;
+            }
+        } while (hashLookupPos != startPos);
+        return moved;
+    }
+
+    private long emptySlotPos(long tierBaseAddr, long hashLookupKey) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long searchStartPos = hashLookup.hlPos(hashLookupKey);
+        long pos = searchStartPos;
+        do {
+            if (hashLookup.empty(hashLookup.readEntry(tierBaseAddr, pos)))
+                return pos;
+            pos = hashLookup.step(pos);
+        } while (pos != searchStartPos);
+        return -1L;
+    }
+
+    private boolean tierEmpty(long tierBaseAddr) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long pos = 0L;
+        do {
+            if (!hashLookup.empty(hashLookup.readEntry(tierBaseAddr, pos)))
+                return false;
+            pos = hashLookup.step(pos);
+        } while (pos != 0L);
+        return true;
+    }
+
+    /**
+     * Moves entries of this segment to the lowest free positions in their tiers, which could
+     * accommodate them, so that the free space of each tier gathers at the end of the tier's entry
+     * space. Entries are moved only within their tier, hash lookup slots of moved entries are
+     * updated in place. Entries are visited in the order of their positions, tier by tier,
+     * starting from the given cursor, while the segment is write-locked, until the deadline.
+     *
+     * @param fromCursor 0 to start a defragmentation pass over this segment, or the cursor,
+     *                   returned from the previous call of this method in the same pass
+     * @param deadlineNanos the {@link System#nanoTime()} moment, after which this method should
+     *                      stop moving entries and return, to release the segment lock
+     * @return the cursor to continue the pass from, or -1 if all entries of the segment are visited
+     */
+    public long defragment(long fromCursor, long deadlineNanos) {
+        if (!entriesCouldBeCopiedVerbatim())
+            return -1L;
+        s.innerUpdateLock.lock();
+        try {
+            s.goToFirstTier();
+            int fromTier = (int) (fromCursor >>> 32);
+            while (s.segmentTier < fromTier) {
+                if (!s.hasNextTier())
+                    return -1L; // the chain of tiers is repacked since the previous call
+                s.nextTier();
+            }
+            s.innerWriteLock.lock();
+            long fromPos = fromCursor & 0xFFFFFFFFL;
+            while (true) {
+                long nextPos = defragmentTier(fromPos, deadlineNanos);
+                if (nextPos >= 0)
+                    return (((long) s.segmentTier) << 32) | nextPos;
+                if (!s.hasNextTier())
+                    return -1L;
+                s.nextTier();
+                fromPos = 0L;
+            }
+        } finally {
+            s.innerReadLock.unlock();
+        }
+    }
+
+    /**
+     * Entries of the current tier, starting from the given position, are moved to the lowest free
+     * positions in the tier. Returns the position to continue from, if the deadline has come, or
+     * -1 if all entries of the tier are visited.
+     */
+    private long defragmentTier(long fromPos, long deadlineNanos) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long chunkSize = hh.h().chunkSize;
+        long tierBaseAddr = s.segmentBaseAddr;
+        long tierIndex = s.tierIndex;
+        // entry positions are lower than 2^30, hash lookup positions -- than 2^33
+        long[] entries = new long[16];
+        int entriesCount = 0;
+        long hashLookupPos = 0L;
+        do {
+            long entry = hashLookup.readEntry(tierBaseAddr, hashLookupPos);
+            if (!hashLookup.empty(entry) && hashLookup.value(entry) >= fromPos) {
+                if (entriesCount == entries.length)
+                    entries = Arrays.copyOf(entries, entries.length * 2);
+                entries[entriesCount++] = (hashLookup.value(entry) << 33) | hashLookupPos;
+            }
+            hashLookupPos = hashLookup.step(hashLookupPos);
+        } while (hashLookupPos != 0L);
+        Arrays.sort(entries, 0, entriesCount);
+        // all chunks before this position are allocated. Moving entries to lower positions keeps
+        // this invariant, so the whole tier is not scanned for each entry
+        long firstFreePos = lowestFreePos(1, 0L, Long.MAX_VALUE);
+        if (firstFreePos >= 0)
+            s.freeList.clearRange(firstFreePos, firstFreePos + 1);
+        for (int i = 0; i < entriesCount; i++) {
+            long oldPos = entries[i] >>> 33;
+            if (firstFreePos < 0 || oldPos < firstFreePos)
+                continue;
+            if (i > 0 && System.nanoTime() - deadlineNanos >= 0L)
+                return oldPos;
+            e.readExistingEntry(oldPos);
+            int chunks = e.entrySizeInChunks;
+            long newPos = lowestFreePos(chunks, firstFreePos, oldPos);
+            if (newPos < 0)
+                continue;
+            if (newPos == firstFreePos)
+                firstFreePos = newPos + chunks;
+            long oldKeySizeAddr = tierBaseAddr + e.keySizeOffset;
+            long oldKeyAddr = tierBaseAddr + e.keyOffset;
+            e.copyExistingEntry(newPos, chunks * chunkSize, oldKeyAddr, oldKeySizeAddr);
+            hashLookup.putValueVolatile(
+                    tierBaseAddr, entries[i] & ((1L << 33) - 1L), newPos);
+            e.readExistingEntry(newPos);
+            onEntryMoved(tierIndex, oldPos);
+            s.free(oldPos, chunks);
+            s.incrementModCount();
+        }
+        return -1L;
+    }
+
+    /**
+     * Allocates the given number of chunks at the lowest free position in the current tier,
+     * starting from {@code fromPos}, if it is lower than {@code beforePos}.
+     *
+     * @return the allocated position, or -1 if there is no such position
+     */
+    private long lowestFreePos(int chunks, long fromPos, long beforePos) {
+        long actualChunksPerSegment = hh.h().actualChunksPerSegment;
+        long pos = s.freeList.setNextNContinuousClearBits(fromPos, chunks);
+        if (pos == DirectBitSet.NOT_FOUND)
+            return -1L;
+        if (pos < beforePos && pos + chunks <= actualChunksPerSegment)
+            return pos;
+        s.freeList.clearRange(pos, Math.min(pos + chunks, actualChunksPerSegment));
+        return -1L;
+    }
+
+    /**
+     * Returns the number of free chunks in the tiers of this segment, read-locking the segment.
+     */
+    public long freeChunks() {
+        return entrySpaceChunks(false);
+    }
+
+    /**
+     * Returns the number of free chunks in the tiers of this segment, which are located before the
+     * end of the last entry in their tier, read-locking the segment. The ratio of fragmented free
+     * chunks to all free chunks is the fragmentation of the segment entry space.
+     */
+    public long fragmentedFreeChunks() {
+        return entrySpaceChunks(true);
+    }
+
+    private long entrySpaceChunks(boolean onlyFragmented) {
+        s.innerReadLock.lock();
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long actualChunksPerSegment = hh.h().actualChunksPerSegment;
+        s.goToFirstTier();
+        long freeChunks = 0L;
+        while (true) {
+            long tierBaseAddr = s.segmentBaseAddr;
+            long usedChunks = 0L;
+            long entriesEnd = 0L;
+            long hashLookupPos = 0L;
+            do {
+                long entry = hashLookup.readEntry(tierBaseAddr, hashLookupPos);
+                if (!hashLookup.empty(entry)) {
+                    long pos = hashLookup.value(entry);
+                    e.readExistingEntry(pos);
+                    usedChunks += e.entrySizeInChunks;
+                    entriesEnd = Math.max(entriesEnd, pos + e.entrySizeInChunks);
+                }
+                hashLookupPos = hashLookup.step(hashLookupPos);
+            } while (hashLookupPos != 0L);
+            freeChunks += (onlyFragmented ? entriesEnd : actualChunksPerSegment) - usedChunks;
+            if (!s.hasNextTier())
+                return freeChunks;
+            s.nextTier();
+        }
+    }
+
+    /**
+     * Rebuilds the hash lookups and the free lists of the tiers of this segment from the entries,
+     * referenced from the hash lookups, and recomputes the segment's size and deleted entries
+     * counters. Entries outside of the entry space, overlapping with previously found entries,
+     * belonging to another segment or hash lookup slot, or not matching their checksums, if
+     * checksums are stored, are dropped. Should be called only after the segment lock is reset and
+     * the chain of tiers is checked, see {@link
+     * net.openhft.chronicle.hash.impl.VanillaChronicleHash#recoverTiersChain}.
+     */
+    public void recover(SegmentRecovery recovery) {
+        s.innerUpdateLock.lock();
+        try {
+            s.innerWriteLock.lock();
+            s.goToFirstTier();
+            while (true) {
+                recoverTier(recovery);
+                if (!s.hasNextTier())
+                    break;
+                s.nextTier();
+            }
+            long deleted = recovery.entries - recovery.presentEntries;
+            if (s.entries() != recovery.entries || s.deleted() != deleted) {
+                s.entries(recovery.entries);
+                s.deleted(deleted);
+                recovery.countersFixed = true;
+            }
+            s.incrementModCount();
+        } finally {
+            closeHashLookupEntry();
+            s.innerReadLock.unlock();
+        }
+    }
+
+    private void recoverTier(SegmentRecovery recovery) {
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        long actualChunksPerSegment = hh.h().actualChunksPerSegment;
+        long tierBaseAddr = s.segmentBaseAddr;
+        // start from an empty slot, if any, so that reinserted entries of each cluster take the
+        // same slots, if they were reachable
+        long startPos = 0L;
+        long capacity = hh.h().segmentHashLookupCapacity;
+        for (long i = 0L; i < capacity; i++) {
+            if (hashLookup.empty(hashLookup.readEntry(tierBaseAddr, startPos)))
+                break;
+            startPos = hashLookup.step(startPos);
+        }
+        long[] entries = new long[16];
+        long[] slots = new long[16];
+        int entriesCount = 0;
+        BitSet usedChunks = new BitSet((int) actualChunksPerSegment);
+        long hashLookupPos = startPos;
+        do {
+            long entry = hashLookup.readEntry(tierBaseAddr, hashLookupPos);
+            if (!hashLookup.empty(entry)) {
+                if (recoverableEntry(hashLookup.key(entry), hashLookup.value(entry),
+                        usedChunks, recovery)) {
+                    if (entriesCount == entries.length) {
+                        entries = Arrays.copyOf(entries, entries.length * 2);
+                        slots = Arrays.copyOf(slots, slots.length * 2);
+                    }
+                    entries[entriesCount] = entry;
+                    slots[entriesCount++] = hashLookupPos;
+                } else {
+                    recovery.entriesDropped++;
+                }
+            }
+            hashLookupPos = hashLookup.step(hashLookupPos);
+        } while (hashLookupPos != startPos);
+
+        hashLookup.clear(tierBaseAddr);
+        for (int i = 0; i < entriesCount; i++) {
+            long key = hashLookup.key(entries[i]);
+            long insertPos = emptySlotPos(tierBaseAddr, key);
+            hashLookup.writeEntryVolatile(tierBaseAddr, insertPos,
+                    hashLookup.readEntry(tierBaseAddr, insertPos), key,
+                    hashLookup.value(entries[i]));
+            if (insertPos != slots[i])
+                recovery.hashLookupSlotsMoved++;
+        }
+
+        for (long pos = 0L; pos < actualChunksPerSegment; pos++) {
+            if (s.freeList.isSet(pos) != usedChunks.get((int) pos))
+                recovery.freeListChunksFixed++;
+        }
+        s.freeList.clearRange(0L, actualChunksPerSegment);
+        for (int pos = usedChunks.nextSetBit(0); pos >= 0;
+             pos = usedChunks.nextSetBit(usedChunks.nextClearBit(pos))) {
+            s.freeList.setRange(pos, usedChunks.nextClearBit(pos));
+        }
+        long countersAddr = s.tierCountersAreaAddr();
+        for (int sizeClass = 0; sizeClass < FREE_RUN_SIZE_CLASSES; sizeClass++) {
+            TierCountersArea.freeRunHint(countersAddr, sizeClass, 0L);
+        }
+        s.nextPosToSearchFrom(0L);
+    }
+
+    /**
+     * Checks the entry at the given position of the current tier, referenced from the hash lookup
+     * with the given key, and marks its chunks as used, if it is recoverable.
+     */
+    private boolean recoverableEntry(
+            long hashLookupKey, long pos, BitSet usedChunks, SegmentRecovery recovery) {
+        VanillaChronicleHash<?, ?, ?, ?, ?, ?> h = hh.h();
+        if (pos >= h.actualChunksPerSegment)
+            return false;
+        try {
+            e.readExistingEntry(pos);
+            // the rest of the entry is read after the key, which should be within the tier
+            if (e.keySize < 0L || e.keyOffset + e.keySize > h.segmentSize)
+                return false;
+            int chunks = e.entrySizeInChunks;
+            if (chunks <= 0 || chunks > h.maxChunksPerEntry ||
+                    pos + chunks > h.actualChunksPerSegment) {
+                return false;
+            }
+            int nextUsedChunk = usedChunks.nextSetBit((int) pos);
+            if (nextUsedChunk >= 0 && nextUsedChunk < pos + chunks)
+                return false;
+            long keyHash = kh.keyHashCode();
+            if (h.hashSplitting.segmentIndex(keyHash) != s.segmentIndex ||
+                    h.hashLookup.maskUnsetKey(h.hashSplitting.segmentHash(keyHash)) !=
+                            hashLookupKey) {
+                return false;
+            }
+            if (h.checksumEntries && !e.checksumStrategy.innerCheckSum()) {
+                recovery.checksumMismatches++;
+                return false;
+            }
+            usedChunks.set((int) pos, (int) pos + chunks);
+            recovery.entries++;
+            if (entryIsPresent())
+                recovery.presentEntries++;
+            return true;
+        } catch (RuntimeException ex) {
+            // sizes, read from the corrupted entry, couldn't be decoded
+            return false;
+        }
+    }
+
+    /**
+     * Entries are moved between and within tiers by copying their chunks verbatim, if offsets
+     * within entries don't depend on the entry position.
+     */
+    protected boolean entriesCouldBeCopiedVerbatim() {
+        return true;
+    }
+
+    /**
+     * Called by {@link #compactTiers(long, long)} and {@link #defragment(long, long)} when the
+     * entry, previously located in the tier with the given index at the given position, is copied
+     * to another position, in the same or an earlier tier. The entry is already read at the new
+     * position, and the segment is switched to the new tier when this method is called.
+     */
+    protected void onEntryMoved(long oldTierIndex, long oldPos) {
+        // no-op by default
+    }
+
     public void checkEntryNotRemovedOnThisIteration() {
         if (entryRemovedOnThisIterationInit())
             throw new IllegalStateException("Entry was already removed on this iteration");
@@ -18,6 +18,7 @@ package net.openhft.chronicle.hash.impl.stage.query;
 
 import net.openhft.chronicle.bytes.BytesUtil;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.SegmentStatsRecorder;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupSearch;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
@@ -59,13 +60,24 @@ public abstract class KeySearch<K> {
     }
 
     public void initKeySearch() {
+        SegmentStatsRecorder statsRecorder = hashLookupSearch.hh.h().statsRecorder;
+        if (statsRecorder != null)
+            statsRecorder.searched(s.segmentIndex);
         for (long pos; (pos = hashLookupSearch.nextPos()) >= 0L;) {
             // otherwise we are inside iteration relocation.
             // During iteration, key search occurs when doReplaceValue() exhausts space in
             // the current segment, and insertion into the tiered segment requires to locate
             // an empty slot in the hashLookup.
             if (inputKeyInit()) {
-                entry.readExistingEntry(pos);
+                if (s.optimisticRead()) {
+                    s.checkOptimisticReadPos(pos);
+                    entry.readExistingEntry(pos);
+                    // key and value sizes are constant during optimistic reads, so the entry
+                    // size is not read from the memory
+                    s.checkOptimisticReadPos(pos + entry.entrySizeInChunks - 1L);
+                } else {
+                    entry.readExistingEntry(pos);
+                }
                 if (!keyEquals())
                     continue;
                 hashLookupSearch.found();
@@ -0,0 +1,93 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.util;
+
+import net.openhft.chronicle.core.OS;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Writes ranges of memory-mapped files to the disk, i. e. {@code msync()} on Linux, via the
+ * private method behind {@link MappedByteBuffer#force()}, which is called for arbitrary addresses.
+ * If this method is not accessible on the running JVM, {@link #supported()} returns {@code
+ * false}, and the whole file should be forced via {@code FileChannel.force()} instead.
+ */
+public final class Msync {
+
+    private static final Method FORCE0;
+    /**
+     * In Java 8 direct buffers extend MappedByteBuffer, any instance is suitable to call force0()
+     * on, it doesn't access the buffer's own memory
+     */
+    private static final ByteBuffer ANY_MAPPED_BUFFER;
+
+    static {
+        Method force0 = null;
+        ByteBuffer buffer = null;
+        try {
+            force0 = MappedByteBuffer.class.getDeclaredMethod(
+                    "force0", FileDescriptor.class, long.class, long.class);
+            force0.setAccessible(true);
+            buffer = ByteBuffer.allocateDirect(1);
+            if (!(buffer instanceof MappedByteBuffer))
+                force0 = null;
+        } catch (Exception ignored) {
+            force0 = null;
+        }
+        FORCE0 = force0;
+        ANY_MAPPED_BUFFER = buffer;
+    }
+
+    public static boolean supported() {
+        return FORCE0 != null;
+    }
+
+    /**
+     * Writes the pages, overlapping with the given range of the mapped file, to the disk.
+     *
+     * @param fd the descriptor of the mapped file
+     * @param address the start of the range in memory
+     * @param length the length of the range
+     * @throws IOException if writing fails
+     * @throws UnsupportedOperationException if this operation is not {@link #supported()}
+     */
+    public static void msync(FileDescriptor fd, long address, long length) throws IOException {
+        if (FORCE0 == null)
+            throw new UnsupportedOperationException("msync is not accessible on this JVM");
+        if (length <= 0)
+            return;
+        long pageAddress = address & ~(OS.pageSize() - 1L);
+        try {
+            FORCE0.invoke(ANY_MAPPED_BUFFER, fd, pageAddress, length + (address - pageAddress));
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private Msync() {
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.locks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Built-in {@link LockAcquisitionStrategy} implementations.
+ */
+public enum LockAcquisitionStrategies {
+    ;
+
+    private static final LockAcquisitionStrategy SPIN = new LockAcquisitionStrategy() {
+        @Override
+        public void waitBeforeRetry(int failedAttempts) {
+        }
+
+        @Override
+        public boolean mayPark(int failedAttempts) {
+            return false;
+        }
+    };
+
+    private static final LockAcquisitionStrategy DEFAULT_SPIN_YIELD_PARK =
+            spinYieldPark(1000, 100, TimeUnit.MICROSECONDS.toNanos(1),
+                    TimeUnit.MILLISECONDS.toNanos(1));
+
+    /**
+     * Returns the strategy which retries immediately, i. e. burns CPU while waiting for the lock.
+     * Gives the lowest latency, if there are less threads accessing the Chronicle Hash, than free
+     * CPU cores. This is the default strategy.
+     */
+    public static LockAcquisitionStrategy spin() {
+        return SPIN;
+    }
+
+    /**
+     * Returns {@link #spinYieldPark(int, int, long, long)} strategy with reasonable defaults: 1000
+     * spins, then 100 yields, then parks, starting from 1 microsecond and up to 1 millisecond.
+     */
+    public static LockAcquisitionStrategy spinYieldPark() {
+        return DEFAULT_SPIN_YIELD_PARK;
+    }
+
+    /**
+     * Returns the strategy which retries immediately for the first {@code spins} attempts, then
+     * {@linkplain Thread#yield() yields} the thread before the next {@code yields} attempts, then
+     * parks the thread, with exponential backoff from {@code minParkNanos} to {@code
+     * maxParkNanos}. Keeps the CPU available to the lock holder, if there are more threads,
+     * accessing the Chronicle Hash, than CPU cores.
+     *
+     * @param spins the number of attempts to acquire the lock without waiting
+     * @param yields the number of attempts to acquire the lock after yielding the thread
+     * @param minParkNanos the first park time
+     * @param maxParkNanos the maximum park time
+     * @return a new spin-yield-park strategy
+     */
+    public static LockAcquisitionStrategy spinYieldPark(
+            int spins, int yields, long minParkNanos, long maxParkNanos) {
+        if (spins < 0 || yields < 0 || minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("spins and yields should be non-negative, " +
+                    "0 < minParkNanos <= maxParkNanos, spins=" + spins + ", yields=" + yields +
+                    ", minParkNanos=" + minParkNanos + ", maxParkNanos=" + maxParkNanos + " given");
+        }
+        int parkPhase = spins + yields;
+        int maxBackoffShift = 63 - Long.numberOfLeadingZeros(maxParkNanos / minParkNanos);
+        return new LockAcquisitionStrategy() {
+            @Override
+            public void waitBeforeRetry(int failedAttempts) {
+                if (failedAttempts < spins)
+                    return;
+                if (failedAttempts < parkPhase) {
+                    Thread.yield();
+                    return;
+                }
+                int backoffShift = Math.min(failedAttempts - parkPhase, maxBackoffShift);
+                LockSupport.parkNanos(Math.min(minParkNanos << backoffShift, maxParkNanos));
+            }
+
+            @Override
+            public boolean mayPark(int failedAttempts) {
+                return failedAttempts >= parkPhase;
+            }
+        };
+    }
+}
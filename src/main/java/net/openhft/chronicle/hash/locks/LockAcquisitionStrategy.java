@@ -0,0 +1,55 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.locks;
+
+import net.openhft.chronicle.hash.ChronicleHashBuilder;
+
+/**
+ * Strategy of waiting between unsuccessful attempts to acquire segment locks of Chronicle Hashes.
+ * Segment locks are inter-process, so they are acquired by CAS operations on the lock word in the
+ * segment header; this strategy decides what the thread does between these CAS attempts.
+ *
+ * @see LockAcquisitionStrategies
+ * @see ChronicleHashBuilder#lockAcquisitionStrategy(LockAcquisitionStrategy)
+ */
+public interface LockAcquisitionStrategy {
+
+    /**
+     * Waits before the next attempt to acquire a segment lock. May return immediately (i. e. spin),
+     * yield the thread, or park the thread for some time. The thread could be unparked earlier,
+     * when the lock is released by another thread of the same JVM. Implementations shouldn't block
+     * for long, because the total lock acquisition timeout is checked by the caller between calls
+     * to this method.
+     *
+     * @param failedAttempts the number of unsuccessful attempts to acquire the lock so far, minus
+     *                       one, i. e. 0 on the first call during a lock acquisition
+     */
+    void waitBeforeRetry(int failedAttempts);
+
+    /**
+     * Returns if the {@link #waitBeforeRetry(int)} call with the same {@code failedAttempts}
+     * could park the thread. Threads are registered to be unparked on lock release only before
+     * such calls. Returns {@code true} by default, i. e. waiting threads are always registered.
+     *
+     * @param failedAttempts the number of unsuccessful attempts to acquire the lock so far, minus
+     *                       one
+     * @return if the thread could be parked before the next attempt
+     */
+    default boolean mayPark(int failedAttempts) {
+        return true;
+    }
+}
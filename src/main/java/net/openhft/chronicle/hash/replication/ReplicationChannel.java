@@ -36,10 +36,15 @@ import java.io.Serializable;
 public final class ReplicationChannel implements Serializable{
     private ReplicationHub hub;
     private final int channelId;
+    private final int weight;
+    private final ThrottlingConfig throttlingConfig;
 
-    ReplicationChannel(ReplicationHub hub, int channelId) {
+    ReplicationChannel(ReplicationHub hub, int channelId, int weight,
+                       ThrottlingConfig throttlingConfig) {
         this.hub = hub;
         this.channelId = channelId;
+        this.weight = weight;
+        this.throttlingConfig = throttlingConfig;
     }
 
     /**
@@ -64,4 +69,26 @@ public final class ReplicationChannel implements Serializable{
     public int channelId() {
         return channelId;
     }
+
+    /**
+     * Returns the share of the hub's replication bandwidth, which this channel gets relative to
+     * the other channels, when several channels have changes to send.
+     *
+     * @return the weight of this channel
+     * @see ReplicationHub#createChannel(int, int, ThrottlingConfig)
+     */
+    public int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the throttling of the replication of this channel.
+     *
+     * @return the throttling of this channel
+     * @see ReplicationHub#createChannel(int, int, ThrottlingConfig)
+     */
+    @NotNull
+    public ThrottlingConfig throttlingConfig() {
+        return throttlingConfig;
+    }
 }
@@ -105,7 +105,38 @@ public final class ReplicationHub extends AbstractReplication {
      *                                  ReplicationHub}
      * @see ReplicationChannel
      */
-    public synchronized ReplicationChannel createChannel(int channelId) {
+    public ReplicationChannel createChannel(int channelId) {
+        return createChannel(channelId, 1, ThrottlingConfig.noThrottling());
+    }
+
+    /**
+     * Creates a new {@link ReplicationChannel} in this {@code ReplicationHub} with the given
+     * identifier, weight and throttling. When several channels of the hub have changes to send,
+     * they share the connection to each remote node in proportion to their weights, e. g. a
+     * channel with weight 4 could send four times more bytes than a channel with weight 1. Give
+     * greater weights to channels of latency sensitive containers, so that their updates are not
+     * delayed behind bulk traffic of the other channels (e. g. bootstrapping). The throttling
+     * limits the bandwidth, used by the channel for all remote nodes, regardless of the weights.
+     *
+     * @param channelId        the identifier of the channel, see {@link #createChannel(int)}
+     * @param weight           the positive weight of the channel
+     * @param throttlingConfig the throttling of the channel, {@link
+     *                         ThrottlingConfig#noThrottling()} if it shouldn't be throttled apart
+     *                         from the hub's transport throttling
+     * @return a new {@code ReplicationChannel} instance
+     * @throws IllegalArgumentException if the specified {@code channelId} is out of<br> <code>[0,
+     *                                  {@link #maxNumberOfChannels()})</code> range, or the
+     *                                  {@code weight} is non-positive
+     * @throws IllegalStateException    if {@code ReplicationChannel} with the specified {@code
+     *                                  channelId} has already been acquired on this {@code
+     *                                  ReplicationHub}
+     * @see #createChannel(int)
+     */
+    public synchronized ReplicationChannel createChannel(
+            int channelId, int weight, @NotNull ThrottlingConfig throttlingConfig) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("weight should be positive, " + weight + " given");
+        ThrottlingConfig.checkMillisecondBucketInterval(throttlingConfig, "channel");
         if (channelId < 0)
             throw new IllegalArgumentException("channelId should be positive");
         if (channelId >= maxNumberOfChannels())
@@ -114,7 +145,8 @@ public final class ReplicationHub extends AbstractReplication {
         if (channels[channelId] != null)
             throw new IllegalStateException("The requested channelId=" + channelId +
                     " is already in use");
-        ReplicationChannel channel = new ReplicationChannel(this, channelId);
+        ReplicationChannel channel =
+                new ReplicationChannel(this, channelId, weight, throttlingConfig);
         channels[channelId] = channel;
         return channel;
     }
@@ -0,0 +1,171 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.hash.replication;
+
+import net.openhft.chronicle.hash.ChronicleHash;
+
+/**
+ * Snapshot of stats of replication between this node and a single remote node over TCP, returned
+ * from {@link ChronicleHash#replicationStats()}. Counters are accumulated since the replicator is
+ * started, rates are measured over the last second. If several hashes are replicated via the same
+ * {@link ReplicationHub}, the stats cover all of them.
+ */
+public final class ReplicationStats {
+
+    private final byte remoteIdentifier;
+    private final boolean connected;
+    private final long outstandingEntries;
+    private final long bytesSent;
+    private final long entriesSent;
+    private final long bytesReceived;
+    private final long entriesReceived;
+    private final long bytesSentPerSecond;
+    private final long entriesSentPerSecond;
+    private final long bytesReceivedPerSecond;
+    private final long entriesReceivedPerSecond;
+    private final long millisSinceLastReceived;
+    private final long averageApplyLatencyMillis;
+    private final long maxApplyLatencyMillis;
+    private final long throttleStallMillis;
+
+    public ReplicationStats(byte remoteIdentifier, boolean connected, long outstandingEntries,
+                            long bytesSent, long entriesSent,
+                            long bytesReceived, long entriesReceived,
+                            long bytesSentPerSecond, long entriesSentPerSecond,
+                            long bytesReceivedPerSecond, long entriesReceivedPerSecond,
+                            long millisSinceLastReceived,
+                            long averageApplyLatencyMillis, long maxApplyLatencyMillis,
+                            long throttleStallMillis) {
+        this.remoteIdentifier = remoteIdentifier;
+        this.connected = connected;
+        this.outstandingEntries = outstandingEntries;
+        this.bytesSent = bytesSent;
+        this.entriesSent = entriesSent;
+        this.bytesReceived = bytesReceived;
+        this.entriesReceived = entriesReceived;
+        this.bytesSentPerSecond = bytesSentPerSecond;
+        this.entriesSentPerSecond = entriesSentPerSecond;
+        this.bytesReceivedPerSecond = bytesReceivedPerSecond;
+        this.entriesReceivedPerSecond = entriesReceivedPerSecond;
+        this.millisSinceLastReceived = millisSinceLastReceived;
+        this.averageApplyLatencyMillis = averageApplyLatencyMillis;
+        this.maxApplyLatencyMillis = maxApplyLatencyMillis;
+        this.throttleStallMillis = throttleStallMillis;
+    }
+
+    public byte remoteIdentifier() {
+        return remoteIdentifier;
+    }
+
+    /**
+     * Returns whether the connection to the remote node is currently established.
+     */
+    public boolean connected() {
+        return connected;
+    }
+
+    /**
+     * Returns the number of changed entries, which are not yet sent to the remote node, i. e.
+     * how far behind this node the remote node is, {@code -1} if unknown.
+     */
+    public long outstandingEntries() {
+        return outstandingEntries;
+    }
+
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+    public long entriesSent() {
+        return entriesSent;
+    }
+
+    public long bytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the number of entries, originated on the remote node and applied on this node.
+     */
+    public long entriesReceived() {
+        return entriesReceived;
+    }
+
+    public long bytesSentPerSecond() {
+        return bytesSentPerSecond;
+    }
+
+    public long entriesSentPerSecond() {
+        return entriesSentPerSecond;
+    }
+
+    public long bytesReceivedPerSecond() {
+        return bytesReceivedPerSecond;
+    }
+
+    public long entriesReceivedPerSecond() {
+        return entriesReceivedPerSecond;
+    }
+
+    /**
+     * Returns the time since anything, including heartbeats, was received from the remote node,
+     * {@code -1} if not connected.
+     */
+    public long millisSinceLastReceived() {
+        return millisSinceLastReceived;
+    }
+
+    /**
+     * Returns the average time from updates of entries on the remote node to applying them on
+     * this node. Computed from origin timestamps of entries, so includes the difference of
+     * clocks of the nodes.
+     */
+    public long averageApplyLatencyMillis() {
+        return averageApplyLatencyMillis;
+    }
+
+    public long maxApplyLatencyMillis() {
+        return maxApplyLatencyMillis;
+    }
+
+    /**
+     * Returns the total time, during which writes to the remote node were stalled by throttling.
+     */
+    public long throttleStallMillis() {
+        return throttleStallMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationStats{remoteIdentifier=" + remoteIdentifier +
+                ", connected=" + connected +
+                ", outstandingEntries=" + outstandingEntries +
+                ", bytesSent=" + bytesSent +
+                ", entriesSent=" + entriesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", entriesReceived=" + entriesReceived +
+                ", bytesSentPerSecond=" + bytesSentPerSecond +
+                ", entriesSentPerSecond=" + entriesSentPerSecond +
+                ", bytesReceivedPerSecond=" + bytesReceivedPerSecond +
+                ", entriesReceivedPerSecond=" + entriesReceivedPerSecond +
+                ", millisSinceLastReceived=" + millisSinceLastReceived +
+                ", averageApplyLatencyMillis=" + averageApplyLatencyMillis +
+                ", maxApplyLatencyMillis=" + maxApplyLatencyMillis +
+                ", throttleStallMillis=" + throttleStallMillis + '}';
+    }
+}
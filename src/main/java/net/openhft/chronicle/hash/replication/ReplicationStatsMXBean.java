@@ -0,0 +1,56 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.hash.replication;
+
+/**
+ * JMX view of {@link ReplicationStats} of a single remote node, registered in the platform MBean
+ * server by TCP replicators, as soon as the remote node connects for the first time. Each
+ * attribute read takes a fresh snapshot of stats.
+ */
+public interface ReplicationStatsMXBean {
+
+    byte getRemoteIdentifier();
+
+    boolean isConnected();
+
+    long getOutstandingEntries();
+
+    long getBytesSent();
+
+    long getEntriesSent();
+
+    long getBytesReceived();
+
+    long getEntriesReceived();
+
+    long getBytesSentPerSecond();
+
+    long getEntriesSentPerSecond();
+
+    long getBytesReceivedPerSecond();
+
+    long getEntriesReceivedPerSecond();
+
+    long getMillisSinceLastReceived();
+
+    long getAverageApplyLatencyMillis();
+
+    long getMaxApplyLatencyMillis();
+
+    long getThrottleStallMillis();
+}
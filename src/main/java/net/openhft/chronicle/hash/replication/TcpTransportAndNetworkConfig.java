@@ -18,12 +18,10 @@ package net.openhft.chronicle.hash.replication;
 
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.Collections.unmodifiableMap;
 import static java.util.Collections.unmodifiableSet;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -40,12 +38,27 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
     private final ThrottlingConfig throttlingConfig;
     private final long heartBeatInterval;
     private final TimeUnit heartBeatIntervalUnit;
+    private final boolean batchBootstrapTimestamps;
+    private final boolean compression;
+    private final boolean valueDeltas;
+    private final long antiEntropyInterval;
+    private final TimeUnit antiEntropyIntervalUnit;
+    private final Map<Byte, ThrottlingConfig> peerThrottlingConfigs;
+    private final int applyThreads;
+    private final int zeroCopyThreshold;
+    private final boolean snapshotBootstrap;
 
     private TcpTransportAndNetworkConfig(int serverPort, Set<InetSocketAddress> endpoints,
                                          int tcpBufferSize,
                                          boolean autoReconnectedUponDroppedConnection,
                                          ThrottlingConfig throttlingConfig, long heartBeatInterval,
-                                         TimeUnit heartBeatIntervalUnit) {
+                                         TimeUnit heartBeatIntervalUnit,
+                                         boolean batchBootstrapTimestamps, boolean compression,
+                                         boolean valueDeltas, long antiEntropyInterval,
+                                         TimeUnit antiEntropyIntervalUnit,
+                                         Map<Byte, ThrottlingConfig> peerThrottlingConfigs,
+                                         int applyThreads, int zeroCopyThreshold,
+                                         boolean snapshotBootstrap) {
         this.serverPort = serverPort;
         this.endpoints = endpoints;
         this.tcpBufferSize = tcpBufferSize;
@@ -53,6 +66,15 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
         this.throttlingConfig = throttlingConfig;
         this.heartBeatInterval = heartBeatInterval;
         this.heartBeatIntervalUnit = heartBeatIntervalUnit;
+        this.batchBootstrapTimestamps = batchBootstrapTimestamps;
+        this.compression = compression;
+        this.valueDeltas = valueDeltas;
+        this.antiEntropyInterval = antiEntropyInterval;
+        this.antiEntropyIntervalUnit = antiEntropyIntervalUnit;
+        this.peerThrottlingConfigs = peerThrottlingConfigs;
+        this.applyThreads = applyThreads;
+        this.zeroCopyThreshold = zeroCopyThreshold;
+        this.snapshotBootstrap = snapshotBootstrap;
     }
 
     public static TcpTransportAndNetworkConfig of(int serverPort,
@@ -77,7 +99,15 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
                 true, // autoReconnectedUponDroppedConnection
                 ThrottlingConfig.noThrottling(),
                 DEFAULT_HEART_BEAT_INTERVAL,
-                DEFAULT_HEART_BEAT_INTERVAL_UNIT);
+                DEFAULT_HEART_BEAT_INTERVAL_UNIT,
+                false, // batchBootstrapTimestamps
+                false, // compression
+                false, // valueDeltas
+                0L, SECONDS, // antiEntropyInterval
+                Collections.<Byte, ThrottlingConfig>emptyMap(),
+                1, // applyThreads
+                0, // zeroCopyThreshold
+                false); // snapshotBootstrap
     }
 
     public boolean autoReconnectedUponDroppedConnection() {
@@ -88,7 +118,9 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
             boolean autoReconnectedUponDroppedConnection) {
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
     }
 
     public ThrottlingConfig throttlingConfig() {
@@ -99,7 +131,40 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
         ThrottlingConfig.checkMillisecondBucketInterval(throttlingConfig, "TCP");
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    /**
+     * Returns the throttling of writes to the node with the given identifier, applied in addition
+     * to the {@linkplain #throttlingConfig() overall throttling} of this replicator.
+     *
+     * @param remoteIdentifier the identifier of the remote node
+     * @return the throttling of writes to the given node, {@link ThrottlingConfig#noThrottling()}
+     * if it is not configured
+     */
+    public ThrottlingConfig throttlingConfig(byte remoteIdentifier) {
+        ThrottlingConfig config = peerThrottlingConfigs.get(remoteIdentifier);
+        return config != null ? config : ThrottlingConfig.noThrottling();
+    }
+
+    /**
+     * Configures throttling of writes to the node with the given identifier, e. g. to keep a
+     * replica on a slow link from taking the bandwidth, shared with the other nodes. Applied in
+     * addition to the {@linkplain #throttlingConfig(ThrottlingConfig) overall throttling}.
+     */
+    public TcpTransportAndNetworkConfig throttlingConfig(byte remoteIdentifier,
+                                                         ThrottlingConfig throttlingConfig) {
+        ThrottlingConfig.checkMillisecondBucketInterval(throttlingConfig, "TCP");
+        Map<Byte, ThrottlingConfig> configs = new HashMap<>(peerThrottlingConfigs);
+        configs.put(remoteIdentifier, throttlingConfig);
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, this.throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit,
+                unmodifiableMap(configs), applyThreads, zeroCopyThreshold,
+                snapshotBootstrap);
     }
 
     public long heartBeatInterval(TimeUnit unit) {
@@ -113,7 +178,9 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
     public TcpTransportAndNetworkConfig serverPort(int serverPort) {
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
     }
 
     public Set<InetSocketAddress> endpoints() {
@@ -128,7 +195,9 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
         }
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
     }
 
     public int tcpBufferSize() {
@@ -140,14 +209,160 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
             throw new IllegalArgumentException();
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
     }
 
     public TcpTransportAndNetworkConfig heartBeatInterval(long heartBeatInterval,
                                                           TimeUnit heartBeatIntervalUnit) {
         return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
                 autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
-                heartBeatIntervalUnit);
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public boolean batchBootstrapTimestamps() {
+        return batchBootstrapTimestamps;
+    }
+
+    /**
+     * Configures whether the bootstrap timestamp should be sent once per batch of replicated
+     * entries, rather than with each entry. Applied only if both connected nodes enable it.
+     * Disabled by default.
+     */
+    public TcpTransportAndNetworkConfig batchBootstrapTimestamps(
+            boolean batchBootstrapTimestamps) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public boolean compression() {
+        return compression;
+    }
+
+    /**
+     * Configures whether batches of replicated entries should be compressed before sending. Trades
+     * CPU time for network bandwidth. Applied only if both connected nodes enable it. Disabled by
+     * default.
+     */
+    public TcpTransportAndNetworkConfig compression(boolean compression) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public boolean valueDeltas() {
+        return valueDeltas;
+    }
+
+    /**
+     * Configures whether updated values should be sent as deltas against the values of the same
+     * keys, sent recently over the same connection, if their sizes are equal. Beneficial for
+     * large values, only small parts of which are updated. Each side of the connection keeps a
+     * bounded cache of recently sent values. Applied only if both connected nodes enable it.
+     * Disabled by default.
+     */
+    public TcpTransportAndNetworkConfig valueDeltas(boolean valueDeltas) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public long antiEntropyInterval(TimeUnit unit) {
+        return unit.convert(antiEntropyInterval, antiEntropyIntervalUnit);
+    }
+
+    /**
+     * Configures how often this node should start anti-entropy synchronization rounds with each
+     * connected node: compare digests of segments and entries, and send once again the entries,
+     * which the remote node lacks or holds in a different version. Applied only if both connected
+     * nodes enable it. Non-positive interval disables anti-entropy, disabled by default.
+     *
+     * <p>Each node resends only the entries, originated on it. If two connected nodes hold
+     * different versions of an entry, originated on a third node, neither of them repairs it, and
+     * the segment of the entry is compared entry by entry in every round, until the entry is
+     * repaired over a connection with the origin node, or updated again. In topologies, where
+     * nodes are not all connected with each other, such segments could be rescanned for long, so
+     * the interval should be chosen accordingly.
+     */
+    public TcpTransportAndNetworkConfig antiEntropyInterval(long antiEntropyInterval,
+                                                            TimeUnit antiEntropyIntervalUnit) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public int applyThreads() {
+        return applyThreads;
+    }
+
+    /**
+     * Configures the number of threads, which apply entries, received from remote nodes. With a
+     * single thread (the default) entries are applied by the thread, which reads sockets. With
+     * more threads, entries of different segments are applied in parallel, entries of the same
+     * segment are applied in the order of receipt.
+     */
+    public TcpTransportAndNetworkConfig applyThreads(int applyThreads) {
+        if (applyThreads <= 0)
+            throw new IllegalArgumentException("applyThreads should be positive");
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public int zeroCopyThreshold() {
+        return zeroCopyThreshold;
+    }
+
+    /**
+     * Configures the size of values, starting from which values are written to sockets straight
+     * from the memory of the map, with gathering writes, rather than copied to the replicator's
+     * buffer first. The segment of the entry stays locked until the socket accepts the value,
+     * the part of the value, which the socket doesn't accept at once, is copied to the buffer as
+     * usual. Not applied if batches of entries are encoded, i. e. if {@link
+     * #batchBootstrapTimestamps(boolean) batchBootstrapTimestamps}, {@link #compression(boolean)
+     * compression} or {@link #valueDeltas(boolean) valueDeltas} are negotiated. Non-positive
+     * threshold disables zero-copy writes, disabled by default.
+     */
+    public TcpTransportAndNetworkConfig zeroCopyThreshold(int zeroCopyThreshold) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
+    }
+
+    public boolean snapshotBootstrap() {
+        return snapshotBootstrap;
+    }
+
+    /**
+     * Configures whether a node, which connects to a remote node for the first time and holds no
+     * entries, requests the remote node to send images of its segments, rather than all entries
+     * one by one. The images are copied into the memory of the map as they are, so the nodes
+     * should be configured identically, otherwise entries are sent one by one. Changes, made on
+     * the remote node after the images are taken, are then sent as usual. Applied if enabled on
+     * both nodes, disabled by default.
+     */
+    public TcpTransportAndNetworkConfig snapshotBootstrap(boolean snapshotBootstrap) {
+        return new TcpTransportAndNetworkConfig(serverPort, endpoints, tcpBufferSize,
+                autoReconnectedUponDroppedConnection, throttlingConfig, heartBeatInterval,
+                heartBeatIntervalUnit, batchBootstrapTimestamps, compression, valueDeltas,
+                antiEntropyInterval, antiEntropyIntervalUnit, peerThrottlingConfigs, applyThreads,
+                zeroCopyThreshold, snapshotBootstrap);
     }
 
     @Override
@@ -165,9 +380,18 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
         if (endpoints != null ? !endpoints.equals(that.endpoints) : that.endpoints != null)
             return false;
         if (heartBeatIntervalUnit != that.heartBeatIntervalUnit) return false;
+        if (batchBootstrapTimestamps != that.batchBootstrapTimestamps) return false;
+        if (compression != that.compression) return false;
+        if (valueDeltas != that.valueDeltas) return false;
+        if (antiEntropyInterval != that.antiEntropyInterval) return false;
+        if (antiEntropyIntervalUnit != that.antiEntropyIntervalUnit) return false;
         if (throttlingConfig != null ? !throttlingConfig.equals(that.throttlingConfig) :
                 that.throttlingConfig != null)
             return false;
+        if (!peerThrottlingConfigs.equals(that.peerThrottlingConfigs)) return false;
+        if (applyThreads != that.applyThreads) return false;
+        if (zeroCopyThreshold != that.zeroCopyThreshold) return false;
+        if (snapshotBootstrap != that.snapshotBootstrap) return false;
 
         return true;
     }
@@ -181,6 +405,16 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
         result = 31 * result + (throttlingConfig != null ? throttlingConfig.hashCode() : 0);
         result = 31 * result + (int) (heartBeatInterval ^ (heartBeatInterval >>> 32));
         result = 31 * result + (heartBeatIntervalUnit != null ? heartBeatIntervalUnit.hashCode() : 0);
+        result = 31 * result + (batchBootstrapTimestamps ? 1 : 0);
+        result = 31 * result + (compression ? 1 : 0);
+        result = 31 * result + (valueDeltas ? 1 : 0);
+        result = 31 * result + (int) (antiEntropyInterval ^ (antiEntropyInterval >>> 32));
+        result = 31 * result +
+                (antiEntropyIntervalUnit != null ? antiEntropyIntervalUnit.hashCode() : 0);
+        result = 31 * result + peerThrottlingConfigs.hashCode();
+        result = 31 * result + applyThreads;
+        result = 31 * result + zeroCopyThreshold;
+        result = 31 * result + (snapshotBootstrap ? 1 : 0);
         return result;
     }
 
@@ -194,6 +428,15 @@ public final class TcpTransportAndNetworkConfig implements Serializable {
                 ", throttlingConfig=" + throttlingConfig +
                 ", heartBeatInterval=" + heartBeatInterval +
                 ", heartBeatIntervalUnit=" + heartBeatIntervalUnit +
+                ", batchBootstrapTimestamps=" + batchBootstrapTimestamps +
+                ", compression=" + compression +
+                ", valueDeltas=" + valueDeltas +
+                ", antiEntropyInterval=" + antiEntropyInterval +
+                ", antiEntropyIntervalUnit=" + antiEntropyIntervalUnit +
+                ", peerThrottlingConfigs=" + peerThrottlingConfigs +
+                ", applyThreads=" + applyThreads +
+                ", zeroCopyThreshold=" + zeroCopyThreshold +
+                ", snapshotBootstrap=" + snapshotBootstrap +
                 '}';
     }
 }
@@ -26,13 +26,18 @@ import net.openhft.lang.model.*;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static net.openhft.lang.model.DataValueGenerator.*;
 
@@ -75,28 +80,16 @@ public final class DataValueBytesMarshallers {
     }
 
     private static <T> Class compileReaderClass(Class<T> tClass) {
+        if (DataValueClassCache.INSTANCE != null)
+            loadOrCompileNativeClass(tClass);
         DataValueClasses.directClassFor(tClass);
-        Class readerClass;
         DataValueModel<T> dvmodel = DataValueModels.acquireModel(tClass);
         for (Class clazz : dvmodel.nestedModels()) {
             // touch them to make sure they are loaded.
             Class clazz2 = acquireReaderClass(clazz);
         }
-        String actual = generateBytesReader(tClass);
-        if (dumpCode)
-            LoggerFactory.getLogger(DataValueGenerator.class).info(actual);
-        ClassLoader classLoader = tClass.getClassLoader();
-        String className = bytesReaderName(tClass, false);
-        try {
-            readerClass = classLoader.loadClass(className);
-        } catch (ClassNotFoundException ignored) {
-            try {
-                readerClass = CompilerUtils.CACHED_COMPILER
-                        .loadFromJava(classLoader, className, actual);
-            } catch (ClassNotFoundException e) {
-                throw new AssertionError(e);
-            }
-        }
+        Class readerClass = loadOrCompile(tClass, bytesReaderName(tClass, false),
+                () -> generateBytesReader(tClass));
         acquireReaderWithCustomFactory(tClass);
         return readerClass;
     }
@@ -107,28 +100,13 @@ public final class DataValueBytesMarshallers {
     }
 
     private static <T> Class compileWriterClass(Class<T> tClass) {
-        Class writerClass;
         DataValueModel<T> dvmodel = DataValueModels.acquireModel(tClass);
         for (Class clazz : dvmodel.nestedModels()) {
             // touch them to make sure they are loaded.
             Class clazz2 = acquireWriterClass(clazz);
         }
-        String actual = generateBytesWriter(tClass);
-        if (dumpCode)
-            LoggerFactory.getLogger(DataValueGenerator.class).info(actual);
-        ClassLoader classLoader = tClass.getClassLoader();
-        String className = bytesWriterName(tClass, false);
-        try {
-            writerClass = classLoader.loadClass(className);
-        } catch (ClassNotFoundException ignored) {
-            try {
-                writerClass = CompilerUtils.CACHED_COMPILER
-                        .loadFromJava(classLoader, className, actual);
-            } catch (ClassNotFoundException e) {
-                throw new AssertionError(e);
-            }
-        }
-        return writerClass;
+        return loadOrCompile(tClass, bytesWriterName(tClass, false),
+                () -> generateBytesWriter(tClass));
     }
 
     private static <T> Class acquireReaderWithCustomFactory(Class<T> tClass) {
@@ -137,23 +115,80 @@ public final class DataValueBytesMarshallers {
     }
 
     private static <T> Class compileReaderWithCustomFactory(Class<T> tClass) {
-        Class c;
-        String actual = generateWithCustomFactoryClass(tClass);
-        if (dumpCode)
-            LoggerFactory.getLogger(DataValueGenerator.class).info(actual);
+        return loadOrCompile(tClass, withCustomFactoryName(tClass),
+                () -> generateWithCustomFactoryClass(tClass));
+    }
+
+    /**
+     * Compiles the native class before {@link DataValueClasses#directClassFor} does, so that it is
+     * stored in the {@link DataValueClassCache} as well.
+     */
+    private static void loadOrCompileNativeClass(Class<?> tClass) {
+        for (Class clazz : DataValueModels.acquireModel(tClass).nestedModels()) {
+            loadOrCompileNativeClass(clazz);
+        }
+        loadOrCompile(tClass, nativeName(tClass),
+                () -> new DataValueGenerator().generateNativeObject(tClass));
+    }
+
+    private static Class loadOrCompile(Class<?> tClass, String className,
+                                       Supplier<String> generator) {
         ClassLoader classLoader = tClass.getClassLoader();
-        String className = withCustomFactoryName(tClass);
         try {
-            c = classLoader.loadClass(className);
+            // compiled along with the application, see main()
+            return classLoader.loadClass(className);
         } catch (ClassNotFoundException ignored) {
+            String actual = generator.get();
+            if (dumpCode)
+                LoggerFactory.getLogger(DataValueGenerator.class).info(actual);
+            DataValueClassCache cache = DataValueClassCache.INSTANCE;
             try {
-                c = CompilerUtils.CACHED_COMPILER
-                        .loadFromJava(classLoader, className, actual);
+                return cache != null ? cache.load(classLoader, className, actual) :
+                        CompilerUtils.CACHED_COMPILER
+                                .loadFromJava(classLoader, className, actual);
             } catch (ClassNotFoundException e) {
                 throw new AssertionError(e);
             }
         }
-        return c;
+    }
+
+    /**
+     * Writes the sources of the native implementations and the marshallers of the given {@code
+     * DataValue} interfaces (and the interfaces nested in them) to the output directory. If these
+     * sources are compiled along with the application, e. g. by exec-maven-plugin in the
+     * process-classes phase followed by another maven-compiler-plugin execution, the classes
+     * are loaded instead of being generated and compiled at runtime.
+     * <pre>
+     * run: DataValueBytesMarshallers outputDirectory interfaceClassName...
+     * </pre>
+     */
+    public static void main(String... args) throws IOException, ClassNotFoundException {
+        File dir = new File(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            generateSources(dir, Class.forName(args[i]));
+        }
+    }
+
+    public static void generateSources(File dir, Class<?> tClass) throws IOException {
+        for (Class clazz : DataValueModels.acquireModel(tClass).nestedModels()) {
+            generateSources(dir, clazz);
+        }
+        writeSource(dir, nativeName(tClass),
+                new DataValueGenerator().generateNativeObject(tClass));
+        writeSource(dir, bytesReaderName(tClass, false), generateBytesReader(tClass));
+        writeSource(dir, withCustomFactoryName(tClass), generateWithCustomFactoryClass(tClass));
+        writeSource(dir, bytesWriterName(tClass, false), generateBytesWriter(tClass));
+    }
+
+    private static void writeSource(File dir, String className, String source)
+            throws IOException {
+        File file = new File(dir, className.replace('.', File.separatorChar) + ".java");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String nativeName(Class<?> tClass) {
+        return tClass.getName() + "$$Native";
     }
 
     private static <T> String withCustomFactoryName(Class<T> tClass) {
@@ -0,0 +1,80 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.serialization.internal;
+
+import net.openhft.compiler.CachedCompiler;
+import net.openhft.compiler.CompilerUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * On-disk cache of the classes, generated for {@code DataValue} interfaces. Each class is stored
+ * in the cache directory as a pair of the source and the compiled class file. A class is defined
+ * from the stored class file, if the stored source equals the freshly generated one, otherwise
+ * the source is compiled and both files are (re)written by the compiler.
+ *
+ * <p>The cache used by {@link DataValueBytesMarshallers} is configured by the {@code
+ * chronicle.map.dataValueClassCache} system property, that should point to a directory.
+ */
+public final class DataValueClassCache {
+
+    static final DataValueClassCache INSTANCE = fromSystemProperty();
+
+    private static DataValueClassCache fromSystemProperty() {
+        String dir = System.getProperty("chronicle.map.dataValueClassCache");
+        return dir != null ? new DataValueClassCache(new File(dir)) : null;
+    }
+
+    private final File dir;
+    private final CachedCompiler compiler;
+
+    public DataValueClassCache(File dir) {
+        this.dir = dir;
+        compiler = new CachedCompiler(dir, dir);
+    }
+
+    public Class load(ClassLoader classLoader, String className, String source)
+            throws ClassNotFoundException {
+        Class c = loadStored(classLoader, className, source);
+        return c != null ? c : compiler.loadFromJava(classLoader, className, source);
+    }
+
+    private Class loadStored(ClassLoader classLoader, String className, String source) {
+        String path = className.replace('.', File.separatorChar);
+        File sourceFile = new File(dir, path + ".java");
+        File classFile = new File(dir, path + ".class");
+        if (!sourceFile.exists() || !classFile.exists())
+            return null;
+        try {
+            if (!source.equals(new String(Files.readAllBytes(sourceFile.toPath()), UTF_8)))
+                return null;
+            return CompilerUtils.defineClass(classLoader, className,
+                    Files.readAllBytes(classFile.toPath()));
+        } catch (IOException | AssertionError e) {
+            // CompilerUtils wraps ClassFormatError, e. g. if the class file is being written by
+            // another process. Fall back to compilation
+            LoggerFactory.getLogger(DataValueClassCache.class)
+                    .warn("Failed to load " + className + " from " + dir, e);
+            return null;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import java.nio.ByteOrder;
 import java.nio.channels.*;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.*;
@@ -82,9 +83,18 @@ abstract class AbstractChannelReplicator implements Closeable {
     private final Queue<Runnable> pendingRegistrations = new ConcurrentLinkedQueue<Runnable>();
     @Nullable
     private final Throttler throttler;
+    private final Map<SelectableChannel, Throttler> peerThrottlers =
+            new ConcurrentHashMap<SelectableChannel, Throttler>();
 
     volatile boolean isClosed = false;
 
+    private final StallListener stallListener = new StallListener() {
+        @Override
+        public void onStall(SelectableChannel channel, long stalledMillis) {
+            onThrottleStall(channel, stalledMillis);
+        }
+    };
+
     AbstractChannelReplicator(String name, ThrottlingConfig throttlingConfig)
             throws IOException {
         executorService = Executors.newSingleThreadExecutor(
@@ -98,7 +108,13 @@ abstract class AbstractChannelReplicator implements Closeable {
         throttler = throttlingConfig.throttling(DAYS) > 0 ?
                 new Throttler(selector,
                         throttlingConfig.bucketInterval(MILLISECONDS),
-                        throttlingConfig.throttling(DAYS)) : null;
+                        throttlingConfig.throttling(DAYS), new ChannelPredicate() {
+                    @Override
+                    public boolean test(SelectableChannel channel) {
+                        Throttler peerThrottler = peerThrottlers.get(channel);
+                        return peerThrottler != null && peerThrottler.throttled;
+                    }
+                }, stallListener) : null;
 
         startedHere = new Throwable("Started here");
     }
@@ -308,12 +324,18 @@ abstract class AbstractChannelReplicator implements Closeable {
     void closeEarlyAndQuietly(SelectableChannel channel) {
         if (throttler != null)
             throttler.remove(channel);
+        peerThrottlers.remove(channel);
         closeables.closeQuietly(channel);
     }
 
     void checkThrottleInterval() throws ClosedChannelException {
         if (throttler != null)
             throttler.checkThrottleInterval();
+        if (!peerThrottlers.isEmpty()) {
+            for (Throttler peerThrottler : peerThrottlers.values()) {
+                peerThrottler.checkThrottleInterval();
+            }
+        }
     }
 
     void contemplateThrottleWrites(int bytesJustWritten) throws ClosedChannelException {
@@ -321,11 +343,55 @@ abstract class AbstractChannelReplicator implements Closeable {
             throttler.contemplateThrottleWrites(bytesJustWritten);
     }
 
+    void contemplateThrottleWrites(SelectableChannel channel, int bytesJustWritten)
+            throws ClosedChannelException {
+        contemplateThrottleWrites(bytesJustWritten);
+        if (!peerThrottlers.isEmpty()) {
+            Throttler peerThrottler = peerThrottlers.get(channel);
+            if (peerThrottler != null)
+                peerThrottler.contemplateThrottleWrites(bytesJustWritten);
+        }
+    }
+
     void throttle(SelectableChannel channel) {
         if (throttler != null)
             throttler.add(channel);
     }
 
+    /**
+     * Throttles writes to the given channel on its own, in addition to the throttling shared by
+     * all channels of this replicator.
+     */
+    void throttlePeer(SelectableChannel channel, ThrottlingConfig throttlingConfig) {
+        if (throttlingConfig.throttling(DAYS) <= 0)
+            return;
+        Throttler peerThrottler = new Throttler(selector,
+                throttlingConfig.bucketInterval(MILLISECONDS),
+                throttlingConfig.throttling(DAYS), new ChannelPredicate() {
+            @Override
+            public boolean test(SelectableChannel ch) {
+                return throttler != null && throttler.throttled;
+            }
+        }, stallListener);
+        peerThrottler.add(channel);
+        peerThrottlers.put(channel, peerThrottler);
+    }
+
+    /**
+     * Called from the replicator's thread, when writes to the channel are restored after they
+     * were stalled by throttling. Does nothing by default.
+     */
+    void onThrottleStall(SelectableChannel channel, long stalledMillis) {
+    }
+
+    interface ChannelPredicate {
+        boolean test(SelectableChannel channel);
+    }
+
+    interface StallListener {
+        void onStall(SelectableChannel channel, long stalledMillis);
+    }
+
     /**
      * throttles 'writes' to ensure the network is not swamped, this is achieved by periodically
      * de-registering the write selector during periods of high volume.
@@ -337,13 +403,26 @@ abstract class AbstractChannelReplicator implements Closeable {
         private final long throttleInterval;
         private final long maxBytesInInterval;
 
+        /**
+         * Channels, which should stay without 'write' when this throttler's interval passes,
+         * because they are throttled by another throttler as well
+         */
+        private final ChannelPredicate throttledElsewhere;
+        @NotNull
+        private final StallListener stallListener;
+
         private long lastTime = System.currentTimeMillis();
         private long bytesWritten;
+        boolean throttled;
+        private long throttledSince;
 
         Throttler(@NotNull Selector selector,
                   long throttleIntervalInMillis,
-                  long bitsPerDay) {
+                  long bitsPerDay, @NotNull ChannelPredicate throttledElsewhere,
+                  @NotNull StallListener stallListener) {
             this.selector = selector;
+            this.throttledElsewhere = throttledElsewhere;
+            this.stallListener = stallListener;
             this.throttleInterval = throttleIntervalInMillis;
             double bytesPerMs = ((double) bitsPerDay) / DAYS.toMillis(1) / BITS_IN_A_BYTE;
             this.maxBytesInInterval = round(bytesPerMs * throttleInterval);
@@ -370,11 +449,17 @@ abstract class AbstractChannelReplicator implements Closeable {
 
             lastTime = time;
             bytesWritten = 0;
+            final long stalledMillis = throttled ? time - throttledSince : 0L;
+            throttled = false;
 
             if (LOG.isDebugEnabled())
                 LOG.debug("Restoring OP_WRITE on all channels");
 
             for (SelectableChannel selectableChannel : channels) {
+                if (stalledMillis > 0L)
+                    stallListener.onStall(selectableChannel, stalledMillis);
+                if (throttledElsewhere.test(selectableChannel))
+                    continue;
                 final SelectionKey selectionKey = selectableChannel.keyFor(selector);
                 if (selectionKey != null)
                     selectionKey.interestOps(selectionKey.interestOps() | OP_WRITE);
@@ -392,6 +477,9 @@ abstract class AbstractChannelReplicator implements Closeable {
                 throws ClosedChannelException {
             bytesWritten += bytesJustWritten;
             if (bytesWritten > maxBytesInInterval) {
+                if (!throttled)
+                    throttledSince = System.currentTimeMillis();
+                throttled = true;
                 for (SelectableChannel channel : channels) {
                     final SelectionKey selectionKey = channel.keyFor(selector);
                     if (selectionKey != null) {
@@ -444,6 +532,16 @@ abstract class AbstractChannelReplicator implements Closeable {
         @NotNull
         private ByteBuffer out;
 
+        private long largestEntrySize;
+
+        // if set, values of at least deferredValue.minSize bytes are written from the memory of
+        // entries straight to the channel, with gathering writes
+        @Nullable
+        private GatheringByteChannel zeroCopyChannel;
+        private final Replica.DeferredValue deferredValue = new Replica.DeferredValue();
+        private final ByteBuffer[] gatheredBuffers = new ByteBuffer[2];
+        private long bytesWrittenToChannel;
+
         EntryCallback(@NotNull final Replica.EntryExternalizable externalizable,
                       final int tcpBufferSize) {
             this.externalizable = externalizable;
@@ -461,6 +559,34 @@ abstract class AbstractChannelReplicator implements Closeable {
             return out;
         }
 
+        /**
+         * Enables writes of values of at least {@code threshold} bytes straight to the {@code
+         * channel}, or disables them if the {@code channel} is {@code null}. Values are written
+         * after the contents of the buffer, which are written first.
+         */
+        void zeroCopyChannel(@Nullable GatheringByteChannel channel, long threshold) {
+            if (channel != null && !NativeMemoryBuffers.supported())
+                return;
+            zeroCopyChannel = channel;
+            deferredValue.minSize = threshold;
+        }
+
+        /**
+         * @return the number of bytes, written straight to the channel since the previous call
+         */
+        long takeBytesWrittenToChannel() {
+            long bytes = bytesWrittenToChannel;
+            bytesWrittenToChannel = 0L;
+            return bytes;
+        }
+
+        /**
+         * @return the size of the largest entry, written by this callback so far
+         */
+        long largestEntrySize() {
+            return largestEntrySize;
+        }
+
 
         @Override
         public Bytes resizeBuffer(int size) {
@@ -473,7 +599,9 @@ abstract class AbstractChannelReplicator implements Closeable {
 
             assert size < Integer.MAX_VALUE;
 
-            final ByteBuffer result = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            // direct, so that the buffer is written to sockets without an intermediate copy
+            final ByteBuffer result =
+                    ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
             final long bytesPosition = in.position();
 
             in = new ByteBufferBytes(result);
@@ -515,16 +643,25 @@ abstract class AbstractChannelReplicator implements Closeable {
 
                 start = in.position();
 
-                externalizable.writeExternalEntry(entry, in, chronicleId, bootstrapTime);
+                boolean deferred = false;
+                if (zeroCopyChannel != null) {
+                    deferred = externalizable.writeExternalEntryDeferringValue(
+                            entry, in, chronicleId, bootstrapTime, deferredValue);
+                } else {
+                    externalizable.writeExternalEntry(entry, in, chronicleId, bootstrapTime);
+                }
 
                 if (in.position() == start) {
                     in.position(pos0);
                     return false;
                 }
 
+                // the deferred value doesn't take space in the buffer
+                final long bufferedBytes = in.position() - start;
+
                 // write the length of the entry, just before the start, so when we read it back
                 // we read the length of the entry first and hence know how many preceding writer to read
-                final long bytesWritten = (int) (in.position() - start);
+                final long bytesWritten = bufferedBytes + (deferred ? deferredValue.size : 0L);
 
                 if (bytesWritten > Integer.MAX_VALUE)
                     throw new IllegalStateException("entry too large, " +
@@ -535,6 +672,12 @@ abstract class AbstractChannelReplicator implements Closeable {
 
                 in.writeInt(sizeLocation, (int) bytesWritten);
 
+                if (bufferedBytes > largestEntrySize)
+                    largestEntrySize = bufferedBytes;
+
+                if (deferred)
+                    writeDeferredValue();
+
             } catch (IllegalArgumentException e) {
 
                 // reset the entries position
@@ -567,6 +710,47 @@ abstract class AbstractChannelReplicator implements Closeable {
             }
             return true;
         }
+
+        /**
+         * Writes the contents of the buffer and then the deferred value to the channel, with a
+         * single gathering write. The bytes, which the channel doesn't accept, are left in the
+         * buffer, as if the value was copied to the buffer.
+         */
+        private void writeDeferredValue() {
+            final int valueSize = (int) deferredValue.size;
+            final ByteBuffer value = NativeMemoryBuffers.view(deferredValue.address, valueSize);
+            final int buffered = (int) in.position();
+            out.position(0);
+            out.limit(buffered);
+            gatheredBuffers[0] = out;
+            gatheredBuffers[1] = value;
+            try {
+                bytesWrittenToChannel += zeroCopyChannel.write(gatheredBuffers);
+            } catch (IOException e) {
+                // the next write to the channel fails as well and closes it
+                if (LOG.isDebugEnabled())
+                    LOG.debug("gathering write failed", e);
+            } finally {
+                gatheredBuffers[1] = null;
+            }
+
+            // the buffer is compacted, as in TcpReplicator.writeBufferToSocket()
+            out.compact();
+            in.position(out.position());
+            in.limit(in.capacity());
+            out.clear();
+
+            if (value.hasRemaining()) {
+                if (in.remaining() < value.remaining()) {
+                    final long newSize = in.position() + value.remaining();
+                    if (newSize > Integer.MAX_VALUE)
+                        throw new IllegalStateException("entry too large, " +
+                                "entries are limited to a size of " + Integer.MAX_VALUE);
+                    resizeBuffer((int) newSize);
+                }
+                in.write(value);
+            }
+        }
     }
 
     abstract class AbstractConnector {
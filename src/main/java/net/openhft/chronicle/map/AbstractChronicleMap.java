@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -56,6 +57,11 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V>, Serializable {
         }
     }
 
+    @Override
+    default Iterator<Entry<K, V>> entryIterator(int batchSize, boolean reuseInstances) {
+        return new ChronicleMapIterator.OfEntries<>(this, batchSize, reuseInstances);
+    }
+
     @Override
     default boolean containsValue(Object value) {
         return !forEachEntryWhile(c -> !c.value().equals(c.context().wrapValueAsData((V) value)));
@@ -71,11 +77,6 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V>, Serializable {
         forEachEntry(c -> action.accept(c.key().get(), c.value().get()));
     }
 
-    @Override
-    default void putAll(Map<? extends K, ? extends V> m) {
-        m.forEach(this::put);
-    }
-
     @NotNull
     @Override
     default Collection<V> values() {
@@ -127,6 +128,11 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V>, Serializable {
             public void forEach(java.util.function.Consumer<? super V> action) {
                 AbstractChronicleMap.this.forEachEntry(c -> action.accept(c.value().get()));
             }
+
+            @Override
+            public Spliterator<V> spliterator() {
+                return new ChronicleMapSpliterator.OfValues<>(AbstractChronicleMap.this);
+            }
         };
     }
 
@@ -161,6 +167,11 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V>, Serializable {
             public void forEach(java.util.function.Consumer<? super K> action) {
                 AbstractChronicleMap.this.forEachEntry(c -> action.accept(c.key().get()));
             }
+
+            @Override
+            public Spliterator<K> spliterator() {
+                return new ChronicleMapSpliterator.OfKeys<>(AbstractChronicleMap.this);
+            }
         };
     }
 
@@ -245,4 +256,19 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V>, Serializable {
         }
         return !interrupt;
     }
+
+    @Override
+    default void forEachEntryParallel(final Consumer<? super MapEntry<K, V>> action,
+                                      ForkJoinPool pool) {
+        forEachEntryWhileParallel(c -> {
+            action.accept(c);
+            return true;
+        }, pool);
+    }
+
+    @Override
+    default boolean forEachEntryWhileParallel(final Predicate<? super MapEntry<K, V>> action,
+                                              ForkJoinPool pool) {
+        return pool.invoke(new SegmentsIterationTask<>(this, action));
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.ReusablePrimitiveData;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Common part of {@link VanillaChronicleLongLongMap} and {@link VanillaChronicleIntIntMap}: a view
+ * of a map with default serialization of primitive wrapper keys and values, which queries the map
+ * with thread-local off-heap key and value buffers.
+ *
+ * @param <T> the primitive wrapper type of keys and values
+ * @param <D> the type of the reusable key and value data
+ */
+abstract class AbstractPrimitiveMapView<T, D extends ReusablePrimitiveData<T>> {
+
+    final class Buffers {
+        final D key = newData.get();
+        final D value = newData.get();
+    }
+
+    final ChronicleMap<T, T> map;
+    private final Supplier<D> newData;
+    // buffers of all threads, to free them on close()
+    private final Set<Buffers> allBuffers = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(() -> {
+        Buffers b = new Buffers();
+        allBuffers.add(b);
+        return b;
+    });
+
+    AbstractPrimitiveMapView(ChronicleMap<T, T> map, Class<T> primitiveWrapper,
+                             Object marshaller, Supplier<D> newData) {
+        checkDefaultPrimitiveSerialization(map, primitiveWrapper, marshaller);
+        this.map = map;
+        this.newData = newData;
+    }
+
+    /**
+     * The buffers are laid out as the default marshallers write keys and values, the view can't be
+     * used with any other serialization.
+     */
+    private static void checkDefaultPrimitiveSerialization(
+            ChronicleMap<?, ?> map, Class<?> primitiveWrapper, Object marshaller) {
+        if (map.keyClass() != primitiveWrapper || map.valueClass() != primitiveWrapper) {
+            throw new IllegalArgumentException("Map of " + primitiveWrapper.getSimpleName() +
+                    " keys and values is expected, " + map.keyClass() + " keys and " +
+                    map.valueClass() + " values given");
+        }
+        if (!(map instanceof VanillaChronicleMap)) {
+            throw new IllegalArgumentException("Map created by ChronicleMapBuilder is expected, " +
+                    map.getClass() + " given");
+        }
+        VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> m = (VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+        if (m.originalKeyReader != marshaller || m.originalKeyInterop != marshaller ||
+                m.originalValueReader != marshaller || m.originalValueInterop != marshaller) {
+            throw new IllegalArgumentException("Primitive map view requires " +
+                    primitiveWrapper.getSimpleName() + " keys and values with default " +
+                    "serialization");
+        }
+    }
+
+    Buffers buffers() {
+        return buffers.get();
+    }
+
+    D keyData() {
+        return buffers.get().key;
+    }
+
+    boolean containsKey(D key) {
+        try (ExternalMapQueryContext<T, T, ?> q = map.queryContext(key)) {
+            return q.entry() != null;
+        }
+    }
+
+    void put(D key, D value) {
+        try (ExternalMapQueryContext<T, T, ?> q = map.queryContext(key)) {
+            q.updateLock().lock();
+            putValue(q, q.entry(), value);
+        }
+    }
+
+    boolean remove(D key) {
+        try (ExternalMapQueryContext<T, T, ?> q = map.queryContext(key)) {
+            q.updateLock().lock();
+            MapEntry<T, T> entry = q.entry();
+            if (entry != null) {
+                q.remove(entry);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static <T> void putValue(ExternalMapQueryContext<T, T, ?> q, MapEntry<T, T> entry,
+                             Data<T> value) {
+        if (entry != null) {
+            q.replaceValue(entry, value);
+        } else {
+            q.insert(q.absentEntry(), value);
+        }
+    }
+
+    public long longSize() {
+        return map.longSize();
+    }
+
+    public ChronicleMap<T, T> map() {
+        return map;
+    }
+
+    /**
+     * Closes the underlying map and frees the buffers of all threads. The view shouldn't be used
+     * after this call.
+     */
+    public void close() {
+        map.close();
+        for (Buffers b : allBuffers) {
+            b.key.free();
+            b.value.free();
+        }
+        allBuffers.clear();
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
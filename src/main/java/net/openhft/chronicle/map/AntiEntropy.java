@@ -0,0 +1,306 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.lang.Maths;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.openhft.chronicle.map.AbstractChannelReplicator.SIZE_OF_SIZE;
+
+/**
+ * Anti-entropy synchronization of a {@link Replica} with a remote node over a {@link
+ * TcpReplicator} connection, enabled if negotiated by both nodes. Each side keeps a hash tree of
+ * digests of its entries, the leaves are digests of the entries of a segment, hashes of keys of
+ * which are in one of the ranges, see {@link Replica#digestRanges()}. Periodically a node sends
+ * the root of its tree, the other node answers with its digests of the children of the nodes,
+ * which differ, and so on, down to the leaves. When digests of a leaf differ, the nodes exchange
+ * digests of the entries of the leaf, and each node sends once again the entries, originated on
+ * it, which the other node lacks or holds in a different version, through the regular
+ * modification iterator. So the cost of a synchronization round is proportional to the number of
+ * differences, rather than to the size of the map, and the size of an entries message is bounded
+ * by the number of entries in a range, rather than in a segment.
+ * <pre>
+ * frame    := ANTI_ENTROPY_UPDATE, int size, message
+ * message  := NODES, stopBit segments, stopBit ranges, byte level, stopBit count,
+ *             (stopBit index, long digest)*
+ *           | ENTRIES, stopBit segmentIndex, stopBit range, boolean replyRequested, int count,
+ *             (long keyHash, long entryDigest)*
+ * </pre>
+ * Nodes of the level {@code l} of the tree are {@code 2^l} digests, the leaves are at the level
+ * {@code log2(segments * ranges)}, rounded up. The leaf {@code segmentIndex * ranges + range}
+ * covers the range of the segment.
+ *
+ * <p>Digests of leaves are not maintained on each write, as the original design suggested: the
+ * digests of all ranges of a segment are computed in a single pass over the segment, when they
+ * are requested, and cached until the segment is modified, see {@link
+ * ReplicatedChronicleMap#segmentDigest(int, int)}. Segments of a persisted map are updated by
+ * other processes as well, and there is no space in the segment memory to keep the digests, so
+ * a segment changed since the previous round is iterated once per round.
+ *
+ * <p>Digests cover all entries of a segment, including entries, originated on third nodes, but
+ * only entries, originated on this node, are resent. A segment, which differs only in versions
+ * of third node entries, is compared entry by entry in every round without a repair, until one
+ * of the nodes receives the entry from its origin, see {@link
+ * net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig#antiEntropyInterval(long,
+ * java.util.concurrent.TimeUnit)}.
+ *
+ * <p>Not thread-safe, each instance serves a single connection. {@link TcpReplicator} calls it
+ * off the selector thread, because {@link #root()} and {@link #onMessage(Bytes)} iterate
+ * segments to compute digests.
+ */
+final class AntiEntropy {
+    private static final Logger LOG = LoggerFactory.getLogger(AntiEntropy.class);
+
+    static final byte ANTI_ENTROPY_UPDATE = 3;
+
+    // message types
+    private static final byte NODES = 1;
+    private static final byte ENTRIES = 2;
+
+    private final Replica replica;
+    private final byte remoteIdentifier;
+    private final int segments;
+    private final int ranges;
+    private final int depth;
+    /**
+     * The tree in the heap layout, the root at the index 1, the leaves from the index {@code 1 <<
+     * depth}
+     */
+    private final long[] tree;
+    private final ReplicationWireFormat.GrowableBuffer messages =
+            new ReplicationWireFormat.GrowableBuffer(1024);
+    private final Map<Long, Long> remoteEntryDigests = new HashMap<>();
+    private boolean mismatchedSegments;
+
+    AntiEntropy(@NotNull Replica replica, byte remoteIdentifier) {
+        this.replica = replica;
+        this.remoteIdentifier = remoteIdentifier;
+        segments = replica.digestedSegments();
+        if (segments <= 0)
+            throw new IllegalArgumentException("Replica doesn't support anti-entropy");
+        ranges = replica.digestRanges();
+        int leaves = (int) Maths.nextPower2(segments, 1L) * ranges;
+        depth = Integer.numberOfTrailingZeros(leaves);
+        tree = new long[leaves * 2];
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Digests of entries are summed up to the digest of a segment, so they should be well mixed.
+     */
+    static long entryDigest(long keyHash, long valueHash, boolean removed, long originTimestamp,
+                            byte originIdentifier) {
+        long h = mix(keyHash ^ originTimestamp);
+        h = mix(h ^ (((originIdentifier & 0xFFL) << 1) | (removed ? 1L : 0L)));
+        return mix(h ^ valueHash);
+    }
+
+    /**
+     * Returns the range of the key hash, the top bits of the hash
+     */
+    static int keyHashRange(long keyHash, int ranges) {
+        // ranges is a power of 2, two shifts, because shift by 64 bits is a no-op
+        return (int) ((keyHash >>> 1) >>> (63 - Integer.numberOfTrailingZeros(ranges)));
+    }
+
+    private void updateTree() {
+        int leaves = 1 << depth;
+        for (int segmentIndex = 0; segmentIndex < segments; segmentIndex++) {
+            for (int range = 0; range < ranges; range++) {
+                tree[leaves + segmentIndex * ranges + range] =
+                        replica.segmentDigest(segmentIndex, range);
+            }
+        }
+        for (int i = leaves - 1; i > 0; i--) {
+            tree[i] = mix(Long.rotateLeft(tree[2 * i], 31) ^ tree[2 * i + 1]);
+        }
+    }
+
+    private long node(int level, long index) {
+        return tree[(int) ((1L << level) + index)];
+    }
+
+    /**
+     * Starts a synchronization round.
+     *
+     * @return a frame with the root of the tree, from zero position to the limit
+     */
+    Bytes root() {
+        messages.clear();
+        updateTree();
+        writeNodes(0, new long[] {0L}, 1);
+        return result();
+    }
+
+    /**
+     * Handles a message, received from the remote node.
+     *
+     * @param in the message, from the position to the limit
+     * @return frames to send to the remote node in reply, from zero position to the limit, or
+     * {@code null} if nothing should be sent
+     */
+    @Nullable
+    Bytes onMessage(@NotNull Bytes in) {
+        messages.clear();
+        final byte type = in.readByte();
+        if (type == NODES) {
+            onNodes(in);
+        } else if (type == ENTRIES) {
+            onEntries(in);
+        } else {
+            throw new IllegalStateException("Unexpected anti-entropy message type=" + type);
+        }
+        return messages.bytes.position() > 0 ? result() : null;
+    }
+
+    private void onNodes(Bytes in) {
+        final long remoteSegments = in.readStopBit();
+        final long remoteRanges = in.readStopBit();
+        final int level = in.readByte();
+        final int count = (int) in.readStopBit();
+        if (remoteSegments != segments || remoteRanges != ranges) {
+            if (!mismatchedSegments) {
+                LOG.warn("Anti-entropy with the remote node {} is not possible, the number of " +
+                        "segments or digest ranges differs: {} x {} locally, {} x {} remotely",
+                        remoteIdentifier, segments, ranges, remoteSegments, remoteRanges);
+                mismatchedSegments = true;
+            }
+            return;
+        }
+        updateTree();
+        final long[] differing = new long[count];
+        int differingCount = 0;
+        for (int i = 0; i < count; i++) {
+            final long index = in.readStopBit();
+            if (node(level, index) != in.readLong())
+                differing[differingCount++] = index;
+        }
+        if (differingCount == 0)
+            return;
+        if (level < depth) {
+            final long[] children = new long[differingCount * 2];
+            for (int i = 0; i < differingCount; i++) {
+                children[2 * i] = differing[i] * 2;
+                children[2 * i + 1] = differing[i] * 2 + 1;
+            }
+            writeNodes(level + 1, children, children.length);
+        } else {
+            for (int i = 0; i < differingCount; i++) {
+                writeEntries((int) (differing[i] / ranges), (int) (differing[i] % ranges), true);
+            }
+        }
+    }
+
+    private void onEntries(Bytes in) {
+        final int segmentIndex = (int) in.readStopBit();
+        final int range = (int) in.readStopBit();
+        final boolean replyRequested = in.readBoolean();
+        final int count = in.readInt();
+        remoteEntryDigests.clear();
+        for (int i = 0; i < count; i++) {
+            remoteEntryDigests.put(in.readLong(), in.readLong());
+        }
+        final boolean[] mismatch = {false};
+        replica.resendEntries(remoteIdentifier, segmentIndex, (keyHash, entryDigest) -> {
+            if (keyHashRange(keyHash, ranges) != range)
+                return false;
+            Long remoteEntryDigest = remoteEntryDigests.remove(keyHash);
+            if (remoteEntryDigest == null || remoteEntryDigest != entryDigest) {
+                mismatch[0] = true;
+                return true;
+            }
+            return false;
+        });
+        // entries, which the remote node holds in a different version, or this node lacks,
+        // could be sent by the remote node, when it receives the digests of the local entries
+        if (replyRequested && (mismatch[0] || !remoteEntryDigests.isEmpty()))
+            writeEntries(segmentIndex, range, false);
+        remoteEntryDigests.clear();
+    }
+
+    private void writeNodes(int level, long[] indexes, int count) {
+        final long sizePosition = startFrame();
+        Bytes b = messages.ensureRemaining(32L + count * 18L);
+        b.writeByte(NODES);
+        b.writeStopBit(segments);
+        b.writeStopBit(ranges);
+        b.writeByte(level);
+        b.writeStopBit(count);
+        for (int i = 0; i < count; i++) {
+            b.writeStopBit(indexes[i]);
+            b.writeLong(node(level, indexes[i]));
+        }
+        finishFrame(sizePosition);
+    }
+
+    private void writeEntries(int segmentIndex, int range, boolean replyRequested) {
+        final long sizePosition = startFrame();
+        Bytes b = messages.ensureRemaining(32L);
+        b.writeByte(ENTRIES);
+        b.writeStopBit(segmentIndex);
+        b.writeStopBit(range);
+        b.writeBoolean(replyRequested);
+        final long countPosition = b.position();
+        b.writeInt(0);
+        final int[] count = {0};
+        replica.forEachEntryDigest(segmentIndex, (keyHash, entryDigest) -> {
+            if (keyHashRange(keyHash, ranges) != range)
+                return;
+            Bytes bytes = messages.ensureRemaining(16L);
+            bytes.writeLong(keyHash);
+            bytes.writeLong(entryDigest);
+            count[0]++;
+        });
+        messages.bytes.writeInt(countPosition, count[0]);
+        finishFrame(sizePosition);
+    }
+
+    private long startFrame() {
+        Bytes b = messages.ensureRemaining(1L + SIZE_OF_SIZE);
+        b.writeByte(ANTI_ENTROPY_UPDATE);
+        final long sizePosition = b.position();
+        b.writeInt(0);
+        return sizePosition;
+    }
+
+    private void finishFrame(long sizePosition) {
+        final Bytes b = messages.bytes;
+        b.writeInt(sizePosition, (int) (b.position() - sizePosition - SIZE_OF_SIZE));
+    }
+
+    private Bytes result() {
+        Bytes result = messages.bytes;
+        result.limit(result.position());
+        result.position(0);
+        return result;
+    }
+}
@@ -19,6 +19,7 @@ package net.openhft.chronicle.map;
 import net.openhft.chronicle.hash.replication.ReplicableEntry;
 import net.openhft.chronicle.hash.replication.ReplicationHub;
 import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
+import net.openhft.chronicle.hash.replication.ThrottlingConfig;
 import net.openhft.chronicle.hash.replication.UdpTransportConfig;
 import net.openhft.lang.collection.DirectBitSet;
 import net.openhft.lang.collection.SingleThreadedDirectBitSet;
@@ -40,6 +41,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.lang.Math.min;
 import static java.nio.ByteBuffer.wrap;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.openhft.chronicle.map.Replica.EntryExternalizable;
 import static net.openhft.chronicle.map.Replica.ModificationIterator;
 
@@ -132,6 +135,21 @@ public final class ChannelProvider implements Closeable {
             }
         }
 
+        @Override
+        public boolean writeExternalEntryDeferringValue(
+                @NotNull Bytes entry, @NotNull Bytes destination, int chronicleChannel,
+                long bootstrapTime, @NotNull Replica.DeferredValue deferredValue) {
+            channelDataReadLock();
+            try {
+                destination.writeStopBit(chronicleChannel);
+                return channelEntryExternalizables[chronicleChannel]
+                        .writeExternalEntryDeferringValue(entry, destination, chronicleChannel,
+                                bootstrapTime, deferredValue);
+            } finally {
+                channelDataLock.readLock().unlock();
+            }
+        }
+
         @Override
         public void readExternalEntry(@NotNull Bytes source) {
             channelDataReadLock();
@@ -148,9 +166,51 @@ public final class ChannelProvider implements Closeable {
                 channelDataLock.readLock().unlock();
             }
         }
+
+        @Override
+        public long externalEntryOrderingKey(@NotNull Bytes source) {
+            final long start = source.position();
+            channelDataReadLock();
+            try {
+                final int chronicleId = (int) source.readStopBit();
+                if (chronicleId >= chronicleChannels.length)
+                    return 0L;
+                EntryExternalizable externalizable = channelEntryExternalizables[chronicleId];
+                // entries of different channels are independent
+                return externalizable != null ?
+                        (((long) chronicleId) << 32) +
+                                externalizable.externalEntryOrderingKey(source) : 0L;
+            } finally {
+                source.position(start);
+                channelDataLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public boolean externalEntryLayout(@NotNull Bytes source,
+                                           @NotNull Replica.ExternalEntryLayout layout) {
+            final long start = source.position();
+            channelDataReadLock();
+            try {
+                final int chronicleId = (int) source.readStopBit();
+                if (chronicleId >= chronicleChannels.length)
+                    return false;
+                EntryExternalizable externalizable = channelEntryExternalizables[chronicleId];
+                return externalizable != null &&
+                        externalizable.externalEntryLayout(source, layout);
+            } finally {
+                source.position(start);
+                channelDataLock.readLock().unlock();
+            }
+        }
     };
 
 
+    /**
+     * Bytes, which a channel of weight 1 could send each time it is visited by the round robin
+     */
+    static final long QUANTUM = 16 * 1024;
+
     private final byte localIdentifier;
     final Replica asReplica = new Replica() {
         @Override
@@ -172,17 +232,26 @@ public final class ChannelProvider implements Closeable {
 
                     volatile Replica.ModificationNotifier notifier0;
 
+                    // deficits of the channels in bytes, by channel identifiers, see nextEntries()
+                    final long[] deficits = new long[chronicleChannels.length];
+                    // position in chronicleChannelList, from which the next round robin pass
+                    // starts
+                    int cursor = 1;
+                    final CountingEntryCallback countingCallback = new CountingEntryCallback();
+
                     @Override
                     public boolean hasNext() {
                         channelDataReadLock();
                         try {
                             // old-style iteration to avoid 1) iterator object creation
                             // 2) ConcurrentModificationException
+                            long now = System.currentTimeMillis();
                             for (int i = 0, len = chronicleChannelList.size(); i < len; i++) {
                                 final ModificationIterator modificationIterator =
                                         chronicleChannelList.get(i).acquireModificationIterator(
                                                 remoteIdentifier);
-                                if (modificationIterator.hasNext())
+                                if (modificationIterator.hasNext() &&
+                                        heldBackMillis(chronicleChannelIds.get(i), now) == 0L)
                                     return true;
                             }
                             return false;
@@ -191,6 +260,45 @@ public final class ChannelProvider implements Closeable {
                         }
                     }
 
+                    @Override
+                    public long outstandingEntries() {
+                        channelDataReadLock();
+                        try {
+                            long outstanding = 0L;
+                            for (int i = 0, len = chronicleChannelList.size(); i < len; i++) {
+                                final long channelOutstanding = chronicleChannelList.get(i)
+                                        .acquireModificationIterator(remoteIdentifier)
+                                        .outstandingEntries();
+                                if (channelOutstanding > 0L)
+                                    outstanding += channelOutstanding;
+                            }
+                            return outstanding;
+                        } finally {
+                            channelDataLock.readLock().unlock();
+                        }
+                    }
+
+                    @Override
+                    public long throttledMillis() {
+                        channelDataReadLock();
+                        try {
+                            long now = System.currentTimeMillis();
+                            long throttledMillis = 0L;
+                            for (int i = 1, len = chronicleChannelList.size(); i < len; i++) {
+                                long heldBack = heldBackMillis(chronicleChannelIds.get(i), now);
+                                if (heldBack > 0L && (throttledMillis == 0L ||
+                                        heldBack < throttledMillis) &&
+                                        chronicleChannelList.get(i)
+                                                .acquireModificationIterator(remoteIdentifier)
+                                                .hasNext())
+                                    throttledMillis = heldBack;
+                            }
+                            return throttledMillis;
+                        } finally {
+                            channelDataLock.readLock().unlock();
+                        }
+                    }
+
                     @Override
                     public boolean nextEntry(@NotNull EntryCallback callback,
                                              final int na) {
@@ -201,8 +309,17 @@ public final class ChannelProvider implements Closeable {
                                 final ModificationIterator modificationIterator =
                                         chronicleChannelList.get(i)
                                         .acquireModificationIterator(remoteIdentifier);
-                                if (modificationIterator
-                                        .nextEntry(callback, chronicleChannelIds.get(i)))
+                                final int channelId = chronicleChannelIds.get(i);
+                                if (heldBackMillis(channelId, System.currentTimeMillis()) > 0L)
+                                    continue;
+                                countingCallback.reset(callback);
+                                final boolean accepted =
+                                        modificationIterator.nextEntry(countingCallback, channelId);
+                                final ChannelThrottle throttle = channelThrottles[channelId];
+                                if (throttle != null)
+                                    throttle.onSent(countingCallback.bytes,
+                                            System.currentTimeMillis());
+                                if (accepted)
                                     return true;
                             }
                             return false;
@@ -211,6 +328,71 @@ public final class ChannelProvider implements Closeable {
                         }
                     }
 
+                    /**
+                     * Shares the bandwidth between channels by deficit round robin: each time a
+                     * channel with pending changes is visited, its deficit is credited with
+                     * {@link #QUANTUM} times the channel weight, and the channel could send at
+                     * most as many bytes, as its deficit is. Channels, exceeding their own
+                     * throttling, are skipped. The system channel is always served first.
+                     */
+                    @Override
+                    public int nextEntries(@NotNull EntryCallback callback, final int na,
+                                           final long maxBytes) {
+                        channelDataReadLock();
+                        try {
+                            final int systemEntries = chronicleChannelList.get(0)
+                                    .acquireModificationIterator(remoteIdentifier)
+                                    .nextEntries(callback, 0, maxBytes);
+                            if (systemEntries > 0)
+                                return systemEntries;
+
+                            final int len = chronicleChannelList.size();
+                            final long now = System.currentTimeMillis();
+                            // another pass is needed, only if no channel has been served, but
+                            // some are waiting for enough credit
+                            boolean served = false;
+                            boolean waitingForCredit;
+                            do {
+                                waitingForCredit = false;
+                                for (int visited = 1; visited < len; visited++) {
+                                    final int i = cursor < len ? cursor : 1;
+                                    cursor = i + 1;
+                                    final int channelId = chronicleChannelIds.get(i);
+                                    final ModificationIterator modificationIterator =
+                                            chronicleChannelList.get(i)
+                                            .acquireModificationIterator(remoteIdentifier);
+                                    if (!modificationIterator.hasNext()) {
+                                        // an idle channel doesn't accumulate credit
+                                        deficits[channelId] = 0L;
+                                        continue;
+                                    }
+                                    if (heldBackMillis(channelId, now) > 0L)
+                                        continue;
+                                    final long deficit = deficits[channelId] +=
+                                            QUANTUM * channelWeights[channelId];
+                                    if (deficit <= 0L) {
+                                        waitingForCredit = true;
+                                        continue;
+                                    }
+                                    countingCallback.reset(callback);
+                                    final int entries = modificationIterator.nextEntries(
+                                            countingCallback, channelId, min(maxBytes, deficit));
+                                    final long bytes = countingCallback.bytes;
+                                    deficits[channelId] -= bytes;
+                                    final ChannelThrottle throttle = channelThrottles[channelId];
+                                    if (throttle != null)
+                                        throttle.onSent(bytes, now);
+                                    if (entries > 0)
+                                        return entries;
+                                    served = true;
+                                }
+                            } while (waitingForCredit && !served);
+                            return 0;
+                        } finally {
+                            channelDataLock.readLock().unlock();
+                        }
+                    }
+
                     @Override
                     public void dirtyEntries(long fromTimeStamp) {
                         channelDataReadLock();
@@ -306,6 +488,8 @@ public final class ChannelProvider implements Closeable {
     private final List<Integer> chronicleChannelIds;
 
     private final EntryExternalizable[] channelEntryExternalizables;
+    private final int[] channelWeights;
+    private final ChannelThrottle[] channelThrottles;
     private final AtomicReferenceArray<PayloadProvider> systemModificationIterator =
             new AtomicReferenceArray<PayloadProvider>(128);
     private final DirectBitSet systemModificationIteratorBitSet =
@@ -325,6 +509,8 @@ public final class ChannelProvider implements Closeable {
 
         chronicleChannels = new Replica[hub.maxNumberOfChannels()];
         channelEntryExternalizables = new EntryExternalizable[hub.maxNumberOfChannels()];
+        channelWeights = new int[hub.maxNumberOfChannels()];
+        channelThrottles = new ChannelThrottle[hub.maxNumberOfChannels()];
         chronicleChannelPositionsInList = new int[hub.maxNumberOfChannels()];
         Arrays.fill(chronicleChannelPositionsInList, -1);
         chronicleChannelList = new ArrayList<>();
@@ -342,7 +528,8 @@ public final class ChannelProvider implements Closeable {
         };
         systemMessageQueue = new SystemQueue(
                 systemModificationIteratorBitSet, systemModificationIterator, systemMessageHandler);
-        add((short) 0, systemMessageQueue.asReplica, systemMessageQueue.asEntryExternalizable);
+        add((short) 0, systemMessageQueue.asReplica, systemMessageQueue.asEntryExternalizable,
+                1, ThrottlingConfig.noThrottling());
     }
 
 
@@ -358,7 +545,21 @@ public final class ChannelProvider implements Closeable {
     }
 
     public ChronicleChannel createChannel(int channel) {
-        return new ChronicleChannel(channel);
+        return createChannel(channel, 1, ThrottlingConfig.noThrottling());
+    }
+
+    public ChronicleChannel createChannel(int channel, int weight,
+                                          @NotNull ThrottlingConfig throttlingConfig) {
+        return new ChronicleChannel(channel, weight, throttlingConfig);
+    }
+
+    /**
+     * Returns for how many milliseconds the channel with the given identifier couldn't send
+     * because of its own throttling, {@code 0} if it could send now.
+     */
+    private long heldBackMillis(int channelId, long now) {
+        final ChannelThrottle throttle = channelThrottles[channelId];
+        return throttle != null ? throttle.heldBackMillis(now) : 0L;
     }
 
     /**
@@ -393,7 +594,8 @@ public final class ChannelProvider implements Closeable {
 
     private void add(int chronicleChannel,
                      Replica replica,
-                     @NotNull EntryExternalizable entryExternalizable) {
+                     @NotNull EntryExternalizable entryExternalizable,
+                     int weight, @NotNull ThrottlingConfig throttlingConfig) {
         if (LOG.isDebugEnabled())
             LOG.debug("adding chronicleChannel=" + chronicleChannel + ",entryExternalizable=" +
                     entryExternalizable);
@@ -408,6 +610,9 @@ public final class ChannelProvider implements Closeable {
             chronicleChannelIds.add(chronicleChannel);
             chronicleChannelPositionsInList[chronicleChannel] = chronicleChannelList.size() - 1;
             channelEntryExternalizables[chronicleChannel] = entryExternalizable;
+            channelWeights[chronicleChannel] = weight;
+            channelThrottles[chronicleChannel] = throttlingConfig.throttling(DAYS) > 0 ?
+                    new ChannelThrottle(throttlingConfig) : null;
 
             if (chronicleChannel == 0)
                 return;
@@ -580,12 +785,87 @@ public final class ChannelProvider implements Closeable {
         }
     }
 
+    /**
+     * Counts bytes of the entries, accepted by the delegate callback
+     */
+    static final class CountingEntryCallback extends Replica.EntryCallback {
+        Replica.EntryCallback delegate;
+        long bytes;
+
+        void reset(Replica.EntryCallback delegate) {
+            this.delegate = delegate;
+            bytes = 0L;
+        }
+
+        @Override
+        public boolean onEntry(Bytes entry, int chronicleId, long bootstrapTime) {
+            final long remaining = entry.remaining();
+            final boolean accepted = delegate.onEntry(entry, chronicleId, bootstrapTime);
+            if (accepted)
+                bytes += remaining;
+            return accepted;
+        }
+
+        @Override
+        public void onAfterEntry() {
+            delegate.onAfterEntry();
+        }
+
+        @Override
+        public void onBeforeEntry() {
+            delegate.onBeforeEntry();
+        }
+
+        @Override
+        public boolean shouldBeIgnored(ReplicableEntry entry, int chronicleId) {
+            return delegate.shouldBeIgnored(entry, chronicleId);
+        }
+    }
+
+    /**
+     * Limits bytes, which a channel sends to all remote nodes in each bucketing interval of its
+     * {@link ThrottlingConfig}.
+     */
+    static final class ChannelThrottle {
+        private final long intervalMillis;
+        private final long maxBytesInInterval;
+        private long intervalStart = System.currentTimeMillis();
+        private long bytesInInterval;
+
+        ChannelThrottle(ThrottlingConfig throttlingConfig) {
+            intervalMillis = throttlingConfig.bucketInterval(MILLISECONDS);
+            double bytesPerMs = ((double) throttlingConfig.throttling(DAYS)) / DAYS.toMillis(1) /
+                    AbstractChannelReplicator.BITS_IN_A_BYTE;
+            maxBytesInInterval = Math.max(1L, Math.round(bytesPerMs * intervalMillis));
+        }
+
+        synchronized long heldBackMillis(long now) {
+            if (now - intervalStart >= intervalMillis) {
+                intervalStart = now;
+                bytesInInterval = 0L;
+                return 0L;
+            }
+            return bytesInInterval >= maxBytesInInterval ?
+                    intervalStart + intervalMillis - now : 0L;
+        }
+
+        synchronized void onSent(long bytes, long now) {
+            heldBackMillis(now);
+            bytesInInterval += bytes;
+        }
+    }
+
     public class ChronicleChannel extends Replicator implements Closeable {
 
         private final int chronicleChannel;
+        private final int weight;
+        private final ThrottlingConfig throttlingConfig;
 
-        private ChronicleChannel(int chronicleChannel) {
+        private ChronicleChannel(int chronicleChannel, int weight,
+                                 ThrottlingConfig throttlingConfig) {
             this.chronicleChannel = chronicleChannel;
+            this.weight = weight;
+            this.throttlingConfig = throttlingConfig;
         }
 
         public byte identifier() {
@@ -596,7 +876,14 @@ public final class ChannelProvider implements Closeable {
         protected Closeable applyTo(ChronicleMapBuilder builder,
                                     Replica map, EntryExternalizable entryExternalizable,
                                     final ReplicatedChronicleMap replicatedMap) {
-            add(chronicleChannel, map, entryExternalizable);
+            add(chronicleChannel, map, entryExternalizable, weight, throttlingConfig);
+            if (replicatedMap != null) {
+                // stats of the hub's replicator cover all channels
+                for (Closeable replicator : replicators) {
+                    if (replicator instanceof TcpReplicator)
+                        replicatedMap.addTcpReplicator((TcpReplicator) replicator);
+                }
+            }
             return this;
         }
 
@@ -618,6 +905,7 @@ public final class ChannelProvider implements Closeable {
                 }
                 chronicleChannels[chronicleChannel] = null;
                 channelEntryExternalizables[chronicleChannel] = null;
+                channelThrottles[chronicleChannel] = null;
 
                 if (chronicleChannelList.size() == 1) // i. e. only SystemQueue is left
                     ChannelProvider.this.close();
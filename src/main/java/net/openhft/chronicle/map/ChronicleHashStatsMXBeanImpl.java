@@ -0,0 +1,112 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHash;
+import net.openhft.chronicle.hash.ChronicleHashStatsMXBean;
+import net.openhft.chronicle.hash.SegmentStats;
+
+import java.util.List;
+
+class ChronicleHashStatsMXBeanImpl implements ChronicleHashStatsMXBean {
+
+    private final ChronicleHash<?, ?, ?, ?> hash;
+
+    ChronicleHashStatsMXBeanImpl(ChronicleHash<?, ?, ?, ?> hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    public int getSegments() {
+        return hash.segments();
+    }
+
+    @Override
+    public long getSize() {
+        return hash.stats().size();
+    }
+
+    @Override
+    public long getTiers() {
+        return hash.stats().tiers();
+    }
+
+    @Override
+    public double getFragmentation() {
+        return hash.stats().fragmentation();
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return hash.stats().lockAcquisitions();
+    }
+
+    @Override
+    public long getContendedLockAcquisitions() {
+        return hash.stats().contendedLockAcquisitions();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return hash.stats().lockWaitNanos();
+    }
+
+    @Override
+    public long[] getLockWaitHistogram() {
+        return hash.stats().lockWaitHistogram();
+    }
+
+    @Override
+    public double getAverageProbeLength() {
+        return hash.stats().averageProbeLength();
+    }
+
+    @Override
+    public long getAllocationFailures() {
+        return hash.stats().allocationFailures();
+    }
+
+    @Override
+    public int getHottestSegment() {
+        SegmentStats hottest = hash.stats().hottestSegment();
+        return hottest != null ? hottest.segmentIndex() : -1;
+    }
+
+    @Override
+    public long[] getSegmentLockAcquisitions() {
+        return hash.stats().segmentStats().stream()
+                .mapToLong(SegmentStats::lockAcquisitions).toArray();
+    }
+
+    @Override
+    public long[] getSegmentContendedLockAcquisitions() {
+        return hash.stats().segmentStats().stream()
+                .mapToLong(SegmentStats::contendedLockAcquisitions).toArray();
+    }
+
+    @Override
+    public int[] getSegmentTiers() {
+        List<SegmentStats> segmentStats = hash.stats().segmentStats();
+        return segmentStats.stream().mapToInt(SegmentStats::tiers).toArray();
+    }
+
+    @Override
+    public double[] getSegmentFragmentation() {
+        return hash.stats().segmentStats().stream()
+                .mapToDouble(SegmentStats::fragmentation).toArray();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import java.io.Closeable;
+
+/**
+ * View of a {@code ChronicleMap<Long, Long>} with default key and value serialization, which
+ * accesses entries by primitive {@code long} keys and values. Operations of this interface don't
+ * box keys and values and don't allocate objects on the heap (except the first operation in each
+ * thread, which allocates reusable thread-local buffers), but otherwise have the same semantics
+ * and locking, as the corresponding {@code Map} operations of the underlying {@link #map()}.
+ *
+ * <p>Obtained via {@link ChronicleMapBuilder#createLongLongMap()} or {@link
+ * #of(ChronicleMap)}.
+ */
+public interface ChronicleLongLongMap extends Closeable {
+
+    /**
+     * Returns a primitive view of the given map.
+     *
+     * @param map the map, created by a {@code ChronicleMapBuilder} of {@code Long} keys and values
+     *            with default serialization
+     * @return a primitive view of the given map
+     */
+    static ChronicleLongLongMap of(ChronicleMap<Long, Long> map) {
+        return new VanillaChronicleLongLongMap(map);
+    }
+
+    /**
+     * Returns the value mapped to the given key, or {@code 0} if there is no mapping for the key.
+     */
+    long getLong(long key);
+
+    /**
+     * Returns the value mapped to the given key, or {@code defaultValue} if there is no mapping
+     * for the key.
+     */
+    long getOrDefault(long key, long defaultValue);
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the given key.
+     */
+    boolean containsKey(long key);
+
+    /**
+     * Maps the given key to the given value.
+     */
+    void putLong(long key, long value);
+
+    /**
+     * Removes the mapping for the given key, if present.
+     *
+     * @return {@code true} if the mapping was removed
+     */
+    boolean removeLong(long key);
+
+    /**
+     * Atomically adds the given delta to the value mapped to the given key, absent mapping is
+     * treated as {@code 0}.
+     *
+     * @return the updated value
+     */
+    long addAndGet(long key, long delta);
+
+    /**
+     * Returns the number of entries in the map.
+     */
+    long longSize();
+
+    /**
+     * Returns the underlying map.
+     */
+    ChronicleMap<Long, Long> map();
+
+    /**
+     * Closes the underlying map.
+     */
+    @Override
+    void close();
+}
@@ -28,6 +28,8 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
@@ -158,6 +160,40 @@ public interface ChronicleMap<K, V> extends ConcurrentMap<K, V>,
      */
     <R> R getMapped(K key, @NotNull SerializableFunction<? super V, R> function);
 
+    /**
+     * Retrieves the values, to which the given keys are mapped in this map, and puts them to the
+     * given {@code out} map. Keys, absent in this map, are skipped.
+     *
+     * <p>Unlike calling {@link #get(Object)} for each key, keys are grouped by segments up front,
+     * and each involved segment is locked once, in the order of segment indexes.
+     *
+     * @param keys the keys to retrieve values for
+     * @param out  the map to put key-value pairs, found in this map, to
+     * @see #putAll(Map)
+     * @see #removeAll(Collection)
+     */
+    void getAll(Collection<? extends K> keys, Map<? super K, ? super V> out);
+
+    /**
+     * Copies all of the mappings from the specified map to this map. Unlike calling {@link
+     * #put(Object, Object)} for each entry, keys are grouped by segments up front, and each
+     * involved segment is locked once, in the order of segment indexes.
+     *
+     * @param m mappings to be stored in this map
+     */
+    @Override
+    void putAll(Map<? extends K, ? extends V> m);
+
+    /**
+     * Removes the mappings for all the given keys from this map, if present. Keys are grouped by
+     * segments up front, and each involved segment is locked once, in the order of segment
+     * indexes.
+     *
+     * @param keys the keys to remove from this map
+     * @see #getAll(Collection, Map)
+     */
+    void removeAll(Collection<? extends K> keys);
+
     /**
      * Exports all the entries to a {@link File} storing them in JSON format, an attempt is
      * made where possible to use standard java serialisation and keep the data human readable, data
@@ -190,6 +226,30 @@ public interface ChronicleMap<K, V> extends ConcurrentMap<K, V>,
      */
     void putAll(File fromFile) throws IOException;
 
+    /**
+     * Returns an iterator over the entries of this map, using memory, bounded by the given batch
+     * size, regardless of the size of segments. Serialized keys and values of up to {@code
+     * batchSize} entries of a segment are copied at a time, while the segment is locked, entries
+     * are deserialized when they are returned by the iterator. {@code entrySet().iterator()} is
+     * the same as {@code entryIterator(256, false)}.
+     *
+     * <p>If {@code reuseInstances} is {@code true}, the iterator returns the same entry object
+     * each time, and deserializes keys and values into the same instances, if possible, like
+     * {@link #getUsing(Object, Object)} does. So keys and values shouldn't be retained after
+     * the following {@code next()} call. Otherwise new entry, key and value objects are returned
+     * each time.
+     *
+     * <p>The iterator is weakly consistent, it should be used from a single thread. Entries,
+     * present in the map during the whole iteration, are returned exactly once, even if they are
+     * moved between the tiers of their segment, e. g. by tiers compaction.
+     *
+     * @param batchSize      the maximum number of entries copied from a segment at a time
+     * @param reuseInstances if the entry, key and value instances should be reused
+     * @return an iterator over the entries of this map
+     * @throws IllegalArgumentException if {@code batchSize} is not positive
+     */
+    Iterator<Map.Entry<K, V>> entryIterator(int batchSize, boolean reuseInstances);
+
     /**
      * Creates an empty value instance, which can be used with the
      * following methods :
@@ -20,10 +20,15 @@ import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.hash.ChronicleHashBuilder;
 import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
 import net.openhft.chronicle.hash.ChronicleHashInstanceBuilder;
+import net.openhft.chronicle.hash.DurabilityPolicy;
+import net.openhft.chronicle.hash.RecoveryReport;
 import net.openhft.chronicle.hash.impl.stage.entry.ChecksumStrategy;
 import net.openhft.chronicle.hash.impl.util.math.PoissonDistribution;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
 import net.openhft.chronicle.hash.replication.*;
 import net.openhft.chronicle.hash.serialization.*;
+import net.openhft.chronicle.hash.serialization.internal.IntegerMarshaller;
+import net.openhft.chronicle.hash.serialization.internal.LongMarshaller;
 import net.openhft.chronicle.hash.serialization.internal.MetaBytesWriter;
 import net.openhft.chronicle.hash.serialization.internal.MetaProvider;
 import net.openhft.chronicle.hash.serialization.internal.SerializationBuilder;
@@ -47,7 +52,11 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
@@ -55,6 +64,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static java.lang.Math.ceil;
 import static java.lang.Math.round;
@@ -141,7 +151,8 @@ public final class ChronicleMapBuilder<K, V> implements
             Boolean.getBoolean("chronicle.strictStateChecks");
 
     // not final because of cloning
-    private ChronicleMapBuilderPrivateAPI<K> privateAPI = new ChronicleMapBuilderPrivateAPI<>(this);
+    private ChronicleHashBuilderPrivateAPI<K> privateAPI =
+            new ChronicleMapBuilderPrivateAPI<>(this);
 
     //////////////////////////////
     // Configuration fields
@@ -177,6 +188,7 @@ public final class ChronicleMapBuilder<K, V> implements
     private ChecksumEntries checksumEntries = ChecksumEntries.IF_PERSISTED;
 
     private boolean putReturnsNull = false;
+    private boolean optimisticReads = false;
     private boolean removeReturnsNull = false;
 
     // replication
@@ -191,6 +203,20 @@ public final class ChronicleMapBuilder<K, V> implements
     TimeUnit cleanupTimeoutUnit = TimeUnit.MINUTES;
     private boolean cleanupRemovedEntries = true;
 
+    private long tiersCompactionInterval = -1L;
+    private TimeUnit tiersCompactionIntervalUnit = TimeUnit.SECONDS;
+    private long defragmentationInterval = -1L;
+    private TimeUnit defragmentationIntervalUnit = TimeUnit.SECONDS;
+    private boolean recordStats = false;
+    private boolean freeRunHints = false;
+    private LockAcquisitionStrategy lockAcquisitionStrategy = null;
+    private DurabilityPolicy durabilityPolicy = DurabilityPolicy.NONE;
+    /**
+     * Set only on the clone of the builder, opening the map in {@link #recoverPersistedTo(File,
+     * Consumer)}
+     */
+    private Consumer<? super RecoveryReport> recoveryReportListener = null;
+
     private BytesMarshallerFactory bytesMarshallerFactory;
     private ObjectSerializer objectSerializer;
     private V defaultValue = null;
@@ -1053,6 +1079,44 @@ public final class ChronicleMapBuilder<K, V> implements
         return removeReturnsNull;
     }
 
+    /**
+     * Configures if the maps created by this {@code ChronicleMapBuilder} should try to read values
+     * on {@link ChronicleMap#get(Object) get()} and {@link ChronicleMap#getUsing(Object, Object)
+     * getUsing()} calls without acquiring the segment read lock. The value is copied
+     * optimistically, then the segment modification version, which is incremented by writers on
+     * write lock acquisition and release, is validated. Only if the segment was modified
+     * concurrently, the value is read again under the read lock.
+     *
+     * <p>Acquisition of the read lock updates the segment lock word, so reads of the same segment
+     * from many threads contend for the cache line, even when there are no writers. Optimistic
+     * reads only read the segment header, so read-mostly maps scale much better with the number of
+     * reading threads. The price is a wasted value copy, when the segment is modified concurrently.
+     *
+     * <p>Optimistic reads are applied only if both keys and values are constantly-sized (see
+     * {@link #constantKeySizeBySample(Object)} and {@link #constantValueSizeBySample(Object)}),
+     * because reading sizes of entries from a concurrently modified segment is unsafe, and only if
+     * {@link #mapMethods(MapMethods)} are not configured.
+     *
+     * <p>Writers of older versions of the library don't increment modification versions, so
+     * optimistic reads are safe only if all processes, which access the map, run this version or
+     * newer. Older versions can't open files with the binary map header, which this version
+     * writes, hence optimistic reads are applied to in-memory maps and to files created by this
+     * version, but not to files created by older versions, even if they are opened by this version.
+     *
+     * <p>By default, the read lock is acquired on each {@code get()} call.
+     *
+     * @param optimisticReads {@code true} if values should be read optimistically
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> optimisticReads(boolean optimisticReads) {
+        this.optimisticReads = optimisticReads;
+        return this;
+    }
+
+    boolean optimisticReads() {
+        return optimisticReads;
+    }
+
     // hidden for initial release.
     ChronicleMapBuilder<K, V> metaDataBytes(int metaDataBytes) {
         if (metaDataBytes < 0 || metaDataBytes > 255)
@@ -1122,6 +1186,7 @@ public final class ChronicleMapBuilder<K, V> implements
                 ", metaDataBytes=" + metaDataBytes() +
                 ", putReturnsNull=" + putReturnsNull() +
                 ", removeReturnsNull=" + removeReturnsNull() +
+                ", optimisticReads=" + optimisticReads() +
                 ", timeProvider=" + timeProvider() +
                 ", bytesMarshallerFactory=" + pretty(bytesMarshallerFactory) +
                 ", objectSerializer=" + pretty(objectSerializer) +
@@ -1166,6 +1231,54 @@ public final class ChronicleMapBuilder<K, V> implements
         return this;
     }
 
+    @Override
+    public ChronicleMapBuilder<K, V> compactSegmentTiers(long compactionInterval, TimeUnit unit) {
+        if (unit.toMillis(compactionInterval) < 1) {
+            throw new IllegalArgumentException("interval should be >= 1 millisecond, " +
+                    compactionInterval + " " + unit + " is given");
+        }
+        tiersCompactionInterval = compactionInterval;
+        tiersCompactionIntervalUnit = unit;
+        return this;
+    }
+
+    @Override
+    public ChronicleMapBuilder<K, V> defragmentSegments(long defragmentationInterval,
+                                                        TimeUnit unit) {
+        if (unit.toMillis(defragmentationInterval) < 1) {
+            throw new IllegalArgumentException("interval should be >= 1 millisecond, " +
+                    defragmentationInterval + " " + unit + " is given");
+        }
+        this.defragmentationInterval = defragmentationInterval;
+        this.defragmentationIntervalUnit = unit;
+        return this;
+    }
+
+    @Override
+    public ChronicleMapBuilder<K, V> lockAcquisitionStrategy(
+            LockAcquisitionStrategy lockAcquisitionStrategy) {
+        this.lockAcquisitionStrategy = Objects.requireNonNull(lockAcquisitionStrategy);
+        return this;
+    }
+
+    @Override
+    public ChronicleMapBuilder<K, V> durabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        this.durabilityPolicy = Objects.requireNonNull(durabilityPolicy);
+        return this;
+    }
+
+    @Override
+    public ChronicleMapBuilder<K, V> recordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+        return this;
+    }
+
+    @Override
+    public ChronicleMapBuilder<K, V> freeRunHints(boolean freeRunHints) {
+        this.freeRunHints = freeRunHints;
+        return this;
+    }
+
     TimeProvider timeProvider() {
         return timeProvider;
     }
@@ -1482,6 +1595,26 @@ public final class ChronicleMapBuilder<K, V> implements
         return clone().createWithFile(file, singleHashReplication, null);
     }
 
+    @Override
+    public ChronicleMap<K, V> recoverPersistedTo(
+            File file, Consumer<? super RecoveryReport> reportListener) throws IOException {
+        ChronicleMapBuilder<K, V> builder = clone();
+        builder.recoveryReportListener = Objects.requireNonNull(reportListener);
+        return builder.createWithFile(file, singleHashReplication, null);
+    }
+
+    @Override
+    public ChronicleMap<K, V> recoverPersistedTo(File file) throws IOException {
+        return recoverPersistedTo(file, report -> {
+            if (report.changed()) {
+                LOG.warn("Recovered the map persisted at " + file + ": " + report);
+            } else {
+                LOG.info("Recovered the map persisted at " + file + ", nothing changed: " +
+                        report);
+            }
+        });
+    }
+
     @Override
     public ChronicleMap<K, V> create() {
         // clone() to make this builder instance thread-safe, because createWithoutFile() method
@@ -1490,6 +1623,43 @@ public final class ChronicleMapBuilder<K, V> implements
         return clone().createWithoutFile(singleHashReplication, null);
     }
 
+    /**
+     * Creates a new map, like {@link #create()}, and returns a view of it, accessing entries by
+     * primitive {@code long} keys and values without boxing.
+     *
+     * @return a primitive view of a new map
+     * @throws IllegalStateException if key or value type of this builder is not {@code Long}, or
+     *                               custom key or value serialization is configured
+     */
+    public ChronicleLongLongMap createLongLongMap() {
+        checkDefaultPrimitiveSerialization(Long.class, LongMarshaller.INSTANCE);
+        return ChronicleLongLongMap.of((ChronicleMap<Long, Long>) create());
+    }
+
+    /**
+     * Creates a new map, like {@link #create()}, and returns a view of it, accessing entries by
+     * primitive {@code int} keys and values without boxing.
+     *
+     * @return a primitive view of a new map
+     * @throws IllegalStateException if key or value type of this builder is not {@code Integer},
+     *                               or custom key or value serialization is configured
+     */
+    public ChronicleIntIntMap createIntIntMap() {
+        checkDefaultPrimitiveSerialization(Integer.class, IntegerMarshaller.INSTANCE);
+        return ChronicleIntIntMap.of((ChronicleMap<Integer, Integer>) create());
+    }
+
+    private void checkDefaultPrimitiveSerialization(Class<?> primitiveWrapper, Object marshaller) {
+        if (keyBuilder.eClass != primitiveWrapper || valueBuilder.eClass != primitiveWrapper ||
+                keyBuilder.reader() != marshaller || keyBuilder.interop() != marshaller ||
+                valueBuilder.reader() != marshaller || valueBuilder.interop() != marshaller) {
+            throw new IllegalStateException("Primitive map view requires " +
+                    primitiveWrapper.getSimpleName() + " keys and values with default " +
+                    "serialization, " + keyBuilder.eClass + " keys and " + valueBuilder.eClass +
+                    " values given");
+        }
+    }
+
     ChronicleMap<K, V> create(MapInstanceBuilder<K, V> ib) throws IOException {
         if (ib.file != null) {
             return createWithFile(ib.file, ib.singleHashReplication, ib.channel);
@@ -1507,25 +1677,19 @@ public final class ChronicleMapBuilder<K, V> implements
         for (int i = 0; i < 10; i++) {
             long fileLength = file.length();
             if (fileLength > 0) {
-                try (FileInputStream fis = new FileInputStream(file);
-                     ObjectInputStream ois = new ObjectInputStream(fis)) {
-                    Object m;
-                    byte serialization = ois.readByte();
-                    if (serialization == XML_SERIALIZATION) {
-                        m = deserializeHeaderViaXStream(ois);
-                    } else if (serialization == BINARY_SERIALIZATION) {
-                        try {
-                            m = ois.readObject();
-                        } catch (ClassNotFoundException e) {
-                            throw new AssertionError(e);
-                        }
+                try (FileInputStream fis = new FileInputStream(file)) {
+                    VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map;
+                    MapHeader header = MapHeader.readFrom(fis);
+                    if (header != null) {
+                        map = openWithHeader(file, header, singleHashReplication, channel);
                     } else {
-                        throw new IOException("Unknown map header serialization type: " +
-                                serialization);
+                        fis.getChannel().position(0L);
+                        map = deserializeLegacyHeader(fis);
+                        map.initTransientsFromBuilder(this);
+                        // the file could be shared with processes of older versions, which don't
+                        // increment segment modification versions
+                        map.optimisticReads = false;
                     }
-                    VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map =
-                            (VanillaChronicleMap<K, ?, ?, V, ?, ?, ?>) m;
-                    map.initTransientsFromBuilder(this);
                     map.initBeforeMapping(fis.getChannel());
                     map.createMappedStoreAndSegments(file);
                     long expectedFileLength = map.expectedFileSize();
@@ -1534,9 +1698,18 @@ public final class ChronicleMapBuilder<K, V> implements
                                 "has unexpected length " + fileLength + ", probably corrupted. " +
                                 "Expected length is " + expectedFileLength);
                     }
-                    // This is needed to property initialize key and value serialization builders,
-                    // which are later used in replication
-                    preMapConstruction();
+                    if (header == null) {
+                        // This is needed to property initialize key and value serialization
+                        // builders, which are later used in replication
+                        preMapConstruction();
+                    }
+                    // before any runtime option could access segments, and before segment
+                    // headers are wrapped
+                    if (recoveryReportListener != null)
+                        recoveryReportListener.accept(map.recover());
+                    establishRuntimeOptions(map);
+                    establishSegmentTiersCompaction(map);
+                    establishSegmentDefragmentation(map);
                     establishReplication(map, singleHashReplication, channel);
                     fis.getChannel().force(true);
                     // TODO according to Self Boostrapping Data spec, should write "init complete"
@@ -1559,43 +1732,54 @@ public final class ChronicleMapBuilder<K, V> implements
 
         VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map = newMap(singleHashReplication, channel);
 
-        try (FileOutputStream fos = new FileOutputStream(file);
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            if (!trySerializeHeaderViaXStream(map, oos)) {
-                oos.writeByte(BINARY_SERIALIZATION);
-                oos.writeObject(map);
-            }
-            oos.flush();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            MapHeader.of(map).writeTo(fos);
             map.initBeforeMapping(fos.getChannel());
             map.createMappedStoreAndSegments(file);
         }
 
+        establishRuntimeOptions(map);
+        establishSegmentTiersCompaction(map);
+        establishSegmentDefragmentation(map);
         return establishReplication(map, singleHashReplication, channel);
     }
 
-    private static <K, V> boolean trySerializeHeaderViaXStream(
-            VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map, ObjectOutputStream oos)
-            throws IOException {
-        Class<?> xStreamClass;
-        try {
-            xStreamClass =
-                    Class.forName("net.openhft.xstream.MapHeaderSerializationXStream");
-        } catch (ClassNotFoundException | NoClassDefFoundError e) {
-            xStreamClass = null;
-        }
-        if (xStreamClass == null) {
-            LOG.info("xStream not found, use binary ChronicleMap header serialization");
-            return false;
-        }
-        try {
-            oos.writeByte(XML_SERIALIZATION);
-            Method toXML = xStreamClass.getMethod("toXML", Object.class, OutputStream.class);
-            toXML.invoke(xStreamClass.newInstance(), map, oos);
-            return true;
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException |
-                InstantiationException e) {
-            throw new AssertionError(e);
+    /**
+     * Constructs the map from this builder with the layout, stored in the binary header of the
+     * existing file, instead of deserializing the map object
+     */
+    private VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> openWithHeader(
+            File file, MapHeader header, SingleChronicleHashReplication singleHashReplication,
+            ReplicationChannel channel) throws IOException {
+        privateAPI = header.layout(privateAPI);
+        VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map = newMap(singleHashReplication, channel);
+        header.checkCompatible(MapHeader.of(map), file);
+        map.createdOrInMemory = false;
+        return map;
+    }
+
+    /**
+     * Reads the header, written by older versions of the library: the map object, serialized
+     * via Java serialization or XStream
+     */
+    private static <K, V> VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> deserializeLegacyHeader(
+            FileInputStream fis) throws IOException {
+        // not closed, not to close the file input stream
+        ObjectInputStream ois = new ObjectInputStream(fis);
+        Object m;
+        byte serialization = ois.readByte();
+        if (serialization == XML_SERIALIZATION) {
+            m = deserializeHeaderViaXStream(ois);
+        } else if (serialization == BINARY_SERIALIZATION) {
+            try {
+                m = ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new AssertionError(e);
+            }
+        } else {
+            throw new IOException("Unknown map header serialization type: " + serialization);
         }
+        return (VanillaChronicleMap<K, ?, ?, V, ?, ?, ?>) m;
     }
 
     private static Object deserializeHeaderViaXStream(ObjectInputStream ois) {
@@ -1625,6 +1809,9 @@ public final class ChronicleMapBuilder<K, V> implements
             BytesStore bytesStore = new DirectStore(JDKObjectSerializer.INSTANCE,
                     map.sizeInBytesWithoutTiers(), false);
             map.createMappedStoreAndSegments(bytesStore);
+            establishRuntimeOptions(map);
+            establishSegmentTiersCompaction(map);
+            establishSegmentDefragmentation(map);
             return establishReplication(map, singleHashReplication, channel);
         } catch (IOException e) {
             // file-less version should never trigger an IOException.
@@ -1708,7 +1895,8 @@ public final class ChronicleMapBuilder<K, V> implements
                 ReplicationHub hub = channel.hub();
 
                 ChannelProvider provider = ChannelProvider.getProvider(hub);
-                ChannelProvider.ChronicleChannel ch = provider.createChannel(channel.channelId());
+                ChannelProvider.ChronicleChannel ch = provider.createChannel(channel.channelId(),
+                        channel.weight(), channel.throttlingConfig());
                 replicators.add(ch);
             }
             for (Replicator replicator : replicators) {
@@ -1744,6 +1932,88 @@ public final class ChronicleMapBuilder<K, V> implements
         });
     }
 
+    private void establishRuntimeOptions(VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map)
+            throws IOException {
+        map.freeRunHints = freeRunHints;
+        // lock acquisition strategy should be set up before stats, see recordStats()
+        if (lockAcquisitionStrategy != null)
+            map.lockAcquisitionStrategy(lockAcquisitionStrategy);
+        if (recordStats)
+            establishStats(map);
+        // segment headers syncing on unlock wrap instrumented ones, see durabilityPolicy()
+        map.durabilityPolicy(durabilityPolicy);
+    }
+
+    private void establishStats(VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map) {
+        map.recordStats();
+        String name = map.file() != null ? map.file().getAbsolutePath() :
+                "in-memory@" + Integer.toHexString(System.identityHashCode(map));
+        try {
+            ObjectName objectName = new ObjectName("net.openhft.chronicle.map:type=ChronicleMap," +
+                    "name=" + ObjectName.quote(name));
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.registerMBean(new ChronicleHashStatsMXBeanImpl(map), objectName);
+            map.addCloseable(() -> {
+                try {
+                    mBeanServer.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    LOG.warn("Failed to unregister stats MBean " + objectName, e);
+                }
+            });
+        } catch (JMException e) {
+            LOG.warn("Failed to register stats MBean for the map " + name +
+                    ", stats are available via ChronicleMap.stats()", e);
+        }
+    }
+
+    private void establishSegmentTiersCompaction(VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map) {
+        if (tiersCompactionInterval <= 0)
+            return;
+        SegmentTiersCompaction compaction = new SegmentTiersCompaction(
+                map, tiersCompactionInterval, tiersCompactionIntervalUnit,
+                SegmentDefragmentation.DEFAULT_SLICE_NANOS);
+        NamedThreadFactory threadFactory = new NamedThreadFactory(
+                "segment tiers compaction thread for map persisted at " + map.file());
+        ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
+        executor.submit(compaction);
+
+        map.addCloseable(compaction);
+        // relies on the fact that VanillaChronicleMap closes closeables in the same order as
+        // they are added, see establishCleanupThread()
+        map.addCloseable(() -> {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.error("", e);
+            }
+        });
+    }
+
+    private void establishSegmentDefragmentation(VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> map) {
+        if (defragmentationInterval <= 0)
+            return;
+        SegmentDefragmentation defragmentation = new SegmentDefragmentation(map,
+                defragmentationInterval, defragmentationIntervalUnit,
+                SegmentDefragmentation.DEFAULT_SLICE_NANOS);
+        NamedThreadFactory threadFactory = new NamedThreadFactory(
+                "segment defragmentation thread for map persisted at " + map.file());
+        ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
+        executor.submit(defragmentation);
+
+        map.addCloseable(defragmentation);
+        // relies on the fact that VanillaChronicleMap closes closeables in the same order as
+        // they are added, see establishCleanupThread()
+        map.addCloseable(() -> {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.error("", e);
+            }
+        });
+    }
+
     private long bufferSize(SerializationBuilder builder, double averageSize) {
         if (builder.constantSizeMarshaller())
             return round(ceil(averageSize));
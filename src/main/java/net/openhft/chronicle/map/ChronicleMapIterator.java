@@ -16,26 +16,71 @@
 
 package net.openhft.chronicle.map;
 
-import java.util.ArrayDeque;
+import net.openhft.chronicle.bytes.PointerBytesStore;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.SegmentIterationCursor;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.map.impl.IterationContext;
+import net.openhft.lang.io.DirectBytes;
+import net.openhft.lang.io.DirectStore;
+import net.openhft.lang.io.serialization.JDKObjectSerializer;
+import net.openhft.lang.threadlocal.ThreadLocalCopies;
+
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.Queue;
-import java.util.function.Consumer;
+import java.util.Objects;
+import java.util.function.Predicate;
 
 /**
- * Very inefficient (esp. if segments are large), but CORRECT implementation
+ * Serialized keys and values of at most {@code batchSize} entries of a segment at a time are
+ * copied to a native memory buffer, while the segment is locked, and the segment is continued
+ * from the same position in the next batch, so the memory used by the iterator doesn't depend on
+ * the size of segments. Entries are deserialized from the buffer, when they are returned.
  */
-abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Consumer<MapEntry<K, V>> {
+abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Predicate<MapEntry<K, V>> {
+
+    static final int DEFAULT_BATCH_SIZE = 256;
+    /**
+     * Key size and value size
+     */
+    private static final long ENTRY_HEADER_SIZE = 16L;
 
     final AbstractChronicleMap<K, V> map;
     private final Thread ownerThread = Thread.currentThread();
-    private final Queue<E> entryBuffer = new ArrayDeque<>();
+    private final int batchSize;
+    final boolean reuseInstances;
+    private final boolean readsValues;
+    private final BytesReader<K> keyReader;
+    private final BytesReader<V> valueReader;
+
+    private final SegmentIterationCursor cursor = new SegmentIterationCursor();
     private int segmentIndex;
+    private boolean segmentVisited = true;
+
+    private DirectBytes buffer;
+    private final PointerBytesStore bufferStore = new PointerBytesStore();
+    private long writePosition;
+    private long readPosition;
+    private int bufferedEntries;
+
+    K key;
+    V value;
     E returned;
 
-    ChronicleMapIterator(AbstractChronicleMap<K, V> map) {
+    ChronicleMapIterator(AbstractChronicleMap<K, V> map, int batchSize, boolean reuseInstances,
+                         boolean readsValues) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize should be positive, " + batchSize +
+                    " given");
         this.map = map;
+        this.batchSize = batchSize;
+        this.reuseInstances = reuseInstances;
+        this.readsValues = readsValues;
+        VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> m = (VanillaChronicleMap<K, ?, ?, V, ?, ?, ?>) map;
+        ThreadLocalCopies copies = ThreadLocalCopies.get();
+        keyReader = m.keyReaderProvider.get(copies, m.originalKeyReader);
+        valueReader = m.valueReaderProvider.get(copies, m.originalValueReader);
         segmentIndex = map.segments() - 1;
     }
 
@@ -47,44 +92,105 @@ abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Consumer<Ma
     }
 
     private void fillEntryBuffer() {
-        if (!entryBuffer.isEmpty())
+        if (bufferedEntries > 0)
             return;
+        writePosition = 0L;
+        readPosition = 0L;
         while (true) {
-            if (segmentIndex < 0)
-                return;
-
+            if (segmentVisited) {
+                if (segmentIndex < 0)
+                    return;
+                cursor.reset();
+            }
             try (MapSegmentContext<K, V, ?> c = map.segmentContext(segmentIndex)) {
-                segmentIndex--;
-                if (c.size() == 0)
-                    continue;
-                c.forEachSegmentEntry(this);
-                return;
+                if (segmentVisited) {
+                    segmentVisited = false;
+                    if (c.size() == 0) {
+                        segmentVisited = true;
+                        segmentIndex--;
+                        continue;
+                    }
+                }
+                if (((IterationContext<K, V, ?>) c).forEachSegmentEntryFrom(cursor, this)) {
+                    segmentVisited = true;
+                    segmentIndex--;
+                }
             }
+            if (bufferedEntries > 0)
+                return;
         }
     }
 
+    /**
+     * Copies the entry to the buffer, called while the segment is locked
+     *
+     * @return if the batch is not full yet
+     */
     @Override
-    public void accept(MapEntry<K, V> e) {
-        entryBuffer.add(read(e));
+    public boolean test(MapEntry<K, V> e) {
+        Data<K> k = e.key();
+        long keySize = k.size();
+        Data<V> v = readsValues ? e.value() : null;
+        long valueSize = v != null ? v.size() : 0L;
+        ensureCapacity(writePosition + ENTRY_HEADER_SIZE + keySize + valueSize);
+        buffer.writeLong(writePosition, keySize);
+        buffer.writeLong(writePosition + 8L, valueSize);
+        writePosition += ENTRY_HEADER_SIZE;
+        k.writeTo(bufferStore, writePosition);
+        writePosition += keySize;
+        if (v != null) {
+            v.writeTo(bufferStore, writePosition);
+            writePosition += valueSize;
+        }
+        return ++bufferedEntries < batchSize;
     }
 
-    abstract E read(MapEntry<K, V> entry);
+    private void ensureCapacity(long capacity) {
+        if (buffer == null) {
+            buffer = new DirectStore(JDKObjectSerializer.INSTANCE,
+                    Math.max(capacity, 4096L), false).bytes();
+        } else if (buffer.capacity() < capacity) {
+            DirectStore store = (DirectStore) buffer.store();
+            store.resize(Math.max(capacity, buffer.capacity() * 2L), false);
+            buffer = store.bytes();
+        } else {
+            return;
+        }
+        bufferStore.set(buffer.address(), buffer.capacity());
+    }
+
+    private void readEntry() {
+        long keySize = buffer.readLong(readPosition);
+        long valueSize = buffer.readLong(readPosition + 8L);
+        readPosition += ENTRY_HEADER_SIZE;
+        buffer.position(readPosition);
+        key = keyReader.read(buffer, keySize, reuseInstances ? key : null);
+        readPosition += keySize;
+        if (readsValues) {
+            buffer.position(readPosition);
+            value = valueReader.read(buffer, valueSize, reuseInstances ? value : null);
+            readPosition += valueSize;
+        }
+        bufferedEntries--;
+    }
+
+    abstract E read();
 
     @Override
     public boolean hasNext() {
         checkSingleThreaded();
         fillEntryBuffer();
-        return !entryBuffer.isEmpty();
+        return bufferedEntries > 0;
     }
 
     @Override
     public E next() {
         checkSingleThreaded();
         fillEntryBuffer();
-        E e;
-        if ((e = entryBuffer.poll()) == null)
+        if (bufferedEntries == 0)
             throw new NoSuchElementException();
-        return returned = e;
+        readEntry();
+        return returned = read();
     }
 
     @Override
@@ -100,15 +206,25 @@ abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Consumer<Ma
 
     static class OfEntries<K, V> extends ChronicleMapIterator<K, V, Entry<K, V>> {
 
+        private ReusedEntry<K, V> reusedEntry;
+
         OfEntries(AbstractChronicleMap<K, V> map) {
-            super(map);
+            this(map, DEFAULT_BATCH_SIZE, false);
+        }
+
+        OfEntries(AbstractChronicleMap<K, V> map, int batchSize, boolean reuseInstances) {
+            super(map, batchSize, reuseInstances, true);
         }
 
         @Override
-        Entry<K, V> read(MapEntry<K, V> entry) {
-            K key = entry.key().getUsing(null);
-            V value = entry.value().getUsing(null);
-            return new WriteThroughEntry<>(map, key, value);
+        Entry<K, V> read() {
+            if (!reuseInstances)
+                return new WriteThroughEntry<>(map, key, value);
+            if (reusedEntry == null)
+                reusedEntry = new ReusedEntry<>(map);
+            reusedEntry.key = key;
+            reusedEntry.value = value;
+            return reusedEntry;
         }
 
         @Override
@@ -120,12 +236,12 @@ abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Consumer<Ma
     static class OfKeys<K, V> extends ChronicleMapIterator<K, V, K> {
 
         OfKeys(AbstractChronicleMap<K, V> map) {
-            super(map);
+            super(map, DEFAULT_BATCH_SIZE, false, false);
         }
 
         @Override
-        K read(MapEntry<K, V> entry) {
-            return entry.key().getUsing(null);
+        K read() {
+            return key;
         }
 
         @Override
@@ -133,4 +249,53 @@ abstract class ChronicleMapIterator<K, V, E> implements Iterator<E>, Consumer<Ma
             map.remove(returned);
         }
     }
+
+    /**
+     * The entry, returned by the iterator each time, if instances are reused
+     */
+    static final class ReusedEntry<K, V> implements Entry<K, V> {
+        private final ChronicleMap<K, V> map;
+        K key;
+        V value;
+
+        ReusedEntry(ChronicleMap<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            map.put(key, value);
+            V oldValue = this.value;
+            this.value = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
 }
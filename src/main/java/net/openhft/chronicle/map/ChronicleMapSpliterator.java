@@ -0,0 +1,193 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import java.util.ArrayDeque;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a range of segments of a {@code ChronicleMap}, splits by segment indexes, so
+ * that parallel streams could traverse different segments in different threads. Like {@link
+ * ChronicleMapIterator}, entries of a segment are copied to a buffer while the segment is locked,
+ * and the lock is released before elements are passed to the action, so the action could access the
+ * map freely.
+ */
+abstract class ChronicleMapSpliterator<K, V, E>
+        implements Spliterator<E>, Consumer<MapEntry<K, V>> {
+
+    final AbstractChronicleMap<K, V> map;
+    private final Queue<E> entryBuffer = new ArrayDeque<>();
+    /**
+     * The next segment to traverse, inclusive
+     */
+    private int segmentIndex;
+    /**
+     * The end of the segments range, exclusive
+     */
+    private final int fence;
+    private long estimatedSize;
+
+    ChronicleMapSpliterator(AbstractChronicleMap<K, V> map) {
+        this(map, 0, map.segments(), map.longSize());
+    }
+
+    ChronicleMapSpliterator(AbstractChronicleMap<K, V> map, int segmentIndex, int fence,
+                            long estimatedSize) {
+        this.map = map;
+        this.segmentIndex = segmentIndex;
+        this.fence = fence;
+        this.estimatedSize = estimatedSize;
+    }
+
+    private boolean fillEntryBuffer() {
+        while (entryBuffer.isEmpty()) {
+            if (segmentIndex >= fence)
+                return false;
+            try (MapSegmentContext<K, V, ?> c = map.segmentContext(segmentIndex)) {
+                segmentIndex++;
+                if (c.size() == 0)
+                    continue;
+                c.forEachSegmentEntry(this);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void accept(MapEntry<K, V> e) {
+        entryBuffer.add(read(e));
+    }
+
+    abstract E read(MapEntry<K, V> entry);
+
+    abstract ChronicleMapSpliterator<K, V, E> split(int segmentIndex, int fence,
+                                                    long estimatedSize);
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (!fillEntryBuffer())
+            return false;
+        action.accept(entryBuffer.poll());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        while (fillEntryBuffer()) {
+            E e;
+            while ((e = entryBuffer.poll()) != null) {
+                action.accept(e);
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        int lo = segmentIndex, mid = (lo + fence) >>> 1;
+        if (lo >= mid)
+            return null;
+        // entries already in the buffer belong to segments before lo, they stay in this spliterator
+        segmentIndex = mid;
+        return split(lo, mid, estimatedSize >>>= 1);
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return CONCURRENT | NONNULL | DISTINCT;
+    }
+
+    static class OfEntries<K, V> extends ChronicleMapSpliterator<K, V, Entry<K, V>> {
+
+        OfEntries(AbstractChronicleMap<K, V> map) {
+            super(map);
+        }
+
+        private OfEntries(AbstractChronicleMap<K, V> map, int segmentIndex, int fence,
+                          long estimatedSize) {
+            super(map, segmentIndex, fence, estimatedSize);
+        }
+
+        @Override
+        Entry<K, V> read(MapEntry<K, V> entry) {
+            K key = entry.key().getUsing(null);
+            V value = entry.value().getUsing(null);
+            return new WriteThroughEntry<>(map, key, value);
+        }
+
+        @Override
+        OfEntries<K, V> split(int segmentIndex, int fence, long estimatedSize) {
+            return new OfEntries<>(map, segmentIndex, fence, estimatedSize);
+        }
+    }
+
+    static class OfKeys<K, V> extends ChronicleMapSpliterator<K, V, K> {
+
+        OfKeys(AbstractChronicleMap<K, V> map) {
+            super(map);
+        }
+
+        private OfKeys(AbstractChronicleMap<K, V> map, int segmentIndex, int fence,
+                       long estimatedSize) {
+            super(map, segmentIndex, fence, estimatedSize);
+        }
+
+        @Override
+        K read(MapEntry<K, V> entry) {
+            return entry.key().getUsing(null);
+        }
+
+        @Override
+        OfKeys<K, V> split(int segmentIndex, int fence, long estimatedSize) {
+            return new OfKeys<>(map, segmentIndex, fence, estimatedSize);
+        }
+    }
+
+    static class OfValues<K, V> extends ChronicleMapSpliterator<K, V, V> {
+
+        OfValues(AbstractChronicleMap<K, V> map) {
+            super(map);
+        }
+
+        private OfValues(AbstractChronicleMap<K, V> map, int segmentIndex, int fence,
+                         long estimatedSize) {
+            super(map, segmentIndex, fence, estimatedSize);
+        }
+
+        @Override
+        V read(MapEntry<K, V> entry) {
+            return entry.value().getUsing(null);
+        }
+
+        @Override
+        OfValues<K, V> split(int segmentIndex, int fence, long estimatedSize) {
+            return new OfValues<>(map, segmentIndex, fence, estimatedSize);
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+}
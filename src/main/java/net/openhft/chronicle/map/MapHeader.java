@@ -0,0 +1,353 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
+import net.openhft.chronicle.hash.serialization.internal.SerializationBuilder;
+
+import java.io.*;
+import java.util.Objects;
+
+/**
+ * The binary header of a persisted map, written at the beginning of the file. It is a small,
+ * fixed table of the fields, which determine the layout of the map memory, followed by
+ * descriptors of the key and value types and marshallers:
+ * <pre>
+ * int magic, short format version, int size of the rest of the header,
+ * layout fields: int actualSegments, long entriesPerSegment, long chunkSize,
+ *     int maxChunksPerEntry, long actualChunksPerSegment, int segmentHeaderSize,
+ *     int segmentEntrySpaceInnerOffset, long maxExtraTiers, boolean checksumEntries,
+ * checked fields: long segmentSize, int segmentHashLookupEntrySize,
+ *     boolean constantlySizedEntry, int metaDataBytes, UTF alignment, int worstAlignment,
+ *     boolean replicated, byte identifier,
+ * descriptors: UTF dataFileVersion, and UTF class names of the key class, size marshaller,
+ *     reader and interop, then the same for the value
+ * </pre>
+ *
+ * <p>When the file is opened, the map is constructed from the builder with the layout fields
+ * from the header, so that the builder could be configured differently, e. g. with another
+ * number of entries. All other fields and descriptors of the constructed map should be equal to
+ * the stored ones, marshallers themselves are taken from the builder.
+ */
+final class MapHeader {
+
+    /**
+     * "CHMH", unlike the first bytes of a Java serialization stream, which older versions of
+     * the library wrote as the header
+     */
+    static final int MAGIC = 0x43484D48;
+    static final short FORMAT_VERSION = 1;
+    private static final int PREFIX_SIZE = 10;
+
+    // Layout
+    private int actualSegments;
+    private long entriesPerSegment;
+    private long chunkSize;
+    private int maxChunksPerEntry;
+    private long actualChunksPerSegment;
+    private int segmentHeaderSize;
+    private int segmentEntrySpaceInnerOffset;
+    private long maxExtraTiers;
+    private boolean checksumEntries;
+
+    // Checked
+    private long segmentSize;
+    private int segmentHashLookupEntrySize;
+    private boolean constantlySizedEntry;
+    private int metaDataBytes;
+    private String alignment;
+    private int worstAlignment;
+    private boolean replicated;
+    private byte identifier;
+
+    // Descriptors
+    private String dataFileVersion;
+    private String keyClass;
+    private String keySizeMarshaller;
+    private String keyReader;
+    private String keyInterop;
+    private String valueClass;
+    private String valueSizeMarshaller;
+    private String valueReader;
+    private String valueInterop;
+
+    private MapHeader() {
+    }
+
+    static MapHeader of(VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> map) {
+        MapHeader h = new MapHeader();
+        h.actualSegments = map.actualSegments;
+        h.entriesPerSegment = map.entriesPerSegment;
+        h.chunkSize = map.chunkSize;
+        h.maxChunksPerEntry = map.maxChunksPerEntry;
+        h.actualChunksPerSegment = map.actualChunksPerSegment;
+        h.segmentHeaderSize = map.segmentHeaderSize;
+        h.segmentEntrySpaceInnerOffset = map.segmentEntrySpaceInnerOffset;
+        h.maxExtraTiers = map.maxExtraTiers;
+        h.checksumEntries = map.checksumEntries;
+
+        h.segmentSize = map.segmentSize;
+        h.segmentHashLookupEntrySize = map.segmentHashLookupEntrySize;
+        h.constantlySizedEntry = map.constantlySizedEntry;
+        h.metaDataBytes = map.metaDataBytes;
+        h.alignment = map.alignment.name();
+        h.worstAlignment = map.worstAlignment;
+        h.replicated = map instanceof Replica;
+        h.identifier = h.replicated ? ((Replica) map).identifier() : 0;
+
+        h.dataFileVersion = map.dataFileVersion;
+        h.keyClass = map.kClass.getName();
+        h.keySizeMarshaller = className(map.keySizeMarshaller);
+        h.keyReader = className(map.originalKeyReader);
+        h.keyInterop = className(map.originalKeyInterop);
+        h.valueClass = map.vClass.getName();
+        h.valueSizeMarshaller = className(map.valueSizeMarshaller);
+        h.valueReader = className(map.originalValueReader);
+        h.valueInterop = className(map.originalValueInterop);
+        return h;
+    }
+
+    private static String className(Object o) {
+        return o != null ? o.getClass().getName() : "";
+    }
+
+    /**
+     * Writes this header to the stream in a single write.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream(512);
+        DataOutputStream d = new DataOutputStream(fields);
+        d.writeInt(actualSegments);
+        d.writeLong(entriesPerSegment);
+        d.writeLong(chunkSize);
+        d.writeInt(maxChunksPerEntry);
+        d.writeLong(actualChunksPerSegment);
+        d.writeInt(segmentHeaderSize);
+        d.writeInt(segmentEntrySpaceInnerOffset);
+        d.writeLong(maxExtraTiers);
+        d.writeBoolean(checksumEntries);
+
+        d.writeLong(segmentSize);
+        d.writeInt(segmentHashLookupEntrySize);
+        d.writeBoolean(constantlySizedEntry);
+        d.writeInt(metaDataBytes);
+        d.writeUTF(alignment);
+        d.writeInt(worstAlignment);
+        d.writeBoolean(replicated);
+        d.writeByte(identifier);
+
+        d.writeUTF(dataFileVersion);
+        d.writeUTF(keyClass);
+        d.writeUTF(keySizeMarshaller);
+        d.writeUTF(keyReader);
+        d.writeUTF(keyInterop);
+        d.writeUTF(valueClass);
+        d.writeUTF(valueSizeMarshaller);
+        d.writeUTF(valueReader);
+        d.writeUTF(valueInterop);
+        d.flush();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(PREFIX_SIZE + fields.size());
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(MAGIC);
+        h.writeShort(FORMAT_VERSION);
+        h.writeInt(fields.size());
+        fields.writeTo(h);
+        h.flush();
+        header.writeTo(out);
+    }
+
+    /**
+     * Reads the header from the beginning of the stream, leaving the stream right after the
+     * header.
+     *
+     * @return the header, or {@code null} if the stream doesn't start with a binary header, i. e.
+     * the file is written by an older version of the library
+     * @throws IOException if the header is corrupted or has unsupported format version
+     */
+    static MapHeader readFrom(InputStream in) throws IOException {
+        byte[] prefix = new byte[PREFIX_SIZE];
+        if (read(in, prefix) < PREFIX_SIZE)
+            return null;
+        DataInputStream p = new DataInputStream(new ByteArrayInputStream(prefix));
+        if (p.readInt() != MAGIC)
+            return null;
+        short formatVersion = p.readShort();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported map header format version " + formatVersion +
+                    ", supported version is " + FORMAT_VERSION);
+        }
+        int size = p.readInt();
+        if (size <= 0)
+            throw new IOException("Corrupted map header, size " + size);
+        byte[] fields = new byte[size];
+        if (read(in, fields) < size)
+            throw new IOException("Map header is truncated");
+        DataInputStream d = new DataInputStream(new ByteArrayInputStream(fields));
+        MapHeader h = new MapHeader();
+        h.actualSegments = d.readInt();
+        h.entriesPerSegment = d.readLong();
+        h.chunkSize = d.readLong();
+        h.maxChunksPerEntry = d.readInt();
+        h.actualChunksPerSegment = d.readLong();
+        h.segmentHeaderSize = d.readInt();
+        h.segmentEntrySpaceInnerOffset = d.readInt();
+        h.maxExtraTiers = d.readLong();
+        h.checksumEntries = d.readBoolean();
+
+        h.segmentSize = d.readLong();
+        h.segmentHashLookupEntrySize = d.readInt();
+        h.constantlySizedEntry = d.readBoolean();
+        h.metaDataBytes = d.readInt();
+        h.alignment = d.readUTF();
+        h.worstAlignment = d.readInt();
+        h.replicated = d.readBoolean();
+        h.identifier = d.readByte();
+
+        h.dataFileVersion = d.readUTF();
+        h.keyClass = d.readUTF();
+        h.keySizeMarshaller = d.readUTF();
+        h.keyReader = d.readUTF();
+        h.keyInterop = d.readUTF();
+        h.valueClass = d.readUTF();
+        h.valueSizeMarshaller = d.readUTF();
+        h.valueReader = d.readUTF();
+        h.valueInterop = d.readUTF();
+        return h;
+    }
+
+    /**
+     * @return the number of bytes read, less than {@code b.length} only if the end of the stream
+     * is reached
+     */
+    private static int read(InputStream in, byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int count = in.read(b, n, b.length - n);
+            if (count < 0)
+                break;
+            n += count;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the private API of the builder, which configures the map layout, stored in this
+     * header, other configurations are delegated to the given builder API.
+     */
+    <K> ChronicleHashBuilderPrivateAPI<K> layout(ChronicleHashBuilderPrivateAPI<K> builderAPI) {
+        return new ChronicleHashBuilderPrivateAPI<K>() {
+            @Override
+            public SerializationBuilder<K> keyBuilder() {
+                return builderAPI.keyBuilder();
+            }
+
+            @Override
+            public int segmentEntrySpaceInnerOffset() {
+                return segmentEntrySpaceInnerOffset;
+            }
+
+            @Override
+            public long chunkSize() {
+                return chunkSize;
+            }
+
+            @Override
+            public int maxChunksPerEntry() {
+                return maxChunksPerEntry;
+            }
+
+            @Override
+            public long entriesPerSegment() {
+                return entriesPerSegment;
+            }
+
+            @Override
+            public long actualChunksPerSegment() {
+                return actualChunksPerSegment;
+            }
+
+            @Override
+            public int segmentHeaderSize() {
+                return segmentHeaderSize;
+            }
+
+            @Override
+            public int actualSegments() {
+                return actualSegments;
+            }
+
+            @Override
+            public long maxExtraTiers() {
+                return maxExtraTiers;
+            }
+
+            @Override
+            public boolean aligned64BitMemoryOperationsAtomic() {
+                return builderAPI.aligned64BitMemoryOperationsAtomic();
+            }
+
+            @Override
+            public boolean checksumEntries() {
+                return checksumEntries;
+            }
+        };
+    }
+
+    /**
+     * Checks that the map, constructed from the builder with the layout from this header, is
+     * compatible with the map, stored in the file.
+     *
+     * @param actual the header of the constructed map
+     * @throws IOException if some field or descriptor differs
+     */
+    void checkCompatible(MapHeader actual, File file) throws IOException {
+        check(file, "key class", keyClass, actual.keyClass);
+        check(file, "value class", valueClass, actual.valueClass);
+        check(file, "replicated", replicated, actual.replicated);
+        check(file, "identifier", identifier, actual.identifier);
+        checkMarshaller(file, "key size marshaller", keySizeMarshaller, actual.keySizeMarshaller);
+        checkMarshaller(file, "key reader", keyReader, actual.keyReader);
+        checkMarshaller(file, "key interop", keyInterop, actual.keyInterop);
+        checkMarshaller(file, "value size marshaller",
+                valueSizeMarshaller, actual.valueSizeMarshaller);
+        checkMarshaller(file, "value reader", valueReader, actual.valueReader);
+        checkMarshaller(file, "value interop", valueInterop, actual.valueInterop);
+        check(file, "constantlySizedEntry", constantlySizedEntry, actual.constantlySizedEntry);
+        check(file, "metaDataBytes", metaDataBytes, actual.metaDataBytes);
+        check(file, "alignment", alignment, actual.alignment);
+        check(file, "worstAlignment", worstAlignment, actual.worstAlignment);
+        check(file, "segmentHashLookupEntrySize",
+                segmentHashLookupEntrySize, actual.segmentHashLookupEntrySize);
+        check(file, "segmentSize", segmentSize, actual.segmentSize);
+    }
+
+    private static void checkMarshaller(File file, String field, String stored, String actual)
+            throws IOException {
+        // names of lambda classes are not stable between runs
+        if (!stored.contains("$$Lambda$") || !actual.contains("$$Lambda$"))
+            check(file, field, stored, actual);
+    }
+
+    private static void check(File file, String field, Object stored, Object actual)
+            throws IOException {
+        if (!Objects.equals(stored, actual)) {
+            throw new IOException("The map in " + file + " is stored with " + field + " " +
+                    stored + ", but the builder configures " + actual);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+
+/**
+ * Direct {@code ByteBuffer}s over arbitrary native memory, e. g. over the mapped memory of
+ * segments, so that it could be written to channels without copying. Views are constructed like
+ * JNI {@code NewDirectByteBuffer()} does, via the {@code DirectByteBuffer(long, int)} constructor,
+ * so a view doesn't own the memory it points to: it has no cleaner, and the memory is never freed
+ * through it. A new view is created for each region of memory, buffers are never repointed.
+ */
+final class NativeMemoryBuffers {
+    private static final Logger LOG = LoggerFactory.getLogger(NativeMemoryBuffers.class);
+
+    private static final Constructor<? extends ByteBuffer> VIEW_CONSTRUCTOR;
+
+    static {
+        Constructor<? extends ByteBuffer> constructor = null;
+        try {
+            constructor = Class.forName("java.nio.DirectByteBuffer")
+                    .asSubclass(ByteBuffer.class)
+                    .getDeclaredConstructor(long.class, int.class);
+            constructor.setAccessible(true);
+        } catch (Exception e) {
+            LOG.info("Native memory buffers are not supported, zero-copy replication writes " +
+                    "are disabled", e);
+            constructor = null;
+        }
+        VIEW_CONSTRUCTOR = constructor;
+    }
+
+    private NativeMemoryBuffers() {
+    }
+
+    static boolean supported() {
+        return VIEW_CONSTRUCTOR != null;
+    }
+
+    /**
+     * Returns a new view of the given memory, the position is zero and the limit is {@code size}.
+     * The memory should stay valid, while the view is used.
+     */
+    static ByteBuffer view(long address, int size) {
+        try {
+            return VIEW_CONSTRUCTOR.newInstance(address, size);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import net.openhft.lang.thread.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Applies entries, received by a replicator, by several threads, so that the replicator's thread
+ * only reads sockets. Entries with equal {@linkplain
+ * Replica.EntryExternalizable#externalEntryOrderingKey(Bytes) ordering keys}, i. e. entries of
+ * the same segment, are applied by the same thread in the order of receipt, entries of different
+ * segments are applied in parallel. Each thread has a bounded queue of entries, if it is full the
+ * replicator's thread waits, rather than buffering without limit.
+ *
+ * <p>Because entries are applied out of the order of receipt, the {@linkplain
+ * Replica#setLastModificationTime(byte, long) last modification time} of a remote node is not
+ * updated per entry, but only when all entries with earlier bootstrap timestamps are applied by
+ * every thread. So it lags behind until the remote node sends an entry with a newer timestamp.
+ *
+ * <p>A failure to apply an entry is reported to the replicator's thread on the next {@link
+ * #startReading(Object)} call for the same connection, so that the connection is closed.
+ */
+final class ParallelEntryApplier implements Replica.EntryExternalizable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelEntryApplier.class);
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final QueuedEntry POISON = new QueuedEntry(new byte[0], 0L, null);
+    /**
+     * Applying threads advance the last modification times at least once per this number of
+     * entries, even if their queues don't get empty
+     */
+    private static final int WATERMARK_CHECK_INTERVAL = 256;
+
+    private static final class QueuedEntry {
+        final byte[] bytes;
+        final long seq;
+        final Object source;
+
+        QueuedEntry(byte[] bytes, long seq, @Nullable Object source) {
+            this.bytes = bytes;
+            this.seq = seq;
+            this.source = source;
+        }
+    }
+
+    /**
+     * All entries from the remote node with bootstrap timestamps up to {@code timestamp} are
+     * applied, when every queue has applied its entries up to the sequence number, it had when
+     * the checkpoint was taken.
+     */
+    private static final class Checkpoint {
+        final byte identifier;
+        final long timestamp;
+        final long[] enqueuedSeqs;
+
+        Checkpoint(byte identifier, long timestamp, long[] enqueuedSeqs) {
+            this.identifier = identifier;
+            this.timestamp = timestamp;
+            this.enqueuedSeqs = enqueuedSeqs;
+        }
+    }
+
+    private final Replica replica;
+    private final Replica.EntryExternalizable externalizable;
+    private final BlockingQueue<QueuedEntry>[] queues;
+    private final ExecutorService executorService;
+    private volatile boolean closed;
+
+    // accessed only by the replicator's thread
+    private final Replica.ExternalEntryLayout layout = new Replica.ExternalEntryLayout();
+    private final long[] enqueuedSeqs;
+    private final long[] latestBootstrapTimestamps = new long[256];
+    private long seq = 0L;
+    private Object source;
+
+    private final AtomicLongArray appliedSeqs;
+    private final Queue<Checkpoint> checkpoints = new ConcurrentLinkedQueue<>();
+    private final Map<Object, Exception> failures = new ConcurrentHashMap<>();
+
+    ParallelEntryApplier(@NotNull Replica replica,
+                         @NotNull Replica.EntryExternalizable externalizable, int threads,
+                         String name) {
+        if (threads < 2)
+            throw new IllegalArgumentException(
+                    "at least 2 threads expected, " + threads + " given");
+        this.replica = replica;
+        this.externalizable = externalizable;
+        //noinspection unchecked
+        queues = new BlockingQueue[threads];
+        enqueuedSeqs = new long[threads];
+        appliedSeqs = new AtomicLongArray(threads);
+        executorService = Executors.newFixedThreadPool(threads,
+                new NamedThreadFactory(name + "-apply", true));
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<QueuedEntry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues[i] = queue;
+            final int queueIndex = i;
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    applyLoop(queueIndex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Should be called by the replicator's thread before reading entries, received from the
+     * given connection.
+     *
+     * @param source the connection, entries are read from
+     * @throws IllegalStateException if an entry, received from this connection earlier, has
+     *                               failed to apply
+     */
+    void startReading(@Nullable Object source) {
+        this.source = source;
+        if (source != null) {
+            Exception failure = failures.remove(source);
+            if (failure != null)
+                throw new IllegalStateException("Failed to apply a replicated entry", failure);
+        }
+    }
+
+    @Override
+    public int sizeOfEntry(@NotNull Bytes entry, int chronicleId) {
+        return externalizable.sizeOfEntry(entry, chronicleId);
+    }
+
+    @Override
+    public boolean identifierCheck(@NotNull ReplicableEntry entry, int chronicleId) {
+        return externalizable.identifierCheck(entry, chronicleId);
+    }
+
+    @Override
+    public void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                   int chronicleId, long bootstrapTime) {
+        externalizable.writeExternalEntry(entry, destination, chronicleId, bootstrapTime);
+    }
+
+    @Override
+    public boolean writeExternalEntryDeferringValue(
+            @NotNull Bytes entry, @NotNull Bytes destination, int chronicleId,
+            long bootstrapTime, @NotNull Replica.DeferredValue deferredValue) {
+        return externalizable.writeExternalEntryDeferringValue(entry, destination, chronicleId,
+                bootstrapTime, deferredValue);
+    }
+
+    @Override
+    public boolean externalEntryLayout(@NotNull Bytes source,
+                                       @NotNull Replica.ExternalEntryLayout layout) {
+        return externalizable.externalEntryLayout(source, layout);
+    }
+
+    @Override
+    public long externalEntryOrderingKey(@NotNull Bytes source) {
+        return externalizable.externalEntryOrderingKey(source);
+    }
+
+    /**
+     * Copies the entry and queues it to the thread, which applies entries with the same ordering
+     * key. Consumes the {@code source} up to its limit.
+     */
+    @Override
+    public void readExternalEntry(@NotNull Bytes source) {
+        final long start = source.position();
+        final long orderingKey = externalizable.externalEntryOrderingKey(source);
+        final boolean layoutKnown = externalizable.externalEntryLayout(source, layout);
+        final byte[] bytes = new byte[(int) source.remaining()];
+        source.readFully(bytes);
+        if (layoutKnown) {
+            final int bootstrapTimestampOffset = (int) (layout.bootstrapTimestampPosition - start);
+            final long bootstrapTimestamp =
+                    source.readLong(layout.bootstrapTimestampPosition);
+            // the map shouldn't update the last modification time itself, see takeCheckpoint()
+            for (int i = 0; i < 8; i++) {
+                bytes[bootstrapTimestampOffset + i] = 0;
+            }
+            takeCheckpoint(layout.identifier, bootstrapTimestamp);
+        }
+        final int queueIndex = queueIndex(orderingKey, queues.length);
+        final QueuedEntry entry = new QueuedEntry(bytes, ++seq, this.source);
+        final BlockingQueue<QueuedEntry> queue = queues[queueIndex];
+        try {
+            while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                if (closed)
+                    return;
+            }
+            enqueuedSeqs[queueIndex] = entry.seq;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * When an entry with a newer bootstrap timestamp is received from a remote node, all entries
+     * from this node with older timestamps are already queued, so the previous timestamp could
+     * become the last modification time, once the entries queued so far are applied.
+     */
+    private void takeCheckpoint(byte identifier, long bootstrapTimestamp) {
+        final int id = identifier & 0xFF;
+        final long latest = latestBootstrapTimestamps[id];
+        if (bootstrapTimestamp <= latest)
+            return;
+        latestBootstrapTimestamps[id] = bootstrapTimestamp;
+        if (latest == 0L)
+            return;
+        checkpoints.add(new Checkpoint(identifier, latest, enqueuedSeqs.clone()));
+        advanceLastModificationTimes();
+    }
+
+    private void advanceLastModificationTimes() {
+        // setLastModificationTime() is not atomic, so checkpoints are passed one at a time
+        synchronized (checkpoints) {
+            for (Checkpoint checkpoint; (checkpoint = checkpoints.peek()) != null; ) {
+                for (int i = 0; i < checkpoint.enqueuedSeqs.length; i++) {
+                    if (appliedSeqs.get(i) < checkpoint.enqueuedSeqs[i])
+                        return;
+                }
+                checkpoints.poll();
+                replica.setLastModificationTime(checkpoint.identifier, checkpoint.timestamp);
+            }
+        }
+    }
+
+    static int queueIndex(long orderingKey, int queues) {
+        // spread the keys, which are typically consecutive segment indexes, possibly combined
+        // with channel ids in the high bits
+        long h = orderingKey * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & Integer.MAX_VALUE) % queues;
+    }
+
+    private void applyLoop(int queueIndex) {
+        final BlockingQueue<QueuedEntry> queue = queues[queueIndex];
+        ByteBufferBytes buffer = newBuffer(1024);
+        try {
+            for (QueuedEntry entry; (entry = queue.take()) != POISON; ) {
+                // the rest of entries from a failed connection are dropped, as they would be if
+                // the entries were applied by the replicator's thread
+                if (entry.source == null || !failures.containsKey(entry.source)) {
+                    final byte[] bytes = entry.bytes;
+                    if (buffer.capacity() < bytes.length)
+                        buffer = newBuffer(Math.max(bytes.length, (int) buffer.capacity() * 2));
+                    buffer.clear();
+                    buffer.write(bytes);
+                    buffer.flip();
+                    try {
+                        externalizable.readExternalEntry(buffer);
+                    } catch (Exception e) {
+                        if (entry.source != null) {
+                            failures.putIfAbsent(entry.source, e);
+                        } else {
+                            LOG.error("Failed to apply a replicated entry", e);
+                        }
+                    }
+                }
+                appliedSeqs.lazySet(queueIndex, entry.seq);
+                if (queue.isEmpty() || entry.seq % WATERMARK_CHECK_INTERVAL == 0)
+                    advanceLastModificationTimes();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ByteBufferBytes newBuffer(int capacity) {
+        return new ByteBufferBytes(
+                ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder()));
+    }
+
+    /**
+     * Applies the queued entries and stops the threads. Waits for them to terminate, because
+     * entries mustn't be applied to a map after it is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executorService.shutdown();
+        try {
+            for (BlockingQueue<QueuedEntry> queue : queues) {
+                if (!queue.offer(POISON, 10, TimeUnit.SECONDS))
+                    LOG.warn("Failed to stop a thread, applying replicated entries");
+            }
+            if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Replicated entries are still being applied, interrupting");
+                executorService.shutdownNow();
+                executorService.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -69,6 +69,134 @@ public interface Replica extends Closeable {
 
     void setLastModificationTime(byte identifier, long timestamp);
 
+    /**
+     * Returns the number of segments, digests of which are compared with remote nodes by
+     * anti-entropy synchronization, or 0 if this replica doesn't support anti-entropy. 0 by
+     * default.
+     */
+    default int digestedSegments() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of ranges of hashes of keys, entries of which are digested separately
+     * in each segment, so that the entries of a single range are compared with a remote node at
+     * once. A power of 2, the top bits of the hash of the key are the range.
+     */
+    default int digestRanges() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the digest of all entries of the segment, including removed entries, hashes of keys
+     * of which are in the given range, which is equal on the nodes which hold the same versions
+     * of the same entries in the range of the segment.
+     *
+     * @param segmentIndex the index of the segment, less than {@link #digestedSegments()}
+     * @param range        the range of hashes of keys, less than {@link #digestRanges()}
+     */
+    default long segmentDigest(int segmentIndex, int range) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Passes hashes of keys and digests of all entries of the segment, including removed entries,
+     * to the {@code consumer}.
+     *
+     * @param segmentIndex the index of the segment, less than {@link #digestedSegments()}
+     * @param consumer     receives a hash of the key and a digest of each entry
+     */
+    default void forEachEntryDigest(int segmentIndex, @NotNull EntryDigestConsumer consumer) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Tests all entries of the segment with the {@code predicate}, and raises changes of the
+     * entries, originated on this node, for which it returns {@code true}, in the modification
+     * iterator of the remote node, so that these entries are sent to the remote node once again.
+     *
+     * @param remoteIdentifier the identifier of the remote node
+     * @param segmentIndex     the index of the segment, less than {@link #digestedSegments()}
+     * @param predicate        tests a hash of the key and a digest of each entry of the segment,
+     *                         including removed entries
+     */
+    default void resendEntries(byte remoteIdentifier, int segmentIndex,
+                               @NotNull EntryDigestPredicate predicate) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the number of segments, images of which could be sent to a remote node by {@link
+     * #writeSegmentSnapshot(int, Bytes)}, or 0 if this replica doesn't support snapshot
+     * bootstrap. 0 by default.
+     */
+    default int snapshotSegments() {
+        return 0;
+    }
+
+    /**
+     * Returns a fingerprint of the memory layout of the segments, images of segments are applied
+     * only by replicas with the equal fingerprint.
+     */
+    default long snapshotLayout() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the size of an image of a segment in bytes, as written by {@link
+     * #writeSegmentSnapshot(int, Bytes)}.
+     */
+    default long segmentSnapshotSize() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Checks that this replica holds no entries, including removed entries, i. e. images of
+     * segments could be applied to all segments.
+     */
+    default boolean holdsNoEntries() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes a consistent image of the segment, including the hash lookup, the free list and the
+     * entry space, to the {@code destination}, if the segment consists of a single tier.
+     *
+     * @param segmentIndex the index of the segment, less than {@link #snapshotSegments()}
+     * @param destination  the bytes to write the image to, at least {@link
+     *                     #segmentSnapshotSize()} bytes should remain
+     * @return {@code true} if the image is written, {@code false} if the segment has extra tiers
+     * and nothing is written
+     */
+    default boolean writeSegmentSnapshot(int segmentIndex, @NotNull Bytes destination) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Copies an image of the segment, written by {@link #writeSegmentSnapshot(int, Bytes)} on the
+     * remote node, into the memory of the segment, if the segment is empty and consists of a
+     * single tier. The entries of the image are considered as received from the remote node, i.
+     * e. are sent to other nodes, but not back to the remote node.
+     *
+     * @param remoteIdentifier the identifier of the remote node
+     * @param segmentIndex     the index of the segment, less than {@link #snapshotSegments()}
+     * @param source           the image from the position to the limit, in native memory
+     * @return the time of the image on the remote node, or {@link Long#MIN_VALUE} if the segment
+     * is not empty or has extra tiers, and the image is not applied
+     */
+    default long applySegmentSnapshot(byte remoteIdentifier, int segmentIndex,
+                                      @NotNull Bytes source) {
+        throw new UnsupportedOperationException();
+    }
+
+    interface EntryDigestConsumer {
+        void accept(long keyHash, long entryDigest);
+    }
+
+    interface EntryDigestPredicate {
+        boolean test(long keyHash, long entryDigest);
+    }
+
     /**
      * notifies when there is a changed to the modification iterator
      */
@@ -103,6 +231,48 @@ public interface Replica extends Closeable {
          */
         boolean nextEntry(@NotNull final EntryCallback callback, final int chronicleId);
 
+        /**
+         * A non-blocking call that provides changed entries to {@code callback.onEntry()} in a
+         * batch, until there are no more changed entries, an entry is not accepted by the {@code
+         * callback}, or the sizes of the accepted entries in bytes sum up to {@code maxBytes} or
+         * more. Implementations could provide changed entries, residing in the same segment, under
+         * a single lock acquisition. By default provides a single entry via {@link
+         * #nextEntry(EntryCallback, int)}.
+         *
+         * @param callback    a callback which will be called for each changed entry
+         * @param chronicleId only assigned when using chronicle channels
+         * @param maxBytes    the budget of entry bytes, at least one entry is provided, if
+         *                    available, regardless of its size
+         * @return the number of entries, accepted by the {@code callback.onEntry()} method
+         */
+        default int nextEntries(@NotNull final EntryCallback callback, final int chronicleId,
+                                final long maxBytes) {
+            return nextEntry(callback, chronicleId) ? 1 : 0;
+        }
+
+        /**
+         * Returns the number of changed entries, which are not yet provided by this iterator.
+         * Could be called from any thread, the result is approximate, if entries are changed
+         * concurrently.
+         *
+         * @return the number of changed entries, or {@code -1} if unknown
+         */
+        default long outstandingEntries() {
+            return -1L;
+        }
+
+        /**
+         * Returns for how many milliseconds changed entries, pending in this iterator, are held
+         * back by throttling, so that {@link #hasNext()} doesn't account them, or {@code 0} if no
+         * entries are held back. The caller should check {@code hasNext()} once again after this
+         * time passes.
+         *
+         * @return the time in milliseconds, after which held back entries could be provided
+         */
+        default long throttledMillis() {
+            return 0L;
+        }
+
         /**
          * Dirties all entries with a modification time equal to {@code fromTimeStamp} or newer. It
          * means all these entries will be considered as "new" by this ModificationIterator and
@@ -113,6 +283,18 @@ public interface Replica extends Closeable {
          */
         void dirtyEntries(long fromTimeStamp);
 
+        /**
+         * Like {@link #dirtyEntries(long)}, but dirties only entries of the given segment. Used
+         * to publish entries of segments, images of which are not sent to a new remote node. By
+         * default dirties entries of all segments.
+         *
+         * @param segmentIndex  the index of the segment
+         * @param fromTimeStamp the timestamp from which all entries should be dirty
+         */
+        default void dirtySegmentEntries(int segmentIndex, long fromTimeStamp) {
+            dirtyEntries(fromTimeStamp);
+        }
+
         /**
          * the {@code modificationNotifier} is called when ever there is a change applied to the
          * modification iterator
@@ -159,6 +341,24 @@ public interface Replica extends Closeable {
         void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
                                 int chronicleId, long bootstrapTime);
 
+        /**
+         * Like {@link #writeExternalEntry(Bytes, Bytes, int, long)}, but if the value of the entry
+         * is at least {@code deferredValue.minSize} bytes long, doesn't copy the value: writes the
+         * entry up to the value to the {@code destination} and sets {@code deferredValue.address}
+         * and {@code deferredValue.size} to the native memory of the value within the {@code
+         * entry}. The caller should append the value to the contents of the {@code destination},
+         * while the entry is still locked. Used by zero-copy replication writes.
+         *
+         * @return {@code true} if the value is deferred, {@code false} if the entry is written
+         * entirely or not written at all. By default the value is never deferred.
+         */
+        default boolean writeExternalEntryDeferringValue(
+                @NotNull Bytes entry, @NotNull Bytes destination, int chronicleId,
+                long bootstrapTime, @NotNull DeferredValue deferredValue) {
+            writeExternalEntry(entry, destination, chronicleId, bootstrapTime);
+            return false;
+        }
+
         /**
          * The map implements this method to restore its contents. This method must read the values
          * in the same sequence and with the same types as were written by {@code
@@ -169,7 +369,78 @@ public interface Replica extends Closeable {
          */
         void readExternalEntry(@NotNull Bytes source);
 
+        /**
+         * Locates the bootstrap timestamp, the key and the value within an entry, written by
+         * {@code writeExternalEntry()}. Used by replication wire formats, which send the bootstrap
+         * timestamp once per batch of entries and values as deltas against the previous values of
+         * the same keys. Doesn't change the position of the {@code source}.
+         *
+         * @param source bytes, positioned at the start of an entry
+         * @param layout receives absolute positions within the {@code source}
+         * @return {@code false} if the layout of the entry is unknown, then the entry is sent
+         * verbatim. {@code false} by default.
+         */
+        default boolean externalEntryLayout(@NotNull Bytes source,
+                                            @NotNull ExternalEntryLayout layout) {
+            return false;
+        }
+
+        /**
+         * Returns the key, which orders application of entries, written by {@code
+         * writeExternalEntry()}: entries with equal ordering keys should be {@linkplain
+         * #readExternalEntry(Bytes) read} in the order of receipt, entries with different ordering
+         * keys could be read concurrently. Typically the index of the segment, to which the entry
+         * belongs. Doesn't change the position of the {@code source}.
+         *
+         * @param source bytes, positioned at the start of an entry
+         * @return the ordering key of the entry, {@code 0} by default, i. e. all entries are read
+         * in order
+         */
+        default long externalEntryOrderingKey(@NotNull Bytes source) {
+            return 0L;
+        }
+    }
 
+    /**
+     * Positions of parts of an entry, written by {@link
+     * EntryExternalizable#writeExternalEntry(Bytes, Bytes, int, long)}
+     */
+    final class ExternalEntryLayout {
+        /**
+         * Position of the 8-byte bootstrap timestamp
+         */
+        public long bootstrapTimestampPosition;
+        /**
+         * The time of the update of the entry on the origin node
+         */
+        public long timestamp;
+        /**
+         * The identifier of the origin node
+         */
+        public byte identifier;
+        public long keyPosition;
+        public long keySize;
+        public long valuePosition;
+        /**
+         * -1 if the entry is a removal and doesn't contain a value
+         */
+        public long valueSize;
+    }
+
+    /**
+     * The value of an entry, not copied by {@link
+     * EntryExternalizable#writeExternalEntryDeferringValue}
+     */
+    final class DeferredValue {
+        /**
+         * The minimum size of values to defer, set by the caller
+         */
+        public long minSize;
+        /**
+         * The native address of the value
+         */
+        public long address;
+        public long size;
     }
 
     /**
@@ -19,12 +19,16 @@ package net.openhft.chronicle.map;
 import net.openhft.chronicle.algo.bitset.BitSetFrame;
 import net.openhft.chronicle.algo.bitset.ConcurrentFlatBitSetFrame;
 import net.openhft.chronicle.algo.bitset.SingleThreadedFlatBitSetFrame;
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
 import net.openhft.chronicle.hash.VanillaGlobalMutableState;
+import net.openhft.chronicle.hash.impl.JavaLangBytesReusableBytesStore;
+import net.openhft.chronicle.hash.impl.SegmentHeader;
 import net.openhft.chronicle.hash.impl.TierCountersArea;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
 import net.openhft.chronicle.hash.impl.stage.hash.ChainingInterface;
 import net.openhft.chronicle.hash.replication.AbstractReplication;
 import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.chronicle.hash.replication.ReplicationStats;
 import net.openhft.chronicle.hash.replication.TimeProvider;
 import net.openhft.chronicle.hash.serialization.internal.MetaBytesInterop;
 import net.openhft.chronicle.map.impl.CompiledReplicatedMapIterationContext;
@@ -33,23 +37,28 @@ import net.openhft.chronicle.map.replication.MapRemoteOperations;
 import net.openhft.lang.Maths;
 import net.openhft.lang.collection.ATSDirectBitSet;
 import net.openhft.lang.io.Bytes;
+import net.openhft.lang.io.NativeBytes;
 import net.openhft.lang.model.DataValueClasses;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import static net.openhft.chronicle.algo.bytes.Access.checkedRandomDataInputAccess;
 import static net.openhft.chronicle.algo.bytes.Access.nativeAccess;
 import static net.openhft.lang.MemoryUnit.*;
 import static net.openhft.lang.collection.DirectBitSet.NOT_FOUND;
+import static net.openhft.lang.io.NativeBytes.UNSAFE;
 
 /**
  * <h2>A Replicating Multi Master HashMap</h2> <p>Each remote hash map, mirrors its changes over to
@@ -100,10 +109,18 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
     private static final Logger LOG = LoggerFactory.getLogger(ReplicatedChronicleMap.class);
     private static final long LAST_UPDATED_HEADER_SIZE = 128L * 8L;
     private static final int SIZE_OF_BOOTSTRAP_TIME_STAMP = 8;
+    /**
+     * The time of the image and the fields of the segment header, which are not locks
+     */
+    private static final long SEGMENT_SNAPSHOT_HEADER_SIZE = 4L * 8L;
+    /**
+     * Entries per range of hashes of keys, the range of a segment is a leaf of the anti-entropy
+     * hash tree, and entries of a leaf are sent in a single message, see {@link #digestRanges()}
+     */
+    private static final long DIGESTED_ENTRIES_PER_RANGE = 64L;
 
     public final TimeProvider timeProvider;
     private final byte localIdentifier;
-    transient Set<Closeable> closeables;
     private transient Bytes identifierUpdatedBytes;
 
     private transient ATSDirectBitSet modIterSet;
@@ -123,6 +140,19 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
     transient BitSetFrame tierBulkModIterFrameForUpdates;
     transient BitSetFrame tierBulkModIterFrameForIteration;
 
+    /**
+     * Digests of ranges of segments for anti-entropy, {@link #digestRanges} digests per segment,
+     * cached until the segments are modified
+     */
+    private transient long[] segmentDigests;
+    private transient long[] segmentDigestVersions;
+    private transient int digestRanges;
+
+    /**
+     * TCP replicators of this map, the source of {@link #replicationStats()}
+     */
+    private transient List<TcpReplicator> tcpReplicators;
+
     public ReplicatedChronicleMap(@NotNull ChronicleMapBuilder<K, V> builder,
                                   AbstractReplication replication)
             throws IOException {
@@ -164,7 +194,6 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
     private void initOwnTransients() {
         modificationIterators =
                 new AtomicReferenceArray<>(127 + RESERVED_MOD_ITER);
-        closeables = new CopyOnWriteArraySet<>();
         long mainSegmentsBitSetSize = BYTES.toBits(modIterBitSetSizeInBytes());
         mainSegmentsModIterFrameForUpdates =
                 new SingleThreadedFlatBitSetFrame(mainSegmentsBitSetSize);
@@ -175,6 +204,15 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
                 BYTES.toBits(tierBulkModIterBitSetSizeInBytes(numberOfTiersInBulk));
         tierBulkModIterFrameForUpdates = new SingleThreadedFlatBitSetFrame(tierBulkBitSetSize);
         tierBulkModIterFrameForIteration = new ConcurrentFlatBitSetFrame(tierBulkBitSetSize);
+
+        digestRanges = (int) Maths.nextPower2(
+                Math.max(entriesPerSegment / DIGESTED_ENTRIES_PER_RANGE, 1L), 1L);
+        segmentDigests = new long[actualSegments * digestRanges];
+        segmentDigestVersions = new long[actualSegments];
+        // modification versions are unsigned ints, so -1 never matches
+        Arrays.fill(segmentDigestVersions, -1L);
+
+        tcpReplicators = new CopyOnWriteArrayList<>();
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -228,6 +266,207 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
         return identifierUpdatedBytes.readLong(remoteIdentifier * 8L);
     }
 
+    @Override
+    public int digestedSegments() {
+        return actualSegments;
+    }
+
+    /**
+     * The expected number of entries in a range is {@link #DIGESTED_ENTRIES_PER_RANGE} or less,
+     * if the segments are not overflowed.
+     */
+    @Override
+    public int digestRanges() {
+        return digestRanges;
+    }
+
+    /**
+     * Digests of all ranges of the segment are computed in a single pass over the segment, and
+     * cached until the segment is modified, so segments, not updated since the previous
+     * anti-entropy round, are not iterated again.
+     */
+    @Override
+    public long segmentDigest(int segmentIndex, int range) {
+        SegmentHeader segmentHeader = segmentHeader(segmentIndex);
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        long version = segmentHeader.modificationVersion(segmentHeaderAddress);
+        int firstDigest = segmentIndex * digestRanges;
+        synchronized (segmentDigests) {
+            if (segmentDigestVersions[segmentIndex] == version)
+                return segmentDigests[firstDigest + range];
+        }
+        long[] digests = new long[digestRanges];
+        forEachEntryDigest(segmentIndex, (keyHash, entryDigest) ->
+                digests[AntiEntropy.keyHashRange(keyHash, digestRanges)] += entryDigest);
+        // cache the digests, only if the segment was not modified while they were computed
+        if ((version & 1L) == 0L &&
+                segmentHeader.validateModificationVersion(segmentHeaderAddress, version)) {
+            synchronized (segmentDigests) {
+                System.arraycopy(digests, 0, segmentDigests, firstDigest, digestRanges);
+                segmentDigestVersions[segmentIndex] = version;
+            }
+        }
+        return digests[range];
+    }
+
+    @Override
+    public void forEachEntryDigest(int segmentIndex, @NotNull EntryDigestConsumer consumer) {
+        try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c =
+                     iterationContext()) {
+            c.initSegmentIndex(segmentIndex);
+            c.forEachSegmentReplicableEntryWhile(Long.MIN_VALUE, e -> {
+                long keyHash = c.key().hash(LongHashFunction.city_1_1());
+                consumer.accept(keyHash, entryDigest(c, e, keyHash));
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public void resendEntries(byte remoteIdentifier, int segmentIndex,
+                              @NotNull EntryDigestPredicate predicate) {
+        ModificationIterator modificationIterator = acquireModificationIterator(remoteIdentifier);
+        try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c =
+                     iterationContext()) {
+            c.initSegmentIndex(segmentIndex);
+            c.forEachSegmentReplicableEntryWhile(Long.MIN_VALUE, e -> {
+                long keyHash = c.key().hash(LongHashFunction.city_1_1());
+                if (predicate.test(keyHash, entryDigest(c, e, keyHash)) &&
+                        e.originIdentifier() == localIdentifier) {
+                    modificationIterator.raiseChange(c.tierIndex(), c.pos(), c.timestamp());
+                }
+                return true;
+            });
+        }
+    }
+
+    private long entryDigest(CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c,
+                             ReplicableEntry e, long keyHash) {
+        boolean removed = e instanceof MapAbsentEntry;
+        long valueHash = removed ? 0L : c.value().hash(LongHashFunction.city_1_1());
+        return AntiEntropy.entryDigest(keyHash, valueHash, removed, e.originTimestamp(),
+                e.originIdentifier());
+    }
+
+    /**
+     * Images of segments, which hold entries, originated on other nodes, are sent regardless of
+     * the origin of the entries, so snapshot bootstrap is not supported, if {@link
+     * AbstractReplication#bootstrapOnlyLocalEntries()} is configured.
+     */
+    @Override
+    public int snapshotSegments() {
+        return bootstrapOnlyLocalEntries ? 0 : actualSegments;
+    }
+
+    @Override
+    public long snapshotLayout() {
+        LongHashFunction f = LongHashFunction.city_1_1();
+        return f.hashLongs(new long[] {actualSegments, segmentSize, chunkSize,
+                actualChunksPerSegment, segmentHashLookupCapacity, segmentHashLookupEntrySize,
+                segmentEntrySpaceInnerOffset, checksumEntries ? 1L : 0L,
+                f.hashChars(kClass.getName()), f.hashChars(vClass.getName())});
+    }
+
+    @Override
+    public long segmentSnapshotSize() {
+        return SEGMENT_SNAPSHOT_HEADER_SIZE + segmentSize;
+    }
+
+    @Override
+    public boolean holdsNoEntries() {
+        for (int segmentIndex = 0; segmentIndex < actualSegments; segmentIndex++) {
+            if (segmentHeader(segmentIndex).size(segmentHeaderAddress(segmentIndex)) != 0L)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The image is the memory of the first tier of the segment, preceded by the time of the image
+     * and the fields of the segment header, which are not locks.
+     */
+    @Override
+    public boolean writeSegmentSnapshot(int segmentIndex, @NotNull Bytes destination) {
+        SegmentHeader segmentHeader = segmentHeader(segmentIndex);
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        long tierIndex = segmentIndex + 1L;
+        // the update lock excludes modifications of the segment, but not reads
+        segmentHeader.updateLock(segmentHeaderAddress);
+        try {
+            if (TierCountersArea.nextTierIndex(
+                    segmentBaseAddr(segmentIndex) + segmentHashLookupOuterSize) != 0L) {
+                return false;
+            }
+            destination.writeLong(timeProvider.currentTime());
+            destination.writeLong(segmentHeader.size(segmentHeaderAddress));
+            destination.writeLong(segmentHeader.deleted(segmentHeaderAddress));
+            destination.writeLong(segmentHeader.nextPosToSearchFrom(segmentHeaderAddress));
+            destination.write(tierBytes(tierIndex), tierBytesOffset(tierIndex), segmentSize);
+            return true;
+        } finally {
+            segmentHeader.updateUnlock(segmentHeaderAddress);
+        }
+    }
+
+    @Override
+    public long applySegmentSnapshot(byte remoteIdentifier, int segmentIndex,
+                                     @NotNull Bytes source) {
+        if (source.remaining() != segmentSnapshotSize()) {
+            throw new IllegalArgumentException("Segment image of " + source.remaining() +
+                    " bytes, " + segmentSnapshotSize() + " bytes expected");
+        }
+        SegmentHeader segmentHeader = segmentHeader(segmentIndex);
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        long segmentBaseAddr = segmentBaseAddr(segmentIndex);
+        long snapshotTime;
+        segmentHeader.writeLock(segmentHeaderAddress);
+        try {
+            // extra tiers, linked from the first tier, would leak, if overwritten
+            if (segmentHeader.size(segmentHeaderAddress) != 0L ||
+                    TierCountersArea.nextTierIndex(
+                            segmentBaseAddr + segmentHashLookupOuterSize) != 0L) {
+                return Long.MIN_VALUE;
+            }
+            snapshotTime = source.readLong();
+            segmentHeader.size(segmentHeaderAddress, source.readLong());
+            segmentHeader.deleted(segmentHeaderAddress, source.readLong());
+            segmentHeader.nextPosToSearchFrom(segmentHeaderAddress, source.readLong());
+            UNSAFE.copyMemory(source.address() + source.position(), segmentBaseAddr,
+                    segmentSize);
+            source.position(source.position() + segmentSize);
+        } finally {
+            segmentHeader.writeUnlock(segmentHeaderAddress);
+        }
+        raiseChangesExcept(remoteIdentifier, segmentIndex);
+        return snapshotTime;
+    }
+
+    /**
+     * Raises changes of all entries of the segment in modification iterators of all remote nodes,
+     * except the given one
+     */
+    private void raiseChangesExcept(byte remoteIdentifier, int segmentIndex) {
+        long firstOther = modIterSet.nextSetBit(0L);
+        if (firstOther == remoteIdentifier)
+            firstOther = modIterSet.nextSetBit(firstOther + 1L);
+        if (firstOther <= 0L)
+            return;
+        try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c =
+                     iterationContext()) {
+            c.initSegmentIndex(segmentIndex);
+            c.forEachSegmentReplicableEntryWhile(Long.MIN_VALUE, e -> {
+                for (long next = modIterSet.nextSetBit(0L); next > 0L;
+                     next = modIterSet.nextSetBit(next + 1L)) {
+                    if (next != remoteIdentifier) {
+                        acquireModificationIterator((byte) next)
+                                .raiseChange(c.tierIndex(), c.pos(), c.timestamp());
+                    }
+                }
+                return true;
+            });
+        }
+    }
+
     @Override
     public void onHeaderCreated() {
         long offset = super.mapHeaderInnerSize();
@@ -247,27 +486,22 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
         bytes.zeroOut(super.mapHeaderInnerSize(), this.mapHeaderInnerSize(), true);
     }
 
-    void addCloseable(Closeable closeable) {
-        closeables.add(closeable);
+    @Override
+    public byte identifier() {
+        return localIdentifier;
     }
 
-    @Override
-    public synchronized void close() {
-        if (closed)
-            return;
-        for (Closeable closeable : closeables) {
-            try {
-                closeable.close();
-            } catch (IOException e) {
-                LOG.error("", e);
-            }
-        }
-        super.close();
+    void addTcpReplicator(TcpReplicator tcpReplicator) {
+        tcpReplicators.add(tcpReplicator);
     }
 
     @Override
-    public byte identifier() {
-        return localIdentifier;
+    public List<ReplicationStats> replicationStats() {
+        List<ReplicationStats> stats = new ArrayList<>();
+        for (TcpReplicator tcpReplicator : tcpReplicators) {
+            stats.addAll(tcpReplicator.replicationStats());
+        }
+        return stats;
     }
 
     @Override
@@ -383,6 +617,23 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
                                    @NotNull Bytes destination,
                                    int chronicleId,
                                    long bootstrapTime) {
+        writeExternalEntry(entry, destination, bootstrapTime, null);
+    }
+
+    /**
+     * Defers values only if the entry is in native memory, that is always the case for segments.
+     * The same as {@link #writeExternalEntry(Bytes, Bytes, int, long)}, regarding segment locks.
+     */
+    @Override
+    public boolean writeExternalEntryDeferringValue(
+            @NotNull Bytes entry, @NotNull Bytes destination, int chronicleId,
+            long bootstrapTime, @NotNull DeferredValue deferredValue) {
+        return writeExternalEntry(entry, destination, bootstrapTime,
+                entry instanceof NativeBytes ? deferredValue : null);
+    }
+
+    private boolean writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                       long bootstrapTime, @Nullable DeferredValue deferredValue) {
 
         final long keySize = keySizeMarshaller.readSize(entry);
 
@@ -393,7 +644,7 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
         final byte identifier = entry.readByte();
         if (identifier != localIdentifier) {
             // although unlikely, this may occur if the entry has been updated
-            return;
+            return false;
         }
 
         final boolean isDeleted = entry.readBoolean();
@@ -433,20 +684,73 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
         }
 
         if (isDeleted)
-            return;
+            return false;
 
         entry.position(valuePosition);
         // skipping the alignment, as alignment wont work when we send the data over the wire.
         alignment.alignPositionAddr(entry);
 
+        if (deferredValue != null && valueSize >= deferredValue.minSize) {
+            deferredValue.address = entry.address() + entry.position();
+            deferredValue.size = valueSize;
+            if (debugEnabled)
+                LOG.debug(message + "value of size=" + valueSize + " deferred)");
+            return true;
+        }
+
         // writes the value
         destination.write(entry, entry.position(), valueSize);
 
         if (debugEnabled) {
             LOG.debug(message + "value=" + entry.toString().trim() + ")");
         }
+        return false;
     }
-    
+
+    @Override
+    public boolean externalEntryLayout(@NotNull Bytes source, @NotNull ExternalEntryLayout layout) {
+        final long start = source.position();
+        try {
+            layout.bootstrapTimestampPosition = start;
+            source.skip(SIZE_OF_BOOTSTRAP_TIME_STAMP);
+            final long keySize = keySizeMarshaller.readSize(source);
+            final long valueSize = valueSizeMarshaller.readSize(source);
+            layout.timestamp = source.readStopBit();
+            layout.identifier = source.readByte();
+            final boolean isDeleted = source.readBoolean();
+            layout.keyPosition = source.position();
+            layout.keySize = keySize;
+            layout.valuePosition = layout.keyPosition + keySize;
+            layout.valueSize = isDeleted ? -1L : valueSize;
+            return true;
+        } finally {
+            source.position(start);
+        }
+    }
+
+    /**
+     * Returns the index of the segment, to which the entry belongs
+     */
+    @Override
+    public long externalEntryOrderingKey(@NotNull Bytes source) {
+        final long start = source.position();
+        try {
+            source.skip(SIZE_OF_BOOTSTRAP_TIME_STAMP);
+            final long keySize = keySizeMarshaller.readSize(source);
+            valueSizeMarshaller.readSize(source);
+            source.readStopBit(); // timestamp
+            source.readByte(); // identifier
+            source.readBoolean(); // isDeleted
+            final JavaLangBytesReusableBytesStore keyStore = new JavaLangBytesReusableBytesStore();
+            keyStore.setBytes(source);
+            final long keyHash = LongHashFunction.city_1_1().hash(keyStore,
+                    checkedRandomDataInputAccess(), source.position(), keySize);
+            return hashSplitting.segmentIndex(keyHash);
+        } finally {
+            source.position(start);
+        }
+    }
+
     private ChainingInterface q() {
         ChainingInterface queryContext;
         queryContext = cxt.get();
@@ -671,6 +975,28 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
             return nextPosition() >= 0;
         }
 
+        @Override
+        public long outstandingEntries() {
+            long outstanding = countSetBits(mainSegmentsChangesBitSetAddr,
+                    modIterBitSetSizeInBytes());
+            long tierBulkBitSetSize = tierBulkModIterBitSetSizeInBytes(numberOfTiersInBulk);
+            for (int i = 0; i < globalMutableState().getAllocatedExtraTierBulks(); i++) {
+                VanillaChronicleHash.TierBulkData tierBulkData = tierBulkOffsets.get(i);
+                outstanding += countSetBits(tierBulkData.langBytes.address() +
+                        tierBulkData.offset + offsetToBitSetWithinATierBulk, tierBulkBitSetSize);
+            }
+            return outstanding;
+        }
+
+        private long countSetBits(long bitSetAddr, long bitSetSizeInBytes) {
+            long count = 0L;
+            // bit set sizes are aligned to cache lines
+            for (long offset = 0L; offset < bitSetSizeInBytes; offset += 8L) {
+                count += Long.bitCount(UNSAFE.getLong(bitSetAddr + offset));
+            }
+            return count;
+        }
+
         private long nextPosition() {
             long nextPos;
             long position = this.position;
@@ -725,31 +1051,10 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
                 }
 
                 this.position = position;
-                int segmentIndexOrTierIndexOffsetWithinBulk =
-                        (int) (position >>> segmentIndexShift);
 
                 try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> context =
                         iterationContext()) {
-                    if (iterationMainSegmentsAreaOrTierBulk < 0) {
-                        // if main area
-                        // segmentIndexOrTierIndexOffsetWithinBulk is segment index
-                        context.initSegmentIndex(segmentIndexOrTierIndexOffsetWithinBulk);
-                    } else {
-                        // extra tiers
-                        // segmentIndexOrTierIndexOffsetWithinBulk is tier index offset within bulk
-                        TierBulkData tierBulkData =
-                                tierBulkOffsets.get(iterationMainSegmentsAreaOrTierBulk);
-                        long tierBaseAddr = tierAddr(tierBulkData,
-                                segmentIndexOrTierIndexOffsetWithinBulk);
-                        long tierCountersAreaAddr = tierBaseAddr + segmentHashLookupOuterSize;
-                        context.initSegmentIndex(
-                                TierCountersArea.segmentIndex(tierCountersAreaAddr));
-                        int tier = TierCountersArea.tier(tierCountersAreaAddr);
-                        long tierIndex = actualSegments +
-                                (iterationMainSegmentsAreaOrTierBulk << log2NumberOfTiersInBulk) +
-                                segmentIndexOrTierIndexOffsetWithinBulk + 1;
-                        context.initSegmentTier(tier, tierIndex, tierBaseAddr);
-                    }
+                    initTierOfPosition(context, position);
 
                     context.updateLock().lock();
 
@@ -786,6 +1091,111 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
             }
         }
 
+        /**
+         * Provides changed entries of each segment tier under a single update lock acquisition,
+         * rather than acquiring the lock for each entry, as {@link #nextEntry} does.
+         */
+        @Override
+        public int nextEntries(@NotNull EntryCallback entryCallback, int chronicleId,
+                               long maxBytes) {
+            int entries = 0;
+            long bytes = 0L;
+            while (true) {
+                long position = nextPosition();
+
+                if (position == NOT_FOUND) {
+                    this.position = NOT_FOUND;
+                    return entries;
+                }
+
+                final long tierBits = position >>> segmentIndexShift;
+                try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> context =
+                        iterationContext()) {
+                    initTierOfPosition(context, position);
+
+                    context.updateLock().lock();
+
+                    // drain changed entries of the tier, while holding the lock
+                    while (true) {
+                        this.position = position;
+                        if (changesForUpdatesGet(position)) {
+
+                            entryCallback.onBeforeEntry();
+
+                            final long segmentPos = position & posMask;
+                            context.readExistingEntry(segmentPos);
+
+                            if (entryCallback.shouldBeIgnored(context, chronicleId)) {
+                                changesForUpdatesClear(position);
+                            } else {
+                                final Bytes segmentBytes = context.segmentBytes();
+                                segmentBytes.limit(context.valueOffset() + context.valueSize());
+                                segmentBytes.position(context.keySizeOffset());
+                                final long entrySize = segmentBytes.remaining();
+                                boolean success = entryCallback.onEntry(
+                                        segmentBytes, chronicleId, bootStrapTimeStamp());
+                                entryCallback.onAfterEntry();
+
+                                // not successful if the buffer can not be re-sized, the entry
+                                // is processed later, so the change is NOT cleared
+                                if (!success)
+                                    return entries;
+
+                                changesForUpdatesClear(position);
+                                entries++;
+                                bytes += entrySize;
+                                if (bytes >= maxBytes)
+                                    return entries;
+                            }
+                        }
+                        position = nextChangedPositionInCurrentArea(position + 1);
+                        if (position == NOT_FOUND || (position >>> segmentIndexShift) != tierBits)
+                            break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Inits the {@code context} to the segment tier, the changes bit of the entry at the
+         * {@code position} in the currently iterated area belongs to.
+         */
+        private void initTierOfPosition(
+                CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> context,
+                long position) {
+            int segmentIndexOrTierIndexOffsetWithinBulk = (int) (position >>> segmentIndexShift);
+            if (iterationMainSegmentsAreaOrTierBulk < 0) {
+                // if main area
+                // segmentIndexOrTierIndexOffsetWithinBulk is segment index
+                context.initSegmentIndex(segmentIndexOrTierIndexOffsetWithinBulk);
+            } else {
+                // extra tiers
+                // segmentIndexOrTierIndexOffsetWithinBulk is tier index offset within bulk
+                TierBulkData tierBulkData =
+                        tierBulkOffsets.get(iterationMainSegmentsAreaOrTierBulk);
+                long tierBaseAddr = tierAddr(tierBulkData,
+                        segmentIndexOrTierIndexOffsetWithinBulk);
+                long tierCountersAreaAddr = tierBaseAddr + segmentHashLookupOuterSize;
+                context.initSegmentIndex(
+                        TierCountersArea.segmentIndex(tierCountersAreaAddr));
+                int tier = TierCountersArea.tier(tierCountersAreaAddr);
+                long tierIndex = actualSegments +
+                        (iterationMainSegmentsAreaOrTierBulk << log2NumberOfTiersInBulk) +
+                        segmentIndexOrTierIndexOffsetWithinBulk + 1;
+                context.initSegmentTier(tier, tierIndex, tierBaseAddr);
+            }
+        }
+
+        private long nextChangedPositionInCurrentArea(long fromPosition) {
+            if (iterationMainSegmentsAreaOrTierBulk < 0) {
+                return mainSegmentsModIterFrameForIteration.nextSetBit(nativeAccess(), null,
+                        mainSegmentsChangesBitSetAddr, fromPosition);
+            } else {
+                return tierBulkModIterFrameForIteration.nextSetBit(nativeAccess(), null,
+                        tierBulkBitSetAddr, fromPosition);
+            }
+        }
+
         private boolean changesForUpdatesGet(long position) {
             if (iterationMainSegmentsAreaOrTierBulk < 0) {
                 return mainSegmentsModIterFrameForUpdates.get(nativeAccess(), null,
@@ -824,30 +1234,46 @@ public class ReplicatedChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? sup
                          iterationContext()) {
                 // iterate over all the segments and mark bit in the modification iterator
                 // that correspond to entries with an older timestamp
-                boolean debugEnabled = LOG.isDebugEnabled();
                 for (int segmentIndex = 0; segmentIndex < actualSegments; segmentIndex++) {
-                    c.initSegmentIndex(segmentIndex);
-                    c.forEachSegmentReplicableEntry(e -> {
-                        if (debugEnabled) {
-                            LOG.debug("Bootstrap entry: id {}, key {}, value {}", localIdentifier,
-                                    c.key(), c.value());
-                        }
-                        // Bizarrely the next line line cause NPE in JDT compiler
-                        //assert re.originTimestamp() > 0L;
-                        if (debugEnabled) {
-                            LOG.debug("Bootstrap decision: bs ts: {}, entry ts: {}, " +
-                                            "entry id: {}, local id: {}",
-                                    fromTimeStamp, e.originTimestamp(),
-                                    e.originIdentifier(), localIdentifier);
-                        }
-                        if (e.originTimestamp() >= fromTimeStamp &&
-                                (!bootstrapOnlyLocalEntries ||
-                                        e.originIdentifier() == localIdentifier)) {
-                            raiseChange(c.tierIndex(), c.pos(), c.timestamp());
-                        }
-                    });
+                    dirtySegmentEntries(c, segmentIndex, fromTimeStamp);
                 }
             }
         }
+
+        @Override
+        public void dirtySegmentEntries(int segmentIndex, long fromTimeStamp) {
+            try (CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c =
+                         iterationContext()) {
+                dirtySegmentEntries(c, segmentIndex, fromTimeStamp);
+            }
+        }
+
+        private void dirtySegmentEntries(
+                CompiledReplicatedMapIterationContext<K, KI, MKI, V, VI, MVI, R> c,
+                int segmentIndex, long fromTimeStamp) {
+            boolean debugEnabled = LOG.isDebugEnabled();
+            c.initSegmentIndex(segmentIndex);
+            // tiers without entries updated since fromTimeStamp are skipped
+            c.forEachSegmentReplicableEntryWhile(fromTimeStamp, e -> {
+                if (debugEnabled) {
+                    LOG.debug("Bootstrap entry: id {}, key {}, value {}", localIdentifier,
+                            c.key(), c.value());
+                }
+                // Bizarrely the next line line cause NPE in JDT compiler
+                //assert re.originTimestamp() > 0L;
+                if (debugEnabled) {
+                    LOG.debug("Bootstrap decision: bs ts: {}, entry ts: {}, " +
+                                    "entry id: {}, local id: {}",
+                            fromTimeStamp, e.originTimestamp(),
+                            e.originIdentifier(), localIdentifier);
+                }
+                if (e.originTimestamp() >= fromTimeStamp &&
+                        (!bootstrapOnlyLocalEntries ||
+                                e.originIdentifier() == localIdentifier)) {
+                    raiseChange(c.tierIndex(), c.pos(), c.timestamp());
+                }
+                return true;
+            });
+        }
     }
 }
\ No newline at end of file
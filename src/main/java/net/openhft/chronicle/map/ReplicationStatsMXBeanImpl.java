@@ -0,0 +1,106 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicationStatsMXBean;
+
+class ReplicationStatsMXBeanImpl implements ReplicationStatsMXBean {
+
+    private final TcpReplicator<?, ?> replicator;
+    private final byte remoteIdentifier;
+
+    ReplicationStatsMXBeanImpl(TcpReplicator<?, ?> replicator, byte remoteIdentifier) {
+        this.replicator = replicator;
+        this.remoteIdentifier = remoteIdentifier;
+    }
+
+    @Override
+    public byte getRemoteIdentifier() {
+        return remoteIdentifier;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return replicator.replicationStats(remoteIdentifier).connected();
+    }
+
+    @Override
+    public long getOutstandingEntries() {
+        return replicator.replicationStats(remoteIdentifier).outstandingEntries();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return replicator.replicationStats(remoteIdentifier).bytesSent();
+    }
+
+    @Override
+    public long getEntriesSent() {
+        return replicator.replicationStats(remoteIdentifier).entriesSent();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return replicator.replicationStats(remoteIdentifier).bytesReceived();
+    }
+
+    @Override
+    public long getEntriesReceived() {
+        return replicator.replicationStats(remoteIdentifier).entriesReceived();
+    }
+
+    @Override
+    public long getBytesSentPerSecond() {
+        return replicator.replicationStats(remoteIdentifier).bytesSentPerSecond();
+    }
+
+    @Override
+    public long getEntriesSentPerSecond() {
+        return replicator.replicationStats(remoteIdentifier).entriesSentPerSecond();
+    }
+
+    @Override
+    public long getBytesReceivedPerSecond() {
+        return replicator.replicationStats(remoteIdentifier).bytesReceivedPerSecond();
+    }
+
+    @Override
+    public long getEntriesReceivedPerSecond() {
+        return replicator.replicationStats(remoteIdentifier).entriesReceivedPerSecond();
+    }
+
+    @Override
+    public long getMillisSinceLastReceived() {
+        return replicator.replicationStats(remoteIdentifier).millisSinceLastReceived();
+    }
+
+    @Override
+    public long getAverageApplyLatencyMillis() {
+        return replicator.replicationStats(remoteIdentifier).averageApplyLatencyMillis();
+    }
+
+    @Override
+    public long getMaxApplyLatencyMillis() {
+        return replicator.replicationStats(remoteIdentifier).maxApplyLatencyMillis();
+    }
+
+    @Override
+    public long getThrottleStallMillis() {
+        return replicator.replicationStats(remoteIdentifier).throttleStallMillis();
+    }
+}
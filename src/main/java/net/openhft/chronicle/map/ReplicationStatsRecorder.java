@@ -0,0 +1,212 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.chronicle.hash.replication.ReplicationStats;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates stats of replication between a replicator and each remote node, indexed by
+ * identifiers of remote nodes. Counters of bytes and sent entries are updated by the replicator's
+ * thread, counters of received entries by threads, which apply entries, stats are read by any
+ * thread.
+ */
+final class ReplicationStatsRecorder {
+
+    private static final int IDENTIFIERS = Byte.MAX_VALUE + 1;
+    private static final long RATE_INTERVAL_MILLIS = 1000L;
+
+    private final AtomicLongArray bytesSent = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray entriesSent = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray bytesReceived = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray entriesReceived = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray applyLatencySum = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray maxApplyLatency = new AtomicLongArray(IDENTIFIERS);
+    private final AtomicLongArray throttleStall = new AtomicLongArray(IDENTIFIERS);
+
+    // rates over the last second, in units per second, stored in the order of counters above
+    private final AtomicLongArray rates = new AtomicLongArray(4 * IDENTIFIERS);
+    // values of counters at the last rates update, accessed only by the replicator's thread
+    private final long[] lastCounters = new long[4 * IDENTIFIERS];
+    private long lastRatesUpdateTime = System.currentTimeMillis();
+
+    void onBytesSent(byte remoteIdentifier, long bytes) {
+        if (remoteIdentifier >= 0)
+            bytesSent.addAndGet(remoteIdentifier, bytes);
+    }
+
+    void onEntriesSent(byte remoteIdentifier, long entries) {
+        if (remoteIdentifier >= 0)
+            entriesSent.addAndGet(remoteIdentifier, entries);
+    }
+
+    void onBytesReceived(byte remoteIdentifier, long bytes) {
+        if (remoteIdentifier >= 0)
+            bytesReceived.addAndGet(remoteIdentifier, bytes);
+    }
+
+    /**
+     * @param originIdentifier the identifier of the node, on which the entry was updated
+     * @param applyLatency     millis from the update of the entry on the origin node to applying
+     *                         it on this node
+     */
+    void onEntryReceived(byte originIdentifier, long applyLatency) {
+        if (originIdentifier < 0)
+            return;
+        entriesReceived.incrementAndGet(originIdentifier);
+        // clocks of the nodes could diverge
+        if (applyLatency < 0L)
+            applyLatency = 0L;
+        applyLatencySum.addAndGet(originIdentifier, applyLatency);
+        for (long max; applyLatency > (max = maxApplyLatency.get(originIdentifier)); ) {
+            if (maxApplyLatency.compareAndSet(originIdentifier, max, applyLatency))
+                break;
+        }
+    }
+
+    void onThrottleStall(byte remoteIdentifier, long stalledMillis) {
+        if (remoteIdentifier >= 0)
+            throttleStall.addAndGet(remoteIdentifier, stalledMillis);
+    }
+
+    /**
+     * Updates rates, if a second has passed since the last update. Called by the replicator's
+     * thread.
+     */
+    void updateRates(long approxTime) {
+        final long interval = approxTime - lastRatesUpdateTime;
+        if (interval < RATE_INTERVAL_MILLIS)
+            return;
+        lastRatesUpdateTime = approxTime;
+        updateRates(bytesSent, 0, interval);
+        updateRates(entriesSent, IDENTIFIERS, interval);
+        updateRates(bytesReceived, 2 * IDENTIFIERS, interval);
+        updateRates(entriesReceived, 3 * IDENTIFIERS, interval);
+    }
+
+    private void updateRates(AtomicLongArray counters, int ratesOffset, long interval) {
+        for (int i = 0; i < IDENTIFIERS; i++) {
+            final long counter = counters.get(i);
+            final int index = ratesOffset + i;
+            rates.lazySet(index, (counter - lastCounters[index]) * 1000L / interval);
+            lastCounters[index] = counter;
+        }
+    }
+
+    /**
+     * @param connected              whether the remote node is currently connected
+     * @param outstandingEntries     changed entries, not yet sent to the remote node, or {@code -1}
+     * @param millisSinceLastReceived millis since anything was received from the remote node, or
+     *                               {@code -1} if not connected
+     */
+    @NotNull
+    ReplicationStats stats(byte remoteIdentifier, boolean connected, long outstandingEntries,
+                           long millisSinceLastReceived) {
+        final int id = remoteIdentifier;
+        final long entriesReceived = this.entriesReceived.get(id);
+        return new ReplicationStats(remoteIdentifier, connected, outstandingEntries,
+                bytesSent.get(id), entriesSent.get(id),
+                bytesReceived.get(id), entriesReceived,
+                rates.get(id), rates.get(IDENTIFIERS + id),
+                rates.get(2 * IDENTIFIERS + id), rates.get(3 * IDENTIFIERS + id),
+                millisSinceLastReceived,
+                entriesReceived > 0L ? applyLatencySum.get(id) / entriesReceived : 0L,
+                maxApplyLatency.get(id), throttleStall.get(id));
+    }
+
+    /**
+     * Returns whether anything was ever exchanged with the remote node.
+     */
+    boolean hasStats(byte remoteIdentifier) {
+        final int id = remoteIdentifier;
+        return bytesSent.get(id) != 0L || bytesReceived.get(id) != 0L ||
+                entriesReceived.get(id) != 0L;
+    }
+
+    /**
+     * Decorates the externalizable, which applies entries, received by the replicator, to record
+     * entries received from each origin node and latency of applying them. Origin timestamps of
+     * entries are compared with the system time, i. e. the default {@code TimeProvider} is
+     * assumed.
+     */
+    @NotNull
+    Replica.EntryExternalizable recording(
+            @NotNull final Replica.EntryExternalizable externalizable) {
+        return new Replica.EntryExternalizable() {
+            // entries could be applied by several threads, see ParallelEntryApplier
+            private final ThreadLocal<Replica.ExternalEntryLayout> layouts =
+                    new ThreadLocal<Replica.ExternalEntryLayout>() {
+                        @Override
+                        protected Replica.ExternalEntryLayout initialValue() {
+                            return new Replica.ExternalEntryLayout();
+                        }
+                    };
+
+            @Override
+            public int sizeOfEntry(@NotNull Bytes entry, int chronicleId) {
+                return externalizable.sizeOfEntry(entry, chronicleId);
+            }
+
+            @Override
+            public boolean identifierCheck(@NotNull ReplicableEntry entry, int chronicleId) {
+                return externalizable.identifierCheck(entry, chronicleId);
+            }
+
+            @Override
+            public void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                           int chronicleId, long bootstrapTime) {
+                externalizable.writeExternalEntry(entry, destination, chronicleId,
+                        bootstrapTime);
+            }
+
+            @Override
+            public boolean writeExternalEntryDeferringValue(
+                    @NotNull Bytes entry, @NotNull Bytes destination, int chronicleId,
+                    long bootstrapTime, @NotNull Replica.DeferredValue deferredValue) {
+                return externalizable.writeExternalEntryDeferringValue(entry, destination,
+                        chronicleId, bootstrapTime, deferredValue);
+            }
+
+            @Override
+            public boolean externalEntryLayout(@NotNull Bytes source,
+                                               @NotNull Replica.ExternalEntryLayout layout) {
+                return externalizable.externalEntryLayout(source, layout);
+            }
+
+            @Override
+            public long externalEntryOrderingKey(@NotNull Bytes source) {
+                return externalizable.externalEntryOrderingKey(source);
+            }
+
+            @Override
+            public void readExternalEntry(@NotNull Bytes source) {
+                final Replica.ExternalEntryLayout layout = layouts.get();
+                final boolean known = externalizable.externalEntryLayout(source, layout);
+                externalizable.readExternalEntry(source);
+                if (known) {
+                    onEntryReceived(layout.identifier,
+                            System.currentTimeMillis() - layout.timestamp);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.hashing.LongHashFunction;
+import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static net.openhft.chronicle.map.AbstractChannelReplicator.SIZE_OF_SIZE;
+import static net.openhft.chronicle.map.AbstractChannelReplicator.STATEFUL_UPDATE;
+
+/**
+ * Wire format of entries, sent by {@link TcpReplicator}, negotiated by the connected nodes during
+ * hand shaking. If no features are enabled on both nodes, each entry is sent in a separate
+ * {@code STATEFUL_UPDATE} frame, as written by {@link Replica.EntryExternalizable}. Otherwise
+ * entries, written to the socket buffer in one go, are re-encoded to {@link #BATCH_UPDATE}
+ * frames:
+ * <pre>
+ * batch  := BATCH_UPDATE, int size, byte batchFlags, long bootstrapTimestamp,
+ *           [stopBit bodyLength, if COMPRESSED], body (deflated, if COMPRESSED)
+ * body   := entry*
+ * entry  := byte kind, stopBit prefixLength, [stopBit timestampOffset, if TIMESTAMP_STRIPPED],
+ *           [stopBit keyOffset, keySize, valueOffset, valueSize + 1, if CACHED],
+ *           prefix, [stopBit deltaLength, delta, if VALUE_DELTA]
+ * </pre>
+ * The prefix is the entry without the bootstrap timestamp, if it is stripped, and without the
+ * value, if it is sent as a delta. The delta is the XOR of the value and the value of the same
+ * key, cached by both sides of the connection, encoded as alternating runs of zero and literal
+ * bytes.
+ *
+ * <p>The byte of enabled features is exchanged during hand shaking only if both nodes are of
+ * {@link #FIRST_VERSION} or later, nodes of earlier versions neither send nor expect it. With such
+ * nodes no features are used.
+ */
+final class ReplicationWireFormat {
+
+    /**
+     * The first version of Chronicle Map, which exchanges the wire format during hand shaking
+     */
+    static final int[] FIRST_VERSION = {3, 2, 0};
+
+    static final int BATCH_BOOTSTRAP_TIMESTAMPS = 1;
+    static final int COMPRESSION = 1 << 1;
+    static final int VALUE_DELTAS = 1 << 2;
+    /**
+     * Not a feature of the entries encoding, see {@link AntiEntropy}
+     */
+    static final int ANTI_ENTROPY = 1 << 3;
+    /**
+     * Not a feature of the entries encoding, see {@link SnapshotBootstrap}
+     */
+    static final int SNAPSHOT_BOOTSTRAP = 1 << 4;
+    static final int ENTRY_FEATURES = BATCH_BOOTSTRAP_TIMESTAMPS | COMPRESSION | VALUE_DELTAS;
+
+    static final byte BATCH_UPDATE = 2;
+
+    // batch flags
+    private static final byte COMPRESSED = 1;
+
+    // entry kinds
+    private static final byte TIMESTAMP_STRIPPED = 1;
+    private static final byte CACHED = 1 << 1;
+    private static final byte VALUE_DELTA = 1 << 2;
+
+    private static final int MIN_COMPRESSED_BODY_LENGTH = 64;
+
+    private ReplicationWireFormat() {
+    }
+
+    /**
+     * Checks if both nodes, of the given versions, exchange the wire format during hand shaking.
+     * Gives the same result on both sides of a connection.
+     */
+    static boolean exchangedBetween(@Nullable String localVersion,
+                                    @Nullable String remoteVersion) {
+        return supportedBy(localVersion) && supportedBy(remoteVersion);
+    }
+
+    /**
+     * @param version the version of Chronicle Map, like {@code 3.2.0-beta-SNAPSHOT}
+     * @return if the major, minor and patch numbers of the version are not less than of {@link
+     * #FIRST_VERSION}, {@code false} if the version is not known or can't be parsed
+     */
+    static boolean supportedBy(@Nullable String version) {
+        if (version == null)
+            return false;
+        String[] parts = version.trim().split("[.\\-]", FIRST_VERSION.length + 1);
+        if (parts.length < FIRST_VERSION.length)
+            return false;
+        try {
+            for (int i = 0; i < FIRST_VERSION.length; i++) {
+                int number = Integer.parseInt(parts[i]);
+                if (number != FIRST_VERSION[i])
+                    return number > FIRST_VERSION[i];
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static int of(TcpTransportAndNetworkConfig config) {
+        return (config.batchBootstrapTimestamps() ? BATCH_BOOTSTRAP_TIMESTAMPS : 0) |
+                (config.compression() ? COMPRESSION : 0) |
+                (config.valueDeltas() ? VALUE_DELTAS : 0) |
+                (config.antiEntropyInterval(TimeUnit.MILLISECONDS) > 0 ? ANTI_ENTROPY : 0) |
+                (config.snapshotBootstrap() ? SNAPSHOT_BOOTSTRAP : 0);
+    }
+
+    /**
+     * Re-encodes {@code STATEFUL_UPDATE} frames to {@code BATCH_UPDATE} frames on the sending
+     * side of a connection.
+     */
+    static final class Encoder {
+        private final int wireFormat;
+        private final Replica.EntryExternalizable externalizable;
+        private final Replica.ExternalEntryLayout layout = new Replica.ExternalEntryLayout();
+        @Nullable
+        private final ValueCache cache;
+        @Nullable
+        private final Deflater deflater;
+        private final GrowableBuffer frames = new GrowableBuffer(1024);
+        private final GrowableBuffer body = new GrowableBuffer(1024);
+        private final GrowableBuffer delta = new GrowableBuffer(256);
+        private byte[] compressed = new byte[1024];
+        private long batchTimestamp;
+
+        Encoder(int wireFormat, @NotNull Replica.EntryExternalizable externalizable) {
+            this.wireFormat = wireFormat;
+            this.externalizable = externalizable;
+            cache = (wireFormat & VALUE_DELTAS) != 0 ? new ValueCache() : null;
+            deflater = (wireFormat & COMPRESSION) != 0 ?
+                    new Deflater(Deflater.BEST_SPEED) : null;
+        }
+
+        /**
+         * Encodes frames in the {@code buffer} between {@code batchStart} and the buffer's
+         * position.
+         *
+         * @return encoded frames, from zero position to the limit
+         */
+        Bytes encode(@NotNull Bytes buffer, long batchStart) {
+            final long end = buffer.position();
+            frames.clear();
+            body.clear();
+            try {
+                for (long pos = batchStart; pos < end; ) {
+                    final byte state = buffer.readByte(pos);
+                    if (state != STATEFUL_UPDATE)
+                        throw new IllegalStateException("Unexpected frame state=" + state);
+                    final long entryStart = pos + 1 + SIZE_OF_SIZE;
+                    final long entryEnd = entryStart + buffer.readInt(pos + 1);
+                    encodeEntry(buffer, entryStart, entryEnd);
+                    pos = entryEnd;
+                }
+                flushBatch();
+            } finally {
+                buffer.position(end);
+            }
+            Bytes result = frames.bytes;
+            result.limit(result.position());
+            result.position(0);
+            return result;
+        }
+
+        private void encodeEntry(Bytes buffer, long entryStart, long entryEnd) {
+            delta.clear();
+            buffer.position(entryStart);
+            final boolean layoutKnown = (wireFormat & (BATCH_BOOTSTRAP_TIMESTAMPS | VALUE_DELTAS))
+                    != 0 && externalizable.externalEntryLayout(buffer, layout);
+
+            long timestampOffset = -1L;
+            if (layoutKnown && (wireFormat & BATCH_BOOTSTRAP_TIMESTAMPS) != 0) {
+                final long timestamp = buffer.readLong(layout.bootstrapTimestampPosition);
+                if (timestamp != batchTimestamp)
+                    flushBatch();
+                batchTimestamp = timestamp;
+                timestampOffset = layout.bootstrapTimestampPosition - entryStart;
+            }
+
+            byte kind = timestampOffset >= 0 ? TIMESTAMP_STRIPPED : 0;
+            long prefixEnd = entryEnd;
+            int keySize = (int) layout.keySize;
+            int valueSize = (int) layout.valueSize;
+            int slot = -1;
+            if (layoutKnown && cache != null && keySize <= ValueCache.MAX_KEY_SIZE) {
+                kind |= CACHED;
+                buffer.position(layout.keyPosition);
+                slot = cache.readKey(buffer, keySize);
+                if (valueSize >= 0 && valueSize <= ValueCache.MAX_VALUE_SIZE) {
+                    buffer.position(layout.valuePosition);
+                    byte[] value = cache.readValue(buffer, valueSize);
+                    if (layout.valuePosition + valueSize == entryEnd &&
+                            cache.containsValue(slot, valueSize) &&
+                            writeDelta(cache.value(slot), value, valueSize, delta) < valueSize) {
+                        kind |= VALUE_DELTA;
+                        prefixEnd = layout.valuePosition;
+                    }
+                    cache.put(slot, value, valueSize);
+                } else {
+                    valueSize = -1;
+                    cache.remove(slot);
+                }
+            }
+
+            long prefixLength = prefixEnd - entryStart - (timestampOffset >= 0 ? 8L : 0L);
+            Bytes b = body.ensureRemaining(prefixLength + delta.bytes.position() + 64L);
+            b.writeByte(kind);
+            b.writeStopBit(prefixLength);
+            if ((kind & TIMESTAMP_STRIPPED) != 0)
+                b.writeStopBit(timestampOffset);
+            if ((kind & CACHED) != 0) {
+                b.writeStopBit(layout.keyPosition - entryStart);
+                b.writeStopBit(keySize);
+                b.writeStopBit(layout.valuePosition - entryStart);
+                b.writeStopBit(valueSize + 1L);
+            }
+            if ((kind & TIMESTAMP_STRIPPED) != 0) {
+                long timestampPosition = layout.bootstrapTimestampPosition;
+                b.write(buffer, entryStart, timestampPosition - entryStart);
+                b.write(buffer, timestampPosition + 8L, prefixEnd - timestampPosition - 8L);
+            } else {
+                b.write(buffer, entryStart, prefixEnd - entryStart);
+            }
+            if ((kind & VALUE_DELTA) != 0) {
+                b.writeStopBit(delta.bytes.position());
+                b.write(delta.bytes, 0L, delta.bytes.position());
+            }
+        }
+
+        private void flushBatch() {
+            final int bodyLength = (int) body.bytes.position();
+            if (bodyLength == 0)
+                return;
+            final int compressedLength = compressBody(bodyLength);
+            final boolean bodyCompressed = compressedLength > 0;
+            Bytes f = frames.ensureRemaining(
+                    (bodyCompressed ? compressedLength : bodyLength) + 32L);
+            f.writeByte(BATCH_UPDATE);
+            final long sizePosition = f.position();
+            f.skip(SIZE_OF_SIZE);
+            final long start = f.position();
+            f.writeByte(bodyCompressed ? COMPRESSED : 0);
+            f.writeLong(batchTimestamp);
+            if (bodyCompressed) {
+                f.writeStopBit(bodyLength);
+                f.write(compressed, 0, compressedLength);
+            } else {
+                f.write(body.bytes, 0L, bodyLength);
+            }
+            f.writeInt(sizePosition, (int) (f.position() - start));
+            body.clear();
+        }
+
+        /**
+         * @return the length of the compressed body, or 0 if the body shouldn't be compressed
+         */
+        private int compressBody(int bodyLength) {
+            if (deflater == null || bodyLength < MIN_COMPRESSED_BODY_LENGTH)
+                return 0;
+            if (compressed.length < bodyLength)
+                compressed = new byte[bodyLength];
+            deflater.reset();
+            deflater.setInput(body.array(), 0, bodyLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < bodyLength)
+                length += deflater.deflate(compressed, length, bodyLength - length);
+            // not worth sending compressed, if it doesn't fit into the uncompressed length
+            return deflater.finished() && length < bodyLength ? length : 0;
+        }
+    }
+
+    /**
+     * Decodes {@code BATCH_UPDATE} frames on the receiving side of a connection.
+     */
+    static final class Decoder {
+        @Nullable
+        private final ValueCache cache;
+        @Nullable
+        private final Inflater inflater;
+        private final GrowableBuffer inflated = new GrowableBuffer(1024);
+        private final GrowableBuffer entry = new GrowableBuffer(256);
+        private byte[] compressed = new byte[1024];
+
+        Decoder(int wireFormat) {
+            cache = (wireFormat & VALUE_DELTAS) != 0 ? new ValueCache() : null;
+            inflater = (wireFormat & COMPRESSION) != 0 ? new Inflater() : null;
+        }
+
+        /**
+         * Decodes entries of the {@code BATCH_UPDATE} frame, from the position of the {@code
+         * source} to its limit, and passes them to the {@code externalizable}.
+         */
+        void decode(@NotNull Bytes source, @NotNull Replica.EntryExternalizable externalizable) {
+            final byte batchFlags = source.readByte();
+            final long batchTimestamp = source.readLong();
+            Bytes body = (batchFlags & COMPRESSED) != 0 ? inflate(source) : source;
+            while (body.remaining() > 0) {
+                Bytes e = decodeEntry(body, batchTimestamp);
+                externalizable.readExternalEntry(e);
+            }
+        }
+
+        private Bytes inflate(Bytes source) {
+            if (inflater == null)
+                throw new IllegalStateException("Compression was not negotiated");
+            final int bodyLength = (int) source.readStopBit();
+            final int compressedLength = (int) source.remaining();
+            if (compressed.length < compressedLength)
+                compressed = new byte[compressedLength];
+            source.readFully(compressed, 0, compressedLength);
+            inflated.clear();
+            inflated.ensureRemaining(bodyLength);
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                int length = 0;
+                while (length < bodyLength) {
+                    int inflatedBytes = inflater.inflate(inflated.array(), length,
+                            bodyLength - length);
+                    if (inflatedBytes == 0 && (inflater.finished() || inflater.needsInput()))
+                        throw new IllegalStateException("Truncated compressed batch");
+                    length += inflatedBytes;
+                }
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException(ex);
+            }
+            Bytes result = inflated.bytes;
+            result.position(0);
+            result.limit(bodyLength);
+            return result;
+        }
+
+        private Bytes decodeEntry(Bytes body, long batchTimestamp) {
+            final byte kind = body.readByte();
+            final long prefixLength = body.readStopBit();
+            final long timestampOffset =
+                    (kind & TIMESTAMP_STRIPPED) != 0 ? body.readStopBit() : -1L;
+            long keyOffset = 0L, valueOffset = 0L;
+            int keySize = 0, valueSize = -1;
+            if ((kind & CACHED) != 0) {
+                keyOffset = body.readStopBit();
+                keySize = (int) body.readStopBit();
+                valueOffset = body.readStopBit();
+                valueSize = (int) body.readStopBit() - 1;
+            }
+
+            entry.clear();
+            Bytes e = entry.ensureRemaining(prefixLength + 8L + Math.max(valueSize, 0));
+            final long prefixStart = body.position();
+            if (timestampOffset >= 0) {
+                e.write(body, prefixStart, timestampOffset);
+                e.writeLong(batchTimestamp);
+                e.write(body, prefixStart + timestampOffset, prefixLength - timestampOffset);
+            } else {
+                e.write(body, prefixStart, prefixLength);
+            }
+            body.position(prefixStart + prefixLength);
+
+            if ((kind & CACHED) != 0) {
+                if (cache == null)
+                    throw new IllegalStateException("Value deltas were not negotiated");
+                final long end = e.position();
+                e.position(keyOffset);
+                int slot = cache.readKey(e, keySize);
+                if ((kind & VALUE_DELTA) != 0) {
+                    if (!cache.containsValue(slot, valueSize))
+                        throw new IllegalStateException("Base value of the delta is missing");
+                    byte[] value = cache.value(slot);
+                    readDelta(body, value, valueSize);
+                    e.position(end);
+                    e.write(value, 0, valueSize);
+                } else if (valueSize >= 0) {
+                    e.position(valueOffset);
+                    cache.put(slot, cache.readValue(e, valueSize), valueSize);
+                    e.position(end);
+                } else {
+                    cache.remove(slot);
+                    e.position(end);
+                }
+            }
+            e.limit(e.position());
+            e.position(0L);
+            return e;
+        }
+    }
+
+    /**
+     * Writes XOR of the {@code value} and the {@code base} as alternating runs of zero and literal
+     * bytes: stopBit zeroRunLength, stopBit literalRunLength, literal bytes, ...
+     *
+     * @return the length of the encoded delta
+     */
+    static long writeDelta(byte[] base, byte[] value, int size, GrowableBuffer out) {
+        Bytes b = out.ensureRemaining(size * 3L / 2L + 16L);
+        final long start = b.position();
+        for (int i = 0; i < size; ) {
+            int zeroRunStart = i;
+            while (i < size && base[i] == value[i])
+                i++;
+            b.writeStopBit(i - zeroRunStart);
+            if (i == size)
+                break;
+            int literalRunStart = i;
+            while (i < size && base[i] != value[i])
+                i++;
+            b.writeStopBit(i - literalRunStart);
+            for (int j = literalRunStart; j < i; j++) {
+                b.writeByte(base[j] ^ value[j]);
+            }
+        }
+        return b.position() - start;
+    }
+
+    /**
+     * Applies the delta, written by {@link #writeDelta}, to the {@code base} in place.
+     */
+    static void readDelta(Bytes delta, byte[] base, int size) {
+        final long deltaLength = delta.readStopBit();
+        final long deltaEnd = delta.position() + deltaLength;
+        for (int i = 0; i < size; ) {
+            i += (int) delta.readStopBit();
+            if (i == size)
+                break;
+            int literalRunEnd = i + (int) delta.readStopBit();
+            if (literalRunEnd > size)
+                throw new IllegalStateException("Corrupted value delta");
+            for (; i < literalRunEnd; i++) {
+                base[i] ^= delta.readByte();
+            }
+        }
+        if (delta.position() != deltaEnd)
+            throw new IllegalStateException("Corrupted value delta");
+    }
+
+    /**
+     * Values of recently sent keys, one per slot, selected by the key's hash. Updated
+     * identically on both sides of a connection, because the sender tells the receiver which
+     * entries to cache. Retains at most {@code SLOTS * (MAX_KEY_SIZE + MAX_VALUE_SIZE)} bytes.
+     */
+    static final class ValueCache {
+        static final int SLOTS = 512;
+        static final int MAX_KEY_SIZE = 1024;
+        static final int MAX_VALUE_SIZE = 16 * 1024;
+
+        private final byte[][] keys = new byte[SLOTS][];
+        private final int[] keySizes = new int[SLOTS];
+        private final byte[][] values = new byte[SLOTS][];
+        private final int[] valueSizes = new int[SLOTS];
+        private byte[] key = new byte[64];
+        private int keySize;
+        private byte[] value = new byte[256];
+
+        /**
+         * Reads the key of the current entry from the {@code source}.
+         *
+         * @return the slot of the key
+         */
+        int readKey(Bytes source, int keySize) {
+            if (key.length < keySize)
+                key = new byte[keySize];
+            source.readFully(key, 0, keySize);
+            this.keySize = keySize;
+            return (int) LongHashFunction.city_1_1().hashBytes(key, 0, keySize) & (SLOTS - 1);
+        }
+
+        byte[] readValue(Bytes source, int valueSize) {
+            if (value.length < valueSize)
+                value = new byte[valueSize];
+            source.readFully(value, 0, valueSize);
+            return value;
+        }
+
+        /**
+         * Checks if the slot holds a value of the given size, cached for the current key.
+         */
+        boolean containsValue(int slot, int valueSize) {
+            byte[] slotKey = keys[slot];
+            if (slotKey == null || keySizes[slot] != keySize || valueSizes[slot] != valueSize)
+                return false;
+            for (int i = 0; i < keySize; i++) {
+                if (slotKey[i] != key[i])
+                    return false;
+            }
+            return true;
+        }
+
+        byte[] value(int slot) {
+            return values[slot];
+        }
+
+        /**
+         * Caches the value for the current key. The {@code value} array could be the array of
+         * the slot's value itself.
+         */
+        void put(int slot, byte[] value, int valueSize) {
+            if (keys[slot] == null || keys[slot].length < keySize)
+                keys[slot] = new byte[Math.max(keySize, 16)];
+            System.arraycopy(key, 0, keys[slot], 0, keySize);
+            keySizes[slot] = keySize;
+            if (values[slot] != value) {
+                if (values[slot] == null || values[slot].length < valueSize)
+                    values[slot] = new byte[Math.max(valueSize, 16)];
+                System.arraycopy(value, 0, values[slot], 0, valueSize);
+            }
+            valueSizes[slot] = valueSize;
+        }
+
+        void remove(int slot) {
+            keys[slot] = null;
+            values[slot] = null;
+        }
+    }
+
+    /**
+     * Heap buffer, growing on demand, which exposes its backing array for compression.
+     */
+    static final class GrowableBuffer {
+        private ByteBuffer buffer;
+        Bytes bytes;
+
+        GrowableBuffer(int capacity) {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.nativeOrder());
+            bytes = new ByteBufferBytes(buffer);
+        }
+
+        void clear() {
+            bytes.clear();
+        }
+
+        /**
+         * Grows the buffer, if needed, so that at least {@code required} bytes could be written
+         * from the current position. Preserves the contents before the position.
+         */
+        Bytes ensureRemaining(long required) {
+            if (bytes.remaining() < required) {
+                long newCapacity = Math.max(bytes.capacity() * 2L, bytes.position() + required);
+                if (newCapacity > Integer.MAX_VALUE)
+                    throw new IllegalStateException("Replication batch is too large");
+                ByteBuffer newBuffer =
+                        ByteBuffer.allocate((int) newCapacity).order(ByteOrder.nativeOrder());
+                Bytes newBytes = new ByteBufferBytes(newBuffer);
+                long position = bytes.position();
+                newBytes.write(bytes, 0L, position);
+                buffer = newBuffer;
+                bytes = newBytes;
+            }
+            return bytes;
+        }
+
+        byte[] array() {
+            return buffer.array();
+        }
+    }
+}
@@ -118,11 +118,14 @@ final class Replicators {
 
                 TcpTransportAndNetworkConfig tcpConfig = replication.tcpTransportAndNetwork();
 
-                return new TcpReplicator(replica, entryExternalizable,
+                TcpReplicator tcpReplicator = new TcpReplicator(replica, entryExternalizable,
                         tcpConfig,
                         replication.remoteNodeValidator(),
                         replication.name(),
                         replication.connectionListener());
+                if (replicatedMap != null)
+                    replicatedMap.addTcpReplicator(tcpReplicator);
+                return tcpReplicator;
             }
         };
     }
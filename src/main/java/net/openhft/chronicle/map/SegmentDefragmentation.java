@@ -0,0 +1,97 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.map.impl.IterationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background service, which defragments entry space of segments: moves entries to the lowest free
+ * positions in their tiers, so that free space, left by removed and relocated entries, gathers at
+ * the ends of tiers and could be allocated for large entries again. Each segment is defragmented
+ * incrementally, holding the segment write lock for at most a short time slice at once, so that
+ * concurrent queries to the segment are not blocked for long.
+ */
+public class SegmentDefragmentation implements Runnable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentDefragmentation.class);
+
+    static final long DEFAULT_SLICE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> map;
+    private final long defragmentationInterval;
+    private final TimeUnit defragmentationIntervalUnit;
+    private final long sliceNanos;
+    private volatile boolean shutdown;
+    private volatile Thread runnerThread;
+
+    public SegmentDefragmentation(VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> map,
+                                  long defragmentationInterval,
+                                  TimeUnit defragmentationIntervalUnit, long sliceNanos) {
+        this.map = map;
+        this.defragmentationInterval = defragmentationInterval;
+        this.defragmentationIntervalUnit = defragmentationIntervalUnit;
+        this.sliceNanos = sliceNanos;
+    }
+
+    @Override
+    public void run() {
+        runnerThread = Thread.currentThread();
+        while (!shutdown) {
+            long nextPassTime = System.nanoTime() +
+                    defragmentationIntervalUnit.toNanos(defragmentationInterval);
+            for (int segmentIndex = 0; segmentIndex < map.segments() && !shutdown;
+                 segmentIndex++) {
+                int slices = defragmentSegment(segmentIndex);
+                LOG.debug("Defragmented the segment {} in {} slices", segmentIndex, slices);
+            }
+            long remaining;
+            while ((remaining = nextPassTime - System.nanoTime()) > 0 && !shutdown)
+                LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * @return the number of time slices, in which the segment is defragmented
+     */
+    int defragmentSegment(int segmentIndex) {
+        long cursor = 0L;
+        int slices = 0;
+        do {
+            try (MapSegmentContext<?, ?, ?> context = map.segmentContext(segmentIndex)) {
+                cursor = ((IterationContext<?, ?, ?>) context)
+                        .defragment(cursor, System.nanoTime() + sliceNanos);
+            }
+            slices++;
+            // let other threads take the segment lock between slices
+            Thread.yield();
+        } while (cursor >= 0 && !shutdown);
+        return slices;
+    }
+
+    @Override
+    public void close() {
+        shutdown = true;
+        Thread runnerThread = this.runnerThread;
+        if (runnerThread != null)
+            LockSupport.unpark(runnerThread);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.map.impl.IterationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background service, which repacks chains of tiers of segments: moves entries from the last tiers
+ * to the free space in the earlier tiers, and returns emptied tiers to the free tiers list. After
+ * that lookups in the segment need to walk a shorter chain of tiers. Segments are repacked
+ * periodically, with the configured compaction interval. Each segment is repacked incrementally,
+ * holding the segment write lock for at most a short time slice at once, like {@link
+ * SegmentDefragmentation} does.
+ */
+public class SegmentTiersCompaction implements Runnable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentTiersCompaction.class);
+
+    private final VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> map;
+    private final long compactionInterval;
+    private final TimeUnit compactionIntervalUnit;
+    private final long sliceNanos;
+    private volatile boolean shutdown;
+    private volatile Thread runnerThread;
+
+    public SegmentTiersCompaction(VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> map,
+                                  long compactionInterval, TimeUnit compactionIntervalUnit,
+                                  long sliceNanos) {
+        this.map = map;
+        this.compactionInterval = compactionInterval;
+        this.compactionIntervalUnit = compactionIntervalUnit;
+        this.sliceNanos = sliceNanos;
+    }
+
+    @Override
+    public void run() {
+        runnerThread = Thread.currentThread();
+        while (!shutdown) {
+            compactAllSegments();
+            sleepNanos(compactionIntervalUnit.toNanos(compactionInterval));
+        }
+    }
+
+    private void compactAllSegments() {
+        for (int segmentIndex = 0; segmentIndex < map.segments() && !shutdown;
+             segmentIndex++) {
+            int slices = compactSegment(segmentIndex);
+            LOG.debug("Compacted tiers of the segment {} in {} slices", segmentIndex, slices);
+        }
+    }
+
+    /**
+     * @return the number of time slices, in which tiers of the segment are compacted
+     */
+    int compactSegment(int segmentIndex) {
+        long cursor = 0L;
+        int slices = 0;
+        do {
+            try (MapSegmentContext<?, ?, ?> context = map.segmentContext(segmentIndex)) {
+                cursor = ((IterationContext<?, ?, ?>) context)
+                        .compactTiers(cursor, System.nanoTime() + sliceNanos);
+            }
+            slices++;
+            // let other threads take the segment lock between slices
+            Thread.yield();
+        } while (cursor >= 0 && !shutdown);
+        return slices;
+    }
+
+    private void sleepNanos(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !shutdown)
+            LockSupport.parkNanos(this, remaining);
+    }
+
+    @Override
+    public void close() {
+        shutdown = true;
+        Thread runnerThread = this.runnerThread;
+        if (runnerThread != null)
+            LockSupport.unpark(runnerThread);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Iterates entries of a range of segments of a {@code ChronicleMap} in a {@link ForkJoinPool},
+ * splitting the range in halves down to single segments, each locked by the worker which
+ * traverses it. Once the predicate returns {@code false} for some entry, segments which are not
+ * yet started are skipped, and traversals of other segments stop before the next entry.
+ */
+final class SegmentsIterationTask<K, V> extends RecursiveTask<Boolean> {
+    private final AbstractChronicleMap<K, V> map;
+    private final Predicate<? super MapEntry<K, V>> predicate;
+    private final AtomicBoolean interrupted;
+    /**
+     * The first segment of the range, inclusive
+     */
+    private final int fromSegment;
+    /**
+     * The end of the segments range, exclusive
+     */
+    private final int toSegment;
+
+    SegmentsIterationTask(AbstractChronicleMap<K, V> map,
+                          Predicate<? super MapEntry<K, V>> predicate) {
+        this(map, predicate, new AtomicBoolean(), 0, map.segments());
+    }
+
+    private SegmentsIterationTask(AbstractChronicleMap<K, V> map,
+                                  Predicate<? super MapEntry<K, V>> predicate,
+                                  AtomicBoolean interrupted, int fromSegment, int toSegment) {
+        this.map = map;
+        this.predicate = predicate;
+        this.interrupted = interrupted;
+        this.fromSegment = fromSegment;
+        this.toSegment = toSegment;
+    }
+
+    /**
+     * @return {@code true} if the predicate returned {@code true} for all entries, in all
+     * segments of the whole iteration, not only of this range
+     */
+    @Override
+    protected Boolean compute() {
+        if (toSegment - fromSegment > 1) {
+            int middle = (fromSegment + toSegment) >>> 1;
+            SegmentsIterationTask<K, V> upper = new SegmentsIterationTask<>(
+                    map, predicate, interrupted, middle, toSegment);
+            upper.fork();
+            new SegmentsIterationTask<>(map, predicate, interrupted, fromSegment, middle)
+                    .compute();
+            upper.join();
+        } else if (toSegment > fromSegment && !interrupted.get()) {
+            try (MapSegmentContext<K, V, ?> c = map.segmentContext(fromSegment)) {
+                c.forEachSegmentEntryWhile(e -> {
+                    if (interrupted.get())
+                        return false;
+                    if (!predicate.test(e)) {
+                        interrupted.set(true);
+                        return false;
+                    }
+                    return true;
+                });
+            }
+        }
+        return !interrupted.get();
+    }
+}
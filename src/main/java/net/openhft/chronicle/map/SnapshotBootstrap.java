@@ -0,0 +1,244 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static net.openhft.chronicle.map.AbstractChannelReplicator.SIZE_OF_SIZE;
+
+/**
+ * Snapshot bootstrap of a new node over a {@link TcpReplicator} connection, enabled if negotiated
+ * by both nodes. When handshaking completes, each node requests images of the segments of the
+ * remote node, if it holds no entries and has never received entries from the remote node, or
+ * declines otherwise. On decline, the remote node dirties entries, updated since the bootstrap
+ * timestamp, as usual. On request, if the layouts of segments are equal on both nodes, the remote
+ * node sends consistent images of its segments, one per frame, and the requesting node copies them
+ * into the memory of its segments as they are. Entries, changed after an image is taken, are
+ * already marked in the modification iterator, and are sent as usual after the last image.
+ * Entries of segments, which have extra tiers, or to which the requesting node can't apply the
+ * image, because entries are added to the segment meanwhile, are sent one by one.
+ * <pre>
+ * frame   := SNAPSHOT_UPDATE, int size, message
+ * message := REQUEST, long layout
+ *          | DECLINE
+ *          | SEGMENT, stopBit segmentIndex, image
+ *          | END
+ *          | REJECT, stopBit segmentIndex
+ * </pre>
+ * Not thread-safe, each instance serves a single connection.
+ */
+final class SnapshotBootstrap {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotBootstrap.class);
+
+    static final byte SNAPSHOT_UPDATE = 4;
+
+    // message types
+    private static final byte REQUEST = 1;
+    private static final byte DECLINE = 2;
+    private static final byte SEGMENT = 3;
+    private static final byte END = 4;
+    private static final byte REJECT = 5;
+
+    private final Replica replica;
+    private final Replica.ModificationIterator modificationIterator;
+    private final byte remoteIdentifier;
+    private final long remoteBootstrapTimestamp;
+    private final ReplicationWireFormat.GrowableBuffer messages =
+            new ReplicationWireFormat.GrowableBuffer(64);
+
+    // the sending side, the next segment to send the image of, -1 until images are requested
+    private int nextSegmentIndex = -1;
+    private boolean entriesHeldBack = true;
+
+    // the receiving side
+    private boolean requested;
+    private boolean rejected;
+    private long snapshotTime = Long.MAX_VALUE;
+
+    SnapshotBootstrap(@NotNull Replica replica,
+                      @NotNull Replica.ModificationIterator modificationIterator,
+                      byte remoteIdentifier, long remoteBootstrapTimestamp) {
+        if (replica.snapshotSegments() <= 0)
+            throw new IllegalArgumentException("Replica doesn't support snapshot bootstrap");
+        this.replica = replica;
+        this.modificationIterator = modificationIterator;
+        this.remoteIdentifier = remoteIdentifier;
+        this.remoteBootstrapTimestamp = remoteBootstrapTimestamp;
+    }
+
+    /**
+     * Starts the bootstrap, when handshaking completes.
+     *
+     * @return a frame, which requests images of segments or declines them, from zero position to
+     * the limit
+     */
+    Bytes start() {
+        messages.clear();
+        requested = replica.lastModificationTime(remoteIdentifier) == 0L &&
+                replica.holdsNoEntries();
+        final long sizePosition = startFrame();
+        final Bytes b = messages.ensureRemaining(9L);
+        if (requested) {
+            b.writeByte(REQUEST);
+            b.writeLong(replica.snapshotLayout());
+        } else {
+            b.writeByte(DECLINE);
+        }
+        finishFrame(sizePosition);
+        return result();
+    }
+
+    /**
+     * Returns {@code true}, if entries shouldn't be sent to the remote node yet, because the remote
+     * node hasn't answered yet, or images of segments are being sent.
+     */
+    boolean holdsBackEntries() {
+        return entriesHeldBack;
+    }
+
+    boolean hasImagesToSend() {
+        return entriesHeldBack && nextSegmentIndex >= 0;
+    }
+
+    /**
+     * Returns the maximum size of a frame, written by {@link #nextImageToBuffer(Bytes)}.
+     */
+    long maxImageFrameSize() {
+        return 1L + SIZE_OF_SIZE + 1L + 5L + replica.segmentSnapshotSize();
+    }
+
+    /**
+     * Writes the frame with the image of the next segment to the {@code buffer}, or the {@code END}
+     * frame after the last segment. Entries of segments, which images couldn't be taken of, are
+     * dirtied in the modification iterator instead.
+     *
+     * @param buffer the buffer with at least {@link #maxImageFrameSize()} bytes remaining
+     */
+    void nextImageToBuffer(@NotNull Bytes buffer) {
+        final int segments = replica.snapshotSegments();
+        while (nextSegmentIndex < segments) {
+            final int segmentIndex = nextSegmentIndex++;
+            final long frameStart = buffer.position();
+            buffer.writeByte(SNAPSHOT_UPDATE);
+            final long sizePosition = buffer.position();
+            buffer.writeInt(0);
+            buffer.writeByte(SEGMENT);
+            buffer.writeStopBit(segmentIndex);
+            if (replica.writeSegmentSnapshot(segmentIndex, buffer)) {
+                buffer.writeInt(sizePosition,
+                        (int) (buffer.position() - sizePosition - SIZE_OF_SIZE));
+                return;
+            }
+            buffer.position(frameStart);
+            modificationIterator.dirtySegmentEntries(segmentIndex, remoteBootstrapTimestamp);
+        }
+        buffer.writeByte(SNAPSHOT_UPDATE);
+        buffer.writeInt(1);
+        buffer.writeByte(END);
+        entriesHeldBack = false;
+        if (LOG.isDebugEnabled())
+            LOG.debug("sent images of {} segments to remoteIdentifier={}", segments,
+                    remoteIdentifier);
+    }
+
+    /**
+     * Handles a message, received from the remote node.
+     *
+     * @param in the message, from the position to the limit
+     * @return frames to send to the remote node in reply, from zero position to the limit, or
+     * {@code null} if nothing should be sent
+     */
+    @Nullable
+    Bytes onMessage(@NotNull Bytes in) {
+        messages.clear();
+        final byte type = in.readByte();
+        if (type == REQUEST) {
+            final long remoteLayout = in.readLong();
+            if (remoteLayout == replica.snapshotLayout()) {
+                nextSegmentIndex = 0;
+            } else {
+                LOG.warn("Snapshot bootstrap of the remote node {} is not possible, " +
+                        "the layout of segments differs, sending entries one by one",
+                        remoteIdentifier);
+                bootstrapEntries();
+            }
+        } else if (type == DECLINE) {
+            bootstrapEntries();
+        } else if (type == SEGMENT) {
+            onSegment(in);
+        } else if (type == END) {
+            // otherwise the time advances, as entries of rejected segments are received
+            if (!rejected && snapshotTime != Long.MAX_VALUE)
+                replica.setLastModificationTime(remoteIdentifier, snapshotTime);
+        } else if (type == REJECT) {
+            final int segmentIndex = (int) in.readStopBit();
+            modificationIterator.dirtySegmentEntries(segmentIndex, remoteBootstrapTimestamp);
+        } else {
+            throw new IllegalStateException("Unexpected snapshot message type=" + type);
+        }
+        return messages.bytes.position() > 0 ? result() : null;
+    }
+
+    private void bootstrapEntries() {
+        entriesHeldBack = false;
+        modificationIterator.dirtyEntries(remoteBootstrapTimestamp);
+    }
+
+    private void onSegment(Bytes in) {
+        if (!requested)
+            throw new IllegalStateException("Segment image received, but not requested");
+        final int segmentIndex = (int) in.readStopBit();
+        final long time = replica.applySegmentSnapshot(remoteIdentifier, segmentIndex, in);
+        if (time != Long.MIN_VALUE) {
+            snapshotTime = Math.min(snapshotTime, time);
+        } else {
+            if (LOG.isDebugEnabled())
+                LOG.debug("segment {} is not empty, requesting its entries from " +
+                        "remoteIdentifier={}", segmentIndex, remoteIdentifier);
+            rejected = true;
+            final long sizePosition = startFrame();
+            final Bytes b = messages.ensureRemaining(6L);
+            b.writeByte(REJECT);
+            b.writeStopBit(segmentIndex);
+            finishFrame(sizePosition);
+        }
+    }
+
+    private long startFrame() {
+        Bytes b = messages.ensureRemaining(1L + SIZE_OF_SIZE);
+        b.writeByte(SNAPSHOT_UPDATE);
+        final long sizePosition = b.position();
+        b.writeInt(0);
+        return sizePosition;
+    }
+
+    private void finishFrame(long sizePosition) {
+        final Bytes b = messages.bytes;
+        b.writeInt(sizePosition, (int) (b.position() - sizePosition - SIZE_OF_SIZE));
+    }
+
+    private Bytes result() {
+        Bytes result = messages.bytes;
+        result.limit(result.position());
+        result.position(0);
+        return result;
+    }
+}
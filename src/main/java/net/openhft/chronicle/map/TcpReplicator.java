@@ -19,6 +19,7 @@ package net.openhft.chronicle.map;
 import net.openhft.chronicle.hash.impl.util.BuildVersion;
 import net.openhft.chronicle.hash.replication.ConnectionListener;
 import net.openhft.chronicle.hash.replication.RemoteNodeValidator;
+import net.openhft.chronicle.hash.replication.ReplicationStats;
 import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
 import net.openhft.chronicle.hash.replication.ThrottlingConfig;
 import net.openhft.lang.collection.ATSDirectBitSet;
@@ -26,25 +27,36 @@ import net.openhft.lang.collection.DirectBitSet;
 import net.openhft.lang.io.ByteBufferBytes;
 import net.openhft.lang.io.Bytes;
 import net.openhft.lang.io.DirectStore;
+import net.openhft.lang.thread.NamedThreadFactory;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.*;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.*;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static java.nio.channels.SelectionKey.*;
+import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.openhft.chronicle.hash.impl.util.BuildVersion.version;
 import static net.openhft.lang.MemoryUnit.*;
@@ -80,6 +92,13 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
     private final KeyInterestUpdater opWriteUpdater =
             new KeyInterestUpdater(OP_WRITE, selectionKeysStore);
     private final BitSet activeKeys = new BitSet(selectionKeysStore.length);
+    // keys, which have OP_WRITE cleared while their modification iterators hold back changes
+    // because of throttling
+    private final BitSet throttledKeys = new BitSet(selectionKeysStore.length);
+    private long nextThrottledKeysCheckTime = Long.MAX_VALUE;
+    private final ReplicationStatsRecorder stats = new ReplicationStatsRecorder();
+    // remote identifiers, for which ReplicationStatsMXBeans are registered
+    private final BitSet statsMXBeans = new BitSet(selectionKeysStore.length);
     private final long heartBeatIntervalMillis;
     private final ConnectionListener connectionListener;
     private long largestEntrySoFar = 128;
@@ -90,9 +109,21 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
 
     @NotNull
     private final Replica.EntryExternalizable externalizable;
+    @Nullable
+    private final ParallelEntryApplier applier;
     @NotNull
     private final TcpTransportAndNetworkConfig replicationConfig;
-
+    /**
+     * Features of {@link ReplicationWireFormat}, enabled on this node
+     */
+    private final int localWireFormat;
+    private final long antiEntropyIntervalMillis;
+    /**
+     * Computes anti-entropy digests, which requires iterating segments, off the selector thread.
+     * Single-threaded, so each {@link AntiEntropy} is accessed by a single thread at a time
+     */
+    @Nullable
+    private final ExecutorService antiEntropyExecutor;
 
     private final
     @Nullable
@@ -129,8 +160,44 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         this.replica = replica;
         this.localIdentifier = replica.identifier();
 
-        this.externalizable = externalizable;
+        // stats are recorded when entries are actually applied, i. e. within the applier
+        final Replica.EntryExternalizable recording = stats.recording(externalizable);
+        if (replicationConfig.applyThreads() > 1) {
+            final ParallelEntryApplier applier = new ParallelEntryApplier(replica, recording,
+                    replicationConfig.applyThreads(), "TcpSocketReplicator-" + localIdentifier);
+            closeables.add(applier);
+            this.applier = applier;
+            this.externalizable = applier;
+        } else {
+            this.applier = null;
+            this.externalizable = recording;
+        }
         this.replicationConfig = replicationConfig;
+        int localWireFormat = ReplicationWireFormat.of(replicationConfig);
+        if (replica.digestedSegments() == 0)
+            localWireFormat &= ~ReplicationWireFormat.ANTI_ENTROPY;
+        if (replica.snapshotSegments() == 0)
+            localWireFormat &= ~ReplicationWireFormat.SNAPSHOT_BOOTSTRAP;
+        this.localWireFormat = localWireFormat;
+        this.antiEntropyIntervalMillis = replicationConfig.antiEntropyInterval(MILLISECONDS);
+        if ((localWireFormat & ReplicationWireFormat.ANTI_ENTROPY) != 0) {
+            final ExecutorService antiEntropyExecutor = Executors.newSingleThreadExecutor(
+                    new NamedThreadFactory(
+                            "TcpSocketReplicator-" + localIdentifier + "-anti-entropy", true));
+            // digests mustn't be computed after the map is closed
+            closeables.add(() -> {
+                antiEntropyExecutor.shutdownNow();
+                try {
+                    if (!antiEntropyExecutor.awaitTermination(10, TimeUnit.SECONDS))
+                        LOG.warn("Anti-entropy digests are still being computed");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            this.antiEntropyExecutor = antiEntropyExecutor;
+        } else {
+            this.antiEntropyExecutor = null;
+        }
 
         this.remoteNodeValidator = remoteNodeValidator;
         this.name = name;
@@ -185,9 +252,11 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
 
                 // check that we have sent and received heartbeats
                 heartBeatMonitor(approxTime);
+                stats.updateRates(approxTime);
 
                 // set the OP_WRITE when data is ready to send
                 opWriteUpdater.applyUpdates();
+                checkThrottledKeys(approxTime);
 
                 if (useJavaNIOSelectionKeys) {
                     // use the standard java nio selector
@@ -299,7 +368,128 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
                 return keys;
         }
 
-        return selector.select(selectorTimeout);
+        long timeout = selectorTimeout;
+        if (nextThrottledKeysCheckTime != Long.MAX_VALUE) {
+            timeout = Math.max(1L, Math.min(timeout,
+                    nextThrottledKeysCheckTime - System.currentTimeMillis()));
+        }
+        return selector.select(timeout);
+    }
+
+    /**
+     * Restores OP_WRITE on the keys, modification iterators of which have changes to send once
+     * again, after their throttling intervals pass.
+     *
+     * @param approxTime the approximate time in milliseconds
+     */
+    private void checkThrottledKeys(long approxTime) {
+        if (approxTime < nextThrottledKeysCheckTime)
+            return;
+        nextThrottledKeysCheckTime = Long.MAX_VALUE;
+        for (int i = throttledKeys.nextSetBit(0); i >= 0; i = throttledKeys.nextSetBit(i + 1)) {
+            final SelectionKey key = selectionKeysStore[i];
+            final Attached attached = key != null ? (Attached) key.attachment() : null;
+            if (attached == null || !key.isValid() ||
+                    attached.remoteModificationIterator == null) {
+                throttledKeys.clear(i);
+                continue;
+            }
+            final Replica.ModificationIterator iterator = attached.remoteModificationIterator;
+            if (iterator.hasNext()) {
+                throttledKeys.clear(i);
+                key.interestOps(key.interestOps() | OP_WRITE);
+            } else {
+                onThrottledKey(i, iterator, approxTime);
+            }
+        }
+    }
+
+    private void onThrottledKey(int remoteIdentifier, Replica.ModificationIterator iterator,
+                                long approxTime) {
+        final long throttledMillis = iterator.throttledMillis();
+        if (throttledMillis > 0L) {
+            throttledKeys.set(remoteIdentifier);
+            nextThrottledKeysCheckTime =
+                    Math.min(nextThrottledKeysCheckTime, approxTime + throttledMillis);
+        } else {
+            throttledKeys.clear(remoteIdentifier);
+        }
+    }
+
+    @Override
+    void onThrottleStall(SelectableChannel channel, long stalledMillis) {
+        final SelectionKey key = channel.keyFor(selector);
+        if (key == null)
+            return;
+        final Attached attached = (Attached) key.attachment();
+        if (attached != null)
+            stats.onThrottleStall(attached.remoteIdentifier, stalledMillis);
+    }
+
+    /**
+     * Takes snapshots of stats of replication with each remote node, which has ever connected to
+     * this replicator.
+     */
+    @NotNull
+    public List<ReplicationStats> replicationStats() {
+        final List<ReplicationStats> result = new ArrayList<>();
+        for (int i = 0; i < selectionKeysStore.length; i++) {
+            if (selectionKeysStore[i] != null || stats.hasStats((byte) i))
+                result.add(replicationStats((byte) i));
+        }
+        return result;
+    }
+
+    /**
+     * Takes a snapshot of stats of replication with the given remote node. Could be called from
+     * any thread.
+     */
+    @NotNull
+    ReplicationStats replicationStats(byte remoteIdentifier) {
+        final SelectionKey key = selectionKeysStore[remoteIdentifier];
+        final Attached attached = key != null ? (Attached) key.attachment() : null;
+        final boolean connected = attached != null && key.isValid() &&
+                key.channel().isOpen() && attached.isHandShakingComplete();
+        final Replica.ModificationIterator iterator =
+                attached != null ? attached.remoteModificationIterator : null;
+        final long outstandingEntries = iterator != null ? iterator.outstandingEntries() : -1L;
+        final long millisSinceLastReceived = connected ?
+                System.currentTimeMillis() - attached.entryReader.lastHeartBeatReceived : -1L;
+        return stats.stats(remoteIdentifier, connected, outstandingEntries,
+                millisSinceLastReceived);
+    }
+
+    /**
+     * Registers a {@link net.openhft.chronicle.hash.replication.ReplicationStatsMXBean} for the
+     * remote node, when it connects for the first time. The MBean is unregistered when this
+     * replicator is closed.
+     */
+    private void registerStatsMXBean(final byte remoteIdentifier) {
+        if (statsMXBeans.get(remoteIdentifier))
+            return;
+        statsMXBeans.set(remoteIdentifier);
+        final String replicationName = name != null ? name : "node-" + localIdentifier;
+        try {
+            final ObjectName objectName = new ObjectName(
+                    "net.openhft.chronicle.map:type=Replication," +
+                            "name=" + ObjectName.quote(replicationName) +
+                            ",remoteIdentifier=" + remoteIdentifier);
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.registerMBean(
+                    new ReplicationStatsMXBeanImpl(this, remoteIdentifier), objectName);
+            closeables.add(() -> {
+                try {
+                    mBeanServer.unregisterMBean(objectName);
+                } catch (JMException e) {
+                    LOG.warn("Failed to unregister replication stats MBean " + objectName, e);
+                }
+            });
+        } catch (JMException e) {
+            // e. g. several replicators of nodes with the same identifier in the same JVM
+            if (LOG.isDebugEnabled())
+                LOG.debug("Failed to register replication stats MBean for " + replicationName +
+                        ", remoteIdentifier=" + remoteIdentifier, e);
+        }
     }
 
     /**
@@ -332,6 +522,13 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
                         LOG.debug("", e);
                 }
 
+                try {
+                    startAntiEntropyRoundIfRequired(approxTime, key);
+                } catch (Exception e) {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("", e);
+                }
+
                 try {
                     heartbeatCheckHasReceived(key, approxTime);
                 } catch (Exception e) {
@@ -369,6 +566,89 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         }
     }
 
+    /**
+     * check to see if its time to start an anti-entropy synchronization round with the remote
+     * node, and start one if required
+     *
+     * @param approxTime the current time ( approximately )
+     * @param key        nio selection key
+     */
+    private void startAntiEntropyRoundIfRequired(final long approxTime,
+                                                 @NotNull final SelectionKey key) {
+        final Attached attachment = (Attached) key.attachment();
+        final AntiEntropy antiEntropy = attachment.antiEntropy;
+
+        // a round doesn't start, until the digests of the previous messages are computed
+        if (antiEntropy != null && attachment.isHandShakingComplete() &&
+                attachment.antiEntropyTasks == 0 &&
+                attachment.nextAntiEntropyRoundTime <= approxTime) {
+            attachment.nextAntiEntropyRoundTime = approxTime + antiEntropyIntervalMillis;
+            antiEntropyToBuffer(key, AntiEntropy::root);
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("starting anti-entropy round with remoteIdentifier=" +
+                        attachment.remoteIdentifier);
+        }
+    }
+
+    /**
+     * Computes the frames of an anti-entropy message on the {@link #antiEntropyExecutor}, because
+     * computing digests of segments would stall replication over all connections, if done on the
+     * selector thread. The frames are posted back to the selector thread, which owns the
+     * connection buffers, and appended to the buffer, if the connection is still open.
+     *
+     * @param key     nio selection key of the connection
+     * @param message computes the frames to send, from zero position to the limit, or returns
+     *                {@code null} if nothing should be sent
+     */
+    private void antiEntropyToBuffer(@NotNull final SelectionKey key,
+                                     @NotNull final Function<AntiEntropy, Bytes> message) {
+        final Attached attached = (Attached) key.attachment();
+        final AntiEntropy antiEntropy = attached.antiEntropy;
+        assert antiEntropyExecutor != null && antiEntropy != null;
+        attached.antiEntropyTasks++;
+        antiEntropyExecutor.execute(() -> {
+            Bytes frames = null;
+            Exception failure = null;
+            try {
+                final Bytes reply = message.apply(antiEntropy);
+                // the AntiEntropy reuses its buffer for the next message
+                if (reply != null)
+                    frames = copyRemaining(reply);
+            } catch (Exception e) {
+                failure = e;
+            }
+            final Bytes finalFrames = frames;
+            final Exception finalFailure = failure;
+            addPendingRegistration(() -> {
+                attached.antiEntropyTasks--;
+                if (!key.isValid())
+                    return;
+                if (finalFailure != null) {
+                    LOG.info("", finalFailure);
+                    if (!isClosed)
+                        closeEarlyAndQuietly(key.channel());
+                } else if (finalFrames != null) {
+                    attached.entryWriter.framesToBuffer(finalFrames);
+                    enableOpWrite(key);
+                }
+            });
+            selector.wakeup();
+        });
+    }
+
+    /**
+     * @return a heap copy of the bytes from the position to the limit, the position of the given
+     * bytes is not changed
+     */
+    private static Bytes copyRemaining(@NotNull Bytes bytes) {
+        final Bytes copy = new ByteBufferBytes(
+                ByteBuffer.allocate((int) bytes.remaining()).order(ByteOrder.nativeOrder()));
+        copy.write(bytes, bytes.position(), bytes.remaining());
+        copy.flip();
+        return copy;
+    }
+
     private void enableOpWrite(@NotNull SelectionKey key) {
         int ops = key.interestOps();
         if ((ops & (OP_CONNECT | OP_ACCEPT)) == 0)
@@ -618,6 +898,14 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
 
             attached.remoteIdentifier = remoteIdentifier;
 
+            final ThrottlingConfig peerThrottlingConfig =
+                    replicationConfig.throttlingConfig(remoteIdentifier);
+            if (peerThrottlingConfig.throttling(DAYS) > 0) {
+                throttlePeer(socketChannel, peerThrottlingConfig);
+                selectorTimeout = Math.min(selectorTimeout,
+                        peerThrottlingConfig.bucketInterval(MILLISECONDS));
+            }
+
             final SocketChannel channel = (SocketChannel) key.channel();
             if (channel != null && channel.socket() != null && connectionListener != null) {
                 connectionListener.onConnect(
@@ -630,6 +918,7 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             // but if we use the selector.keys() this will.
             selectionKeysStore[remoteIdentifier] = key;
             activeKeys.set(remoteIdentifier);
+            registerStatsMXBean(remoteIdentifier);
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("server-connection id={}, remoteIdentifier={}", localIdentifier,
@@ -700,6 +989,12 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             }
 
             checkVersions(attached);
+
+            // nodes of earlier versions neither send nor expect the wire format
+            attached.exchangesWireFormat =
+                    ReplicationWireFormat.exchangedBetween(version(), attached.serverVersion);
+            if (attached.exchangesWireFormat)
+                writer.writeWireFormat(localWireFormat);
         }
 
         if (!attached.hasRemoteHeartbeatInterval) {
@@ -725,9 +1020,37 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
                 LOG.info("");
 
             attached.hasRemoteHeartbeatInterval = true;
+        }
+
+        if (attached.wireFormat < 0) {
+            final int remoteWireFormat =
+                    attached.exchangesWireFormat ? reader.readRemoteWireFormat() : 0;
+            if (remoteWireFormat < 0)
+                return;
+
+            // only features, enabled on both nodes, are used
+            attached.wireFormat = localWireFormat & remoteWireFormat;
+            writer.wireFormat(attached.wireFormat);
+            reader.wireFormat(attached.wireFormat);
+            if ((attached.wireFormat & ReplicationWireFormat.ANTI_ENTROPY) != 0) {
+                attached.antiEntropy = new AntiEntropy(replica, attached.remoteIdentifier);
+                // the first round starts after the bootstrap
+                attached.nextAntiEntropyRoundTime =
+                        System.currentTimeMillis() + antiEntropyIntervalMillis;
+            }
 
-            // now we're finished we can get on with reading the entries
-            attached.remoteModificationIterator.dirtyEntries(attached.remoteBootstrapTimestamp);
+            if ((attached.wireFormat & ReplicationWireFormat.SNAPSHOT_BOOTSTRAP) != 0) {
+                // entries are dirtied, once the remote node declines images of segments
+                attached.snapshotBootstrap = new SnapshotBootstrap(replica,
+                        attached.remoteModificationIterator, attached.remoteIdentifier,
+                        attached.remoteBootstrapTimestamp);
+                writer.framesToBuffer(attached.snapshotBootstrap.start());
+                enableOpWrite(key);
+            } else {
+                // now we're finished we can get on with reading the entries
+                attached.remoteModificationIterator.dirtyEntries(
+                        attached.remoteBootstrapTimestamp);
+            }
             try {
                 reader.entriesFromBuffer(attached, key);
             } finally {
@@ -760,8 +1083,22 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             if (completed)
                 entryWriter.workCompleted();
 
-        } else if (attached.remoteModificationIterator != null)
-            entryWriter.entriesToBuffer(attached.remoteModificationIterator);
+        } else if (attached.snapshotBootstrap != null &&
+                attached.snapshotBootstrap.holdsBackEntries()) {
+            // images are written one at a time, once the previous one is sent
+            if (attached.snapshotBootstrap.hasImagesToSend() && !entryWriter.hasBytesToWrite())
+                entryWriter.imageToBuffer(attached.snapshotBootstrap);
+
+        } else if (attached.remoteModificationIterator != null) {
+            stats.onEntriesSent(attached.remoteIdentifier,
+                    entryWriter.entriesToBuffer(attached.remoteModificationIterator,
+                            socketChannel));
+            final long zeroCopyBytes = entryWriter.takeBytesWrittenToSocket(approxTime);
+            if (zeroCopyBytes > 0) {
+                stats.onBytesSent(attached.remoteIdentifier, zeroCopyBytes);
+                contemplateThrottleWrites(socketChannel, (int) zeroCopyBytes);
+            }
+        }
 
         try {
             final int len = entryWriter.writeBufferToSocket(socketChannel, approxTime);
@@ -769,8 +1106,10 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             if (len == -1)
                 socketChannel.close();
 
-            if (len > 0)
-                contemplateThrottleWrites(len);
+            if (len > 0) {
+                stats.onBytesSent(attached.remoteIdentifier, len);
+                contemplateThrottleWrites(socketChannel, len);
+            }
 
             if (!entryWriter.hasBytesToWrite()
                     && !entryWriter.isWorkIncomplete()
@@ -785,6 +1124,10 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
                             attached.remoteIdentifier +
                             ", localIdentifier=" + localIdentifier);
                 key.interestOps(key.interestOps() & ~OP_WRITE);
+                if (attached.remoteModificationIterator != null) {
+                    onThrottledKey(attached.remoteIdentifier,
+                            attached.remoteModificationIterator, approxTime);
+                }
             }
         } catch (IOException e) {
             quietClose(key, e);
@@ -795,6 +1138,9 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
     }
 
     private boolean hasNext(Attached attached) {
+        final SnapshotBootstrap snapshotBootstrap = attached.snapshotBootstrap;
+        if (snapshotBootstrap != null && snapshotBootstrap.holdsBackEntries())
+            return snapshotBootstrap.hasImagesToSend();
         return attached.remoteModificationIterator != null
                 && attached.remoteModificationIterator.hasNext();
     }
@@ -834,6 +1180,8 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             if (len == 0)
                 return;
 
+            stats.onBytesReceived(attached.remoteIdentifier, len);
+
             if (attached.entryWriter.isWorkIncomplete())
                 return;
         } catch (IOException e) {
@@ -1072,6 +1420,19 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         public boolean handShakingComplete;
         public String serverVersion;
         public long remoteHeartbeatInterval = heartBeatIntervalMillis;
+        // if the remote node is of a version, which exchanges the wire format
+        public boolean exchangesWireFormat;
+        // features of ReplicationWireFormat, negotiated with the remote node, -1 if not yet
+        public int wireFormat = -1;
+        // not null, if anti-entropy is negotiated with the remote node
+        @Nullable
+        public AntiEntropy antiEntropy;
+        public long nextAntiEntropyRoundTime;
+        // anti-entropy messages, which replies are being computed, accessed by the selector thread
+        public int antiEntropyTasks;
+        // not null, if snapshot bootstrap is negotiated with the remote node
+        @Nullable
+        public SnapshotBootstrap snapshotBootstrap;
 
         boolean isHandShakingComplete() {
             return handShakingComplete;
@@ -1100,6 +1461,8 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         @Nullable
         public Work uncompletedWork;
         private long lastSentTime;
+        @Nullable
+        private ReplicationWireFormat.Encoder wireFormatEncoder;
 
         private TcpSocketChannelEntryWriter() {
             entryCallback = new EntryCallback(externalizable, replicationConfig.tcpBufferSize());
@@ -1169,42 +1532,110 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
             in().write(String.format("%1$" + 64 + "s", version()).toCharArray());
         }
 
+        void writeWireFormat(int wireFormat) {
+            in().writeByte(wireFormat);
+        }
+
+        void wireFormat(int wireFormat) {
+            wireFormatEncoder = (wireFormat & ReplicationWireFormat.ENTRY_FEATURES) != 0 ?
+                    new ReplicationWireFormat.Encoder(wireFormat, externalizable) : null;
+        }
+
         /**
          * writes all the entries that have changed, to the buffer which will later be written to
-         * TCP/IP
+         * TCP/IP, encoded in the negotiated wire format
          *
          * @param modificationIterator a record of which entries have modification
+         * @param socketChannel        if zero-copy writes apply, large values are written
+         *                             straight to this channel, along with the buffer
+         * @return the number of entries written
          */
-        void entriesToBuffer(@NotNull final Replica.ModificationIterator modificationIterator) {
-
-            int entriesWritten = 0;
+        int entriesToBuffer(@NotNull final Replica.ModificationIterator modificationIterator,
+                            @NotNull final SocketChannel socketChannel) {
+            final long batchStart = in().position();
+            // encoded batches of entries are rewritten as a whole, so can't be gathered
+            final boolean zeroCopy =
+                    replicationConfig.zeroCopyThreshold() > 0 && wireFormatEncoder == null;
+            if (zeroCopy)
+                entryCallback.zeroCopyChannel(socketChannel, replicationConfig.zeroCopyThreshold());
+            final int entries;
             try {
-                for (; ; entriesWritten++) {
-
-                    long start = in().position();
-
-                    boolean success = modificationIterator.nextEntry(entryCallback, 0);
+                entries = writeEntriesToBuffer(modificationIterator);
+            } finally {
+                if (zeroCopy)
+                    entryCallback.zeroCopyChannel(null, 0L);
+            }
+            if (wireFormatEncoder != null && in().position() > batchStart) {
+                final Bytes frames = wireFormatEncoder.encode(in(), batchStart);
+                in().position(batchStart);
+                ensureBufferSize(frames.remaining());
+                in().write(frames, 0L, frames.remaining());
+            }
+            return entries;
+        }
 
-                    // if not success this is most likely due to the next entry not fitting into
-                    // the buffer and the buffer can not be re-sized above Integer.max_value, in
-                    // this case success will return false, so we return so that we can send to
-                    // the socket what we have.
-                    if (!success)
-                        return;
+        /**
+         * @param approxTime an approximation of the current time in millis
+         * @return the number of bytes, written to the socket by zero-copy writes since the
+         * previous call
+         */
+        long takeBytesWrittenToSocket(final long approxTime) {
+            final long bytes = entryCallback.takeBytesWrittenToChannel();
+            if (bytes > 0)
+                lastSentTime = approxTime;
+            return bytes;
+        }
 
-                    long entrySize = in().position() - start;
+        /**
+         * appends frames, which are not entries, to the buffer which will later be written to
+         * TCP/IP
+         *
+         * @param frames frames from zero position to the limit
+         */
+        void framesToBuffer(@NotNull final Bytes frames) {
+            ensureBufferSize(frames.remaining());
+            in().write(frames, 0L, frames.remaining());
+        }
 
-                    if (entrySize > largestEntrySoFar)
-                        largestEntrySoFar = entrySize;
+        /**
+         * appends the frame with the next image of a segment to the buffer, which will later be
+         * written to TCP/IP
+         */
+        void imageToBuffer(@NotNull final SnapshotBootstrap snapshotBootstrap) {
+            ensureBufferSize(snapshotBootstrap.maxImageFrameSize());
+            snapshotBootstrap.nextImageToBuffer(in());
+        }
 
-                    // we've filled up the buffer lets give another channel a chance to send
-                    // some data
-                    if (in().remaining() <= largestEntrySoFar || in().position() >
-                            replicationConfig.tcpBufferSize())
-                        return;
+        private int writeEntriesToBuffer(
+                @NotNull final Replica.ModificationIterator modificationIterator) {
 
-                    // if we have space in the buffer to write more data and we just wrote data
-                    // into the buffer then let try and write some more
+            int entriesWritten = 0;
+            try {
+                for (; ; ) {
+                    // we fill the buffer up to the tcp buffer size, and leave some space, so that
+                    // the next entry most likely fits the buffer without re-sizing it
+                    long maxBytes = Math.min(in().remaining() - largestEntrySoFar,
+                            replicationConfig.tcpBufferSize() - in().position());
+
+                    // the buffer is full, lets give another channel a chance to send some data
+                    if (maxBytes <= 0 && in().position() > 0)
+                        return entriesWritten;
+
+                    // entries of each segment are written under a single lock acquisition
+                    int entries = modificationIterator.nextEntries(entryCallback, 0,
+                            Math.max(maxBytes, 1L));
+
+                    if (entryCallback.largestEntrySize() > largestEntrySoFar)
+                        largestEntrySoFar = entryCallback.largestEntrySize();
+
+                    // if no entries are written this is most likely due to the next entry not
+                    // fitting into the buffer and the buffer can not be re-sized above
+                    // Integer.max_value, in this case we return so that we can send to the
+                    // socket what we have.
+                    if (entries == 0)
+                        return entriesWritten;
+
+                    entriesWritten += entries;
                 }
             } finally {
                 if (LOG.isDebugEnabled())
@@ -1291,6 +1722,8 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         ByteBufferBytes out;
         private long sizeInBytes;
         private byte state;
+        @Nullable
+        private ReplicationWireFormat.Decoder wireFormatDecoder;
 
         private TcpSocketChannelEntryReader() {
             in = ByteBuffer.allocateDirect(replicationConfig.tcpBufferSize());
@@ -1353,6 +1786,9 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
          * @throws InterruptedException
          */
         void entriesFromBuffer(@NotNull Attached attached, @NotNull SelectionKey key) {
+            // closes the connection, if entries received from it earlier have failed to apply
+            if (applier != null)
+                applier.startReading(attached);
             int entriesRead = 0;
             try {
                 for (; ; entriesRead++) {
@@ -1393,7 +1829,31 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
                     final long limit = out.limit();
                     out.limit(nextEntryPos);
 
-                    externalizable.readExternalEntry(out);
+                    if (state == ReplicationWireFormat.BATCH_UPDATE) {
+                        if (wireFormatDecoder == null)
+                            throw new IllegalStateException("Batch update received, " +
+                                    "but the wire format was not negotiated");
+                        wireFormatDecoder.decode(out, externalizable);
+                    } else if (state == AntiEntropy.ANTI_ENTROPY_UPDATE) {
+                        if (attached.antiEntropy == null)
+                            throw new IllegalStateException("Anti-entropy message received, " +
+                                    "but anti-entropy was not negotiated");
+                        // the message is copied, because the buffer is reused for the next
+                        // entries, while the reply is computed
+                        final Bytes message = copyRemaining(out);
+                        antiEntropyToBuffer(key, antiEntropy -> antiEntropy.onMessage(message));
+                    } else if (state == SnapshotBootstrap.SNAPSHOT_UPDATE) {
+                        if (attached.snapshotBootstrap == null)
+                            throw new IllegalStateException("Snapshot message received, " +
+                                    "but snapshot bootstrap was not negotiated");
+                        final Bytes reply = attached.snapshotBootstrap.onMessage(out);
+                        if (reply != null)
+                            attached.entryWriter.framesToBuffer(reply);
+                        // images or held back entries could be sent now
+                        enableOpWrite(key);
+                    } else {
+                        externalizable.readExternalEntry(out);
+                    }
 
                     out.limit(limit);
 
@@ -1460,6 +1920,18 @@ public final class TcpReplicator<K, V> extends AbstractChannelReplicator impleme
         public long readRemoteHeartbeatIntervalFromBuffer() {
             return (out.remaining() >= 8) ? out.readLong() : Long.MIN_VALUE;
         }
+
+        /**
+         * @return the wire format features, enabled on the remote node, or -1 if unsuccessful
+         */
+        int readRemoteWireFormat() {
+            return (out.remaining() >= 1) ? (out.readByte() & 0xFF) : -1;
+        }
+
+        void wireFormat(int wireFormat) {
+            wireFormatDecoder = (wireFormat & ReplicationWireFormat.ENTRY_FEATURES) != 0 ?
+                    new ReplicationWireFormat.Decoder(wireFormat) : null;
+        }
     }
 }
 
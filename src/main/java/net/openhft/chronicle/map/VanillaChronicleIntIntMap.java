@@ -0,0 +1,81 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.ReusableIntData;
+import net.openhft.chronicle.hash.serialization.internal.IntegerMarshaller;
+
+class VanillaChronicleIntIntMap extends AbstractPrimitiveMapView<Integer, ReusableIntData>
+        implements ChronicleIntIntMap {
+
+    VanillaChronicleIntIntMap(ChronicleMap<Integer, Integer> map) {
+        super(map, Integer.class, IntegerMarshaller.INSTANCE, ReusableIntData::new);
+    }
+
+    @Override
+    public int getInt(int key) {
+        return getOrDefault(key, 0);
+    }
+
+    @Override
+    public int getOrDefault(int key, int defaultValue) {
+        try (ExternalMapQueryContext<Integer, Integer, ?> q = map.queryContext(keyData(key))) {
+            MapEntry<Integer, Integer> entry = q.entry();
+            return entry != null ? readValue(entry) : defaultValue;
+        }
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return containsKey(keyData(key));
+    }
+
+    @Override
+    public void putInt(int key, int value) {
+        Buffers b = buffers();
+        put(b.key.setInt(key), b.value.setInt(value));
+    }
+
+    @Override
+    public boolean removeInt(int key) {
+        return remove(keyData(key));
+    }
+
+    @Override
+    public int addAndGet(int key, int delta) {
+        Buffers b = buffers();
+        b.key.setInt(key);
+        try (ExternalMapQueryContext<Integer, Integer, ?> q = map.queryContext(b.key)) {
+            q.updateLock().lock();
+            MapEntry<Integer, Integer> entry = q.entry();
+            int result = (entry != null ? readValue(entry) : 0) + delta;
+            putValue(q, entry, b.value.setInt(result));
+            return result;
+        }
+    }
+
+    private ReusableIntData keyData(int key) {
+        return keyData().setInt(key);
+    }
+
+    private static int readValue(MapEntry<Integer, Integer> entry) {
+        Data<Integer> value = entry.value();
+        return value.bytes().readInt(value.offset());
+    }
+}
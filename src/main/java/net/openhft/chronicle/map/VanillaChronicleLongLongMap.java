@@ -0,0 +1,81 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.ReusableLongData;
+import net.openhft.chronicle.hash.serialization.internal.LongMarshaller;
+
+class VanillaChronicleLongLongMap extends AbstractPrimitiveMapView<Long, ReusableLongData>
+        implements ChronicleLongLongMap {
+
+    VanillaChronicleLongLongMap(ChronicleMap<Long, Long> map) {
+        super(map, Long.class, LongMarshaller.INSTANCE, ReusableLongData::new);
+    }
+
+    @Override
+    public long getLong(long key) {
+        return getOrDefault(key, 0L);
+    }
+
+    @Override
+    public long getOrDefault(long key, long defaultValue) {
+        try (ExternalMapQueryContext<Long, Long, ?> q = map.queryContext(keyData(key))) {
+            MapEntry<Long, Long> entry = q.entry();
+            return entry != null ? readValue(entry) : defaultValue;
+        }
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return containsKey(keyData(key));
+    }
+
+    @Override
+    public void putLong(long key, long value) {
+        Buffers b = buffers();
+        put(b.key.setLong(key), b.value.setLong(value));
+    }
+
+    @Override
+    public boolean removeLong(long key) {
+        return remove(keyData(key));
+    }
+
+    @Override
+    public long addAndGet(long key, long delta) {
+        Buffers b = buffers();
+        b.key.setLong(key);
+        try (ExternalMapQueryContext<Long, Long, ?> q = map.queryContext(b.key)) {
+            q.updateLock().lock();
+            MapEntry<Long, Long> entry = q.entry();
+            long result = (entry != null ? readValue(entry) : 0L) + delta;
+            putValue(q, entry, b.value.setLong(result));
+            return result;
+        }
+    }
+
+    private ReusableLongData keyData(long key) {
+        return keyData().setLong(key);
+    }
+
+    private static long readValue(MapEntry<Long, Long> entry) {
+        Data<Long> value = entry.value();
+        return value.bytes().readLong(value.offset());
+    }
+}
@@ -16,8 +16,14 @@
 
 package net.openhft.chronicle.map;
 
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
 import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.hash.ChronicleHashStats;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.RecoveryReport;
+import net.openhft.chronicle.hash.SegmentStats;
+import net.openhft.chronicle.hash.impl.SegmentRecovery;
+import net.openhft.chronicle.hash.impl.SegmentStatsRecorder;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
 import net.openhft.chronicle.hash.impl.stage.hash.ChainingInterface;
 import net.openhft.chronicle.hash.serialization.BytesReader;
@@ -39,9 +45,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import static net.openhft.chronicle.map.ChronicleMapBuilder.greatestCommonDivisor;
 
@@ -86,6 +95,11 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
     // Behavior
     transient boolean putReturnsNull;
     transient boolean removeReturnsNull;
+    /**
+     * If {@code get()} and {@code getUsing()} should try to read values without acquiring the
+     * segment lock, see {@link ChronicleMapBuilder#optimisticReads(boolean)}
+     */
+    transient boolean optimisticReads;
 
     transient Set<Entry<K, V>> entrySet;
     
@@ -95,6 +109,8 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
     
     transient ThreadLocal<ChainingInterface> cxt;
 
+    transient Set<java.io.Closeable> closeables;
+
     public VanillaChronicleMap(ChronicleMapBuilder<K, V> builder) throws IOException {
         super(builder);
         SerializationBuilder<V> valueBuilder = builder.valueBuilder;
@@ -143,6 +159,8 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
         this.entryOperations = (MapEntryOperations<K, V, R>) builder.entryOperations;
         this.methods = (MapMethods<K, V, R>) builder.methods;
         this.defaultValueProvider = builder.defaultValueProvider;
+        optimisticReads = builder.optimisticReads() && constantlySizedEntry &&
+                methods == DefaultSpi.mapMethods();
     }
 
     @Override
@@ -161,6 +179,7 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
             constantValueProvider.initTransients(valueReader);
         }
         cxt = new ThreadLocal<>();
+        closeables = new CopyOnWriteArraySet<>();
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -168,6 +187,28 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
         initOwnTransients();
     }
 
+    /**
+     * Registers a resource to be closed, when this map is closed. Public to be used by the map
+     * components from the other packages, e. g. remote operations.
+     */
+    public void addCloseable(java.io.Closeable closeable) {
+        closeables.add(closeable);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        for (java.io.Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOG.error("", e);
+            }
+        }
+        super.close();
+    }
+
     public final V checkValue(Object value) {
         if (!vClass.isInstance(value)) {
             throw new ClassCastException("Value must be a " + vClass.getName() +
@@ -347,9 +388,69 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
         return c;
     }
 
+    @Override
+    public ChronicleHashStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(actualSegments);
+        SegmentStatsRecorder r = statsRecorder;
+        for (int i = 0; i < actualSegments; i++) {
+            long size;
+            int tiers;
+            long freeChunks;
+            long fragmentedFreeChunks;
+            try (MapSegmentContext<K, V, ?> c = segmentContext(i)) {
+                IterationContext<K, V, ?> ic = (IterationContext<K, V, ?>) c;
+                tiers = ic.tiers();
+                size = c.size();
+                freeChunks = ic.freeChunks();
+                fragmentedFreeChunks = ic.fragmentedFreeChunks();
+            }
+            if (r != null) {
+                segmentStats.add(new SegmentStats(i, size, tiers, freeChunks, fragmentedFreeChunks,
+                        r.readLockAcquisitions(i), r.updateLockAcquisitions(i),
+                        r.writeLockAcquisitions(i), r.contendedLockAcquisitions(i),
+                        r.lockWaitNanos(i), r.lockWaitHistogram(i),
+                        r.searches(i), r.probes(i), r.allocationFailures(i)));
+            } else {
+                segmentStats.add(new SegmentStats(i, size, tiers, freeChunks, fragmentedFreeChunks,
+                        0L, 0L, 0L, 0L, 0L,
+                        new long[SegmentStatsRecorder.LOCK_WAIT_HISTOGRAM_BUCKETS], 0L, 0L, 0L));
+            }
+        }
+        return new ChronicleHashStats(segmentStats);
+    }
+
+    /**
+     * Restores the consistency of the memory of this map, left by processes, which didn't shut
+     * down cleanly, see {@link ChronicleMapBuilder#recoverPersistedTo(java.io.File,
+     * java.util.function.Consumer)}. Stale locks are reset and chains of tiers are checked
+     * sequentially, then segments are scanned in parallel. Should be called before the map is
+     * accessed by this or other processes.
+     */
+    public RecoveryReport recover() {
+        boolean globalMutableStateLockReset = resetGlobalMutableStateLock();
+        SegmentRecovery[] recoveries = new SegmentRecovery[actualSegments];
+        BitSet linkedExtraTiers = new BitSet();
+        for (int i = 0; i < actualSegments; i++) {
+            recoveries[i] = new SegmentRecovery();
+            recoverTiersChain(i, recoveries[i], linkedExtraTiers);
+        }
+        long tiersReclaimed = recoverFreeTiers(linkedExtraTiers);
+        IntStream.range(0, actualSegments).parallel().forEach(i -> {
+            try (MapSegmentContext<K, V, ?> c = segmentContext(i)) {
+                ((IterationContext<K, V, ?>) c).recover(recoveries[i]);
+            }
+        });
+        return SegmentRecovery.report(globalMutableStateLockReset, tiersReclaimed, recoveries);
+    }
+
     @Override
     public V get(Object key) {
         try (QueryContextInterface<K, V, R> q = queryContext(key)) {
+            if (optimisticReads) {
+                Object value = optimisticGet(q, null);
+                if (value != OPTIMISTIC_READ_FAILED)
+                    return (V) value;
+            }
             methods.get(q, q.defaultReturnValue());
             return q.defaultReturnValue().returnValue();
         }
@@ -358,12 +459,43 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
     @Override
     public V getUsing(K key, V usingValue) {
         try (QueryContextInterface<K, V, R> q = queryContext(key)) {
+            if (optimisticReads) {
+                Object value = optimisticGet(q, usingValue);
+                if (value != OPTIMISTIC_READ_FAILED)
+                    return (V) value;
+            }
             q.usingReturnValue().initUsingReturnValue(usingValue);
             methods.get(q, q.usingReturnValue());
             return q.usingReturnValue().returnValue();
         }
     }
 
+    private static final Object OPTIMISTIC_READ_FAILED = new Object();
+
+    /**
+     * Reads the value without acquiring the segment lock. Equivalent to the default {@link
+     * MapMethods#get} implementation, because optimistic reads are not applied, if custom map
+     * methods are configured.
+     *
+     * @return the value, or {@code null} if the key is absent, or {@link #OPTIMISTIC_READ_FAILED},
+     * if the segment is being modified at the moment, or was modified during the read
+     */
+    private Object optimisticGet(QueryContextInterface<K, V, R> q, V usingValue) {
+        if (!q.tryOptimisticReadLock())
+            return OPTIMISTIC_READ_FAILED;
+        try {
+            MapEntry<K, V> entry = q.entry();
+            V value = entry != null ? entry.value().getUsing(usingValue) : null;
+            return q.validateOptimisticReadLock() ? value : OPTIMISTIC_READ_FAILED;
+        } catch (RuntimeException e) {
+            // the segment was modified concurrently and inconsistent data was read, the locked
+            // read will throw the exception again, if it is not caused by the concurrent update
+            return OPTIMISTIC_READ_FAILED;
+        } finally {
+            q.readLock().unlock();
+        }
+    }
+
     @Override
     public V acquireUsing(K key, V usingValue) {
         try (QueryContextInterface<K, V, R> q = queryContext(key)) {
@@ -447,6 +579,95 @@ public class VanillaChronicleMap<K, KI, MKI extends MetaBytesInterop<K, ? super
         }
     }
 
+    @Override
+    public void getAll(Collection<? extends K> keys, Map<? super K, ? super V> out) {
+        List<K> keyList = new ArrayList<>(keys);
+        forEachKeyGroupedBySegments(keyList, false, (key, q) -> {
+            methods.get(q, q.defaultReturnValue());
+            V value = q.defaultReturnValue().returnValue();
+            if (value != null)
+                out.put(key, value);
+        });
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        List<K> keyList = new ArrayList<>(m.keySet());
+        forEachKeyGroupedBySegments(keyList, true, (key, q) -> {
+            V value = checkValue(m.get(key));
+            q.inputValueInstanceValue().initValue(value);
+            methods.put(q, q.inputValueInstanceValue(), NullReturnValue.get());
+        });
+    }
+
+    @Override
+    public void removeAll(Collection<? extends K> keys) {
+        List<K> keyList = new ArrayList<>(keys);
+        forEachKeyGroupedBySegments(keyList, true,
+                (key, q) -> methods.remove(q, NullReturnValue.get()));
+    }
+
+    /**
+     * Groups the given keys by segments, and applies the action to query contexts of all keys of
+     * each segment, holding the segment lock once, i. e. the first context of the segment is locked
+     * explicitly, and contexts of the rest keys of the segment are nested in it and share it's
+     * lock. Segments are locked in the ascending order of their indexes and only one at a time, so
+     * multi-key operations don't deadlock with each other. Keys, equal in the serialized form to
+     * the first key of the segment, are skipped, because nested contexts can't query the same key.
+     */
+    private void forEachKeyGroupedBySegments(
+            List<K> keys, boolean update, BiConsumer<K, QueryContextInterface<K, V, R>> action) {
+        int size = keys.size();
+        if (size == 0)
+            return;
+        long[] hashes = new long[size];
+        // segment index in the upper half, key index in the lower half, so sorting groups keys by
+        // segments and preserves the original order of keys within a segment
+        long[] segmentsAndIndexes = new long[size];
+        try (QueryContextInterface<K, V, R> q = mapContext()) {
+            for (int i = 0; i < size; i++) {
+                K key = keys.get(i);
+                checkKey(key);
+                q.inputKeyInstanceValue().initKey(key);
+                long hash = q.inputKeyInstanceValue().hash(LongHashFunction.city_1_1());
+                hashes[i] = hash;
+                segmentsAndIndexes[i] = (((long) hashSplitting.segmentIndex(hash)) << 32) | i;
+            }
+        }
+        Arrays.sort(segmentsAndIndexes);
+        for (int groupStart = 0; groupStart < size; ) {
+            int segmentIndex = (int) (segmentsAndIndexes[groupStart] >>> 32);
+            int groupEnd = groupStart + 1;
+            while (groupEnd < size && (int) (segmentsAndIndexes[groupEnd] >>> 32) == segmentIndex)
+                groupEnd++;
+            int firstKeyIndex = (int) segmentsAndIndexes[groupStart];
+            K firstKey = keys.get(firstKeyIndex);
+            try (QueryContextInterface<K, V, R> q = queryContext(firstKey)) {
+                if (update) {
+                    q.updateLock().lock();
+                    q.writeLock().lock();
+                } else {
+                    q.readLock().lock();
+                }
+                action.accept(firstKey, q);
+                for (int i = groupStart + 1; i < groupEnd; i++) {
+                    int keyIndex = (int) segmentsAndIndexes[i];
+                    K key = keys.get(keyIndex);
+                    try (QueryContextInterface<K, V, R> nested = queryContext(key)) {
+                        // nested contexts are not allowed to query the same key as the outer
+                        // context, keys are compared before the nested context is locked
+                        if (hashes[keyIndex] == hashes[firstKeyIndex] &&
+                                Data.bytesEquivalent(nested.queriedKey(), q.queriedKey())) {
+                            continue;
+                        }
+                        action.accept(key, nested);
+                    }
+                }
+            }
+            groupStart = groupEnd;
+        }
+    }
+
     @Override
     public V merge(K key, V value,
                    BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
@@ -16,11 +16,30 @@
 
 package net.openhft.chronicle.map.impl;
 
+import net.openhft.chronicle.hash.impl.SegmentIterationCursor;
+import net.openhft.chronicle.hash.impl.SegmentRecovery;
 import net.openhft.chronicle.map.MapEntry;
 import net.openhft.chronicle.map.MapSegmentContext;
 
+import java.util.function.Predicate;
+
 public interface IterationContext<K, V, R> extends MapEntry<K, V>, MapSegmentContext<K, V, R> {
     long pos();
     
     void initSegmentIndex(int segmentIndex);
+
+    long compactTiers(long fromCursor, long deadlineNanos);
+
+    int tiers();
+
+    long defragment(long fromCursor, long deadlineNanos);
+
+    boolean forEachSegmentEntryFrom(
+            SegmentIterationCursor cursor, Predicate<? super MapEntry<K, V>> action);
+
+    long freeChunks();
+
+    long fragmentedFreeChunks();
+
+    void recover(SegmentRecovery recovery);
 }
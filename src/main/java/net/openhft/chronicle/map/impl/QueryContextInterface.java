@@ -41,4 +41,10 @@ public interface QueryContextInterface<K, V, R> extends ExternalMapQueryContext<
     void initSegmentIndex(int segmentIndex);
     
     boolean segmentIndexInit();
+
+    int segmentIndex();
+
+    boolean tryOptimisticReadLock();
+
+    boolean validateOptimisticReadLock();
 }
@@ -17,6 +17,7 @@
 package net.openhft.chronicle.map.impl.stage.entry;
 
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.TierCountersArea;
 import net.openhft.chronicle.hash.replication.TimeProvider;
 import net.openhft.chronicle.map.MapAbsentEntry;
 import net.openhft.chronicle.map.impl.ReplicatedChronicleMapHolder;
@@ -46,6 +47,7 @@ public abstract class ReplicatedMapEntryStages<K, V> extends MapEntryStages<K, V
         s.segmentBytes.position(replicationBytesOffset);
         s.segmentBytes.writeLong(timestamp);
         s.segmentBytes.writeByte(identifier);
+        TierCountersArea.raiseMaxOriginTimestamp(s.tierCountersAreaAddr(), timestamp);
     }
 
     private long timestampOffset() {
@@ -151,6 +153,8 @@ public abstract class ReplicatedMapEntryStages<K, V> extends MapEntryStages<K, V
         long oldTierIndex = s.tierIndex;
         super.relocation(newValue, newSizeOfEverythingBeforeValue);
         ru.moveChange(oldTierIndex, oldPos, pos);
+        // replication state is copied along with the key, possibly to another tier
+        TierCountersArea.raiseMaxOriginTimestamp(s.tierCountersAreaAddr(), timestamp());
     }
 
     @Override
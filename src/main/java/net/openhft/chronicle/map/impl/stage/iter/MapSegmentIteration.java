@@ -21,6 +21,7 @@ import net.openhft.chronicle.hash.impl.stage.iter.HashSegmentIteration;
 import net.openhft.chronicle.map.MapContext;
 import net.openhft.chronicle.map.MapEntry;
 import net.openhft.chronicle.map.impl.IterationContext;
+import net.openhft.chronicle.map.impl.VanillaChronicleMapHolder;
 import net.openhft.chronicle.map.impl.stage.entry.MapEntryStages;
 import net.openhft.chronicle.map.impl.stage.map.WrappedValueInstanceValueHolder;
 import net.openhft.sg.StageRef;
@@ -32,6 +33,7 @@ public abstract class MapSegmentIteration<K, V, R> extends HashSegmentIteration<
         implements MapEntry<K, V>, IterationContext<K, V, R> {
     
     @StageRef MapEntryStages<K, V> entry;
+    @StageRef VanillaChronicleMapHolder<K, ?, ?, V, ?, ?, R> mh;
     @StageRef WrappedValueInstanceValueHolder<K, V, ?> wrappedValueInstanceValueHolder;
 
     @Override
@@ -45,6 +47,12 @@ public abstract class MapSegmentIteration<K, V, R> extends HashSegmentIteration<
         }
     }
 
+    @Override
+    protected boolean entriesCouldBeCopiedVerbatim() {
+        // otherwise value offsets depend on alignment of entry positions
+        return !mh.m().couldNotDetermineAlignmentBeforeAllocation;
+    }
+
     @NotNull
     @Override
     public MapContext<K, V, ?> context() {
@@ -19,6 +19,7 @@ package net.openhft.chronicle.map.impl.stage.iter;
 import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.hash.ReplicatedHashSegmentContext;
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.TierCountersArea;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.replication.ReplicableEntry;
 import net.openhft.chronicle.map.MapAbsentEntry;
@@ -71,37 +72,79 @@ public abstract class ReplicatedMapSegmentIteration<K, V, R> extends MapSegmentI
             long entries = s.entries();
             if (entries == 0)
                 return true;
-            boolean interrupted = false;
-            long startPos = 0L;
-            CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
-            while (!hashLookup.empty(hashLookup.readEntry(s.segmentBaseAddr, startPos))) {
-                startPos = hashLookup.step(startPos);
-            }
-            hlp.initHashLookupPos(startPos);
-            do {
-                hlp.setHashLookupPos(hashLookup.step(hlp.hashLookupPos));
-                long entry = hashLookup.readEntry(s.segmentBaseAddr, hlp.hashLookupPos);
-                if (!hashLookup.empty(entry)) {
-                    e.readExistingEntry(hashLookup.value(entry));
-                    ReplicableEntry e = !this.e.entryDeleted() ? entryDelegating :
-                            absentEntryDelegating;
-                    initEntryRemovedOnThisIteration(false);
-                    if (!predicate.test(e)) {
-                        interrupted = true;
-                        break;
-                    } else {
-                        if (--entries == 0)
-                            break;
-                    }
+            return forEachTierReplicableEntryWhile(predicate, entries) >= 0;
+        } finally {
+            s.innerReadLock.unlock();
+            initEntryRemovedOnThisIteration(false);
+        }
+    }
+
+    /**
+     * Iterates replicable entries of all tiers of this segment, skipping tiers in which no entry
+     * was written with origin timestamp greater than or equal to the given one, according to the
+     * {@linkplain TierCountersArea#MAX_ORIGIN_TIMESTAMP_OFFSET high-water marks} of the tiers.
+     * Tiers with unknown high-water marks are iterated.
+     */
+    public boolean forEachSegmentReplicableEntryWhile(
+            long minOriginTimestamp, Predicate<? super ReplicableEntry> predicate) {
+        s.innerUpdateLock.lock();
+        try {
+            long entries = s.entries();
+            if (entries == 0)
+                return true;
+            s.goToFirstTier();
+            while (true) {
+                long maxOriginTimestamp = TierCountersArea.maxOriginTimestamp(
+                        s.tierCountersAreaAddr());
+                if (maxOriginTimestamp == 0L || maxOriginTimestamp >= minOriginTimestamp) {
+                    entries = forEachTierReplicableEntryWhile(predicate, entries);
+                    if (entries < 0) // interrupted
+                        return false;
+                    if (entries == 0)
+                        return true;
                 }
-            } while (hlp.hashLookupPos != startPos);
-            return !interrupted;
+                if (!s.hasNextTier())
+                    return true;
+                s.nextTier();
+            }
         } finally {
             s.innerReadLock.unlock();
             initEntryRemovedOnThisIteration(false);
         }
     }
 
+    /**
+     * Iterates replicable entries of the current tier, until the given number of entries of the
+     * segment is iterated.
+     *
+     * @return the number of entries left to iterate, or the bitwise complement of it, if the
+     * predicate returned {@code false}
+     */
+    private long forEachTierReplicableEntryWhile(
+            Predicate<? super ReplicableEntry> predicate, long entries) {
+        long startPos = 0L;
+        CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        while (!hashLookup.empty(hashLookup.readEntry(s.segmentBaseAddr, startPos))) {
+            startPos = hashLookup.step(startPos);
+        }
+        hlp.initHashLookupPos(startPos);
+        do {
+            hlp.setHashLookupPos(hashLookup.step(hlp.hashLookupPos));
+            long entry = hashLookup.readEntry(s.segmentBaseAddr, hlp.hashLookupPos);
+            if (!hashLookup.empty(entry)) {
+                e.readExistingEntry(hashLookup.value(entry));
+                ReplicableEntry e = !this.e.entryDeleted() ? entryDelegating :
+                        absentEntryDelegating;
+                initEntryRemovedOnThisIteration(false);
+                if (!predicate.test(e))
+                    return ~entries;
+                if (--entries == 0)
+                    return 0L;
+            }
+        } while (hlp.hashLookupPos != startPos);
+        return entries;
+    }
+
     @Override
     public void forEachSegmentReplicableEntry(Consumer<? super ReplicableEntry> action) {
         forEachSegmentReplicableEntryWhile(e -> {
@@ -110,6 +153,12 @@ public abstract class ReplicatedMapSegmentIteration<K, V, R> extends MapSegmentI
         });
     }
 
+    @Override
+    protected void onEntryMoved(long oldTierIndex, long oldPos) {
+        ru.moveChange(oldTierIndex, oldPos, e.pos);
+        TierCountersArea.raiseMaxOriginTimestamp(s.tierCountersAreaAddr(), e.timestamp());
+    }
+
     @Override
     public void doRemove() {
         checkOnEachPublicOperation.checkOnEachPublicOperation();
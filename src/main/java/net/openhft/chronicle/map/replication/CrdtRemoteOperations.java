@@ -0,0 +1,234 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.bytes.PointerBytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.AbstractData;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.map.ChronicleMapBuilder;
+import net.openhft.chronicle.map.ExternalMapQueryContext;
+import net.openhft.chronicle.map.MapEntry;
+import net.openhft.chronicle.map.Replica;
+import net.openhft.chronicle.map.VanillaChronicleMap;
+import net.openhft.lang.io.Bytes;
+import net.openhft.lang.io.DirectStore;
+import net.openhft.lang.io.serialization.JDKObjectSerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Base {@link MapRemoteOperations} of state-based CRDT (conflict-free replicated data type)
+ * values, which are merged on replication, rather than overwritten by the latest value. So every
+ * node could accept updates of the same keys without coordination, and all nodes converge to the
+ * same values, when they receive all updates. Both states are merged straight from their
+ * serialized forms, the value of the entry is overwritten in place, if the merged state has the
+ * same size, that is the common case.
+ *
+ * <p>Only the first insertion of a key and removals are resolved by the default "latest wins"
+ * strategy, i. e. removal of a key resets the value, unless a concurrent update is later.
+ * Updates, received from a remote node, are not sent further to other nodes, so every node should
+ * be connected to every other node, as usual.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ * @param <R> the return type of {@link net.openhft.chronicle.map.MapEntryOperations} specified
+ *            for the queried map
+ * @see ChronicleMapBuilder#remoteOperations(MapRemoteOperations)
+ */
+public abstract class CrdtRemoteOperations<K, V, R> implements MapRemoteOperations<K, V, R> {
+
+    /**
+     * Merged states of the thread, per replicated map, because the same remote operations could
+     * be configured for several maps. Keyed by identity, {@code ChronicleMap.equals()} compares
+     * contents.
+     */
+    private final ThreadLocal<Map<ChronicleMap<K, V>, MergedState<V>>> mergedStates =
+            ThreadLocal.withInitial(IdentityHashMap::new);
+
+    /**
+     * Writes the merge of the local and the remote states of the value to {@code merged}. The
+     * merge should be commutative, associative and idempotent, the size of the merged state
+     * shouldn't exceed {@code localSize + remoteSize}.
+     *
+     * @param local        bytes of the local state
+     * @param localOffset  the offset of the local state within {@code local}
+     * @param localSize    the size of the local state
+     * @param remote       bytes of the remote state
+     * @param remoteOffset the offset of the remote state within {@code remote}
+     * @param remoteSize   the size of the remote state
+     * @param merged       bytes to write the merged state to, from the position
+     */
+    protected abstract void merge(RandomDataInput local, long localOffset, long localSize,
+                                  RandomDataInput remote, long remoteOffset, long remoteSize,
+                                  Bytes merged);
+
+    @Override
+    public void put(MapRemoteQueryContext<K, V, R> q, Data<V> newValue) {
+        MapReplicableEntry<K, V> entry = q.entry();
+        if (entry == null) {
+            MapRemoteOperations.super.put(q, newValue);
+            return;
+        }
+        Data<V> local = entry.value();
+        MergedState<V> merged = mergedState(q.map());
+        merged.ensureCapacity(local.size() + newValue.size());
+        merge(local.bytes(), local.offset(), local.size(),
+                newValue.bytes(), newValue.offset(), newValue.size(), merged.bytes);
+        merged.commit();
+        // local updates, not yet replicated, keep the local origin, to be replicated with the
+        // merged state
+        boolean changed = entry.isChanged();
+        if (!Data.bytesEquivalent(local, merged))
+            q.replaceValue(entry, merged);
+        if (!changed) {
+            entry.updateOrigin(q.remoteIdentifier(),
+                    Math.max(entry.originTimestamp(), q.remoteTimestamp()));
+            entry.dropChanged();
+        }
+    }
+
+    private MergedState<V> mergedState(ChronicleMap<K, V> map) {
+        Map<ChronicleMap<K, V>, MergedState<V>> states = mergedStates.get();
+        MergedState<V> state = states.get(map);
+        if (state == null || state.closed) {
+            VanillaChronicleMap<K, ?, ?, V, ?, ?, ?> m =
+                    (VanillaChronicleMap<K, ?, ?, V, ?, ?, ?>) map;
+            state = new MergedState<>(m);
+            // the native memory of the state is freed, when the map is closed
+            m.addCloseable(state);
+            states.put(map, state);
+        }
+        return state;
+    }
+
+    interface LocalUpdate<V> {
+        /**
+         * @param value      the current value, or {@code null} if the key is absent
+         * @param identifier the identifier of the local node
+         * @return the updated value
+         */
+        V update(@Nullable V value, byte identifier);
+    }
+
+    /**
+     * Updates the value of the key on the local node, under the update lock of the key
+     *
+     * @return the updated value
+     */
+    static <K, V> V updateLocally(ChronicleMap<K, V> map, K key, LocalUpdate<V> update) {
+        if (!(map instanceof Replica))
+            throw new IllegalArgumentException("CRDT values are applicable to replicated maps");
+        byte identifier = ((Replica) map).identifier();
+        try (ExternalMapQueryContext<K, V, ?> q = map.queryContext(key)) {
+            q.updateLock().lock();
+            MapEntry<K, V> entry = q.entry();
+            V value = update.update(entry != null ? entry.value().getUsing(null) : null,
+                    identifier);
+            if (entry != null) {
+                q.replaceValue(entry, q.wrapValueAsData(value));
+            } else {
+                q.insert(q.absentEntry(), q.wrapValueAsData(value));
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A merged state, in native memory, reused by the thread for the same map
+     */
+    private static final class MergedState<V> extends AbstractData<V> implements Closeable {
+        private final VanillaChronicleMap<?, ?, ?, V, ?, ?, ?> map;
+        private DirectStore store;
+        private Bytes bytes;
+        private final PointerBytesStore bytesStore = new PointerBytesStore();
+        private long size;
+        private V cachedValue;
+        private boolean cachedValueRead;
+        volatile boolean closed;
+
+        MergedState(VanillaChronicleMap<?, ?, ?, V, ?, ?, ?> map) {
+            this.map = map;
+            allocate(256L);
+        }
+
+        private void allocate(long capacity) {
+            store = new DirectStore(JDKObjectSerializer.INSTANCE, capacity, false);
+            bytes = store.bytes();
+        }
+
+        void ensureCapacity(long capacity) {
+            if (store.size() < capacity) {
+                long newCapacity = Math.max(capacity, store.size() * 2L);
+                store.free();
+                allocate(newCapacity);
+            }
+            bytes.clear();
+        }
+
+        void commit() {
+            size = bytes.position();
+            bytesStore.set(store.address(), size);
+            cachedValueRead = false;
+            cachedValue = null;
+        }
+
+        @Override
+        public RandomDataInput bytes() {
+            return bytesStore;
+        }
+
+        @Override
+        public long offset() {
+            return 0L;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public V get() {
+            if (!cachedValueRead) {
+                cachedValue = getUsing(null);
+                cachedValueRead = true;
+            }
+            return cachedValue;
+        }
+
+        @Override
+        public V getUsing(V using) {
+            BytesReader<V> reader = map.valueReaderProvider.get(
+                    map.valueReaderProvider.getCopies(null), map.originalValueReader);
+            bytes.position(0L);
+            return reader.read(bytes, size, using);
+        }
+
+        @Override
+        public void close() {
+            // called from the closing thread, after replication of the map is stopped
+            closed = true;
+            store.free();
+        }
+    }
+}
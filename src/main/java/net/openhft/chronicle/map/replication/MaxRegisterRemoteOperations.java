@@ -0,0 +1,39 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.lang.io.Bytes;
+
+/**
+ * Max-register CRDT of {@code Long} values: on replication the greater of the local and the
+ * remote values wins, regardless of the time of the updates. Local updates should never decrease
+ * the value, e. g. {@code map.merge(key, value, Math::max)}, otherwise nodes might not converge.
+ *
+ * @param <K> the map key type
+ * @param <R> the return type of {@link net.openhft.chronicle.map.MapEntryOperations} specified
+ *            for the queried map
+ */
+public class MaxRegisterRemoteOperations<K, R> extends CrdtRemoteOperations<K, Long, R> {
+
+    @Override
+    protected void merge(RandomDataInput local, long localOffset, long localSize,
+                         RandomDataInput remote, long remoteOffset, long remoteSize,
+                         Bytes merged) {
+        merged.writeLong(Math.max(local.readLong(localOffset), remote.readLong(remoteOffset)));
+    }
+}
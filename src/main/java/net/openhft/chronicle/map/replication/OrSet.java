@@ -0,0 +1,219 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * OR-set (observed-remove set) CRDT value of strings: every node could add and remove elements
+ * without coordination, an addition wins over a concurrent removal of the same element. Each
+ * addition is tagged with a dot, i. e. the identifier of the node and the number of additions
+ * on that node, the set keeps dots of present elements and the version vector, i. e. the
+ * greatest dot of each node, observed by this set. So removed elements leave no tombstones: a
+ * dot, absent in one state, but covered by its version vector, is removed. Configure maps of sets
+ * with {@link Marshaller} and {@link OrSetRemoteOperations}: <pre>{@code
+ * ChronicleMap<String, OrSet> tags = ChronicleMapBuilder.of(String.class, OrSet.class)
+ *         .valueMarshallers(OrSet.Marshaller.INSTANCE, OrSet.Marshaller.INSTANCE)
+ *         .remoteOperations(new OrSetRemoteOperations<>())
+ *         .replication(identifier, tcpConfig)
+ *         .create();
+ * OrSet.addTo(tags, "article", "crdt");}</pre>
+ */
+public final class OrSet {
+
+    /**
+     * Size of the serialized version of a node: byte identifier, long counter
+     */
+    static final int VERSION_SIZE = 9;
+    /**
+     * Size of the serialized dot of an element, before the element: byte identifier, long
+     * counter, int elementSize
+     */
+    static final int DOT_HEADER_SIZE = 13;
+
+    private final long[] versions = new long[128];
+    /**
+     * Ordered by the identifier, then by the counter
+     */
+    private final List<Dot> dots = new ArrayList<>();
+
+    /**
+     * Adds the {@code element} to the set of the key on the local node of the replicated {@code
+     * map}, under the update lock of the key.
+     */
+    public static <K> void addTo(ChronicleMap<K, OrSet> map, K key, String element) {
+        CrdtRemoteOperations.updateLocally(map, key, (set, identifier) -> {
+            if (set == null)
+                set = new OrSet();
+            set.add(identifier, element);
+            return set;
+        });
+    }
+
+    /**
+     * Removes the {@code element} from the set of the key on the local node of the replicated
+     * {@code map}, under the update lock of the key.
+     */
+    public static <K> void removeFrom(ChronicleMap<K, OrSet> map, K key, String element) {
+        CrdtRemoteOperations.updateLocally(map, key, (set, identifier) -> {
+            if (set == null)
+                set = new OrSet();
+            set.remove(element);
+            return set;
+        });
+    }
+
+    public boolean contains(String element) {
+        byte[] bytes = element.getBytes(UTF_8);
+        for (Dot dot : dots) {
+            if (Arrays.equals(dot.element, bytes))
+                return true;
+        }
+        return false;
+    }
+
+    public Set<String> elements() {
+        Set<String> elements = new LinkedHashSet<>();
+        for (Dot dot : dots) {
+            elements.add(new String(dot.element, UTF_8));
+        }
+        return elements;
+    }
+
+    /**
+     * Adds the {@code element} on behalf of the node with the given identifier.
+     */
+    public void add(byte identifier, String element) {
+        remove(element);
+        long counter = ++versions[identifier];
+        int index = 0;
+        while (index < dots.size() && dots.get(index).identifier <= identifier)
+            index++;
+        dots.add(index, new Dot(identifier, counter, element.getBytes(UTF_8)));
+    }
+
+    /**
+     * Removes the {@code element}, i. e. all observed additions of it.
+     */
+    public void remove(String element) {
+        byte[] bytes = element.getBytes(UTF_8);
+        dots.removeIf(dot -> Arrays.equals(dot.element, bytes));
+    }
+
+    @Override
+    public String toString() {
+        return "OrSet" + elements();
+    }
+
+    private static final class Dot {
+        final byte identifier;
+        final long counter;
+        final byte[] element;
+
+        Dot(byte identifier, long counter, byte[] element) {
+            this.identifier = identifier;
+            this.counter = counter;
+            this.element = element;
+        }
+    }
+
+    /**
+     * Serialized form: byte versionsCount, (byte identifier, long counter)*, (byte identifier,
+     * long counter, int elementSize, UTF-8 element)*, versions and dots are ordered by the
+     * identifier, then by the counter.
+     */
+    public enum Marshaller implements BytesWriter<OrSet>, BytesReader<OrSet> {
+        INSTANCE;
+
+        @Override
+        public long size(@NotNull OrSet set) {
+            long size = 1L;
+            for (long version : set.versions) {
+                if (version != 0L)
+                    size += VERSION_SIZE;
+            }
+            for (Dot dot : set.dots) {
+                size += DOT_HEADER_SIZE + dot.element.length;
+            }
+            return size;
+        }
+
+        @Override
+        public void write(@NotNull Bytes bytes, @NotNull OrSet set) {
+            long countPosition = bytes.position();
+            bytes.writeByte(0);
+            int count = 0;
+            for (int identifier = 0; identifier < set.versions.length; identifier++) {
+                if (set.versions[identifier] != 0L) {
+                    bytes.writeByte(identifier);
+                    bytes.writeLong(set.versions[identifier]);
+                    count++;
+                }
+            }
+            bytes.writeByte(countPosition, count);
+            for (Dot dot : set.dots) {
+                bytes.writeByte(dot.identifier);
+                bytes.writeLong(dot.counter);
+                bytes.writeInt(dot.element.length);
+                bytes.write(dot.element);
+            }
+        }
+
+        @NotNull
+        @Override
+        public OrSet read(@NotNull Bytes bytes, long size) {
+            return read(bytes, size, null);
+        }
+
+        @NotNull
+        @Override
+        public OrSet read(@NotNull Bytes bytes, long size, @Nullable OrSet toReuse) {
+            OrSet set = toReuse != null ? toReuse : new OrSet();
+            Arrays.fill(set.versions, 0L);
+            set.dots.clear();
+            if (size == 0L)
+                return set;
+            long end = bytes.position() + size;
+            int count = bytes.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                byte identifier = bytes.readByte();
+                set.versions[identifier] = bytes.readLong();
+            }
+            while (bytes.position() < end) {
+                byte identifier = bytes.readByte();
+                long counter = bytes.readLong();
+                byte[] element = new byte[bytes.readInt()];
+                bytes.readFully(element);
+                set.dots.add(new Dot(identifier, counter, element));
+            }
+            return set;
+        }
+    }
+}
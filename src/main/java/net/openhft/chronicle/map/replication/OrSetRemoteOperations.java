@@ -0,0 +1,126 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.lang.io.Bytes;
+
+import java.util.Arrays;
+
+import static net.openhft.chronicle.map.replication.OrSet.DOT_HEADER_SIZE;
+import static net.openhft.chronicle.map.replication.OrSet.VERSION_SIZE;
+
+/**
+ * Merges {@link OrSet} values: version vectors are merged by taking the greater version of each
+ * node, a dot, present in both states, is kept, a dot, present in one state only, is kept, unless
+ * the other state has observed it, i. e. the dot is covered by the version vector of the other
+ * state, that means the element is removed on the other node.
+ *
+ * @param <K> the map key type
+ * @param <R> the return type of {@link net.openhft.chronicle.map.MapEntryOperations} specified
+ *            for the queried map
+ */
+public class OrSetRemoteOperations<K, R> extends CrdtRemoteOperations<K, OrSet, R> {
+
+    private final ThreadLocal<long[][]> versions =
+            ThreadLocal.withInitial(() -> new long[2][128]);
+
+    @Override
+    protected void merge(RandomDataInput local, long localOffset, long localSize,
+                         RandomDataInput remote, long remoteOffset, long remoteSize,
+                         Bytes merged) {
+        long[][] versions = this.versions.get();
+        long[] localVersions = versions[0];
+        long[] remoteVersions = versions[1];
+        long localPos = readVersions(local, localOffset, localSize, localVersions);
+        long remotePos = readVersions(remote, remoteOffset, remoteSize, remoteVersions);
+
+        long countPosition = merged.position();
+        merged.writeByte(0);
+        int count = 0;
+        for (int identifier = 0; identifier < localVersions.length; identifier++) {
+            long version = Math.max(localVersions[identifier], remoteVersions[identifier]);
+            if (version != 0L) {
+                merged.writeByte(identifier);
+                merged.writeLong(version);
+                count++;
+            }
+        }
+        merged.writeByte(countPosition, count);
+
+        long localEnd = localOffset + localSize;
+        long remoteEnd = remoteOffset + remoteSize;
+        while (localPos < localEnd || remotePos < remoteEnd) {
+            int cmp;
+            if (localPos >= localEnd) {
+                cmp = 1;
+            } else if (remotePos >= remoteEnd) {
+                cmp = -1;
+            } else {
+                cmp = compareDots(local, localPos, remote, remotePos);
+            }
+            if (cmp == 0) {
+                copyDot(local, localPos, merged);
+                localPos += dotSize(local, localPos);
+                remotePos += dotSize(remote, remotePos);
+            } else if (cmp < 0) {
+                if (local.readLong(localPos + 1L) > remoteVersions[local.readByte(localPos)])
+                    copyDot(local, localPos, merged);
+                localPos += dotSize(local, localPos);
+            } else {
+                if (remote.readLong(remotePos + 1L) > localVersions[remote.readByte(remotePos)])
+                    copyDot(remote, remotePos, merged);
+                remotePos += dotSize(remote, remotePos);
+            }
+        }
+    }
+
+    /**
+     * @return the offset of the first dot
+     */
+    private static long readVersions(RandomDataInput state, long offset, long size,
+                                     long[] versions) {
+        Arrays.fill(versions, 0L);
+        if (size == 0L)
+            return offset;
+        int count = state.readByte(offset) & 0xFF;
+        long pos = offset + 1L;
+        for (int i = 0; i < count; i++, pos += VERSION_SIZE) {
+            versions[state.readByte(pos)] = state.readLong(pos + 1L);
+        }
+        return pos;
+    }
+
+    private static int compareDots(RandomDataInput local, long localPos,
+                                   RandomDataInput remote, long remotePos) {
+        int cmp = Byte.compare(local.readByte(localPos), remote.readByte(remotePos));
+        if (cmp != 0)
+            return cmp;
+        return Long.compare(local.readLong(localPos + 1L), remote.readLong(remotePos + 1L));
+    }
+
+    private static long dotSize(RandomDataInput state, long pos) {
+        return DOT_HEADER_SIZE + state.readInt(pos + 9L);
+    }
+
+    private static void copyDot(RandomDataInput state, long pos, Bytes merged) {
+        long end = pos + dotSize(state, pos);
+        for (; pos < end; pos++) {
+            merged.writeByte(state.readByte(pos));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.hash.serialization.BytesReader;
+import net.openhft.chronicle.hash.serialization.BytesWriter;
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * PN-counter CRDT value: a counter, which every node could increment and decrement without
+ * coordination. Holds the sums of increments and decrements, made on each node, the value of the
+ * counter is the difference of all increments and all decrements. Configure maps of counters with
+ * {@link Marshaller} and {@link PnCounterRemoteOperations}: <pre>{@code
+ * ChronicleMap<String, PnCounter> counters = ChronicleMapBuilder.of(String.class, PnCounter.class)
+ *         .valueMarshallers(PnCounter.Marshaller.INSTANCE, PnCounter.Marshaller.INSTANCE)
+ *         .remoteOperations(new PnCounterRemoteOperations<>())
+ *         .replication(identifier, tcpConfig)
+ *         .create();
+ * PnCounter.addTo(counters, "hits", 1);}</pre>
+ */
+public final class PnCounter {
+
+    /**
+     * Serialized form of each node's sums: byte identifier, long increments, long decrements.
+     * Sums are ordered by the identifiers.
+     */
+    static final int SLOT_SIZE = 17;
+
+    private byte[] identifiers = new byte[4];
+    private long[] increments = new long[4];
+    private long[] decrements = new long[4];
+    private int slots;
+
+    /**
+     * Adds the {@code delta} to the counter of the key on the local node of the replicated {@code
+     * map}, under the update lock of the key.
+     *
+     * @return the value of the counter after the update
+     */
+    public static <K> long addTo(ChronicleMap<K, PnCounter> map, K key, long delta) {
+        return CrdtRemoteOperations.updateLocally(map, key, (counter, identifier) -> {
+            if (counter == null)
+                counter = new PnCounter();
+            counter.add(identifier, delta);
+            return counter;
+        }).value();
+    }
+
+    /**
+     * Returns the value of the counter, i. e. the difference of increments and decrements, made
+     * on all nodes.
+     */
+    public long value() {
+        long value = 0L;
+        for (int i = 0; i < slots; i++) {
+            value += increments[i] - decrements[i];
+        }
+        return value;
+    }
+
+    /**
+     * Adds the {@code delta} to the counter on behalf of the node with the given identifier.
+     */
+    public void add(byte identifier, long delta) {
+        int slot = slot(identifier);
+        if (delta >= 0L) {
+            increments[slot] += delta;
+        } else {
+            decrements[slot] -= delta;
+        }
+    }
+
+    private int slot(byte identifier) {
+        int slot = 0;
+        while (slot < slots && identifiers[slot] < identifier)
+            slot++;
+        if (slot < slots && identifiers[slot] == identifier)
+            return slot;
+        if (slots == identifiers.length) {
+            identifiers = Arrays.copyOf(identifiers, slots * 2);
+            increments = Arrays.copyOf(increments, slots * 2);
+            decrements = Arrays.copyOf(decrements, slots * 2);
+        }
+        int tail = slots - slot;
+        System.arraycopy(identifiers, slot, identifiers, slot + 1, tail);
+        System.arraycopy(increments, slot, increments, slot + 1, tail);
+        System.arraycopy(decrements, slot, decrements, slot + 1, tail);
+        identifiers[slot] = identifier;
+        increments[slot] = 0L;
+        decrements[slot] = 0L;
+        slots++;
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "PnCounter{value=" + value() + ", nodes=" + slots + '}';
+    }
+
+    public enum Marshaller implements BytesWriter<PnCounter>, BytesReader<PnCounter> {
+        INSTANCE;
+
+        @Override
+        public long size(@NotNull PnCounter counter) {
+            return counter.slots * (long) SLOT_SIZE;
+        }
+
+        @Override
+        public void write(@NotNull Bytes bytes, @NotNull PnCounter counter) {
+            for (int i = 0; i < counter.slots; i++) {
+                bytes.writeByte(counter.identifiers[i]);
+                bytes.writeLong(counter.increments[i]);
+                bytes.writeLong(counter.decrements[i]);
+            }
+        }
+
+        @NotNull
+        @Override
+        public PnCounter read(@NotNull Bytes bytes, long size) {
+            return read(bytes, size, null);
+        }
+
+        @NotNull
+        @Override
+        public PnCounter read(@NotNull Bytes bytes, long size, @Nullable PnCounter toReuse) {
+            if (size % SLOT_SIZE != 0L)
+                throw new IllegalStateException("PN-counter size couldn't be " + size);
+            PnCounter counter = toReuse != null ? toReuse : new PnCounter();
+            int slots = (int) (size / SLOT_SIZE);
+            if (counter.identifiers.length < slots) {
+                counter.identifiers = new byte[slots];
+                counter.increments = new long[slots];
+                counter.decrements = new long[slots];
+            }
+            for (int i = 0; i < slots; i++) {
+                counter.identifiers[i] = bytes.readByte();
+                counter.increments[i] = bytes.readLong();
+                counter.decrements[i] = bytes.readLong();
+            }
+            counter.slots = slots;
+            return counter;
+        }
+    }
+}
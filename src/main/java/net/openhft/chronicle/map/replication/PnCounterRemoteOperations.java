@@ -0,0 +1,67 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.replication;
+
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.lang.io.Bytes;
+
+import static net.openhft.chronicle.map.replication.PnCounter.SLOT_SIZE;
+
+/**
+ * Merges {@link PnCounter} values: the sums of increments and decrements of each node only grow,
+ * so the greater of the local and the remote sums is taken for each node.
+ *
+ * @param <K> the map key type
+ * @param <R> the return type of {@link net.openhft.chronicle.map.MapEntryOperations} specified
+ *            for the queried map
+ */
+public class PnCounterRemoteOperations<K, R> extends CrdtRemoteOperations<K, PnCounter, R> {
+
+    @Override
+    protected void merge(RandomDataInput local, long localOffset, long localSize,
+                         RandomDataInput remote, long remoteOffset, long remoteSize,
+                         Bytes merged) {
+        long localEnd = localOffset + localSize;
+        long remoteEnd = remoteOffset + remoteSize;
+        while (localOffset < localEnd || remoteOffset < remoteEnd) {
+            // 128 is greater than any identifier, i. e. the state is over
+            int localIdentifier = localOffset < localEnd ? local.readByte(localOffset) : 128;
+            int remoteIdentifier = remoteOffset < remoteEnd ? remote.readByte(remoteOffset) : 128;
+            if (localIdentifier == remoteIdentifier) {
+                merged.writeByte(localIdentifier);
+                merged.writeLong(Math.max(local.readLong(localOffset + 1L),
+                        remote.readLong(remoteOffset + 1L)));
+                merged.writeLong(Math.max(local.readLong(localOffset + 9L),
+                        remote.readLong(remoteOffset + 9L)));
+                localOffset += SLOT_SIZE;
+                remoteOffset += SLOT_SIZE;
+            } else if (localIdentifier < remoteIdentifier) {
+                copySlot(local, localOffset, merged);
+                localOffset += SLOT_SIZE;
+            } else {
+                copySlot(remote, remoteOffset, merged);
+                remoteOffset += SLOT_SIZE;
+            }
+        }
+    }
+
+    private static void copySlot(RandomDataInput state, long offset, Bytes merged) {
+        merged.writeByte(state.readByte(offset));
+        merged.writeLong(state.readLong(offset + 1L));
+        merged.writeLong(state.readLong(offset + 9L));
+    }
+}
@@ -19,6 +19,9 @@ package net.openhft.chronicle.set;
 import net.openhft.chronicle.hash.ChronicleHashBuilder;
 import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
 import net.openhft.chronicle.hash.ChronicleHashInstanceBuilder;
+import net.openhft.chronicle.hash.DurabilityPolicy;
+import net.openhft.chronicle.hash.RecoveryReport;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
 import net.openhft.chronicle.hash.replication.SingleChronicleHashReplication;
 import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
 import net.openhft.chronicle.hash.replication.TimeProvider;
@@ -38,6 +41,7 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * {@code ChronicleSetBuilder} manages the whole set of {@link ChronicleSet} configurations, could
@@ -221,6 +225,44 @@ public final class ChronicleSetBuilder<K>
         return this;
     }
 
+    @Override
+    public ChronicleSetBuilder<K> compactSegmentTiers(long compactionInterval, TimeUnit unit) {
+        chronicleMapBuilder.compactSegmentTiers(compactionInterval, unit);
+        return this;
+    }
+
+    @Override
+    public ChronicleSetBuilder<K> lockAcquisitionStrategy(
+            LockAcquisitionStrategy lockAcquisitionStrategy) {
+        chronicleMapBuilder.lockAcquisitionStrategy(lockAcquisitionStrategy);
+        return this;
+    }
+
+    @Override
+    public ChronicleSetBuilder<K> durabilityPolicy(DurabilityPolicy durabilityPolicy) {
+        chronicleMapBuilder.durabilityPolicy(durabilityPolicy);
+        return this;
+    }
+
+    @Override
+    public ChronicleSetBuilder<K> recordStats(boolean recordStats) {
+        chronicleMapBuilder.recordStats(recordStats);
+        return this;
+    }
+
+    @Override
+    public ChronicleSetBuilder<K> defragmentSegments(long defragmentationInterval,
+                                                     TimeUnit unit) {
+        chronicleMapBuilder.defragmentSegments(defragmentationInterval, unit);
+        return this;
+    }
+
+    @Override
+    public ChronicleSetBuilder<K> freeRunHints(boolean freeRunHints) {
+        chronicleMapBuilder.freeRunHints(freeRunHints);
+        return this;
+    }
+
     @Override
     public ChronicleSetBuilder<K> bytesMarshallerFactory(
             BytesMarshallerFactory bytesMarshallerFactory) {
@@ -335,6 +377,20 @@ public final class ChronicleSetBuilder<K>
         return new SetFromMap<>(map);
     }
 
+    @Override
+    public ChronicleSet<K> recoverPersistedTo(
+            File file, Consumer<? super RecoveryReport> reportListener) throws IOException {
+        ChronicleMap<K, DummyValue> map =
+                chronicleMapBuilder.recoverPersistedTo(file, reportListener);
+        return new SetFromMap<>(map);
+    }
+
+    @Override
+    public ChronicleSet<K> recoverPersistedTo(File file) throws IOException {
+        ChronicleMap<K, DummyValue> map = chronicleMapBuilder.recoverPersistedTo(file);
+        return new SetFromMap<>(map);
+    }
+
     /**
      * @deprecated don't use private API in the client code
      */
@@ -16,7 +16,9 @@
 
 package net.openhft.chronicle.set;
 
+import net.openhft.chronicle.hash.ChronicleHashStats;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.replication.ReplicationStats;
 import net.openhft.chronicle.hash.serialization.internal.DummyValue;
 import net.openhft.chronicle.map.ChronicleMap;
 import org.jetbrains.annotations.NotNull;
@@ -27,7 +29,10 @@ import java.io.Serializable;
 import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -157,6 +162,37 @@ class SetFromMap<E> extends AbstractSet<E>
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean forEachEntryWhileParallel(Predicate<? super SetEntry<E>> predicate,
+                                             ForkJoinPool pool) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void forEachEntryParallel(Consumer<? super SetEntry<E>> action, ForkJoinPool pool) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ChronicleHashStats stats() {
+        return m.stats();
+    }
+
+    @Override
+    public List<ReplicationStats> replicationStats() {
+        return m.replicationStats();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        m.sync();
+    }
+
+    @Override
+    public CompletableFuture<Void> syncAsync() {
+        return m.syncAsync();
+    }
+
     @Override
     public File file() {
         return m.file();
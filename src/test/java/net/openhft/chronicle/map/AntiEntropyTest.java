@@ -0,0 +1,297 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AntiEntropyTest {
+
+    /**
+     * Applies entries, resent by one replica, to another replica, like the replicator does
+     */
+    static class ApplyingCallback extends Replica.EntryCallback {
+        final ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> from;
+        final ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> to;
+        final Bytes buffer = new ByteBufferBytes(ByteBuffer.allocate(1 << 16));
+        int entries;
+
+        ApplyingCallback(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> from,
+                         ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean onEntry(Bytes entry, int chronicleId, long bootstrapTime) {
+            buffer.clear();
+            from.writeExternalEntry(entry, buffer, chronicleId, bootstrapTime);
+            long end = buffer.position();
+            buffer.position(0L);
+            buffer.limit(end);
+            to.readExternalEntry(buffer);
+            entries++;
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeIgnored(ReplicableEntry entry, int chronicleId) {
+            return !from.identifierCheck(entry, chronicleId);
+        }
+    }
+
+    private static ChronicleMap<Integer, Integer> map(byte identifier) {
+        return ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(16)
+                .replication(identifier)
+                .create();
+    }
+
+    /**
+     * Delivers frames to the receiving side, and its replies back, until there are no replies
+     *
+     * @return the number of delivered messages
+     */
+    private static int exchange(Bytes frames, AntiEntropy receiver, AntiEntropy sender) {
+        return exchange(frames, receiver, sender, new long[1]);
+    }
+
+    /**
+     * @param maxMessageSize receives the size of the largest delivered message
+     */
+    private static int exchange(Bytes frames, AntiEntropy receiver, AntiEntropy sender,
+                                long[] maxMessageSize) {
+        int messages = 0;
+        while (frames != null) {
+            Bytes replies = null;
+            byte[] copy = new byte[(int) frames.remaining()];
+            frames.readFully(copy, 0, copy.length);
+            Bytes in = new ByteBufferBytes(ByteBuffer.wrap(copy));
+            Bytes out = new ByteBufferBytes(ByteBuffer.allocate(1 << 20));
+            while (in.remaining() > 0) {
+                assertEquals(AntiEntropy.ANTI_ENTROPY_UPDATE, in.readByte());
+                long size = in.readInt();
+                maxMessageSize[0] = Math.max(maxMessageSize[0], size);
+                long end = in.position() + size;
+                in.limit(end);
+                Bytes reply = receiver.onMessage(in);
+                in.limit(copy.length);
+                in.position(end);
+                messages++;
+                if (reply != null)
+                    out.write(reply, 0L, reply.remaining());
+            }
+            if (out.position() > 0) {
+                out.limit(out.position());
+                out.position(0L);
+                replies = out;
+            }
+            frames = replies;
+            AntiEntropy t = receiver;
+            receiver = sender;
+            sender = t;
+        }
+        return messages;
+    }
+
+    private static int drain(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> from,
+                             ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> to) {
+        ApplyingCallback callback = new ApplyingCallback(from, to);
+        Replica.ModificationIterator it = from.acquireModificationIterator(to.identifier());
+        while (it.nextEntry(callback, 0)) {
+            // apply
+        }
+        return callback.entries;
+    }
+
+    @Test
+    public void testMissingAndDivergentEntriesAreResent() {
+        try (ChronicleMap<Integer, Integer> map1 = map((byte) 1);
+             ChronicleMap<Integer, Integer> map2 = map((byte) 2)) {
+            ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r1 =
+                    (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map1;
+            ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r2 =
+                    (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map2;
+            // updates, made before modification iterators are acquired, are not replicated
+            for (int i = 0; i < 100; i++) {
+                map1.put(i, i);
+            }
+            map1.remove(7);
+            assertFalse(r1.acquireModificationIterator((byte) 2).hasNext());
+            assertFalse(r2.acquireModificationIterator((byte) 1).hasNext());
+
+            AntiEntropy ae1 = new AntiEntropy(r1, (byte) 2);
+            AntiEntropy ae2 = new AntiEntropy(r2, (byte) 1);
+            exchange(ae1.root(), ae2, ae1);
+            assertEquals(100, drain(r1, r2));
+            assertEquals(0, drain(r2, r1));
+            assertEquals(99, map2.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i != 7 ? (Integer) i : null, map2.get(i));
+            }
+
+            // replicas agree, only the roots are compared
+            assertEquals(1, exchange(ae1.root(), ae2, ae1));
+            assertEquals(1, exchange(ae2.root(), ae1, ae2));
+
+            // the update is lost
+            r2.acquireModificationIterator((byte) 1);
+            map2.put(5, -5);
+            map2.put(1000, 1000);
+            drainWithoutApplying(r2, (byte) 1);
+
+            exchange(ae1.root(), ae2, ae1);
+            // the older version of the key 5 is resent too, but rejected by map2
+            assertEquals(1, drain(r1, r2));
+            assertEquals(2, drain(r2, r1));
+            assertEquals((Integer) (-5), map1.get(5));
+            assertEquals((Integer) (-5), map2.get(5));
+            assertEquals((Integer) 1000, map1.get(1000));
+            assertEquals(1, exchange(ae2.root(), ae1, ae2));
+        }
+    }
+
+    private static void drainWithoutApplying(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> map,
+                                             byte remoteIdentifier) {
+        Replica.ModificationIterator it = map.acquireModificationIterator(remoteIdentifier);
+        ModificationIteratorBatchTest.CountingCallback callback =
+                new ModificationIteratorBatchTest.CountingCallback();
+        while (it.nextEntries(callback, 0, Long.MAX_VALUE) > 0) {
+            // drop
+        }
+    }
+
+    @Test
+    public void testEntriesOfLargeSegmentsAreComparedInRanges() {
+        int entries = 100_000;
+        try (ChronicleMap<Integer, Integer> map1 = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .actualSegments(4)
+                .replication((byte) 1)
+                .create();
+             ChronicleMap<Integer, Integer> map2 = ChronicleMapBuilder
+                     .of(Integer.class, Integer.class)
+                     .entries(entries)
+                     .actualSegments(4)
+                     .replication((byte) 2)
+                     .create()) {
+            ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r1 =
+                    (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map1;
+            ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r2 =
+                    (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map2;
+            assertTrue(r1.digestRanges() > 1);
+            r1.acquireModificationIterator((byte) 2);
+            r2.acquireModificationIterator((byte) 1);
+            for (int i = 0; i < entries; i++) {
+                map1.put(i, i);
+            }
+            drain(r1, r2);
+            assertEquals(entries, map2.size());
+
+            // the update is lost
+            map1.put(5, -5);
+            drainWithoutApplying(r1, (byte) 2);
+
+            AntiEntropy ae1 = new AntiEntropy(r1, (byte) 2);
+            AntiEntropy ae2 = new AntiEntropy(r2, (byte) 1);
+            long[] maxMessageSize = new long[1];
+            exchange(ae1.root(), ae2, ae1, maxMessageSize);
+            assertEquals(1, drain(r1, r2));
+            assertEquals((Integer) (-5), map2.get(5));
+            // digests of the entries of a single range are sent, not of a whole segment
+            assertTrue(maxMessageSize[0] < entries / 4 * 16 / 10);
+            assertEquals(1, exchange(ae2.root(), ae1, ae2));
+        }
+    }
+
+    @Test
+    public void testSegmentDigestIsCachedUntilModification() {
+        try (ChronicleMap<Integer, Integer> map = map((byte) 1)) {
+            ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r =
+                    (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+            assertEquals(1, r.digestRanges());
+            long empty = r.segmentDigest(0, 0);
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i);
+            }
+            long[] digests = new long[r.digestedSegments()];
+            for (int i = 0; i < digests.length; i++) {
+                digests[i] = r.segmentDigest(i, 0);
+                assertEquals(digests[i], r.segmentDigest(i, 0));
+            }
+            assertNotEquals(empty, digests[0]);
+            map.put(1000, 1000);
+            long[] updated = new long[digests.length];
+            for (int i = 0; i < digests.length; i++) {
+                updated[i] = r.segmentDigest(i, 0);
+            }
+            assertFalse(Arrays.equals(digests, updated));
+        }
+    }
+
+    @Test
+    public void testTcpAntiEntropyRepairsLostUpdate() throws IOException, InterruptedException {
+        int port = 8122;
+        try (ChronicleMap<Integer, Integer> map1 = tcpMap((byte) 1, port,
+                new InetSocketAddress("localhost", port + 1));
+             ChronicleMap<Integer, Integer> map2 = tcpMap((byte) 2, port + 1)) {
+            for (int i = 0; i < 100; i++) {
+                map1.put(i, i);
+            }
+            for (int t = 0; t < 100 && map2.size() < 100; t++) {
+                Thread.sleep(50);
+            }
+            assertEquals(100, map2.size());
+
+            // the update is not replicated
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map2.queryContext(5)) {
+                c.updateLock().lock();
+                c.replaceValue(c.entry(), c.wrapValueAsData(-5));
+                ((ReplicableEntry) c.entry()).dropChanged();
+            }
+            for (int t = 0; t < 100 && !Integer.valueOf(-5).equals(map1.get(5)); t++) {
+                Thread.sleep(50);
+            }
+            assertEquals((Integer) (-5), map1.get(5));
+        }
+    }
+
+    private static ChronicleMap<Integer, Integer> tcpMap(
+            byte identifier, int port, InetSocketAddress... endpoints) throws IOException {
+        TcpTransportAndNetworkConfig tcpConfig =
+                TcpTransportAndNetworkConfig.of(port, Arrays.asList(endpoints))
+                        .heartBeatInterval(1L, TimeUnit.SECONDS)
+                        .antiEntropyInterval(100L, TimeUnit.MILLISECONDS);
+        return ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(1000)
+                .replication(identifier, tcpConfig)
+                .create();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchedIterationTest {
+
+    private static ChronicleMap<Integer, CharSequence> map() {
+        ChronicleMap<Integer, CharSequence> map =
+                ChronicleMapBuilder.of(Integer.class, CharSequence.class)
+                        .entries(1000)
+                        .averageValueSize(10)
+                        .actualSegments(2)
+                        .create();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "value" + i);
+        }
+        return map;
+    }
+
+    @Test
+    public void testAllEntriesAreReturnedInBatches() {
+        try (ChronicleMap<Integer, CharSequence> map = map()) {
+            Set<Integer> keys = new HashSet<>();
+            Iterator<Map.Entry<Integer, CharSequence>> it = map.entryIterator(7, false);
+            Map.Entry<Integer, CharSequence> previous = null;
+            while (it.hasNext()) {
+                Map.Entry<Integer, CharSequence> e = it.next();
+                assertNotSame(previous, e);
+                assertEquals("value" + e.getKey(), e.getValue().toString());
+                assertTrue(keys.add(e.getKey()));
+                previous = e;
+            }
+            assertEquals(1000, keys.size());
+        }
+    }
+
+    @Test
+    public void testReusedInstances() {
+        try (ChronicleMap<Integer, CharSequence> map = map()) {
+            Iterator<Map.Entry<Integer, CharSequence>> it = map.entryIterator(10, true);
+            Map.Entry<Integer, CharSequence> first = it.next();
+            int count = 1;
+            while (it.hasNext()) {
+                Map.Entry<Integer, CharSequence> e = it.next();
+                assertSame(first, e);
+                assertEquals("value" + e.getKey(), e.getValue().toString());
+                count++;
+            }
+            assertEquals(1000, count);
+        }
+    }
+
+    @Test
+    public void testEntriesRemovedAndInsertedBetweenBatches() {
+        try (ChronicleMap<Integer, CharSequence> map = map()) {
+            Set<Integer> keys = new HashSet<>();
+            Iterator<Map.Entry<Integer, CharSequence>> it = map.entryIterator(5, false);
+            while (it.hasNext()) {
+                int key = it.next().getKey();
+                assertTrue(keys.add(key));
+                // removals shift entries in the hash lookup, entries present during the whole
+                // iteration should be returned exactly once anyway
+                if (key % 3 == 0) {
+                    it.remove();
+                    map.put(1000 + key, "value" + (1000 + key));
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(keys.contains(i));
+            }
+            assertEquals(1000, map.size());
+        }
+    }
+
+    @Test
+    public void testEntriesMovedByTiersCompactionBetweenBatches() {
+        int entries = 1000;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .maxBloatFactor(10.0)
+                .actualSegments(1)
+                .create()) {
+            VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> m =
+                    (VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+            for (int i = 0; i < entries * 4; i++) {
+                map.put(i, i);
+            }
+            long tiersBefore = m.extraTiersInUse();
+            assertTrue(tiersBefore > 1);
+            SegmentTiersCompaction compaction = new SegmentTiersCompaction(m, 1,
+                    TimeUnit.SECONDS, SegmentDefragmentation.DEFAULT_SLICE_NANOS);
+            Set<Integer> keys = new HashSet<>();
+            Iterator<Map.Entry<Integer, Integer>> it = map.entryIterator(5, false);
+            while (it.hasNext()) {
+                assertTrue(keys.add(it.next().getKey()));
+                if (keys.size() == entries) {
+                    // half-empty tiers are packed into earlier tiers between the next batches
+                    for (int i = 0; i < entries * 4; i += 2) {
+                        map.remove(i);
+                    }
+                }
+                if (keys.size() >= entries && keys.size() % 5 == 0)
+                    compaction.compactSegment(0);
+            }
+            assertTrue(m.extraTiersInUse() < tiersBefore);
+            for (int i = 1; i < entries * 4; i += 2) {
+                assertTrue(keys.contains(i));
+            }
+        }
+    }
+}
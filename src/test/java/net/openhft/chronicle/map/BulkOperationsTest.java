@@ -0,0 +1,64 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BulkOperationsTest {
+
+    @Test
+    public void testPutAllGetAllRemoveAll() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(10_000)
+                .actualSegments(8)
+                .create()) {
+            Map<Integer, Integer> source = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                source.put(i, i * 2);
+            }
+            map.putAll(source);
+            assertEquals(source, map);
+
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 500; i < 1500; i++) {
+                keys.add(i);
+            }
+            // duplicates are allowed
+            keys.add(500);
+            keys.add(999);
+            Map<Integer, Integer> out = new HashMap<>();
+            map.getAll(keys, out);
+            assertEquals(500, out.size());
+            for (int i = 500; i < 1000; i++) {
+                assertEquals((Integer) (i * 2), out.get(i));
+            }
+
+            map.removeAll(keys);
+            assertEquals(500, map.size());
+            for (int i = 0; i < 500; i++) {
+                assertEquals((Integer) (i * 2), map.get(i));
+            }
+            assertNull(map.get(500));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.map.replication.MaxRegisterRemoteOperations;
+import net.openhft.chronicle.map.replication.OrSet;
+import net.openhft.chronicle.map.replication.OrSetRemoteOperations;
+import net.openhft.chronicle.map.replication.PnCounter;
+import net.openhft.chronicle.map.replication.PnCounterRemoteOperations;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class CrdtRemoteOperationsTest {
+
+    private static ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> replica(ChronicleMap<?, ?> map) {
+        return (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+    }
+
+    private static void sync(ChronicleMap<?, ?> map1, ChronicleMap<?, ?> map2) {
+        ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r1 = replica(map1);
+        ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> r2 = replica(map2);
+        drain(r1, r2);
+        drain(r2, r1);
+    }
+
+    private static void drain(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> from,
+                              ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> to) {
+        AntiEntropyTest.ApplyingCallback callback = new AntiEntropyTest.ApplyingCallback(from, to);
+        Replica.ModificationIterator it = from.acquireModificationIterator(to.identifier());
+        while (it.nextEntry(callback, 0)) {
+            // apply
+        }
+    }
+
+    private static ChronicleMap<Integer, PnCounter> counters(byte identifier) {
+        return ChronicleMapBuilder.of(Integer.class, PnCounter.class)
+                .entries(100)
+                .averageValueSize(2 * 17 + 4)
+                .valueMarshallers(PnCounter.Marshaller.INSTANCE, PnCounter.Marshaller.INSTANCE)
+                .remoteOperations(new PnCounterRemoteOperations<>())
+                .replication(identifier)
+                .create();
+    }
+
+    private static ChronicleMap<Integer, Long> registers(byte identifier) {
+        return ChronicleMapBuilder.of(Integer.class, Long.class)
+                .entries(100)
+                .remoteOperations(new MaxRegisterRemoteOperations<>())
+                .replication(identifier)
+                .create();
+    }
+
+    private static ChronicleMap<Integer, OrSet> sets(byte identifier) {
+        return ChronicleMapBuilder.of(Integer.class, OrSet.class)
+                .entries(100)
+                .averageValueSize(64)
+                .valueMarshallers(OrSet.Marshaller.INSTANCE, OrSet.Marshaller.INSTANCE)
+                .remoteOperations(new OrSetRemoteOperations<>())
+                .replication(identifier)
+                .create();
+    }
+
+    @Test
+    public void testConcurrentIncrementsAreSummed() {
+        try (ChronicleMap<Integer, PnCounter> map1 = counters((byte) 1);
+             ChronicleMap<Integer, PnCounter> map2 = counters((byte) 2)) {
+            // acquire modification iterators before updates
+            sync(map1, map2);
+            PnCounter.addTo(map1, 1, 5);
+            sync(map1, map2);
+            assertEquals(5, map2.get(1).value());
+
+            PnCounter.addTo(map1, 1, 3);
+            PnCounter.addTo(map2, 1, 10);
+            PnCounter.addTo(map2, 1, -4);
+            sync(map1, map2);
+            assertEquals(14, map1.get(1).value());
+            assertEquals(14, map2.get(1).value());
+
+            // merge is idempotent
+            PnCounter.addTo(map1, 1, 0);
+            sync(map1, map2);
+            assertEquals(14, map1.get(1).value());
+            assertEquals(14, map2.get(1).value());
+        }
+    }
+
+    @Test
+    public void testMaxRegistersConverge() {
+        try (ChronicleMap<Integer, Long> map1 = registers((byte) 1);
+             ChronicleMap<Integer, Long> map2 = registers((byte) 2)) {
+            sync(map1, map2);
+            map1.put(1, 1L);
+            sync(map1, map2);
+            map1.put(1, 7L);
+            map2.put(1, 3L);
+            map1.put(2, 2L);
+            sync(map1, map2);
+            map2.put(2, 9L);
+            sync(map1, map2);
+            assertEquals((Long) 7L, map1.get(1));
+            assertEquals((Long) 7L, map2.get(1));
+            assertEquals((Long) 9L, map1.get(2));
+            assertEquals((Long) 9L, map2.get(2));
+        }
+    }
+
+    @Test
+    public void testObservedRemoveSet() {
+        try (ChronicleMap<Integer, OrSet> map1 = sets((byte) 1);
+             ChronicleMap<Integer, OrSet> map2 = sets((byte) 2)) {
+            sync(map1, map2);
+            OrSet.addTo(map1, 1, "a");
+            OrSet.addTo(map1, 1, "b");
+            sync(map1, map2);
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), map2.get(1).elements());
+
+            // concurrent add of the same element wins over remove
+            OrSet.removeFrom(map1, 1, "a");
+            OrSet.addTo(map2, 1, "a");
+            OrSet.removeFrom(map2, 1, "b");
+            OrSet.addTo(map2, 1, "c");
+            sync(map1, map2);
+            HashSet<String> expected = new HashSet<>(Arrays.asList("a", "c"));
+            assertEquals(expected, map1.get(1).elements());
+            assertEquals(expected, map2.get(1).elements());
+
+            OrSet.removeFrom(map2, 1, "a");
+            sync(map1, map2);
+            assertEquals(new HashSet<>(Arrays.asList("c")), map1.get(1).elements());
+            assertEquals(new HashSet<>(Arrays.asList("c")), map2.get(1).elements());
+        }
+    }
+}
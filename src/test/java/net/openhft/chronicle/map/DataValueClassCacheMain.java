@@ -0,0 +1,70 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time to create the first map with a {@code DataValue} value in a fresh JVM, with
+ * marshaller classes compiled at runtime, and stored to and loaded from a class cache directory.
+ * <pre>
+ * run: DataValueClassCacheMain [runs]
+ * </pre>
+ */
+public class DataValueClassCacheMain {
+
+    public static void main(String... args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            long start = System.nanoTime();
+            try (ChronicleMap<Long, LataTest.IData> map = ChronicleMapBuilder
+                    .of(Long.class, LataTest.IData.class)
+                    .entries(1000)
+                    .create()) {
+                map.acquireUsing(1L, map.newValueInstance()).setData(1);
+            }
+            System.out.printf("%s: first map created in %d ms%n",
+                    args[1], (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        File cacheDir = Files.createTempDirectory("data-value-class-cache").toFile();
+        for (int i = 0; i < runs; i++) {
+            runChild("no cache", null);
+        }
+        runChild("cold cache", cacheDir);
+        for (int i = 0; i < runs; i++) {
+            runChild("warm cache", cacheDir);
+        }
+    }
+
+    private static void runChild(String name, File cacheDir) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" +
+                File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        if (cacheDir != null)
+            command.add("-Dchronicle.map.dataValueClassCache=" + cacheDir);
+        command.add(DataValueClassCacheMain.class.getName());
+        command.add("child");
+        command.add(name);
+        new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.serialization.internal.DataValueBytesMarshallers;
+import net.openhft.chronicle.hash.serialization.internal.DataValueClassCache;
+import net.openhft.chronicle.map.fromdocs.BondVOInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DataValueClassCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("data-value-class-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testClassIsStoredAndLoadedFromCache() throws Exception {
+        String source = source(42);
+        Class c1 = new DataValueClassCache(dir).load(newLoader(), "cached.Answer", source);
+        assertEquals(42, c1.getField("VALUE").getInt(null));
+        File classFile = new File(dir, "cached" + File.separator + "Answer.class");
+        File sourceFile = new File(dir, "cached" + File.separator + "Answer.java");
+        assertTrue(classFile.exists());
+        assertTrue(sourceFile.exists());
+        long classModified = classFile.lastModified();
+
+        Class c2 = new DataValueClassCache(dir).load(newLoader(), "cached.Answer", source);
+        assertNotSame(c1, c2);
+        assertEquals(42, c2.getField("VALUE").getInt(null));
+        assertEquals(classModified, classFile.lastModified());
+    }
+
+    @Test
+    public void testStaleClassIsRecompiled() throws Exception {
+        new DataValueClassCache(dir).load(newLoader(), "cached.Answer", source(42));
+        Class c = new DataValueClassCache(dir).load(newLoader(), "cached.Answer", source(43));
+        assertEquals(43, c.getField("VALUE").getInt(null));
+        String stored = new String(Files.readAllBytes(
+                new File(dir, "cached" + File.separator + "Answer.java").toPath()), "UTF-8");
+        assertEquals(source(43), stored);
+    }
+
+    @Test
+    public void testGenerateSources() throws IOException {
+        DataValueBytesMarshallers.generateSources(dir, BondVOInterface.class);
+        for (Class c : new Class[] {BondVOInterface.class, BondVOInterface.MarketPx.class}) {
+            for (String suffix : new String[] {
+                    "$$Native", "$$BytesReader", "$$BytesReader$WithCustomFactory",
+                    "$$BytesWriter"}) {
+                String path = c.getName().replace('.', File.separatorChar) + suffix + ".java";
+                assertTrue(path, new File(dir, path).exists());
+            }
+        }
+    }
+
+    private static String source(int value) {
+        return "package cached;\n" +
+                "public class Answer {\n" +
+                "    public static final int VALUE = " + value + ";\n" +
+                "}\n";
+    }
+
+    private static ClassLoader newLoader() {
+        return new URLClassLoader(new URL[0], DataValueClassCacheTest.class.getClassLoader());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.DurabilityPolicy;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+public class DurabilityPolicyTest {
+
+    private static ChronicleMap<Integer, Integer> createPersisted(
+            File file, DurabilityPolicy policy) throws IOException {
+        // few entries per segment, so that extra tier bulks are allocated
+        return ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(100)
+                .actualSegments(4)
+                .durabilityPolicy(policy)
+                .createPersistedTo(file);
+    }
+
+    private static void testPolicy(DurabilityPolicy policy)
+            throws IOException, ExecutionException, InterruptedException {
+        File file = Builder.getPersistenceFile();
+        try (ChronicleMap<Integer, Integer> map = createPersisted(file, policy)) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+            }
+            map.sync();
+            map.remove(0);
+            map.syncAsync().get();
+            // nothing changed since the last sync
+            map.sync();
+        }
+        try (ChronicleMap<Integer, Integer> map = createPersisted(file, policy)) {
+            assertEquals(999, map.size());
+            for (int i = 1; i < 1000; i++) {
+                assertEquals((Integer) i, map.get(i));
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testNone() throws Exception {
+        testPolicy(DurabilityPolicy.NONE);
+    }
+
+    @Test
+    public void testExplicit() throws Exception {
+        testPolicy(DurabilityPolicy.EXPLICIT);
+    }
+
+    @Test
+    public void testOnSegmentUnlock() throws Exception {
+        testPolicy(DurabilityPolicy.ON_SEGMENT_UNLOCK);
+    }
+
+    @Test
+    public void testPeriodic() throws Exception {
+        testPolicy(DurabilityPolicy.periodic(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 60000)
+    public void testSyncConcurrentWithTierBulkAllocation() throws Exception {
+        File file = Builder.getPersistenceFile();
+        try (ChronicleMap<Integer, Integer> map =
+                     createPersisted(file, DurabilityPolicy.EXPLICIT)) {
+            AtomicBoolean done = new AtomicBoolean();
+            Thread syncer = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        map.sync();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            syncer.start();
+            // allocation of tier bulks writes them to the disk under segment write locks
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+            }
+            done.set(true);
+            syncer.join();
+            assertEquals(1000, map.size());
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testSyncInMemory() throws Exception {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(100)
+                .durabilityPolicy(DurabilityPolicy.EXPLICIT)
+                .create()) {
+            map.put(1, 1);
+            map.sync();
+            map.syncAsync().get();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPeriodicIntervalLessThanMillisecond() {
+        DurabilityPolicy.periodic(100, TimeUnit.MICROSECONDS);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static net.openhft.chronicle.hash.impl.TierCountersArea.freeRunSizeClass;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FreeRunHintsTest {
+
+    @Test
+    public void testFreeRunSizeClass() {
+        assertEquals(0, freeRunSizeClass(1));
+        assertEquals(1, freeRunSizeClass(2));
+        assertEquals(1, freeRunSizeClass(3));
+        assertEquals(2, freeRunSizeClass(4));
+        assertEquals(5, freeRunSizeClass(63));
+        assertEquals(5, freeRunSizeClass(128));
+        assertEquals(5, freeRunSizeClass(100_000));
+    }
+
+    @Test
+    public void testVariableSizedValuesWithFreeRunHints() {
+        Random random = new Random(42);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        try (ChronicleMap<Integer, byte[]> map = ChronicleMapBuilder
+                .of(Integer.class, byte[].class)
+                .entries(1000)
+                .averageValueSize(100)
+                .actualSegments(4)
+                .freeRunHints(true)
+                .create()) {
+            for (int i = 0; i < 100_000; i++) {
+                int key = random.nextInt(1000);
+                if (random.nextInt(4) == 0) {
+                    map.remove(key);
+                    expected.remove(key);
+                } else {
+                    byte[] value = new byte[1 + random.nextInt(300)];
+                    random.nextBytes(value);
+                    map.put(key, value);
+                    expected.put(key, value);
+                }
+            }
+            assertEquals(expected.size(), map.size());
+            for (Map.Entry<Integer, byte[]> e : expected.entrySet()) {
+                assertArrayEquals(e.getValue(), map.get(e.getKey()));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.TimeProvider;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalBootstrapTest {
+
+    static volatile long currentTime;
+
+    static class ManualTimeProvider extends TimeProvider {
+        private static final long serialVersionUID = 0L;
+
+        @Override
+        public long currentTime() {
+            return currentTime;
+        }
+
+        @Override
+        public long systemTimeIntervalBetween(
+                long earlierTime, long laterTime, TimeUnit systemTimeIntervalUnit) {
+            return systemTimeIntervalUnit.convert(laterTime - earlierTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testOnlyEntriesUpdatedSinceBootstrapTimestampAreDirtied() {
+        int entries = 1000;
+        currentTime = 1000L;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .maxBloatFactor(10.0)
+                .actualSegments(1)
+                .timeProvider(new ManualTimeProvider())
+                .replication((byte) 1)
+                .create()) {
+            for (int i = 0; i < entries * 3; i++) {
+                map.put(i, i);
+            }
+            assertTrue(((VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map).extraTiersInUse() > 0);
+
+            currentTime = 2000L;
+            // the first entries are in the first tier, the last ones are in the last tier
+            map.put(0, -1);
+            map.put(entries * 3 - 1, -1);
+            map.remove(1);
+            map.put(entries * 3, entries * 3);
+
+            Replica.ModificationIterator it =
+                    ((Replica) map).acquireModificationIterator((byte) 2);
+            ModificationIteratorBatchTest.CountingCallback callback =
+                    new ModificationIteratorBatchTest.CountingCallback();
+
+            it.dirtyEntries(2000L);
+            drain(it, callback);
+            assertEquals(4, callback.entries);
+
+            callback.entries = 0;
+            it.dirtyEntries(2001L);
+            drain(it, callback);
+            assertEquals(0, callback.entries);
+
+            callback.entries = 0;
+            it.dirtyEntries(1000L);
+            drain(it, callback);
+            assertEquals(entries * 3 + 1, callback.entries);
+        }
+    }
+
+    private static void drain(Replica.ModificationIterator it,
+                              ModificationIteratorBatchTest.CountingCallback callback) {
+        while (it.nextEntries(callback, 0, Long.MAX_VALUE) > 0) {
+            // drain
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategies;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LockAcquisitionStrategyTest {
+
+    @Test
+    public void testSpinYieldParkUnderOversubscription() throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors() * 4;
+        int increments = 10_000;
+        try (ChronicleMap<Integer, Long> map = ChronicleMapBuilder
+                .of(Integer.class, Long.class)
+                .entries(10)
+                .actualSegments(1)
+                .lockAcquisitionStrategy(
+                        LockAcquisitionStrategies.spinYieldPark(10, 10, 1000, 100_000))
+                .create()) {
+            map.put(0, 0L);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        map.compute(0, (k, v) -> v + 1);
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals((Long) ((long) threads * increments), map.get(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalParkTimes() {
+        LockAcquisitionStrategies.spinYieldPark(10, 10, 1000, 100);
+    }
+}
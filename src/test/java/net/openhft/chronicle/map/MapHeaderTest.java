@@ -0,0 +1,76 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MapHeaderTest {
+
+    private static ChronicleMapBuilder<Integer, CharSequence> builder(long entries) {
+        return ChronicleMapBuilder.of(Integer.class, CharSequence.class)
+                .entries(entries)
+                .averageValueSize(10);
+    }
+
+    @Test
+    public void testReopenWithLayoutFromHeader() throws IOException {
+        File file = Builder.getPersistenceFile();
+        try (ChronicleMap<Integer, CharSequence> map = builder(1000).createPersistedTo(file)) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, "value" + i);
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            assertEquals(MapHeader.MAGIC, in.readInt());
+            assertEquals(MapHeader.FORMAT_VERSION, in.readShort());
+        }
+        // the layout is taken from the header, not from the builder
+        try (ChronicleMap<Integer, CharSequence> map = builder(10).createPersistedTo(file)) {
+            assertEquals(1000, map.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("value" + i, map.get(i).toString());
+            }
+            map.put(1000, "value1000");
+        }
+        try (ChronicleMap<Integer, CharSequence> map = builder(1000).createPersistedTo(file)) {
+            assertEquals(1001, map.size());
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testIncompatibleValueClassIsRejected() throws IOException {
+        File file = Builder.getPersistenceFile();
+        builder(100).createPersistedTo(file).close();
+        try {
+            ChronicleMapBuilder.of(Integer.class, Long.class)
+                    .entries(100)
+                    .createPersistedTo(file);
+            fail("map with another value class should not be opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("value class"));
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time to open persisted maps, which is dominated by reading and validating the
+ * map headers.
+ * <pre>
+ * run: MapOpeningMain [maps]
+ * </pre>
+ */
+public class MapOpeningMain {
+
+    public static void main(String... args) throws Exception {
+        int maps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        File dir = Files.createTempDirectory("map-opening").toFile();
+        ChronicleMapBuilder<Integer, CharSequence> builder = ChronicleMapBuilder
+                .of(Integer.class, CharSequence.class)
+                .averageValueSize(16)
+                .entries(1000);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < maps; i++) {
+            File file = new File(dir, "map-" + i + ".dat");
+            files.add(file);
+            try (ChronicleMap<Integer, CharSequence> map = builder.createPersistedTo(file)) {
+                map.put(i, "value-" + i);
+            }
+        }
+        try {
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                for (File file : files) {
+                    builder.createPersistedTo(file).close();
+                }
+                long time = System.nanoTime() - start;
+                System.out.printf("Opened %d maps in %d ms, %.1f us per map%n",
+                        maps, time / 1_000_000, time / 1e3 / maps);
+            }
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
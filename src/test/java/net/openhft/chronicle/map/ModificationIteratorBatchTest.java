@@ -0,0 +1,98 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.lang.io.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ModificationIteratorBatchTest {
+
+    static class CountingCallback extends Replica.EntryCallback {
+        int entries;
+        long bytes;
+
+        @Override
+        public boolean onEntry(Bytes entry, int chronicleId, long bootstrapTime) {
+            entries++;
+            bytes += entry.remaining();
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeIgnored(ReplicableEntry entry, int chronicleId) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testNextEntries() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(10_000)
+                .actualSegments(4)
+                .replication((byte) 1)
+                .create()) {
+            Replica.ModificationIterator it =
+                    ((Replica) map).acquireModificationIterator((byte) 2);
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+            }
+            assertTrue(it.hasNext());
+
+            CountingCallback callback = new CountingCallback();
+            int firstBatch = it.nextEntries(callback, 0, 100L);
+            assertTrue(firstBatch > 1);
+            assertTrue(firstBatch < 1000);
+            assertTrue(callback.bytes >= 100L);
+
+            int total = firstBatch;
+            for (int entries; (entries = it.nextEntries(callback, 0, Long.MAX_VALUE)) > 0; ) {
+                total += entries;
+            }
+            assertEquals(1000, total);
+            assertEquals(1000, callback.entries);
+            assertFalse(it.hasNext());
+
+            map.put(5, 6);
+            map.remove(7);
+            assertEquals(2, it.nextEntries(callback, 0, Long.MAX_VALUE));
+            assertEquals(0, it.nextEntries(callback, 0, Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testAtLeastOneEntryRegardlessOfBudget() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(100)
+                .replication((byte) 1)
+                .create()) {
+            Replica.ModificationIterator it =
+                    ((Replica) map).acquireModificationIterator((byte) 2);
+            map.put(1, 1);
+            map.put(2, 2);
+            CountingCallback callback = new CountingCallback();
+            assertEquals(1, it.nextEntries(callback, 0, 1L));
+            assertEquals(1, it.nextEntries(callback, 0, 1L));
+            assertEquals(0, it.nextEntries(callback, 0, 1L));
+        }
+    }
+}
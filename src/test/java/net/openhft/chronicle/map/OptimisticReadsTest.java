@@ -0,0 +1,142 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class OptimisticReadsTest {
+
+    static final int VALUE_SIZE = 64;
+
+    static ChronicleMap<Integer, byte[]> newMap(boolean optimisticReads) {
+        return ChronicleMapBuilder.of(Integer.class, byte[].class)
+                .constantValueSizeBySample(new byte[VALUE_SIZE])
+                .entries(100)
+                .actualSegments(2)
+                .optimisticReads(optimisticReads)
+                .create();
+    }
+
+    static byte[] value(byte b) {
+        byte[] value = new byte[VALUE_SIZE];
+        Arrays.fill(value, b);
+        return value;
+    }
+
+    @Test
+    public void testOptimisticReadsAppliedOnlyToConstantlySizedEntries() {
+        try (ChronicleMap<Integer, byte[]> map = newMap(true)) {
+            assertTrue(((VanillaChronicleMap) map).optimisticReads);
+        }
+        try (ChronicleMap<Integer, CharSequence> map = ChronicleMapBuilder
+                .of(Integer.class, CharSequence.class)
+                .averageValueSize(10)
+                .entries(100)
+                .optimisticReads(true)
+                .create()) {
+            assertFalse(((VanillaChronicleMap) map).optimisticReads);
+            map.put(1, "one");
+            assertEquals("one", map.get(1).toString());
+        }
+    }
+
+    @Test
+    public void testGetAndGetUsing() {
+        try (ChronicleMap<Integer, byte[]> map = newMap(true)) {
+            assertNull(map.get(1));
+            map.put(1, value((byte) 1));
+            assertArrayEquals(value((byte) 1), map.get(1));
+            byte[] using = new byte[VALUE_SIZE];
+            assertSame(using, map.getUsing(1, using));
+            assertArrayEquals(value((byte) 1), using);
+            map.remove(1);
+            assertNull(map.get(1));
+            assertNull(map.getUsing(1, using));
+        }
+    }
+
+    @Test
+    public void testGetFromContextHoldingSegmentLock() {
+        try (ChronicleMap<Integer, byte[]> map = ChronicleMapBuilder
+                .of(Integer.class, byte[].class)
+                .constantValueSizeBySample(new byte[VALUE_SIZE])
+                .entries(100)
+                .actualSegments(1)
+                .optimisticReads(true)
+                .create()) {
+            map.put(1, value((byte) 1));
+            map.put(2, value((byte) 2));
+            try (ExternalMapQueryContext<Integer, byte[], ?> c = map.queryContext(1)) {
+                c.updateLock().lock();
+                // the nested context shares the segment lock of the outer context
+                assertArrayEquals(value((byte) 2), map.get(2));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsAreConsistentUnderConcurrentUpdates() throws InterruptedException {
+        int keys = 4;
+        try (ChronicleMap<Integer, byte[]> map = newMap(true)) {
+            for (int k = 0; k < keys; k++) {
+                map.put(k, value((byte) 0));
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicReference<byte[]> inconsistentValue = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            Thread writer = new Thread(() -> {
+                byte b = 0;
+                while (!stop.get()) {
+                    b++;
+                    for (int k = 0; k < keys; k++) {
+                        map.put(k, value(b));
+                    }
+                }
+            });
+            threads.add(writer);
+            for (int t = 0; t < 3; t++) {
+                threads.add(new Thread(() -> {
+                    byte[] using = new byte[VALUE_SIZE];
+                    while (!stop.get()) {
+                        for (int k = 0; k < keys; k++) {
+                            byte[] value = (k & 1) == 0 ? map.get(k) : map.getUsing(k, using);
+                            for (byte b : value) {
+                                if (b != value[0])
+                                    inconsistentValue.set(value.clone());
+                            }
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(1000);
+            stop.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(inconsistentValue.get());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelEntryApplierTest {
+
+    static final int SEGMENTS = 16;
+
+    /**
+     * Entries are (long segment, long sequence), the segment is the ordering key
+     */
+    static class RecordingExternalizable implements Replica.EntryExternalizable {
+        final Map<Long, List<Long>> applied = new ConcurrentHashMap<>();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public int sizeOfEntry(@NotNull Bytes entry, int chronicleId) {
+            return 16;
+        }
+
+        @Override
+        public boolean identifierCheck(@NotNull ReplicableEntry entry, int chronicleId) {
+            return true;
+        }
+
+        @Override
+        public void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                       int chronicleId, long bootstrapTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void readExternalEntry(@NotNull Bytes source) {
+            long segment = source.readLong();
+            long sequence = source.readLong();
+            threads.add(Thread.currentThread().getName());
+            // the list of a segment is appended by a single thread
+            applied.computeIfAbsent(segment, s -> new ArrayList<>()).add(sequence);
+        }
+
+        @Override
+        public long externalEntryOrderingKey(@NotNull Bytes source) {
+            return source.readLong(source.position());
+        }
+    }
+
+    /**
+     * Entries are (long bootstrap timestamp, long segment), all from the node 1
+     */
+    static class TimestampedExternalizable extends RecordingExternalizable {
+        final Set<Long> seenBootstrapTimestamps = ConcurrentHashMap.newKeySet();
+        volatile long failingSegment = -1L;
+
+        @Override
+        public void readExternalEntry(@NotNull Bytes source) {
+            seenBootstrapTimestamps.add(source.readLong());
+            if (source.readLong() == failingSegment)
+                throw new IllegalStateException();
+        }
+
+        @Override
+        public boolean externalEntryLayout(@NotNull Bytes source,
+                                           @NotNull Replica.ExternalEntryLayout layout) {
+            layout.bootstrapTimestampPosition = source.position();
+            layout.identifier = 1;
+            return true;
+        }
+
+        @Override
+        public long externalEntryOrderingKey(@NotNull Bytes source) {
+            return source.readLong(source.position() + 8L);
+        }
+    }
+
+    static class RecordingReplica implements Replica {
+        final long[] lastModificationTimes = new long[128];
+
+        @Override
+        public byte identifier() {
+            return 2;
+        }
+
+        @Override
+        public ModificationIterator acquireModificationIterator(byte remoteIdentifier) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long lastModificationTime(byte remoteIdentifier) {
+            return lastModificationTimes[remoteIdentifier];
+        }
+
+        @Override
+        public void setLastModificationTime(byte identifier, long timestamp) {
+            // called by a single thread at a time, from the applier
+            if (lastModificationTimes[identifier] < timestamp)
+                lastModificationTimes[identifier] = timestamp;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void entriesOfTheSameSegmentAreAppliedInOrder() {
+        RecordingExternalizable externalizable = new RecordingExternalizable();
+        ParallelEntryApplier applier = new ParallelEntryApplier(new RecordingReplica(),
+                externalizable, 4, "ParallelEntryApplierTest");
+        ByteBufferBytes entry = new ByteBufferBytes(ByteBuffer.allocateDirect(16));
+        int entriesPerSegment = 10_000;
+        for (long sequence = 0; sequence < entriesPerSegment; sequence++) {
+            for (long segment = 0; segment < SEGMENTS; segment++) {
+                entry.clear();
+                entry.writeLong(segment);
+                entry.writeLong(sequence);
+                entry.flip();
+                applier.readExternalEntry(entry);
+                assertEquals(0L, entry.remaining());
+            }
+        }
+        applier.close();
+
+        assertEquals(SEGMENTS, externalizable.applied.size());
+        for (List<Long> sequences : externalizable.applied.values()) {
+            assertEquals(entriesPerSegment, sequences.size());
+            for (int i = 0; i < entriesPerSegment; i++) {
+                assertEquals((long) i, (long) sequences.get(i));
+            }
+        }
+        assertTrue(externalizable.threads.size() > 1);
+    }
+
+    @Test
+    public void lastModificationTimeAdvancesWhenEarlierEntriesAreApplied() {
+        TimestampedExternalizable externalizable = new TimestampedExternalizable();
+        RecordingReplica replica = new RecordingReplica();
+        ParallelEntryApplier applier =
+                new ParallelEntryApplier(replica, externalizable, 4, "ParallelEntryApplierTest");
+        ByteBufferBytes entry = new ByteBufferBytes(ByteBuffer.allocateDirect(16));
+        for (long timestamp = 1; timestamp <= 100; timestamp++) {
+            for (long segment = 0; segment < SEGMENTS; segment++) {
+                entry.clear();
+                entry.writeLong(timestamp);
+                entry.writeLong(segment);
+                entry.flip();
+                applier.readExternalEntry(entry);
+            }
+        }
+        applier.close();
+
+        // the map doesn't see bootstrap timestamps, they are tracked by the applier
+        assertEquals(1, externalizable.seenBootstrapTimestamps.size());
+        assertTrue(externalizable.seenBootstrapTimestamps.contains(0L));
+        // entries with the latest timestamp could still be followed by entries with the same one
+        assertEquals(99L, replica.lastModificationTime((byte) 1));
+    }
+
+    @Test
+    public void failureIsReportedForTheSourceConnection() {
+        TimestampedExternalizable externalizable = new TimestampedExternalizable();
+        externalizable.failingSegment = 3L;
+        ParallelEntryApplier applier = new ParallelEntryApplier(new RecordingReplica(),
+                externalizable, 4, "ParallelEntryApplierTest");
+        Object failingConnection = new Object();
+        Object otherConnection = new Object();
+        ByteBufferBytes entry = new ByteBufferBytes(ByteBuffer.allocateDirect(16));
+        applier.startReading(failingConnection);
+        for (long segment = 0; segment < SEGMENTS; segment++) {
+            entry.clear();
+            entry.writeLong(1L);
+            entry.writeLong(segment);
+            entry.flip();
+            applier.readExternalEntry(entry);
+        }
+        applier.close();
+
+        applier.startReading(otherConnection);
+        try {
+            applier.startReading(failingConnection);
+            fail("the failure should be reported");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        // reported once, the connection is closed after that
+        applier.startReading(failingConnection);
+    }
+
+    @Test
+    public void consecutiveOrderingKeysAreSpreadOverQueues() {
+        Set<Integer> queues = new HashSet<>();
+        for (long segment = 0; segment < SEGMENTS; segment++) {
+            int queue = ParallelEntryApplier.queueIndex(segment, 4);
+            assertTrue(queue >= 0 && queue < 4);
+            queues.add(queue);
+        }
+        assertEquals(4, queues.size());
+    }
+}
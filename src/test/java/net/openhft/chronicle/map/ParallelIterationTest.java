@@ -0,0 +1,70 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelIterationTest {
+
+    @Test
+    public void testParallelStreamsAndForEachEntryParallel() {
+        int entries = 10_000;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .actualSegments(16)
+                .create()) {
+            for (int i = 0; i < entries; i++) {
+                map.put(i, i);
+            }
+
+            assertEquals(entries, map.entrySet().parallelStream().count());
+            Set<Integer> keys = map.keySet().parallelStream().collect(Collectors.toSet());
+            assertEquals(entries, keys.size());
+            long valuesSum = map.values().parallelStream().mapToLong(Integer::longValue).sum();
+            assertEquals((long) entries * (entries - 1) / 2, valuesSum);
+            assertEquals(map.entrySet().stream().count(), entries);
+
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                Set<Integer> visited = ConcurrentHashMap.newKeySet();
+                map.forEachEntryParallel(e -> visited.add(e.key().get()), pool);
+                assertEquals(entries, visited.size());
+
+                assertTrue(map.forEachEntryWhileParallel(e -> e.value().get() >= 0, pool));
+                AtomicInteger checked = new AtomicInteger();
+                assertFalse(map.forEachEntryWhileParallel(e -> {
+                    checked.incrementAndGet();
+                    return e.key().get() != 42;
+                }, pool));
+                assertTrue(checked.get() <= entries);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveMapsTest {
+
+    @Test
+    public void testLongLongMap() {
+        try (ChronicleLongLongMap map = ChronicleMapBuilder.of(Long.class, Long.class)
+                .entries(1000).createLongLongMap()) {
+            assertEquals(0L, map.getLong(1L));
+            assertEquals(-1L, map.getOrDefault(1L, -1L));
+            assertFalse(map.containsKey(1L));
+
+            map.putLong(1L, 10L);
+            assertTrue(map.containsKey(1L));
+            assertEquals(10L, map.getLong(1L));
+            // primitive view and the boxed map share the same key and value layout
+            assertEquals(Long.valueOf(10L), map.map().get(1L));
+            map.map().put(2L, 20L);
+            assertEquals(20L, map.getLong(2L));
+
+            assertEquals(15L, map.addAndGet(1L, 5L));
+            assertEquals(-3L, map.addAndGet(3L, -3L));
+            assertEquals(3L, map.longSize());
+
+            assertTrue(map.removeLong(1L));
+            assertFalse(map.removeLong(1L));
+            assertEquals(2L, map.longSize());
+        }
+    }
+
+    @Test
+    public void testIntIntMap() {
+        try (ChronicleIntIntMap map = ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(1000).createIntIntMap()) {
+            for (int i = 0; i < 1000; i++) {
+                map.putInt(i, i * 2);
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i * 3, map.addAndGet(i, i));
+                assertEquals(Integer.valueOf(i * 3), map.map().get(i));
+            }
+            assertTrue(map.removeInt(7));
+            assertFalse(map.containsKey(7));
+            assertEquals(999L, map.longSize());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotLongTypes() {
+        ChronicleMapBuilder.of(Integer.class, Long.class).createLongLongMap();
+    }
+}
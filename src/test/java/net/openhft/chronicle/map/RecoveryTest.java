@@ -0,0 +1,193 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.RecoveryReport;
+import net.openhft.chronicle.hash.impl.TierCountersArea;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.openhft.chronicle.hash.impl.VanillaChronicleHash.TIER_COUNTERS_AREA_SIZE;
+import static net.openhft.lang.io.NativeBytes.UNSAFE;
+import static org.junit.Assert.*;
+
+public class RecoveryTest {
+
+    // see BigSegmentHeader
+    private static final long LOCK_OFFSET = 0L;
+    private static final long SIZE_OFFSET = 8L;
+    private static final long MODIFICATION_VERSION_OFFSET = 28L;
+    private static final int WRITE_LOCKED_COUNT_WORD = 0xC0000001;
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        // few entries per segment, so that extra tiers are allocated
+        return ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(100)
+                .actualSegments(4);
+    }
+
+    private static RecoveryReport recover(
+            ChronicleMapBuilder<Integer, ?> builder, File file) throws IOException {
+        AtomicReference<RecoveryReport> report = new AtomicReference<>();
+        builder.recoverPersistedTo(file, report::set).close();
+        assertNotNull(report.get());
+        return report.get();
+    }
+
+    private static File persistedMap(int entries) throws IOException {
+        File file = Builder.getPersistenceFile();
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            for (int i = 0; i < entries; i++) {
+                map.put(i, i);
+            }
+        }
+        return file;
+    }
+
+    private static void assertEntries(File file, int entries) throws IOException {
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            assertEquals(entries, map.size());
+            for (int i = 0; i < entries; i++) {
+                assertEquals((Integer) i, map.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testNothingToRecover() throws IOException {
+        File file = persistedMap(1000);
+        RecoveryReport report = recover(builder(), file);
+        assertFalse(report.toString(), report.changed());
+        assertEquals(4, report.segments());
+        assertEquals(1000, report.size());
+        assertEntries(file, 1000);
+        file.delete();
+    }
+
+    @Test
+    public void testStaleLockAndSize() throws IOException {
+        File file = persistedMap(1000);
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            long headerAddr = ((VanillaChronicleMap) map).segmentHeaderAddress(1);
+            // as if the process died in the middle of an update
+            UNSAFE.putInt(headerAddr + LOCK_OFFSET, WRITE_LOCKED_COUNT_WORD);
+            UNSAFE.putInt(headerAddr + MODIFICATION_VERSION_OFFSET,
+                    UNSAFE.getInt(headerAddr + MODIFICATION_VERSION_OFFSET) + 1);
+            UNSAFE.putInt(headerAddr + SIZE_OFFSET, 12345);
+        }
+        RecoveryReport report = recover(builder(), file);
+        assertEquals(1, report.staleLocksReset());
+        assertEquals(1, report.segmentCountersFixed());
+        assertEquals(0L, report.entriesDropped());
+        assertEquals(1000, report.size());
+        assertEntries(file, 1000);
+        file.delete();
+    }
+
+    @Test
+    public void testFreeList() throws IOException {
+        File file = persistedMap(1000);
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            VanillaChronicleMap m = (VanillaChronicleMap) map;
+            long freeListAddr = m.segmentBaseAddr(2) + m.segmentHashLookupOuterSize +
+                    TIER_COUNTERS_AREA_SIZE;
+            // all chunks of the first tier of the segment look free
+            UNSAFE.setMemory(freeListAddr, m.segmentFreeListInnerSize, (byte) 0);
+        }
+        RecoveryReport report = recover(builder(), file);
+        assertTrue(report.freeListChunksFixed() > 0L);
+        assertEquals(0L, report.entriesDropped());
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            // new entries shouldn't overwrite existing ones
+            for (int i = 1000; i < 2000; i++) {
+                map.put(i, i);
+            }
+            for (int i = 0; i < 2000; i++) {
+                assertEquals((Integer) i, map.get(i));
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testBrokenTiersChain() throws IOException {
+        File file = persistedMap(1000);
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            VanillaChronicleMap m = (VanillaChronicleMap) map;
+            long countersAddr = m.segmentBaseAddr(3) + m.segmentHashLookupOuterSize;
+            assertTrue(TierCountersArea.nextTierIndex(countersAddr) != 0L);
+            TierCountersArea.nextTierIndex(countersAddr, Long.MAX_VALUE);
+        }
+        RecoveryReport report = recover(builder(), file);
+        assertEquals(1L, report.tierLinksCut());
+        assertTrue(report.tiersReclaimed() > 0L);
+        assertTrue(report.size() < 1000);
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            assertEquals(report.size(), map.size());
+            map.forEach((k, v) -> assertEquals(k, v));
+            // reclaimed tiers could be allocated again
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+            }
+        }
+        assertEntries(file, 1000);
+        file.delete();
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        File file = Builder.getPersistenceFile();
+        ChronicleMapBuilder<Integer, String> builder =
+                ChronicleMapBuilder.of(Integer.class, String.class)
+                        .entries(100)
+                        .actualSegments(1)
+                        .averageValueSize(10)
+                        .checksumEntries(true);
+        try (ChronicleMap<Integer, String> map = builder.createPersistedTo(file)) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "value-" + i);
+            }
+            VanillaChronicleMap m = (VanillaChronicleMap) map;
+            long tierBaseAddr = m.segmentBaseAddr(0);
+            long pos = 0L;
+            long entry;
+            while (m.hashLookup.empty(entry = m.hashLookup.readEntry(tierBaseAddr, pos))) {
+                pos = m.hashLookup.step(pos);
+            }
+            long entryAddr = tierBaseAddr + m.segmentHashLookupOuterSize +
+                    TIER_COUNTERS_AREA_SIZE + m.segmentFreeListOuterSize +
+                    m.segmentEntrySpaceInnerOffset + m.hashLookup.value(entry) * m.chunkSize;
+            long valueAddr = entryAddr;
+            while (UNSAFE.getByte(valueAddr) != 'v' || UNSAFE.getByte(valueAddr + 1) != 'a')
+                valueAddr++;
+            // the value is corrupted, but its size is intact
+            UNSAFE.putByte(valueAddr, (byte) 'V');
+        }
+        RecoveryReport report = recover(builder, file);
+        assertEquals(1L, report.checksumMismatches());
+        assertEquals(1L, report.entriesDropped());
+        assertEquals(99, report.size());
+        try (ChronicleMap<Integer, String> map = builder.createPersistedTo(file)) {
+            assertEquals(99, map.size());
+            map.forEach((k, v) -> assertEquals("value-" + k, v));
+        }
+        file.delete();
+    }
+}
@@ -17,15 +17,21 @@
 package net.openhft.chronicle.map;
 
 import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.hash.ChronicleHashStats;
 import net.openhft.chronicle.hash.function.SerializableFunction;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -224,6 +230,36 @@ public class ReplicationCheckingMap<K, V> implements ChronicleMap<K, V> {
         return map1.getMapped(key, function);
     }
 
+    @Override
+    public void getAll(final Collection<? extends K> keys, Map<? super K, ? super V> out) {
+        Map<K, V> result = check(new Call<K, V>() {
+                                     @Override
+                                     public Object method(ConcurrentMap<K, V> map) {
+                                         Map<K, V> values = new HashMap<>();
+                                         ((ChronicleMap<K, V>) map).getAll(keys, values);
+                                         return values;
+                                     }
+                                 }
+        );
+        out.putAll(result);
+    }
+
+    @Override
+    public void removeAll(final Collection<? extends K> keys) {
+        map1.removeAll(keys);
+        check(new Call<K, V>() {
+                  @Override
+                  public Object method(ConcurrentMap<K, V> map) {
+                      for (K key : keys) {
+                          if (map.containsKey(key))
+                              return false;
+                      }
+                      return true;
+                  }
+              }
+        );
+    }
+
     @Override
     public void getAll(File toFile) {
         throw new UnsupportedOperationException();
@@ -234,6 +270,11 @@ public class ReplicationCheckingMap<K, V> implements ChronicleMap<K, V> {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public Iterator<Entry<K, V>> entryIterator(int batchSize, boolean reuseInstances) {
+        return map1.entryIterator(batchSize, reuseInstances);
+    }
+
     @Override
     public V newValueInstance() {
         throw new UnsupportedOperationException();
@@ -259,6 +300,33 @@ public class ReplicationCheckingMap<K, V> implements ChronicleMap<K, V> {
         map1.forEachEntry(action);
     }
 
+    @Override
+    public boolean forEachEntryWhileParallel(Predicate<? super MapEntry<K, V>> predicate,
+                                             ForkJoinPool pool) {
+        return map1.forEachEntryWhileParallel(predicate, pool);
+    }
+
+    @Override
+    public void forEachEntryParallel(Consumer<? super MapEntry<K, V>> action, ForkJoinPool pool) {
+        map1.forEachEntryParallel(action, pool);
+    }
+
+    @Override
+    public ChronicleHashStats stats() {
+        return map1.stats();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        map1.sync();
+        map2.sync();
+    }
+
+    @Override
+    public CompletableFuture<Void> syncAsync() {
+        return CompletableFuture.allOf(map1.syncAsync(), map2.syncAsync());
+    }
+
     @Override
     public Class<V> valueClass() {
         return map1.valueClass();
@@ -0,0 +1,137 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.chronicle.hash.replication.ReplicationStats;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReplicationStatsRecorderTest {
+
+    /**
+     * Entries are (long timestamp, byte identifier)
+     */
+    static class TimestampedExternalizable implements Replica.EntryExternalizable {
+        int applied;
+
+        @Override
+        public int sizeOfEntry(@NotNull Bytes entry, int chronicleId) {
+            return 9;
+        }
+
+        @Override
+        public boolean identifierCheck(@NotNull ReplicableEntry entry, int chronicleId) {
+            return true;
+        }
+
+        @Override
+        public void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                       int chronicleId, long bootstrapTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void readExternalEntry(@NotNull Bytes source) {
+            source.skip(9);
+            applied++;
+        }
+
+        @Override
+        public boolean externalEntryLayout(@NotNull Bytes source,
+                                           @NotNull Replica.ExternalEntryLayout layout) {
+            layout.timestamp = source.readLong(source.position());
+            layout.identifier = source.readByte(source.position() + 8);
+            return true;
+        }
+    }
+
+    private static Bytes entry(long timestamp, byte identifier) {
+        Bytes entry = new ByteBufferBytes(ByteBuffer.allocateDirect(9));
+        entry.writeLong(timestamp);
+        entry.writeByte(identifier);
+        entry.flip();
+        return entry;
+    }
+
+    @Test
+    public void recordsEntriesAndApplyLatencyByOriginIdentifier() {
+        ReplicationStatsRecorder recorder = new ReplicationStatsRecorder();
+        TimestampedExternalizable externalizable = new TimestampedExternalizable();
+        Replica.EntryExternalizable recording = recorder.recording(externalizable);
+
+        long now = System.currentTimeMillis();
+        recording.readExternalEntry(entry(now - 10_000, (byte) 2));
+        recording.readExternalEntry(entry(now - 20_000, (byte) 2));
+        // clocks of nodes could diverge, updates "from the future" have zero latency
+        recording.readExternalEntry(entry(now + 60_000, (byte) 3));
+
+        assertEquals(3, externalizable.applied);
+
+        ReplicationStats stats2 = recorder.stats((byte) 2, true, 5, 100);
+        assertEquals(2, stats2.entriesReceived());
+        assertTrue(stats2.averageApplyLatencyMillis() >= 15_000);
+        assertTrue(stats2.averageApplyLatencyMillis() < 16_000);
+        assertTrue(stats2.maxApplyLatencyMillis() >= 20_000);
+        assertEquals(5, stats2.outstandingEntries());
+        assertEquals(100, stats2.millisSinceLastReceived());
+
+        ReplicationStats stats3 = recorder.stats((byte) 3, false, -1, -1);
+        assertEquals(1, stats3.entriesReceived());
+        assertEquals(0, stats3.maxApplyLatencyMillis());
+        assertFalse(stats3.connected());
+
+        assertFalse(recorder.hasStats((byte) 4));
+    }
+
+    @Test
+    public void ratesAreUpdatedOncePerSecond() {
+        ReplicationStatsRecorder recorder = new ReplicationStatsRecorder();
+        long start = System.currentTimeMillis() + 1000;
+        recorder.updateRates(start);
+
+        recorder.onBytesSent((byte) 1, 3000);
+        recorder.onEntriesSent((byte) 1, 30);
+        recorder.onBytesReceived((byte) 1, 500);
+        recorder.onThrottleStall((byte) 1, 40);
+        // ignored, not a remote identifier yet
+        recorder.onBytesReceived(Byte.MIN_VALUE, 500);
+
+        recorder.updateRates(start + 500);
+        assertEquals(0, recorder.stats((byte) 1, true, 0, 0).bytesSentPerSecond());
+
+        recorder.updateRates(start + 2000);
+        ReplicationStats stats = recorder.stats((byte) 1, true, 0, 0);
+        assertEquals(1500, stats.bytesSentPerSecond());
+        assertEquals(15, stats.entriesSentPerSecond());
+        assertEquals(250, stats.bytesReceivedPerSecond());
+        assertEquals(3000, stats.bytesSent());
+        assertEquals(500, stats.bytesReceived());
+        assertEquals(40, stats.throttleStallMillis());
+        assertTrue(recorder.hasStats((byte) 1));
+
+        recorder.updateRates(start + 3000);
+        assertEquals(0, recorder.stats((byte) 1, true, 0, 0).bytesSentPerSecond());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicationChannel;
+import net.openhft.chronicle.hash.replication.ReplicationHub;
+import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
+import net.openhft.chronicle.hash.replication.ThrottlingConfig;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationThrottlingTest {
+
+    @Test
+    public void perNodeThrottlingDefaultsToNoThrottling() {
+        TcpTransportAndNetworkConfig config = TcpTransportAndNetworkConfig
+                .of(8130, new InetSocketAddress("localhost", 8131));
+        assertEquals(ThrottlingConfig.noThrottling(), config.throttlingConfig((byte) 2));
+
+        ThrottlingConfig slowLink = ThrottlingConfig.throttle(1_000_000, SECONDS);
+        TcpTransportAndNetworkConfig throttled = config.throttlingConfig((byte) 2, slowLink);
+        assertEquals(slowLink, throttled.throttlingConfig((byte) 2));
+        assertEquals(ThrottlingConfig.noThrottling(), throttled.throttlingConfig((byte) 3));
+        assertEquals(ThrottlingConfig.noThrottling(), throttled.throttlingConfig());
+        assertFalse(config.equals(throttled));
+        assertEquals(throttled, config.throttlingConfig((byte) 2, slowLink));
+    }
+
+    @Test
+    public void channelKeepsWeightAndThrottling() {
+        ReplicationHub hub = ReplicationHub.builder()
+                .tcpTransportAndNetwork(TcpTransportAndNetworkConfig.of(8132))
+                .createWithId((byte) 1);
+        ThrottlingConfig throttling = ThrottlingConfig.throttle(8_000_000, SECONDS);
+        ReplicationChannel live = hub.createChannel(1, 8, throttling);
+        assertEquals(8, live.weight());
+        assertEquals(throttling, live.throttlingConfig());
+
+        ReplicationChannel bulk = hub.createChannel(2);
+        assertEquals(1, bulk.weight());
+        assertEquals(ThrottlingConfig.noThrottling(), bulk.throttlingConfig());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void channelWeightShouldBePositive() {
+        ReplicationHub hub = ReplicationHub.builder()
+                .tcpTransportAndNetwork(TcpTransportAndNetworkConfig.of(8133))
+                .createWithId((byte) 1);
+        hub.createChannel(1, 0, ThrottlingConfig.noThrottling());
+    }
+
+    @Test
+    public void channelThrottleHoldsBackUntilIntervalPasses() {
+        // 8000 bits per second, i. e. 100 bytes per 100 ms bucket
+        ChannelProvider.ChannelThrottle throttle = new ChannelProvider.ChannelThrottle(
+                ThrottlingConfig.throttle(8000, SECONDS).bucketInterval(100, MILLISECONDS));
+        long now = System.currentTimeMillis();
+        assertEquals(0L, throttle.heldBackMillis(now));
+        throttle.onSent(60, now);
+        assertEquals(0L, throttle.heldBackMillis(now + 10));
+        throttle.onSent(60, now + 10);
+        long heldBack = throttle.heldBackMillis(now + 20);
+        assertTrue("heldBack=" + heldBack, heldBack > 0L && heldBack <= 100L);
+        assertEquals(0L, throttle.heldBackMillis(now + 200));
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.replication.ReplicableEntry;
+import net.openhft.chronicle.hash.replication.TcpTransportAndNetworkConfig;
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static net.openhft.chronicle.map.AbstractChannelReplicator.SIZE_OF_SIZE;
+import static net.openhft.chronicle.map.AbstractChannelReplicator.STATEFUL_UPDATE;
+import static net.openhft.chronicle.map.ReplicationWireFormat.*;
+import static org.junit.Assert.*;
+
+public class ReplicationWireFormatTest {
+
+    /**
+     * Entries of the form: long bootstrapTimestamp, stopBit keySize, stopBit valueSize + 1, key,
+     * value
+     */
+    static class TestExternalizable implements Replica.EntryExternalizable {
+        final List<byte[]> received = new ArrayList<>();
+
+        @Override
+        public int sizeOfEntry(@NotNull Bytes entry, int chronicleId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean identifierCheck(@NotNull ReplicableEntry entry, int chronicleId) {
+            return true;
+        }
+
+        @Override
+        public void writeExternalEntry(@NotNull Bytes entry, @NotNull Bytes destination,
+                                       int chronicleId, long bootstrapTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void readExternalEntry(@NotNull Bytes source) {
+            byte[] entry = new byte[(int) source.remaining()];
+            source.readFully(entry);
+            received.add(entry);
+        }
+
+        @Override
+        public boolean externalEntryLayout(@NotNull Bytes source,
+                                           @NotNull Replica.ExternalEntryLayout layout) {
+            long start = source.position();
+            layout.bootstrapTimestampPosition = start;
+            source.skip(8L);
+            layout.keySize = source.readStopBit();
+            layout.valueSize = source.readStopBit() - 1L;
+            layout.keyPosition = source.position();
+            layout.valuePosition = layout.keyPosition + layout.keySize;
+            source.position(start);
+            return true;
+        }
+    }
+
+    static byte[] entry(long bootstrapTimestamp, byte[] key, byte[] value) {
+        Bytes bytes = new ByteBufferBytes(ByteBuffer.allocate(64 + key.length +
+                (value != null ? value.length : 0)).order(ByteOrder.nativeOrder()));
+        bytes.writeLong(bootstrapTimestamp);
+        bytes.writeStopBit(key.length);
+        bytes.writeStopBit(value != null ? value.length + 1 : 0);
+        bytes.write(key);
+        if (value != null)
+            bytes.write(value);
+        byte[] entry = new byte[(int) bytes.position()];
+        bytes.position(0L);
+        bytes.readFully(entry);
+        return entry;
+    }
+
+    static Bytes frames(List<byte[]> entries) {
+        Bytes bytes = new ByteBufferBytes(ByteBuffer.allocate(1 << 20)
+                .order(ByteOrder.nativeOrder()));
+        for (byte[] entry : entries) {
+            bytes.writeByte(STATEFUL_UPDATE);
+            bytes.writeInt(entry.length);
+            bytes.write(entry);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes the entries, decodes the frames and checks that the same entries are received.
+     *
+     * @return the length of the encoded frames
+     */
+    static long roundTrip(Encoder encoder, Decoder decoder, List<byte[]> entries) {
+        Bytes encoded = encoder.encode(frames(entries), 0L);
+        long length = encoded.remaining();
+        TestExternalizable receiver = new TestExternalizable();
+        while (encoded.remaining() > 0) {
+            assertEquals(BATCH_UPDATE, encoded.readByte());
+            int size = encoded.readInt();
+            long end = encoded.position() + size;
+            long limit = encoded.limit();
+            encoded.limit(end);
+            decoder.decode(encoded, receiver);
+            encoded.limit(limit);
+            encoded.position(end);
+        }
+        assertEquals(entries.size(), receiver.received.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertArrayEquals(entries.get(i), receiver.received.get(i));
+        }
+        return length;
+    }
+
+    static long totalLength(List<byte[]> entries) {
+        long length = 0L;
+        for (byte[] entry : entries) {
+            length += 1 + SIZE_OF_SIZE + entry.length;
+        }
+        return length;
+    }
+
+    @Test
+    public void testAllFeatures() {
+        int wireFormat = BATCH_BOOTSTRAP_TIMESTAMPS | COMPRESSION | VALUE_DELTAS;
+        Encoder encoder = new Encoder(wireFormat, new TestExternalizable());
+        Decoder decoder = new Decoder(wireFormat);
+        Random random = new Random(1);
+        byte[][] values = new byte[100][];
+        List<byte[]> entries = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[2048];
+            random.nextBytes(values[i]);
+            // bootstrap timestamp changes in the middle of the batch
+            entries.add(entry(i < 50 ? 1L : 2L, key(i), values[i]));
+        }
+        roundTrip(encoder, decoder, entries);
+
+        for (int update = 0; update < 3; update++) {
+            entries.clear();
+            for (int i = 0; i < values.length; i++) {
+                values[i][random.nextInt(2048)]++;
+                values[i][random.nextInt(2048)]++;
+                entries.add(entry(3L + update, key(i), values[i]));
+            }
+            entries.add(entry(3L + update, key(values.length), null));
+            long encodedLength = roundTrip(encoder, decoder, entries);
+            // some keys collide in the value cache and are sent without deltas
+            assertTrue(encodedLength * 3 < totalLength(entries));
+        }
+    }
+
+    @Test
+    public void testRemovalsAndResizedValues() {
+        int wireFormat = VALUE_DELTAS;
+        Encoder encoder = new Encoder(wireFormat, new TestExternalizable());
+        Decoder decoder = new Decoder(wireFormat);
+        Random random = new Random(2);
+        for (int round = 0; round < 100; round++) {
+            List<byte[]> entries = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                int k = random.nextInt(30);
+                byte[] value = null;
+                if (random.nextInt(5) != 0) {
+                    value = new byte[random.nextInt(3) * 100];
+                    Arrays.fill(value, (byte) random.nextInt(3));
+                }
+                entries.add(entry(round, key(k), value));
+            }
+            roundTrip(encoder, decoder, entries);
+        }
+    }
+
+    @Test
+    public void testDelta() {
+        byte[] base = {1, 2, 3, 4, 5, 6, 7, 8};
+        byte[] value = {1, 2, 0, 4, 5, 6, 0, 0};
+        GrowableBuffer buffer = new GrowableBuffer(4);
+        long length = writeDelta(base, value, value.length, buffer);
+        Bytes delta = new ByteBufferBytes(ByteBuffer.allocate(64));
+        delta.writeStopBit(length);
+        delta.write(buffer.bytes, 0L, length);
+        delta.limit(delta.position());
+        delta.position(0L);
+        readDelta(delta, base, base.length);
+        assertArrayEquals(value, base);
+    }
+
+    private static byte[] key(int i) {
+        return ("key-" + i).getBytes();
+    }
+
+    @Test
+    public void testWireFormatIsExchangedOnlyWithNewerVersions() {
+        assertTrue(supportedBy("3.2.0-beta-SNAPSHOT"));
+        assertTrue(supportedBy("3.2.1"));
+        assertTrue(supportedBy("   3.10.0"));
+        assertTrue(supportedBy("4.0.0"));
+        assertFalse(supportedBy("3.1.9"));
+        assertFalse(supportedBy("2.4.17"));
+        assertFalse(supportedBy("3.2"));
+        assertFalse(supportedBy("unknown"));
+        assertFalse(supportedBy(null));
+        assertFalse(exchangedBetween("3.2.0", "3.1.3"));
+        assertFalse(exchangedBetween("3.1.3", "3.2.0"));
+        assertTrue(exchangedBetween("3.2.0", "3.2.1"));
+    }
+
+    @Test
+    public void testTcpReplicationWithAllWireFormatFeatures()
+            throws IOException, InterruptedException {
+        int port = 8120;
+        try (ChronicleMap<Integer, byte[]> map1 = replicatedMap((byte) 1, port,
+                new InetSocketAddress("localhost", port + 1));
+             ChronicleMap<Integer, byte[]> map2 = replicatedMap((byte) 2, port + 1)) {
+            Random random = new Random(3);
+            byte[][] values = new byte[100][2048];
+            for (int update = 0; update < 5; update++) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i][random.nextInt(2048)]++;
+                    map1.put(i, values[i]);
+                }
+                map1.remove(update);
+                map2.put(1000 + update, values[update]);
+            }
+            for (int t = 0; t < 100 && !contentEquals(map1, map2); t++) {
+                Thread.sleep(50);
+            }
+            assertTrue(contentEquals(map1, map2));
+            assertEquals(values.length, map1.size());
+        }
+    }
+
+    private static boolean contentEquals(Map<Integer, byte[]> map1, Map<Integer, byte[]> map2) {
+        if (map1.size() != map2.size())
+            return false;
+        for (Map.Entry<Integer, byte[]> e : map1.entrySet()) {
+            if (!Arrays.equals(e.getValue(), map2.get(e.getKey())))
+                return false;
+        }
+        return true;
+    }
+
+    private static ChronicleMap<Integer, byte[]> replicatedMap(
+            byte identifier, int port, InetSocketAddress... endpoints) throws IOException {
+        TcpTransportAndNetworkConfig tcpConfig =
+                TcpTransportAndNetworkConfig.of(port, Arrays.asList(endpoints))
+                        .heartBeatInterval(1L, TimeUnit.SECONDS)
+                        .batchBootstrapTimestamps(true)
+                        .compression(true)
+                        .valueDeltas(true);
+        return ChronicleMapBuilder.of(Integer.class, byte[].class)
+                .entries(1000)
+                .averageValueSize(2048)
+                .replication(identifier, tcpConfig)
+                .create();
+    }
+}
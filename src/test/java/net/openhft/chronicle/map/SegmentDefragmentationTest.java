@@ -0,0 +1,110 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.SegmentStats;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SegmentDefragmentationTest {
+
+    static ChronicleMap<Integer, byte[]> fragmentedMap() {
+        ChronicleMap<Integer, byte[]> map = ChronicleMapBuilder.of(Integer.class, byte[].class)
+                .entries(1000)
+                .averageValueSize(100)
+                .actualSegments(1)
+                .create();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, value(i));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove(i);
+        }
+        return map;
+    }
+
+    static byte[] value(int i) {
+        byte[] value = new byte[100];
+        value[0] = (byte) i;
+        value[99] = (byte) (i >> 8);
+        return value;
+    }
+
+    static void checkValues(ChronicleMap<Integer, byte[]> map) {
+        assertEquals(500, map.size());
+        for (int i = 1; i < 1000; i += 2) {
+            assertArrayEquals(value(i), map.get(i));
+        }
+    }
+
+    @Test
+    public void testDefragmentation() {
+        try (ChronicleMap<Integer, byte[]> map = fragmentedMap()) {
+            SegmentStats before = map.stats().segmentStats().get(0);
+            assertTrue(before.fragmentation() > 0.3);
+            SegmentDefragmentation defragmentation = new SegmentDefragmentation(
+                    (VanillaChronicleMap) map, 1, TimeUnit.SECONDS, Long.MAX_VALUE / 2);
+            assertEquals(1, defragmentation.defragmentSegment(0));
+            SegmentStats after = map.stats().segmentStats().get(0);
+            assertEquals(before.freeChunks(), after.freeChunks());
+            assertEquals(0.0, after.fragmentation(), 0.0);
+            checkValues(map);
+        }
+    }
+
+    @Test
+    public void testDefragmentationInTimeSlices() {
+        try (ChronicleMap<Integer, byte[]> map = fragmentedMap()) {
+            SegmentDefragmentation defragmentation = new SegmentDefragmentation(
+                    (VanillaChronicleMap) map, 1, TimeUnit.SECONDS, 0L);
+            // at most one entry is visited in each slice
+            assertTrue(defragmentation.defragmentSegment(0) > 1);
+            assertEquals(0.0, map.stats().fragmentation(), 0.0);
+            checkValues(map);
+            // inserts after defragmentation work
+            map.put(0, value(0));
+            assertArrayEquals(value(0), map.get(0));
+        }
+    }
+
+    @Test
+    public void testBackgroundDefragmentation() throws InterruptedException {
+        try (ChronicleMap<Integer, byte[]> map = ChronicleMapBuilder
+                .of(Integer.class, byte[].class)
+                .entries(1000)
+                .averageValueSize(100)
+                .actualSegments(1)
+                .defragmentSegments(10, TimeUnit.MILLISECONDS)
+                .create()) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, value(i));
+            }
+            for (int i = 0; i < 1000; i += 2) {
+                map.remove(i);
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (map.stats().fragmentation() > 0.0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0.0, map.stats().fragmentation(), 0.0);
+            checkValues(map);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategies;
+import net.openhft.chronicle.hash.locks.LockAcquisitionStrategy;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares segment lock acquisition strategies under oversubscription: 2x and 4x more threads than
+ * CPU cores update a map with few segments.
+ * <pre>
+ * run: SegmentLockContentionMain [seconds per run]
+ * </pre>
+ */
+public class SegmentLockContentionMain {
+    static final int KEYS = 1024;
+    static final int SEGMENTS = 4;
+
+    public static void main(String... args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int oversubscription : new int[] {2, 4}) {
+            int threads = cores * oversubscription;
+            run("spin", LockAcquisitionStrategies.spin(), threads, seconds);
+            run("spin-yield-park", LockAcquisitionStrategies.spinYieldPark(), threads, seconds);
+        }
+    }
+
+    private static void run(String name, LockAcquisitionStrategy strategy, int threads,
+                            int seconds) throws Exception {
+        try (ChronicleMap<Integer, Long> map = ChronicleMapBuilder
+                .of(Integer.class, Long.class)
+                .entries(KEYS)
+                .actualSegments(SEGMENTS)
+                .lockAcquisitionStrategy(strategy)
+                .create()) {
+            for (int i = 0; i < KEYS; i++) {
+                map.put(i, 0L);
+            }
+            long[][] latencies = new long[threads][];
+            int[] counts = new int[threads];
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                new Thread(() -> {
+                    long[] threadLatencies = new long[1 << 20];
+                    int count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < end) {
+                        int key = random.nextInt(KEYS);
+                        long start = System.nanoTime();
+                        map.compute(key, (k, v) -> v + 1);
+                        threadLatencies[count & (threadLatencies.length - 1)] =
+                                System.nanoTime() - start;
+                        count++;
+                    }
+                    latencies[id] = Arrays.copyOf(threadLatencies,
+                            Math.min(count, threadLatencies.length));
+                    counts[id] = count;
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%s, %d threads: %,d ops/s, " +
+                            "50/99/99.9/99.99/worst: %.1f/%.1f/%.1f/%.1f/%.1f us%n",
+                    name, threads, total / seconds,
+                    percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999),
+                    percentile(all, 0.9999), all[all.length - 1] / 1e3);
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) (sorted.length * percentile)] / 1e3;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentTiersCompactionTest {
+
+    @Test
+    public void testChainedTiersAreFoldedBackIntoFirstTier() {
+        int entries = 1000;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .maxBloatFactor(10.0)
+                .actualSegments(1)
+                .create()) {
+            VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> m =
+                    (VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+            for (int i = 0; i < entries * 3; i++) {
+                map.put(i, i);
+            }
+            assertTrue(m.extraTiersInUse() > 0);
+            for (int i = entries / 2; i < entries * 3; i++) {
+                map.remove(i);
+            }
+
+            SegmentTiersCompaction compaction = new SegmentTiersCompaction(
+                    m, 1, TimeUnit.SECONDS, SegmentDefragmentation.DEFAULT_SLICE_NANOS);
+            compaction.compactSegment(0);
+
+            assertEquals(0, m.extraTiersInUse());
+            assertEquals(entries / 2, map.size());
+            for (int i = 0; i < entries / 2; i++) {
+                assertEquals((Integer) i, map.get(i));
+            }
+            // freed tiers are reused
+            for (int i = entries / 2; i < entries * 3; i++) {
+                map.put(i, i);
+            }
+            assertEquals(entries * 3, map.size());
+        }
+    }
+
+    @Test
+    public void testSparseTiersArePackedIntoEarlierTiers() {
+        int entries = 1000;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .maxBloatFactor(10.0)
+                .actualSegments(1)
+                .create()) {
+            VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> m =
+                    (VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+            for (int i = 0; i < entries * 4; i++) {
+                map.put(i, i);
+            }
+            long tiersBefore = m.extraTiersInUse();
+            assertTrue(tiersBefore > 1);
+            // every tier becomes half-empty, the first tier alone can't fit the rest entries
+            for (int i = 0; i < entries * 4; i += 2) {
+                map.remove(i);
+            }
+
+            SegmentTiersCompaction compaction = new SegmentTiersCompaction(
+                    m, 1, TimeUnit.SECONDS, SegmentDefragmentation.DEFAULT_SLICE_NANOS);
+            compaction.compactSegment(0);
+
+            assertTrue(m.extraTiersInUse() < tiersBefore);
+            assertEquals(entries * 2, map.size());
+            for (int i = 1; i < entries * 4; i += 2) {
+                assertEquals((Integer) i, map.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTiersAreCompactedInTimeSlices() {
+        int entries = 1000;
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(entries)
+                .maxBloatFactor(10.0)
+                .actualSegments(1)
+                .create()) {
+            VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?> m =
+                    (VanillaChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+            for (int i = 0; i < entries * 3; i++) {
+                map.put(i, i);
+            }
+            for (int i = entries / 2; i < entries * 3; i++) {
+                map.remove(i);
+            }
+
+            // zero slices move a single entry at once
+            SegmentTiersCompaction compaction =
+                    new SegmentTiersCompaction(m, 1, TimeUnit.SECONDS, 0L);
+            assertTrue(compaction.compactSegment(0) > 1);
+
+            assertEquals(0, m.extraTiersInUse());
+            assertEquals(entries / 2, map.size());
+            for (int i = 0; i < entries / 2; i++) {
+                assertEquals((Integer) i, map.get(i));
+            }
+        }
+    }
+}
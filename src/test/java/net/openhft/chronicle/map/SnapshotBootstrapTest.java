@@ -0,0 +1,186 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.lang.io.ByteBufferBytes;
+import net.openhft.lang.io.Bytes;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class SnapshotBootstrapTest {
+
+    private static ChronicleMap<Integer, Integer> map(byte identifier) {
+        return ChronicleMapBuilder.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(16)
+                .replication(identifier)
+                .create();
+    }
+
+    private static ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> replica(ChronicleMap<?, ?> map) {
+        return (ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?>) map;
+    }
+
+    private static SnapshotBootstrap bootstrap(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> local,
+                                               byte remoteIdentifier) {
+        return new SnapshotBootstrap(local, local.acquireModificationIterator(remoteIdentifier),
+                remoteIdentifier, local.lastModificationTime(remoteIdentifier));
+    }
+
+    /**
+     * Delivers frames to the receiving side, in native memory, like the replicator does
+     *
+     * @return replies of the receiving side, or {@code null} if there are none
+     */
+    private static Bytes deliver(Bytes frames, SnapshotBootstrap receiver) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) frames.remaining())
+                .order(ByteOrder.nativeOrder());
+        Bytes in = new ByteBufferBytes(buffer);
+        in.write(frames, frames.position(), frames.remaining());
+        in.limit(in.position());
+        in.position(0L);
+        Bytes out = new ByteBufferBytes(ByteBuffer.allocate(1 << 16));
+        while (in.remaining() > 0) {
+            assertEquals(SnapshotBootstrap.SNAPSHOT_UPDATE, in.readByte());
+            long size = in.readInt();
+            long end = in.position() + size;
+            in.limit(end);
+            Bytes reply = receiver.onMessage(in);
+            in.limit(buffer.capacity());
+            in.position(end);
+            if (reply != null)
+                out.write(reply, 0L, reply.remaining());
+        }
+        if (out.position() == 0)
+            return null;
+        out.limit(out.position());
+        out.position(0L);
+        return out;
+    }
+
+    /**
+     * Sends images of all segments from the sender to the receiver, and rejects back
+     */
+    private static int sendImages(SnapshotBootstrap sender, SnapshotBootstrap receiver) {
+        Bytes buffer = new ByteBufferBytes(
+                ByteBuffer.allocate((int) sender.maxImageFrameSize()));
+        int frames = 0;
+        while (sender.hasImagesToSend()) {
+            buffer.clear();
+            sender.nextImageToBuffer(buffer);
+            buffer.limit(buffer.position());
+            buffer.position(0L);
+            Bytes rejects = deliver(buffer, receiver);
+            if (rejects != null)
+                assertNull(deliver(rejects, sender));
+            frames++;
+        }
+        assertFalse(sender.holdsBackEntries());
+        return frames;
+    }
+
+    private static int drain(ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> from,
+                             ReplicatedChronicleMap<?, ?, ?, ?, ?, ?, ?> to) {
+        AntiEntropyTest.ApplyingCallback callback = new AntiEntropyTest.ApplyingCallback(from, to);
+        Replica.ModificationIterator it = from.acquireModificationIterator(to.identifier());
+        while (it.nextEntry(callback, 0)) {
+            // apply
+        }
+        return callback.entries;
+    }
+
+    @Test
+    public void testEmptyNodeIsBootstrappedFromImages() {
+        try (ChronicleMap<Integer, Integer> map1 = map((byte) 1);
+             ChronicleMap<Integer, Integer> map2 = map((byte) 2)) {
+            for (int i = 0; i < 500; i++) {
+                map1.put(i, i);
+            }
+            map1.remove(7);
+            SnapshotBootstrap sender = bootstrap(replica(map1), (byte) 2);
+            SnapshotBootstrap receiver = bootstrap(replica(map2), (byte) 1);
+            assertTrue(sender.holdsBackEntries());
+            assertFalse(sender.hasImagesToSend());
+
+            assertNull(deliver(receiver.start(), sender));
+            // all segments and the end
+            assertEquals(17, sendImages(sender, receiver));
+
+            assertEquals(map1, map2);
+            assertNull(map2.get(7));
+            assertTrue(replica(map2).lastModificationTime((byte) 1) > 0L);
+
+            // changes, made after images are taken, are sent as usual
+            map1.put(1000, 1000);
+            assertEquals(1, drain(replica(map1), replica(map2)));
+            assertEquals((Integer) 1000, map2.get(1000));
+
+            // the copied segments are usable
+            map2.put(2000, 2000);
+            map2.put(2001, 2001);
+            assertEquals(2, drain(replica(map2), replica(map1)));
+            assertEquals(map1, map2);
+        }
+    }
+
+    @Test
+    public void testNonEmptyNodeDeclinesImages() {
+        try (ChronicleMap<Integer, Integer> map1 = map((byte) 1);
+             ChronicleMap<Integer, Integer> map2 = map((byte) 2)) {
+            for (int i = 0; i < 100; i++) {
+                map1.put(i, i);
+            }
+            map2.put(-1, -1);
+            SnapshotBootstrap sender = bootstrap(replica(map1), (byte) 2);
+            SnapshotBootstrap receiver = bootstrap(replica(map2), (byte) 1);
+
+            assertNull(deliver(receiver.start(), sender));
+            assertFalse(sender.holdsBackEntries());
+            assertFalse(sender.hasImagesToSend());
+            assertEquals(100, drain(replica(map1), replica(map2)));
+            assertEquals(101, map2.size());
+        }
+    }
+
+    @Test
+    public void testEntriesOfRejectedSegmentsAreSentOneByOne() {
+        try (ChronicleMap<Integer, Integer> map1 = map((byte) 1);
+             ChronicleMap<Integer, Integer> map2 = map((byte) 2)) {
+            for (int i = 0; i < 500; i++) {
+                map1.put(i, i);
+            }
+            SnapshotBootstrap sender = bootstrap(replica(map1), (byte) 2);
+            SnapshotBootstrap receiver = bootstrap(replica(map2), (byte) 1);
+            assertNull(deliver(receiver.start(), sender));
+
+            // an entry is added to a segment, after the images are requested
+            map2.put(-1, -1);
+            assertEquals(17, sendImages(sender, receiver));
+            assertEquals(0L, replica(map2).lastModificationTime((byte) 1));
+
+            assertTrue(drain(replica(map1), replica(map2)) > 0);
+            assertEquals(501, map2.size());
+            for (int i = 0; i < 500; i++) {
+                assertEquals((Integer) i, map2.get(i));
+            }
+        }
+    }
+}
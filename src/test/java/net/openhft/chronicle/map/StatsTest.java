@@ -0,0 +1,75 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashStats;
+import net.openhft.chronicle.hash.SegmentStats;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsTest {
+
+    @Test
+    public void testStatsAreRecorded() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(4)
+                .recordStats(true)
+                .create()) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, i);
+                map.get(i);
+            }
+            ChronicleHashStats stats = map.stats();
+            assertEquals(4, stats.segmentStats().size());
+            assertEquals(1000, stats.size());
+            assertTrue(stats.lockAcquisitions() >= 2000);
+            assertTrue(stats.averageProbeLength() >= 1.0);
+            for (SegmentStats segmentStats : stats.segmentStats()) {
+                assertTrue(segmentStats.tiers() >= 1);
+                assertTrue(segmentStats.updateLockAcquisitions() > 0);
+            }
+
+            Set<ObjectName> names = ManagementFactory.getPlatformMBeanServer()
+                    .queryNames(null, null);
+            assertTrue(names.stream().anyMatch(
+                    n -> "net.openhft.chronicle.map".equals(n.getDomain())));
+        }
+    }
+
+    @Test
+    public void testStatsWithoutRecording() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMapBuilder
+                .of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(4)
+                .create()) {
+            map.put(1, 1);
+            ChronicleHashStats stats = map.stats();
+            assertEquals(1, stats.size());
+            assertEquals(4, stats.tiers());
+            assertEquals(0, stats.lockAcquisitions());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *      Copyright (C) 2015  higherfrequencytrading.com
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.lang.io.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ZeroCopyReplicationTest {
+
+    /**
+     * Accepts at most the given number of bytes
+     */
+    static class LimitedChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        long capacity;
+
+        LimitedChannel(long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = (int) Math.min(capacity, src.remaining());
+            for (int i = 0; i < n; i++) {
+                written.write(src.get());
+            }
+            capacity -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void gatheredEntriesAreTheSameAsCopiedOnes() {
+        char[] chars = new char[3000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        try (ChronicleMap<Integer, String> map = ChronicleMapBuilder
+                .of(Integer.class, String.class)
+                .entries(10)
+                .averageValueSize(value.length())
+                .replication((byte) 1)
+                .create()) {
+            map.put(1, value);
+            Replica.ModificationIterator it =
+                    ((Replica) map).acquireModificationIterator((byte) 2);
+            Replica.EntryExternalizable externalizable = (Replica.EntryExternalizable) map;
+
+            AbstractChannelReplicator.EntryCallback copying =
+                    new AbstractChannelReplicator.EntryCallback(externalizable, 64 * 1024);
+            it.dirtyEntries(0L);
+            assertEquals(1, it.nextEntries(copying, 0, Long.MAX_VALUE));
+            byte[] expected = toArray(copying.in());
+
+            // the channel accepts nothing, a part of the buffer, a part of the value, or all
+            for (long accepted : new long[] {0, 3, 100, 1000, Long.MAX_VALUE}) {
+                AbstractChannelReplicator.EntryCallback gathering =
+                        new AbstractChannelReplicator.EntryCallback(externalizable, 64 * 1024);
+                LimitedChannel channel = new LimitedChannel(accepted);
+                gathering.zeroCopyChannel(channel, 1024);
+                it.dirtyEntries(0L);
+                assertEquals(1, it.nextEntries(gathering, 0, Long.MAX_VALUE));
+                gathering.zeroCopyChannel(null, 0L);
+
+                byte[] sent = channel.written.toByteArray();
+                assertEquals(sent.length, gathering.takeBytesWrittenToChannel());
+                byte[] buffered = toArray(gathering.in());
+                byte[] actual = Arrays.copyOf(sent, sent.length + buffered.length);
+                System.arraycopy(buffered, 0, actual, sent.length, buffered.length);
+                assertArrayEquals("accepted=" + accepted, expected, actual);
+            }
+        }
+    }
+
+    private static byte[] toArray(Bytes in) {
+        byte[] result = new byte[(int) in.position()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = in.readByte(i);
+        }
+        return result;
+    }
+}